@@ -55,6 +55,7 @@ import java.util.ListIterator;
 
 import org.restcomm.android.sdk.RCConnection;
 import org.restcomm.android.sdk.RCConnectionListener;
+import org.restcomm.android.sdk.RCConnectionStats;
 import org.restcomm.android.sdk.RCDevice;
 import org.restcomm.android.sdk.util.RCException;
 
@@ -659,6 +660,16 @@ public class CallActivity extends AppCompatActivity implements RCConnectionListe
 
     }
 
+    public void onConnectionStats(RCConnection connection, RCConnectionStats stats)
+    {
+
+    }
+
+    public void onMediaRecovered(RCConnection connection, long mediaGapMs)
+    {
+
+    }
+
     // Handle android permissions needed for Marshmallow (API 23) devices or later
     private boolean handlePermissions(boolean isVideo)
     {
@@ -28,6 +28,7 @@ import android.database.SQLException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ContactsController {
@@ -99,10 +100,52 @@ public class ContactsController {
       list.add(createEntry(sipuri, username));
    }
 
+   // Imports contacts in bulk to a. the db and b. to the given list. Contacts that already exist are skipped
+   int importContacts(ArrayList<Map<String, String>> list, List<Map<String, String>> contacts) throws Exception
+   {
+      ArrayList<Map<String, String>> imported;
+      try {
+         imported = DatabaseManager.getInstance().importContacts(contacts);
+      }
+      catch (SQLException e) {
+         throw new Exception(e.getMessage(), e);
+      }
+
+      list.addAll(imported);
+      return imported.size();
+   }
+
+   // Imports the sample contacts targeting Restcomm sample applications (i.e. the ones the db is populated with on creation), to bring
+   // back any the user has removed. Returns the number of contacts imported
+   int importSampleContacts(ArrayList<Map<String, String>> list) throws Exception
+   {
+      List<Map<String, String>> contacts = new ArrayList<Map<String, String>>();
+      for (String s : context.getResources().getStringArray(R.array.demo_apps)) {
+         String[] parts = s.split(", *");
+         contacts.add(createEntry(parts[1], parts[0]));
+      }
+      return importContacts(list, contacts);
+   }
+
    // Updates contact to a. the preferences data store and b. to the given list
-   public int updateContact(ArrayList<Map<String, String>> list, String username, String sipuri)
+   public int updateContact(ArrayList<Map<String, String>> list, String username, String sipuri) throws Exception
    {
-      int rowIndex = DatabaseManager.getInstance().updateContact(username, sipuri);
+      int rowIndex = -1;
+      boolean updated;
+      try {
+         updated = DatabaseManager.getInstance().updateContact(username, sipuri);
+      }
+      catch (SQLException e) {
+         if (e.getMessage().contains("UNIQUE constraint failed")) {
+            throw new Exception("Contact already exists", e);
+         }
+         else {
+            throw new Exception(e.getMessage(), e);
+         }
+      }
+      if (updated) {
+         rowIndex = findContact(list, username);
+      }
       if (rowIndex != -1) {
          HashMap<String, String> map = new HashMap<String, String>();
          map.put(CONTACT_KEY, username);
@@ -117,7 +160,10 @@ public class ContactsController {
    // Removes a contact from a. the preferences data store and b. to the given list
    int removeContact(ArrayList<Map<String, String>> list, String username, String sipuri)
    {
-      int rowIndex = DatabaseManager.getInstance().removeContact(username, sipuri);
+      int rowIndex = -1;
+      if (DatabaseManager.getInstance().removeContact(username, sipuri)) {
+         rowIndex = findContact(list, username);
+      }
       if (rowIndex != -1) {
          HashMap<String, String> map = new HashMap<String, String>();
          map.put(CONTACT_KEY, username);
@@ -155,6 +201,17 @@ public class ContactsController {
    }
 
    // Helpers
+   // Position of the contact with the given name in list, or -1 if not found
+   private int findContact(ArrayList<Map<String, String>> list, String username)
+   {
+      for (int i = 0; i < list.size(); i++) {
+         if (username.equals(list.get(i).get(CONTACT_KEY))) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
    private HashMap<String, String> createEntry(String sipuri, String username)
    {
       HashMap<String, String> item = new HashMap<String, String>();
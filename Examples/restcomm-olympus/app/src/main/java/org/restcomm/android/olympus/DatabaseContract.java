@@ -40,6 +40,10 @@ public final class DatabaseContract {
       public static final int DB_VERSION_GROUND_ZERO = 14;
       // Introducing delivery status field and SimpleCursorAdapter (issue #568)
       public static final int DB_VERSION_DELIVERY_STATUS = 15;
+      // Introducing indexes for message history lookups and delivery status updates
+      public static final int DB_VERSION_MESSAGE_INDEXES = 16;
+      // Introducing unique contact uris
+      public static final int DB_VERSION_UNIQUE_CONTACT_URI = 17;
    };
 
    public enum MessageDeliveryStatus {
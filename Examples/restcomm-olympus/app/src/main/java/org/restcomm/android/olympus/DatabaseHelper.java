@@ -31,7 +31,7 @@ import org.restcomm.android.olympus.DatabaseContract.DatabaseVersions;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
    // If you change the database schema, you must increment the database version.
-   public static final int DATABASE_VERSION = DatabaseContract.DatabaseVersions.DB_VERSION_DELIVERY_STATUS;
+   public static final int DATABASE_VERSION = DatabaseContract.DatabaseVersions.DB_VERSION_UNIQUE_CONTACT_URI;
    public static final String DATABASE_NAME = "Olympus.db";
 
    private static final String TAG = "DatabaseHelper";
@@ -42,7 +42,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
          "CREATE TABLE " + DatabaseContract.ContactEntry.TABLE_NAME + " (" +
                DatabaseContract.ContactEntry._ID + " INTEGER PRIMARY KEY," +
                DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " TEXT NOT NULL UNIQUE, " +
-               DatabaseContract.ContactEntry.COLUMN_NAME_URI + " TEXT NOT NULL" +
+               DatabaseContract.ContactEntry.COLUMN_NAME_URI + " TEXT NOT NULL UNIQUE" +
                " );";
 
    private static final String SQL_CREATE_MESSAGE_TABLE =
@@ -58,6 +58,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                   "(" + DatabaseContract.ContactEntry._ID + ") " +
                " );";
 
+   // Indexes. Notice that contact name doesn't need one, as it is UNIQUE and hence already indexed by SQLite.
+   // Message history is retrieved per contact ordered by timestamp (see DatabaseManager.retrieveMessages())
+   private static final String SQL_CREATE_MESSAGE_CONTACT_TIMESTAMP_INDEX =
+         "CREATE INDEX IF NOT EXISTS message_contact_id_timestamp_idx ON " + DatabaseContract.MessageEntry.TABLE_NAME + " (" +
+               DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID + ", " + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + ");";
+   // Delivery status updates look up messages by job id (see DatabaseManager.updateMessageStatus())
+   private static final String SQL_CREATE_MESSAGE_JOB_ID_INDEX =
+         "CREATE INDEX IF NOT EXISTS message_job_id_idx ON " + DatabaseContract.MessageEntry.TABLE_NAME + " (" +
+               DatabaseContract.MessageEntry.COLUMN_NAME_JOB_ID + ");";
+
    // Upgrades statements
    private static final String SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_1 =
            "ALTER TABLE " + DatabaseContract.MessageEntry.TABLE_NAME + " ADD COLUMN " +
@@ -67,6 +77,23 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                    DatabaseContract.MessageEntry.COLUMN_NAME_DELIVERY_STATUS + " INTEGER DEFAULT 1;";
 
 
+   // Contacts sharing a uri are merged into the oldest one (messages are moved over to it) before making uri unique
+   private static final String SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_MESSAGES =
+         "UPDATE " + DatabaseContract.MessageEntry.TABLE_NAME + " SET " + DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID + " = " +
+               "(SELECT MIN(c2." + DatabaseContract.ContactEntry._ID + ") FROM " + DatabaseContract.ContactEntry.TABLE_NAME + " c1 INNER JOIN " +
+               DatabaseContract.ContactEntry.TABLE_NAME + " c2 ON c1." + DatabaseContract.ContactEntry.COLUMN_NAME_URI + " = c2." +
+               DatabaseContract.ContactEntry.COLUMN_NAME_URI + " WHERE c1." + DatabaseContract.ContactEntry._ID + " = " +
+               DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID + ") " +
+               "WHERE " + DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID + " IN (SELECT " + DatabaseContract.ContactEntry._ID + " FROM " +
+               DatabaseContract.ContactEntry.TABLE_NAME + ");";
+   private static final String SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_CONTACTS =
+         "DELETE FROM " + DatabaseContract.ContactEntry.TABLE_NAME + " WHERE " + DatabaseContract.ContactEntry._ID + " NOT IN " +
+               "(SELECT MIN(" + DatabaseContract.ContactEntry._ID + ") FROM " + DatabaseContract.ContactEntry.TABLE_NAME + " GROUP BY " +
+               DatabaseContract.ContactEntry.COLUMN_NAME_URI + ");";
+   private static final String SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_INDEX =
+         "CREATE UNIQUE INDEX IF NOT EXISTS contact_uri_idx ON " + DatabaseContract.ContactEntry.TABLE_NAME + " (" +
+               DatabaseContract.ContactEntry.COLUMN_NAME_URI + ");";
+
    private static final String SQL_DELETE_CONTACT_ENTRIES =
          "DROP TABLE IF EXISTS " + DatabaseContract.ContactEntry.TABLE_NAME;
    private static final String SQL_DELETE_MESSAGE_ENTRIES =
@@ -88,6 +115,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
       db.execSQL(SQL_CREATE_CONTACT_TABLE);
       Log.i(TAG, "Creating table message: " + SQL_CREATE_MESSAGE_TABLE);
       db.execSQL(SQL_CREATE_MESSAGE_TABLE);
+      createIndexes(db);
       populateSampleEntries(db);
    }
 
@@ -98,15 +126,33 @@ public class DatabaseHelper extends SQLiteOpenHelper {
       Log.i(TAG, "onUpgrade from: "+ oldVersion + ", to: " + newVersion);
       switch(oldVersion) {
          case DatabaseVersions.DB_VERSION_GROUND_ZERO:
-            if (newVersion== DatabaseVersions.DB_VERSION_DELIVERY_STATUS) {
-               // we need to alter message table to add job_id and delivery status columns
-               Log.i(TAG, "Upgrading table messages: " + DatabaseContract.MessageEntry.TABLE_NAME);
-               Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_1);
-               db.execSQL(SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_1);
-               Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_2);
-               db.execSQL(SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_2);
+            // we need to alter message table to add job_id and delivery status columns
+            Log.i(TAG, "Upgrading table messages: " + DatabaseContract.MessageEntry.TABLE_NAME);
+            Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_1);
+            db.execSQL(SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_1);
+            Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_2);
+            db.execSQL(SQL_UPGRADE_GROUND_ZERO_2_DELIVERY_STATUS_MESSAGES_2);
+            // fall through, so that all intermediate upgrades are applied
+         case DatabaseVersions.DB_VERSION_DELIVERY_STATUS:
+            createIndexes(db);
+            // fall through
+         case DatabaseVersions.DB_VERSION_MESSAGE_INDEXES:
+            // we need to make contact uri unique, merging any duplicates first
+            Log.i(TAG, "Upgrading table contacts: " + DatabaseContract.ContactEntry.TABLE_NAME);
+            db.beginTransaction();
+            try {
+               Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_MESSAGES);
+               db.execSQL(SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_MESSAGES);
+               Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_CONTACTS);
+               db.execSQL(SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_CONTACTS);
+               Log.d(TAG, "Applying SQL command: " + SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_INDEX);
+               db.execSQL(SQL_UPGRADE_MESSAGE_INDEXES_2_UNIQUE_CONTACT_URI_INDEX);
+               db.setTransactionSuccessful();
+            }
+            finally {
+               db.endTransaction();
             }
-         //case DatabaseVersions.DB_VERSION_DELIVERY_STATUS:
+         //case DatabaseVersions.DB_VERSION_UNIQUE_CONTACT_URI:
          //   ;
       }
 
@@ -121,6 +167,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
    }
 
    // ---- Helpers
+   private void createIndexes(SQLiteDatabase db)
+   {
+      Log.d(TAG, "Applying SQL command: " + SQL_CREATE_MESSAGE_CONTACT_TIMESTAMP_INDEX);
+      db.execSQL(SQL_CREATE_MESSAGE_CONTACT_TIMESTAMP_INDEX);
+      Log.d(TAG, "Applying SQL command: " + SQL_CREATE_MESSAGE_JOB_ID_INDEX);
+      db.execSQL(SQL_CREATE_MESSAGE_JOB_ID_INDEX);
+   }
+
    // Populate DB with sample contacts, targeting Restcomm sample applications
    private void populateSampleEntries(SQLiteDatabase db)
    {
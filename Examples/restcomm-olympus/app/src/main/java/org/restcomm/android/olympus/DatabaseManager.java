@@ -27,10 +27,12 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 // Provides access to DB facilities
@@ -62,6 +64,26 @@ class DatabaseManager {
    }
 
    // ---- Contacts table
+   // In-memory index of the contact table so that contact lookups (i.e. for each message added) don't need to hit the DB. Populated with a
+   // single query the first time it's needed (or when retrieveContacts() is called) and kept coherent by every method writing to the contact table
+   private static class CachedContact {
+      final long id;
+      final String name;
+      String uri;
+
+      CachedContact(long id, String name, String uri)
+      {
+         this.id = id;
+         this.name = name;
+         this.uri = uri;
+      }
+   }
+
+   // contact name -> contact
+   private HashMap<String, CachedContact> contactsByName = null;
+   // user part of contact uri (see uri2User()) -> contact
+   private HashMap<String, CachedContact> contactsByUser = null;
+
    // Retrieve all contact entries from DB and return them
    ArrayList<Map<String, String>> retrieveContacts()
    {
@@ -75,6 +97,7 @@ class DatabaseManager {
       // Define a projection that specifies which columns from the database
       // you will actually use after this query.
       String[] columns = {
+            DatabaseContract.ContactEntry._ID,
             DatabaseContract.ContactEntry.COLUMN_NAME_NAME,
             DatabaseContract.ContactEntry.COLUMN_NAME_URI,
       };
@@ -94,13 +117,18 @@ class DatabaseManager {
       );
 
       ArrayList<Map<String, String>> contactList = new ArrayList<Map<String, String>>();
+      // we are reading the whole table anyway, so let's (re)build the cache while at it
+      contactsByName = new HashMap<>();
+      contactsByUser = new HashMap<>();
 
       // moveToFirst() fails if cursor is empty
       if (cursor.moveToFirst()) {
          // iterate the rows, read from db and populate contactList
          do {
-            contactList.add(createContactEntry(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry.COLUMN_NAME_NAME)),
-                  cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry.COLUMN_NAME_URI))));
+            String name = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry.COLUMN_NAME_NAME));
+            String uri = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry.COLUMN_NAME_URI));
+            contactList.add(createContactEntry(name, uri));
+            cacheContact(new CachedContact(cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry._ID)), name, uri));
          } while (cursor.moveToNext());
       }
       cursor.close();
@@ -122,139 +150,104 @@ class DatabaseManager {
 
       values.put(DatabaseContract.ContactEntry.COLUMN_NAME_NAME, name);
       values.put(DatabaseContract.ContactEntry.COLUMN_NAME_URI, uri);
-      db.insertOrThrow(DatabaseContract.ContactEntry.TABLE_NAME, null, values);
+      long id = db.insertOrThrow(DatabaseContract.ContactEntry.TABLE_NAME, null, values);
+
+      if (contactsByName != null) {
+         cacheContact(new CachedContact(id, name, uri));
+      }
    }
 
    /*
-    * Add contact if it doesn't exist already.
-    * @return true if contact didn't exist (and hence was added), false if it existed
+    * Import many contacts at once, in a single transaction (i.e. a single DB write instead of one per contact). Contacts whose name or uri
+    * already exist are skipped.
+    * @param contacts contacts to import, each with CONTACT_KEY and CONTACT_VALUE entries (i.e. like the ones returned by retrieveContacts())
+    * @return the contacts actually imported
     */
-   public boolean addContactIfNeded(String uri)
+   public ArrayList<Map<String, String>> importContacts(List<Map<String, String>> contacts) throws SQLException
    {
       if (databaseHelper == null) {
          throw new RuntimeException("Database hasn't been opened.");
       }
 
-      String contactName = uri.replaceAll("^sip.?:", "").replaceAll("@.*$", "");
+      ensureContactCache();
 
-      Cursor cursor = getContactFromName(contactName);
-      if (!cursor.moveToFirst()) {
-         // doesn't exist, need to create it
-         // Gets the data repository in write mode
-         SQLiteDatabase db = databaseHelper.getWritableDatabase();
+      ArrayList<Map<String, String>> imported = new ArrayList<Map<String, String>>();
+      ArrayList<CachedContact> importedContacts = new ArrayList<>();
 
-         // Create a new map of values, where column names are the keys
-         ContentValues values = new ContentValues();
+      SQLiteDatabase db = databaseHelper.getWritableDatabase();
+      SQLiteStatement statement = db.compileStatement("INSERT OR IGNORE INTO " + DatabaseContract.ContactEntry.TABLE_NAME + " (" +
+            DatabaseContract.ContactEntry.COLUMN_NAME_NAME + ", " + DatabaseContract.ContactEntry.COLUMN_NAME_URI + ") VALUES (?, ?)");
+      db.beginTransaction();
+      try {
+         for (Map<String, String> contact : contacts) {
+            String name = contact.get(ContactsController.CONTACT_KEY);
+            String uri = contact.get(ContactsController.CONTACT_VALUE);
+            if (name == null || uri == null || contactsByName.containsKey(name)) {
+               continue;
+            }
 
-         values.put(DatabaseContract.ContactEntry.COLUMN_NAME_NAME, contactName);
-         values.put(DatabaseContract.ContactEntry.COLUMN_NAME_URI, contactName);
+            statement.bindString(1, name);
+            statement.bindString(2, uri);
+            // -1 means that the row was ignored due to a unique constraint
+            long id = statement.executeInsert();
+            if (id != -1) {
+               imported.add(createContactEntry(name, uri));
+               importedContacts.add(new CachedContact(id, name, uri));
+            }
+         }
+         db.setTransactionSuccessful();
+      }
+      finally {
+         db.endTransaction();
+         statement.close();
+      }
 
-         db.insertOrThrow(DatabaseContract.ContactEntry.TABLE_NAME, null, values);
+      // only update the cache once we know the transaction went through
+      for (CachedContact contact : importedContacts) {
+         cacheContact(contact);
+      }
+
+      Log.i(TAG, "Imported " + imported.size() + " out of " + contacts.size() + " contacts");
+      return imported;
+   }
+
+   /*
+    * Add contact if it doesn't exist already.
+    * @return true if contact didn't exist (and hence was added), false if it existed
+    */
+   public boolean addContactIfNeded(String uri)
+   {
+      if (databaseHelper == null) {
+         throw new RuntimeException("Database hasn't been opened.");
+      }
+
+      String contactName = uri2User(uri);
 
+      if (getContactIdFromName(contactName) == -1) {
+         // doesn't exist, need to create it
+         addContact(contactName, contactName);
          return true;
       }
       return false;
    }
 
    // Important: currently contactName passed by Application is in reality the user part of the sipuri, so to match a contact entry
-   // we try with COLUMN_NAME_URI, not COLUMN_NAME_NAME
-   private int getContactIdFromName(String contactName)
+   // we try with the user part of COLUMN_NAME_URI, not COLUMN_NAME_NAME
+   private long getContactIdFromName(String contactName)
    {
-      Cursor cursor = getContactFromName(contactName);
-
-      /*
-      // Only interested in the ID
-      String[] columns = {
-            DatabaseContract.ContactEntry._ID,
-      };
-
-      // Add the WHERE clause
-      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_URI + " LIKE ?";
-      String[] selectionArgs = { "%" + contactName + "%"};
+      ensureContactCache();
 
-      SQLiteDatabase db = databaseHelper.getReadableDatabase();
-      Cursor cursor = db.query(
-            DatabaseContract.ContactEntry.TABLE_NAME,  // The table to query
-            columns,                                   // The columns to return
-            selection,                                 // The columns for the WHERE clause
-            selectionArgs,                             // The values for the WHERE clause
-            null,                                      // don't group the rows
-            null,                                      // don't filter by row groups
-            null,                                      // don't sort the results
-            "1"                                        // only keep one entry
-      );
-      */
-
-      // moveToFirst() fails if cursor is empty
-      if (cursor.moveToFirst()) {
-         int contactId = cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry._ID));
-         return contactId;
+      CachedContact contact = contactsByUser.get(contactName);
+      if (contact != null) {
+         return contact.id;
       }
       else {
          return -1;
       }
    }
 
-   // Important: currently contactName passed by Application is in reality the user part of the sipuri, so to match a contact entry
-   // we try with COLUMN_NAME_URI, not COLUMN_NAME_NAME
-   private Cursor getContactFromName(String contactName)
-   {
-      // Only interested in the ID
-      /*
-      String[] columns = {
-            DatabaseContract.ContactEntry._ID,
-      };
-      */
-
-      // Add the WHERE clause
-      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_URI + " LIKE ?";
-      String[] selectionArgs = { "%" + contactName + "%"};
-
-      SQLiteDatabase db = databaseHelper.getReadableDatabase();
-      Cursor cursor = db.query(
-            DatabaseContract.ContactEntry.TABLE_NAME,  // The table to query
-            null,                                      // The columns to return (all)
-            selection,                                 // The columns for the WHERE clause
-            selectionArgs,                             // The values for the WHERE clause
-            null,                                      // don't group the rows
-            null,                                      // don't filter by row groups
-            null,                                      // don't sort the results
-            "1"                                        // only keep one entry
-      );
-
-      return cursor;
-   }
-
-   private Cursor getContactFromUri(String uri)
-   {
-      // Only interested in the ID
-      /*
-      String[] columns = {
-            DatabaseContract.ContactEntry._ID,
-      };
-      */
-
-      // Add the WHERE clause
-      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_URI + " LIKE ?";
-      String[] selectionArgs = { uri };
-
-      SQLiteDatabase db = databaseHelper.getReadableDatabase();
-      Cursor cursor = db.query(
-            DatabaseContract.ContactEntry.TABLE_NAME,  // The table to query
-            null,                                      // The columns to return (all)
-            selection,                                 // The columns for the WHERE clause
-            selectionArgs,                             // The values for the WHERE clause
-            null,                                      // don't group the rows
-            null,                                      // don't filter by row groups
-            null,                                      // don't sort the results
-            "1"                                        // only keep one entry
-      );
-
-      return cursor;
-   }
-
-   // Updates contact in DB. Returns -1 if contact is not found
-   public int updateContact(String name, String uri)
+   // Updates contact in DB. Returns false if contact is not found. Throws if another contact already has the given uri
+   public boolean updateContact(String name, String uri) throws SQLException
    {
       if (databaseHelper == null) {
          throw new RuntimeException("Database hasn't been opened.");
@@ -270,8 +263,8 @@ class DatabaseManager {
       //values.put(DatabaseContract.ContactEntry.COLUMN_NAME_NAME, name);
       values.put(DatabaseContract.ContactEntry.COLUMN_NAME_URI, uri);
 
-      // Add the WHERE clause
-      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " LIKE ?";
+      // Add the WHERE clause; equality so that the unique index on name is used
+      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " = ?";
       String[] selectionArgs = { name };
 
       int count = db.update(
@@ -280,50 +273,30 @@ class DatabaseManager {
             selection,
             selectionArgs);
 
-      if (count > 0) {
-         int i = 0;
-         ArrayList<Map<String, String>> allContacts = retrieveContacts();
-         for (Map<String, String> item: allContacts) {
-            if (item.get("username").equals(name)) {
-               return i;
-            }
-            i++;
+      if (count > 0 && contactsByName != null) {
+         CachedContact contact = contactsByName.get(name);
+         if (contact != null) {
+            uncacheContact(contact);
+            contact.uri = uri;
+            cacheContact(contact);
          }
       }
 
-      return -1;
+      return count > 0;
    }
 
-   // Removes contact from DB. Returns -1 if contact is not found
-   public int removeContact(String name, String uri)
+   // Removes contact from DB. Returns false if contact is not found
+   public boolean removeContact(String name, String uri)
    {
       if (databaseHelper == null) {
          throw new RuntimeException("Database hasn't been opened.");
       }
 
-      boolean found = false;
-      int i = 0;
-      ArrayList<Map<String, String>> allContacts = retrieveContacts();
-      for (Map<String, String> item: allContacts) {
-         if (item.get("username").equals(name)) {
-            found = true;
-            break;
-         }
-         i++;
-      }
-
-      if (!found) {
-         return -1;
-      }
-
       // Gets the data repository in write mode
       SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-      // Update name & uri columns
-      ContentValues values = new ContentValues();
-
-      // Add the WHERE clause
-      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " LIKE ?";
+      // Add the WHERE clause; equality so that the unique index on name is used
+      String selection = DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " = ?";
       String[] selectionArgs = { name };
 
       int count = db.delete(
@@ -331,17 +304,91 @@ class DatabaseManager {
             selection,
             selectionArgs);
 
-      if (count > 0) {
-         return i;
+      if (count > 0 && contactsByName != null) {
+         CachedContact contact = contactsByName.get(name);
+         if (contact != null) {
+            uncacheContact(contact);
+         }
+      }
+
+      return count > 0;
+   }
+
+   // Contact cache helpers
+   private void ensureContactCache()
+   {
+      if (contactsByName == null) {
+         // populates the cache
+         retrieveContacts();
+      }
+   }
+
+   private void cacheContact(CachedContact contact)
+   {
+      contactsByName.put(contact.name, contact);
+      // more than one contacts might share a user part (i.e. sip:bob@a.com, sip:bob@b.com); like the DB lookup it replaced, we keep the first one
+      String user = uri2User(contact.uri);
+      if (!contactsByUser.containsKey(user)) {
+         contactsByUser.put(user, contact);
       }
+   }
 
-      return -1;
+   private void uncacheContact(CachedContact contact)
+   {
+      contactsByName.remove(contact.name);
+      String user = uri2User(contact.uri);
+      if (contactsByUser.get(user) == contact) {
+         contactsByUser.remove(user);
+         // see if another contact shares the same user part
+         for (CachedContact other : contactsByName.values()) {
+            if (uri2User(other.uri).equals(user)) {
+               contactsByUser.put(user, other);
+               break;
+            }
+         }
+      }
+   }
+
+   // sip:bob@cloud.restcomm.com -> bob
+   private static String uri2User(String uri)
+   {
+      return uri.replaceAll("^sip.?:", "").replaceAll("@.*$", "");
    }
 
    // ---- Message table
-   // Retrieve all messages for a contact ordered by timestamp
-   //ArrayList<Map<String, String>> retrieveMessages(String contactName)
-   Cursor retrieveMessages(String contactName)
+   // Columns needed to show messages, qualified since both tables have an _id column (SimpleCursorAdapter needs _id to be the message id)
+   private static final String MESSAGE_COLUMNS = DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry._ID + ", " +
+         DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TEXT + ", " +
+         DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TYPE + ", " +
+         DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + ", " +
+         DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_DELIVERY_STATUS + ", " +
+         DatabaseContract.ContactEntry.TABLE_NAME + "." + DatabaseContract.ContactEntry.COLUMN_NAME_NAME;
+
+   private static final String MESSAGE_JOIN = " FROM " + DatabaseContract.MessageEntry.TABLE_NAME + " INNER JOIN " +
+         DatabaseContract.ContactEntry.TABLE_NAME + " ON " + DatabaseContract.MessageEntry.TABLE_NAME + "." +
+         DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID + " = " + DatabaseContract.ContactEntry.TABLE_NAME + "." +
+         DatabaseContract.ContactEntry._ID + " WHERE " + DatabaseContract.ContactEntry.TABLE_NAME + "." +
+         DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " = ? ";
+
+   // Messages are paginated with keyset pagination on (timestamp, _id) instead of OFFSET, so that each page is a range scan on the
+   // (contact_id, timestamp) index no matter how long the history is. _id breaks ties, since timestamps have second resolution
+   private static final String MESSAGE_KEYSET_BEFORE = "AND (" + DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP +
+         " < ? OR (" + DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " = ? AND " +
+         DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry._ID + " < ?)) ";
+   private static final String MESSAGE_KEYSET_FROM = "AND (" + DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP +
+         " > ? OR (" + DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " = ? AND " +
+         DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry._ID + " >= ?)) ";
+   private static final String MESSAGE_ORDER_ASC = "ORDER BY " + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC, " +
+         DatabaseContract.MessageEntry._ID + " ASC";
+
+   /*
+    * Retrieve a page of messages for a contact, ordered by timestamp (oldest first)
+    * @param contactName contact whose messages to retrieve
+    * @param limit maximum number of messages to retrieve
+    * @param beforeTimestamp if not null, only retrieve messages older than the message with beforeTimestamp and beforeId (i.e. the oldest
+    *                        message currently loaded), otherwise retrieve the latest messages
+    */
+   Cursor retrieveMessages(String contactName, int limit, String beforeTimestamp, long beforeId)
    {
       if (databaseHelper == null) {
          throw new RuntimeException("Database hasn't been opened yet, please call open()");
@@ -349,38 +396,45 @@ class DatabaseManager {
 
       SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-      // Add the WHERE clause
-      String[] selectionArgs = { contactName };
-
-      // Here's an example: SELECT * FROM message INNER JOIN contact ON message.contact_id = contact._id WHERE contact.name LIKE ? ORDER BY timestamp ASC
-      String sqlQuery = "SELECT * FROM " + DatabaseContract.MessageEntry.TABLE_NAME + " INNER JOIN " +
-            DatabaseContract.ContactEntry.TABLE_NAME + " ON message." + DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID + " = contact." +
-            DatabaseContract.ContactEntry._ID + " " +
-            "WHERE " + DatabaseContract.ContactEntry.TABLE_NAME + "." + DatabaseContract.ContactEntry.COLUMN_NAME_NAME + " LIKE ? " +
-            "ORDER BY " + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC";
+      String[] selectionArgs;
+      String keyset = "";
+      if (beforeTimestamp != null) {
+         keyset = MESSAGE_KEYSET_BEFORE;
+         selectionArgs = new String[] { contactName, beforeTimestamp, beforeTimestamp, Long.toString(beforeId) };
+      }
+      else {
+         selectionArgs = new String[] { contactName };
+      }
 
-      Log.i(TAG, "Query String: " + sqlQuery);
-      Cursor cursor = db.rawQuery(sqlQuery, selectionArgs);
+      // Pick the newest 'limit' messages using the index and then reverse them, so that the cursor is ordered oldest first as the list shows them
+      String sqlQuery = "SELECT * FROM (SELECT " + MESSAGE_COLUMNS + MESSAGE_JOIN + keyset +
+            "ORDER BY " + DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " DESC, " +
+            DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry._ID + " DESC " +
+            "LIMIT " + limit + ") " + MESSAGE_ORDER_ASC;
 
-      /*
-      ArrayList<Map<String, String>> messageList = new ArrayList<Map<String, String>>();
+      Log.v(TAG, "Query String: " + sqlQuery);
+      return db.rawQuery(sqlQuery, selectionArgs);
+   }
 
-      // moveToFirst() fails if cursor is empty
-      if (cursor.moveToFirst()) {
-         // iterate the rows, read from db and populate contactList
-         do {
-            messageList.add(createMessageEntry(
-                  cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.MessageEntry.COLUMN_NAME_TYPE)),
-                  cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.ContactEntry.COLUMN_NAME_NAME)),
-                  cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.MessageEntry.COLUMN_NAME_TEXT))));
-         } while (cursor.moveToNext());
+   /*
+    * Retrieve all messages for a contact starting from a given message (inclusive), ordered by timestamp (oldest first). Used to refresh
+    * the messages already loaded when a message is added or updated
+    */
+   Cursor retrieveMessagesFrom(String contactName, String fromTimestamp, long fromId)
+   {
+      if (databaseHelper == null) {
+         throw new RuntimeException("Database hasn't been opened yet, please call open()");
       }
-      */
 
-      return cursor;
+      SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+      String[] selectionArgs = { contactName, fromTimestamp, fromTimestamp, Long.toString(fromId) };
+      String sqlQuery = "SELECT " + MESSAGE_COLUMNS + MESSAGE_JOIN + MESSAGE_KEYSET_FROM +
+            "ORDER BY " + DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC, " +
+            DatabaseContract.MessageEntry.TABLE_NAME + "." + DatabaseContract.MessageEntry._ID + " ASC";
 
-      //cursor.close();
-      //return messageList;
+      Log.v(TAG, "Query String: " + sqlQuery);
+      return db.rawQuery(sqlQuery, selectionArgs);
    }
 
    public void addMessage(String contactName, String messageText, boolean isLocal, String jobId, DatabaseContract.MessageDeliveryStatus deliveryStatus) throws SQLException
@@ -400,7 +454,7 @@ class DatabaseManager {
          type = "remote";
       }
 
-      int contactId = getContactIdFromName(contactName);
+      long contactId = getContactIdFromName(contactName);
 
       values.put(DatabaseContract.MessageEntry.COLUMN_NAME_CONTACT_ID, contactId);
       values.put(DatabaseContract.MessageEntry.COLUMN_NAME_TEXT, messageText);
@@ -426,7 +480,8 @@ class DatabaseManager {
       values.put(DatabaseContract.MessageEntry.COLUMN_NAME_DELIVERY_STATUS, deliveryStatus.ordinal());
 
       // Add the WHERE clause
-      String selection = DatabaseContract.MessageEntry.COLUMN_NAME_JOB_ID + " LIKE ?";
+      // equality so that the job_id index is used
+      String selection = DatabaseContract.MessageEntry.COLUMN_NAME_JOB_ID + " = ?";
       String[] selectionArgs = { jobId };
 
       int count = db.update(
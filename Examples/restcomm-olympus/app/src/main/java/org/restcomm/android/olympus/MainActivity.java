@@ -542,6 +542,9 @@ public class MainActivity extends AppCompatActivity
          //intent.putExtra(RCDevice.EXTRA_VIDEO_ENABLED, true);
          startActivity(intent);
       }
+      if (id == R.id.action_restore_sample_contacts) {
+         listFragment.importSampleContacts();
+      }
       if (id == R.id.action_about) {
          DialogFragment newFragment = AboutFragment.newInstance();
          newFragment.show(getFragmentManager(), "dialog-about");
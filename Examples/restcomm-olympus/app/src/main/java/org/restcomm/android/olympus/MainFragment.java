@@ -276,8 +276,14 @@ public class MainFragment extends ListFragment {
          }
       }
       else {
-         if (this.contactsController.updateContact(contactList, username, sipuri) == -1) {
-            // no contact was updated, no need to upate listAdapter
+         try {
+            if (this.contactsController.updateContact(contactList, username, sipuri) == -1) {
+               // no contact was updated, no need to upate listAdapter
+               return;
+            }
+         }
+         catch (Exception e) {
+            showOkAlert("Failed to update contact", e.getMessage());
             return;
          }
       }
@@ -285,6 +291,26 @@ public class MainFragment extends ListFragment {
       this.listViewAdapter.notifyDataSetChanged();
    }
 
+   // Called by Activity to bring back the sample contacts
+   public void importSampleContacts()
+   {
+      int imported;
+      try {
+         imported = this.contactsController.importSampleContacts(contactList);
+      }
+      catch (Exception e) {
+         showOkAlert("Failed to restore sample contacts", e.getMessage());
+         return;
+      }
+
+      if (imported == 0) {
+         showOkAlert("Nothing to restore", "All sample contacts are already in place");
+         return;
+      }
+      // notify adapter that ListView needs to be updated
+      this.listViewAdapter.notifyDataSetChanged();
+   }
+
    /*
    public void onAccessoryClick(int position)
    {
@@ -36,6 +36,7 @@ import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
 import android.widget.TextView;
@@ -53,6 +54,15 @@ public class MessageFragment extends ListFragment {
    private ArrayList<Map<String, String>> messageList;
    public static final String MESSAGE_CONTACT_KEY = "username";
    public static final String MESSAGE_TEXT_KEY = "message-text";
+   // how many messages to load at a time; older ones are loaded as the user scrolls to the top
+   private static final int MESSAGE_PAGE_SIZE = 50;
+   private String contactName;
+   // oldest message loaded so far (keyset for paginating towards older messages), null when none is loaded
+   private String oldestTimestamp = null;
+   private long oldestId = -1;
+   // whether there might be older messages in the DB that aren't loaded yet
+   private boolean hasOlderMessages = false;
+   private boolean loadingOlderMessages = false;
    /**
     * The serialization (saved instance state) Bundle key representing the
     * activated item position. Only used on tablets.
@@ -99,7 +109,7 @@ public class MessageFragment extends ListFragment {
 
       // Use MessageActivity intent to retrieve the contact name
       final Intent intent = getActivity().getIntent();
-      String contactName = intent.getStringExtra(RCDevice.EXTRA_DID).replaceAll("^sip:", "").replaceAll("@.*$", "");
+      contactName = intent.getStringExtra(RCDevice.EXTRA_DID).replaceAll("^sip:", "").replaceAll("@.*$", "");
       //listFragment = (MessageFragment) getSupportFragmentManager().findFragmentById(R.id.message_list);
       //Bundle args = new Bundle();
       //args.putString("contact-name", shortname);
@@ -112,7 +122,9 @@ public class MessageFragment extends ListFragment {
       DatabaseManager.getInstance().open(getActivity().getApplicationContext());
 
       // TODO: this must be done in the background
-      Cursor cursor = DatabaseManager.getInstance().retrieveMessages(contactName);
+      Cursor cursor = DatabaseManager.getInstance().retrieveMessages(contactName, MESSAGE_PAGE_SIZE, null, -1);
+      hasOlderMessages = cursor.getCount() == MESSAGE_PAGE_SIZE;
+      updateOldestMessage(cursor);
 
       String[] fromColumns = { DatabaseContract.ContactEntry.COLUMN_NAME_NAME, DatabaseContract.MessageEntry.COLUMN_NAME_TEXT,
               DatabaseContract.MessageEntry.COLUMN_NAME_DELIVERY_STATUS };
@@ -172,6 +184,31 @@ public class MessageFragment extends ListFragment {
       getListView().setDivider(null);
       getListView().setDividerHeight(0);
 
+      // Load older messages when the user scrolls to the top
+      getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+         @Override
+         public void onScrollStateChanged(AbsListView view, int scrollState)
+         {
+         }
+
+         @Override
+         public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+         {
+            if (firstVisibleItem == 0 && totalItemCount > 0 && hasOlderMessages && !loadingOlderMessages) {
+               loadingOlderMessages = true;
+               // don't change the adapter from within the scroll callback
+               view.post(new Runnable() {
+                  @Override
+                  public void run()
+                  {
+                     loadOlderMessages();
+                     loadingOlderMessages = false;
+                  }
+               });
+            }
+         }
+      });
+
       // Restore the previously serialized activated item position.
       if (savedInstanceState != null
             && savedInstanceState.containsKey(STATE_ACTIVATED_POSITION)) {
@@ -258,11 +295,7 @@ public class MessageFragment extends ListFragment {
       int countBeforeAddition = listViewAdapter.getCount();
       DatabaseManager.getInstance().addMessage(username, message, true, jobId, DatabaseContract.MessageDeliveryStatus.TEXT_MESSAGE_PENDING);
 
-      // TODO: this must be done in the background
-      Cursor cursor = DatabaseManager.getInstance().retrieveMessages(username);
-      // update adapter cursor to use the new one with updated rows
-      this.listViewAdapter.changeCursor(cursor);
-      this.listViewAdapter.notifyDataSetChanged();
+      reloadMessages(username);
       getListView().setSelection(listViewAdapter.getCount() - 1);
       return countBeforeAddition;
    }
@@ -272,11 +305,7 @@ public class MessageFragment extends ListFragment {
    {
       DatabaseManager.getInstance().addMessage(username, message, false, null, DatabaseContract.MessageDeliveryStatus.TEXT_MESSAGE_DELIVERED);
 
-      // TODO: this must be done in the background
-      Cursor cursor = DatabaseManager.getInstance().retrieveMessages(username);
-      // update adapter cursor to use the new one with updated rows
-      this.listViewAdapter.changeCursor(cursor);
-      this.listViewAdapter.notifyDataSetChanged();
+      reloadMessages(username);
       getListView().setSelection(listViewAdapter.getCount() - 1);
    }
 
@@ -288,13 +317,52 @@ public class MessageFragment extends ListFragment {
       }
 
       DatabaseManager.getInstance().updateMessageStatus(jobId, deliveryStatus);
+      reloadMessages(username);
+   }
+
+   // Re-query the messages already loaded (i.e. from the oldest loaded one onwards), so that additions and status changes show up
+   private void reloadMessages(String username)
+   {
       // TODO: this must be done in the background
-      Cursor cursor = DatabaseManager.getInstance().retrieveMessages(username);
+      Cursor cursor;
+      if (oldestTimestamp != null && username.equals(contactName)) {
+         cursor = DatabaseManager.getInstance().retrieveMessagesFrom(username, oldestTimestamp, oldestId);
+      }
+      else {
+         cursor = DatabaseManager.getInstance().retrieveMessages(username, MESSAGE_PAGE_SIZE, null, -1);
+         hasOlderMessages = cursor.getCount() == MESSAGE_PAGE_SIZE;
+         updateOldestMessage(cursor);
+      }
       // update adapter cursor to use the new one with updated rows
       this.listViewAdapter.changeCursor(cursor);
       this.listViewAdapter.notifyDataSetChanged();
    }
 
+   // Load the previous page of messages, keeping the currently visible message in place
+   private void loadOlderMessages()
+   {
+      // TODO: this must be done in the background
+      Cursor olderCursor = DatabaseManager.getInstance().retrieveMessages(contactName, MESSAGE_PAGE_SIZE, oldestTimestamp, oldestId);
+      int olderCount = olderCursor.getCount();
+      hasOlderMessages = olderCount == MESSAGE_PAGE_SIZE;
+      updateOldestMessage(olderCursor);
+      olderCursor.close();
+
+      if (olderCount > 0) {
+         reloadMessages(contactName);
+         getListView().setSelection(olderCount);
+      }
+   }
+
+   // Remember the first (i.e. oldest) message of the cursor as the keyset for loading older messages
+   private void updateOldestMessage(Cursor cursor)
+   {
+      if (cursor.moveToFirst()) {
+         oldestTimestamp = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP));
+         oldestId = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseContract.MessageEntry._ID));
+      }
+   }
+
    /*
    public ListView getFragmentListView()
    {
@@ -0,0 +1,215 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.restcomm.android.sdk.util.Benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures sequential HTTP requests against HttpStandIn, comparing AsyncHttpURLConnection (shared executor, connections returned to
+ * the keep-alive pool) with how it used to work (a new thread per request, disconnect() after each response). Also checks that
+ * cancel() suppresses callbacks of an in-flight request, and that connections get reused. Results are logged under tag 'AsyncHttpBenchmark'.
+ * Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class AsyncHttpBenchmarkTest extends TestCase {
+   private static final String TAG = "AsyncHttpBenchmark";
+   private static final int WARMUP_REQUESTS = 20;
+   private static final int REQUESTS = 200;
+   private static final long TIMEOUT_SECONDS = 10;
+   private static final long CANCEL_RESPONSE_DELAY_MILLIS = 2000;
+
+   private HttpStandIn httpStandIn;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      httpStandIn = new HttpStandIn();
+      httpStandIn.start();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      httpStandIn.stop();
+      super.tearDown();
+   }
+
+   public void testResponse() throws Exception
+   {
+      assertEquals(HttpStandIn.RESPONSE_BODY, sendAndWait("GET"));
+      assertEquals(HttpStandIn.RESPONSE_BODY, sendAndWait("POST"));
+      assertEquals(HttpStandIn.RESPONSE_BODY, sendWithThreadAndWait());
+   }
+
+   public void testCancel() throws Exception
+   {
+      final AtomicInteger callbacks = new AtomicInteger();
+      httpStandIn.setResponseDelay(CANCEL_RESPONSE_DELAY_MILLIS);
+      AsyncHttpURLConnection connection = new AsyncHttpURLConnection("GET", httpStandIn.getUrl(), new AsyncHttpURLConnection.AsyncHttpEvents() {
+         @Override
+         public void onHttpError(String errorMessage)
+         {
+            callbacks.incrementAndGet();
+         }
+
+         @Override
+         public void onHttpComplete(String response)
+         {
+            callbacks.incrementAndGet();
+         }
+      });
+      connection.send();
+      // wait for the request to reach the server, so that it's actually in flight when cancelled
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+      while (httpStandIn.getRequestCount() == 0 && System.currentTimeMillis() < deadline) {
+         Thread.sleep(10);
+      }
+      assertEquals(1, httpStandIn.getRequestCount());
+      connection.cancel();
+
+      Thread.sleep(2 * CANCEL_RESPONSE_DELAY_MILLIS);
+      assertEquals(0, callbacks.get());
+
+      // the cancelled request must not keep the shared executor from serving new ones
+      httpStandIn.setResponseDelay(0);
+      assertEquals(HttpStandIn.RESPONSE_BODY, sendAndWait("GET"));
+   }
+
+   public void testConnectionReuse() throws Exception
+   {
+      int connections = httpStandIn.getConnectionCount();
+      for (int i = 0; i < REQUESTS; i++) {
+         sendWithThreadAndWait();
+      }
+      int threadConnections = httpStandIn.getConnectionCount() - connections;
+
+      connections = httpStandIn.getConnectionCount();
+      for (int i = 0; i < REQUESTS; i++) {
+         sendAndWait("GET");
+      }
+      int executorConnections = httpStandIn.getConnectionCount() - connections;
+
+      Log.i(TAG, String.format(Locale.US, "%d requests, thread per request + disconnect: %d connections, shared executor + keep-alive: %d connections",
+            REQUESTS, threadConnections, executorConnections));
+      // connections are reused, instead of opening a new one per request
+      assertTrue("Expected connection reuse, got " + executorConnections + " connections for " + REQUESTS + " requests",
+            executorConnections < REQUESTS);
+   }
+
+   public void testBenchmark() throws Exception
+   {
+      new Benchmark(TAG, WARMUP_REQUESTS, REQUESTS).compare("GET", "request", "thread per request + disconnect", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration) throws Exception
+         {
+            sendWithThreadAndWait();
+         }
+      }, "shared executor + keep-alive", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration) throws Exception
+         {
+            sendAndWait("GET");
+         }
+      });
+   }
+
+   // Helpers
+   private String sendAndWait(String method) throws InterruptedException
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicReference<String> result = new AtomicReference<>();
+      final AtomicReference<String> error = new AtomicReference<>();
+      AsyncHttpURLConnection connection = new AsyncHttpURLConnection(method, httpStandIn.getUrl(), new AsyncHttpURLConnection.AsyncHttpEvents() {
+         @Override
+         public void onHttpError(String errorMessage)
+         {
+            error.set(errorMessage);
+            latch.countDown();
+         }
+
+         @Override
+         public void onHttpComplete(String response)
+         {
+            result.set(response);
+            latch.countDown();
+         }
+      });
+      connection.send();
+      assertTrue("Timed out waiting for response", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertNull(error.get(), error.get());
+      return result.get();
+   }
+
+   // Baseline: how AsyncHttpURLConnection used to send requests, kept here for comparison
+   private String sendWithThreadAndWait() throws InterruptedException
+   {
+      final AtomicReference<String> result = new AtomicReference<>();
+      final AtomicReference<String> error = new AtomicReference<>();
+      Thread thread = new Thread(new Runnable() {
+         @Override
+         public void run()
+         {
+            try {
+               HttpURLConnection connection = (HttpURLConnection) new URL(httpStandIn.getUrl()).openConnection();
+               connection.setRequestMethod("GET");
+               connection.setUseCaches(false);
+               connection.setDoInput(true);
+               int responseCode = connection.getResponseCode();
+               if (responseCode != 200) {
+                  error.set("Non-200 response: " + responseCode);
+                  connection.disconnect();
+                  return;
+               }
+               InputStream responseStream = connection.getInputStream();
+               Scanner scanner = new Scanner(responseStream).useDelimiter("\\A");
+               result.set(scanner.hasNext() ? scanner.next() : "");
+               responseStream.close();
+               connection.disconnect();
+            }
+            catch (IOException e) {
+               error.set(e.getMessage());
+            }
+         }
+      });
+      thread.start();
+      thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+      assertFalse("Timed out waiting for response", thread.isAlive());
+      assertNull(error.get(), error.get());
+      return result.get();
+   }
+}
@@ -0,0 +1,248 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process HTTP/1.1 server over TCP, standing in for the ICE server discovery service in HTTP benchmarks. It answers any
+ * request with 200 OK and a fixed JSON body, keeping the connection open afterwards so that clients can reuse it. Responses can be
+ * delayed, to keep requests in flight (for example to cancel them).
+ *
+ * It also counts accepted connections and served requests, so that callers can tell how many requests went over a reused
+ * connection. Each TCP connection is served by its own thread.
+ */
+class HttpStandIn {
+   private static final String TAG = "HttpStandIn";
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+   static final String RESPONSE_BODY =
+         "{\"s\":\"ok\",\"p\":\"\",\"e\":\"\",\"v\":{\"iceServers\":[" +
+         "{\"url\":\"stun:turn.example.com\"}," +
+         "{\"url\":\"turn:turn.example.com:80?transport=udp\",\"username\":\"bob\",\"credential\":\"secret\"}," +
+         "{\"url\":\"turns:turn.example.com:443?transport=tcp\",\"username\":\"bob\",\"credential\":\"secret\"}]}}";
+
+   private ServerSocket serverSocket;
+   private final List<Socket> sockets = new ArrayList<>();
+   private volatile boolean running = false;
+   private volatile long responseDelayMillis = 0;
+   private final AtomicInteger connectionCount = new AtomicInteger();
+   private final AtomicInteger requestCount = new AtomicInteger();
+
+   /**
+    * Start listening on an ephemeral loopback port
+    */
+   void start() throws IOException
+   {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      running = true;
+      Thread acceptThread = new Thread(new Runnable() {
+         @Override
+         public void run()
+         {
+            while (running) {
+               try {
+                  final Socket socket = serverSocket.accept();
+                  socket.setTcpNoDelay(true);
+                  connectionCount.incrementAndGet();
+                  synchronized (sockets) {
+                     sockets.add(socket);
+                  }
+                  Thread connectionThread = new Thread(new Runnable() {
+                     @Override
+                     public void run()
+                     {
+                        serve(socket);
+                     }
+                  }, "HttpStandIn-connection");
+                  connectionThread.start();
+               }
+               catch (IOException e) {
+                  if (running) {
+                     Log.e(TAG, "accept() failed: " + e.getMessage());
+                  }
+               }
+            }
+         }
+      }, "HttpStandIn-accept");
+      acceptThread.start();
+      Log.i(TAG, "Listening at 127.0.0.1:" + getPort());
+   }
+
+   void stop()
+   {
+      running = false;
+      try {
+         serverSocket.close();
+      }
+      catch (IOException e) {
+         // nothing to do
+      }
+      synchronized (sockets) {
+         for (Socket socket : sockets) {
+            try {
+               socket.close();
+            }
+            catch (IOException e) {
+               // nothing to do
+            }
+         }
+         sockets.clear();
+      }
+   }
+
+   int getPort()
+   {
+      return serverSocket.getLocalPort();
+   }
+
+   String getUrl()
+   {
+      return "http://127.0.0.1:" + getPort() + "/iceservers";
+   }
+
+   void setResponseDelay(long responseDelayMillis)
+   {
+      this.responseDelayMillis = responseDelayMillis;
+   }
+
+   int getConnectionCount()
+   {
+      return connectionCount.get();
+   }
+
+   int getRequestCount()
+   {
+      return requestCount.get();
+   }
+
+   // Helpers
+   private void serve(Socket socket)
+   {
+      try {
+         InputStream input = socket.getInputStream();
+         OutputStream output = socket.getOutputStream();
+         byte[] body = RESPONSE_BODY.getBytes(UTF_8);
+         byte[] headers = String.format(Locale.US, "HTTP/1.1 200 OK\r\n" +
+               "Content-Type: application/json\r\n" +
+               "Content-Length: %d\r\n" +
+               "Connection: keep-alive\r\n" +
+               "\r\n", body.length).getBytes(UTF_8);
+
+         while (running) {
+            if (!readRequest(input)) {
+               break;
+            }
+            requestCount.incrementAndGet();
+
+            long delay = responseDelayMillis;
+            if (delay > 0) {
+               try {
+                  Thread.sleep(delay);
+               }
+               catch (InterruptedException e) {
+                  break;
+               }
+            }
+            output.write(headers);
+            output.write(body);
+            output.flush();
+         }
+      }
+      catch (SocketException e) {
+         // connection closed, either by the client or by stop()
+      }
+      catch (IOException e) {
+         Log.e(TAG, "serve() failed: " + e.getMessage());
+      }
+      finally {
+         try {
+            socket.close();
+         }
+         catch (IOException e) {
+            // nothing to do
+         }
+      }
+   }
+
+   // Read a request off the connection, skipping its body if any. Returns false when the connection is closed
+   private static boolean readRequest(InputStream input) throws IOException
+   {
+      int contentLength = 0;
+      boolean firstLine = true;
+      while (true) {
+         String line = readLine(input);
+         if (line == null) {
+            return false;
+         }
+         if (line.isEmpty()) {
+            if (firstLine) {
+               // tolerate stray line breaks between requests
+               continue;
+            }
+            break;
+         }
+         firstLine = false;
+         int colon = line.indexOf(':');
+         if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+            contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+         }
+      }
+
+      for (int i = 0; i < contentLength; i++) {
+         if (input.read() == -1) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // Read a CRLF terminated line, without the CRLF. Returns null on end of stream
+   private static String readLine(InputStream input) throws IOException
+   {
+      ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+      int c;
+      while ((c = input.read()) != -1) {
+         if (c == '\n') {
+            byte[] bytes = line.toByteArray();
+            int length = (bytes.length > 0 && bytes[bytes.length - 1] == '\r') ? bytes.length - 1 : bytes.length;
+            return new String(bytes, 0, length, UTF_8);
+         }
+         line.write(c);
+      }
+      return null;
+   }
+}
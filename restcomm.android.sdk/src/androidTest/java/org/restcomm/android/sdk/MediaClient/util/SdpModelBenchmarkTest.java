@@ -0,0 +1,303 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import junit.framework.TestCase;
+
+import org.restcomm.android.sdk.util.Benchmark;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that SdpModel produces the same SDP as the string/regex munging PeerConnectionClient used to do, and compares how long each
+ * takes for the typical remote description flow (prefer audio codec, prefer video codec, set audio start bitrate). Results are logged
+ * under tag 'SdpBenchmark'. Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class SdpModelBenchmarkTest extends TestCase {
+   private static final String TAG = "SdpBenchmark";
+   private static final int WARMUP_ITERATIONS = 2000;
+   private static final int ITERATIONS = 20000;
+
+   // Representative Chrome audio/video offer
+   private static final String SDP =
+         "v=0\r\n" +
+         "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+         "s=-\r\n" +
+         "t=0 0\r\n" +
+         "a=group:BUNDLE audio video\r\n" +
+         "a=msid-semantic: WMS ARDAMS\r\n" +
+         "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 110 112 113 126\r\n" +
+         "c=IN IP4 0.0.0.0\r\n" +
+         "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+         "a=ice-ufrag:4ZcD\r\n" +
+         "a=ice-pwd:2/1muCWoOi3uLifh0NuRHlAM\r\n" +
+         "a=fingerprint:sha-256 C2:56:8A:6E:60:F1:0A:F6:A1:7A:1A:A5:7E:9C:A0:8E:4F:C3:A6:10:43:53:5B:B1:0B:0F:2F:82:1A:7A:3C:07\r\n" +
+         "a=setup:actpass\r\n" +
+         "a=mid:audio\r\n" +
+         "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n" +
+         "a=sendrecv\r\n" +
+         "a=rtcp-mux\r\n" +
+         "a=rtpmap:111 opus/48000/2\r\n" +
+         "a=rtcp-fb:111 transport-cc\r\n" +
+         "a=fmtp:111 minptime=10;useinbandfec=1\r\n" +
+         "a=rtpmap:103 ISAC/16000\r\n" +
+         "a=rtpmap:104 ISAC/32000\r\n" +
+         "a=rtpmap:9 G722/8000\r\n" +
+         "a=rtpmap:102 ILBC/8000\r\n" +
+         "a=rtpmap:0 PCMU/8000\r\n" +
+         "a=rtpmap:8 PCMA/8000\r\n" +
+         "a=rtpmap:106 CN/32000\r\n" +
+         "a=rtpmap:105 CN/16000\r\n" +
+         "a=rtpmap:13 CN/8000\r\n" +
+         "a=rtpmap:110 telephone-event/48000\r\n" +
+         "a=rtpmap:112 telephone-event/32000\r\n" +
+         "a=rtpmap:113 telephone-event/16000\r\n" +
+         "a=rtpmap:126 telephone-event/8000\r\n" +
+         "a=ssrc:3066507236 cname:lW3YUdZAHJ8Bz3vR\r\n" +
+         "a=ssrc:3066507236 msid:ARDAMS ARDAMSa0\r\n" +
+         "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127\r\n" +
+         "c=IN IP4 0.0.0.0\r\n" +
+         "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+         "a=ice-ufrag:4ZcD\r\n" +
+         "a=ice-pwd:2/1muCWoOi3uLifh0NuRHlAM\r\n" +
+         "a=fingerprint:sha-256 C2:56:8A:6E:60:F1:0A:F6:A1:7A:1A:A5:7E:9C:A0:8E:4F:C3:A6:10:43:53:5B:B1:0B:0F:2F:82:1A:7A:3C:07\r\n" +
+         "a=setup:actpass\r\n" +
+         "a=mid:video\r\n" +
+         "a=sendrecv\r\n" +
+         "a=rtcp-mux\r\n" +
+         "a=rtcp-rsize\r\n" +
+         "a=rtpmap:96 VP8/90000\r\n" +
+         "a=rtcp-fb:96 ccm fir\r\n" +
+         "a=rtcp-fb:96 nack\r\n" +
+         "a=rtcp-fb:96 nack pli\r\n" +
+         "a=rtcp-fb:96 goog-remb\r\n" +
+         "a=rtpmap:97 rtx/90000\r\n" +
+         "a=fmtp:97 apt=96\r\n" +
+         "a=rtpmap:98 VP9/90000\r\n" +
+         "a=rtpmap:99 rtx/90000\r\n" +
+         "a=fmtp:99 apt=98\r\n" +
+         "a=rtpmap:100 H264/90000\r\n" +
+         "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n" +
+         "a=rtpmap:101 rtx/90000\r\n" +
+         "a=fmtp:101 apt=100\r\n" +
+         "a=rtpmap:127 red/90000\r\n" +
+         "a=ssrc:1818853520 cname:lW3YUdZAHJ8Bz3vR\r\n" +
+         "a=ssrc:1818853520 msid:ARDAMS ARDAMSv0\r\n";
+
+   public void testEquivalence()
+   {
+      assertEquals(mungeWithStrings(SDP), mungeWithModel(SDP));
+   }
+
+   public void testCandidatesRoundTrip()
+   {
+      List<IceCandidate> candidates = new ArrayList<>();
+      candidates.add(new IceCandidate("audio", 0, "candidate:1 1 udp 2122260223 192.168.1.2 50000 typ host generation 0"));
+      candidates.add(new IceCandidate("video", 1, "candidate:2 1 udp 2122260223 192.168.1.2 50002 typ host generation 0"));
+
+      SdpModel merged = SdpModel.parse(SDP);
+      merged.addCandidates(candidates);
+
+      SdpModel stripped = SdpModel.parse(merged.toString());
+      List<IceCandidate> extracted = stripped.removeCandidates();
+      assertEquals(SDP, stripped.toString());
+      assertEquals(2, extracted.size());
+      for (int i = 0; i < candidates.size(); i++) {
+         assertEquals(candidates.get(i).sdp, extracted.get(i).sdp);
+         assertEquals(candidates.get(i).sdpMid, extracted.get(i).sdpMid);
+         assertEquals(candidates.get(i).sdpMLineIndex, extracted.get(i).sdpMLineIndex);
+      }
+   }
+
+   public void testVideoActive()
+   {
+      assertTrue(SdpModel.parse(SDP).isVideoActive());
+      assertFalse(SdpModel.parse(SDP.replace("m=video 9", "m=video 0")).isVideoActive());
+      assertFalse(SdpModel.parse(SDP.replace("a=mid:video\r\na=sendrecv", "a=mid:video\r\na=recvonly")).isVideoActive());
+      assertFalse(SdpModel.parse(SDP.substring(0, SDP.indexOf("m=video"))).isVideoActive());
+   }
+
+   public void testBenchmark() throws Exception
+   {
+      new Benchmark(TAG, WARMUP_ITERATIONS, ITERATIONS).compare("munge", "SDP", "strings/regex", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            mungeWithStrings(SDP);
+         }
+      }, "model", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            mungeWithModel(SDP);
+         }
+      });
+   }
+
+   // Helpers
+   private static String mungeWithModel(String sdp)
+   {
+      SdpModel sdpModel = SdpModel.parse(sdp);
+      sdpModel.preferCodec("audio", "ISAC");
+      sdpModel.preferCodec("video", "H264");
+      sdpModel.setStartBitrate("opus", false, 32);
+      return sdpModel.toString();
+   }
+
+   private static String mungeWithStrings(String sdp)
+   {
+      sdp = preferCodec(sdp, "ISAC", true);
+      sdp = preferCodec(sdp, "H264", false);
+      return setStartBitrate("opus", false, sdp, 32);
+   }
+
+   // -- Previous PeerConnectionClient implementation, kept here as a baseline
+   private static String setStartBitrate(String codec, boolean isVideoCodec, String sdpDescription, int bitrateKbps)
+   {
+      String[] lines = sdpDescription.split("\r\n");
+      int rtpmapLineIndex = -1;
+      boolean sdpFormatUpdated = false;
+      String codecRtpMap = null;
+      String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
+      Pattern codecPattern = Pattern.compile(regex);
+      for (int i = 0; i < lines.length; i++) {
+         Matcher codecMatcher = codecPattern.matcher(lines[i]);
+         if (codecMatcher.matches()) {
+            codecRtpMap = codecMatcher.group(1);
+            rtpmapLineIndex = i;
+            break;
+         }
+      }
+      if (codecRtpMap == null) {
+         return sdpDescription;
+      }
+
+      regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
+      codecPattern = Pattern.compile(regex);
+      for (int i = 0; i < lines.length; i++) {
+         Matcher codecMatcher = codecPattern.matcher(lines[i]);
+         if (codecMatcher.matches()) {
+            if (isVideoCodec) {
+               lines[i] += "; x-google-start-bitrate=" + bitrateKbps;
+            }
+            else {
+               lines[i] += "; maxaveragebitrate=" + (bitrateKbps * 1000);
+            }
+            sdpFormatUpdated = true;
+            break;
+         }
+      }
+
+      StringBuilder newSdpDescription = new StringBuilder();
+      for (int i = 0; i < lines.length; i++) {
+         newSdpDescription.append(lines[i]).append("\r\n");
+         if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+            String bitrateSet;
+            if (isVideoCodec) {
+               bitrateSet = "a=fmtp:" + codecRtpMap + " x-google-start-bitrate=" + bitrateKbps;
+            }
+            else {
+               bitrateSet = "a=fmtp:" + codecRtpMap + " maxaveragebitrate=" + (bitrateKbps * 1000);
+            }
+            newSdpDescription.append(bitrateSet).append("\r\n");
+         }
+      }
+      return newSdpDescription.toString();
+   }
+
+   private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines)
+   {
+      final String mediaDescription = isAudio ? "m=audio " : "m=video ";
+      for (int i = 0; i < sdpLines.length; ++i) {
+         if (sdpLines[i].startsWith(mediaDescription)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static String joinString(Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd)
+   {
+      Iterator<? extends CharSequence> iter = s.iterator();
+      if (!iter.hasNext()) {
+         return "";
+      }
+      StringBuilder buffer = new StringBuilder(iter.next());
+      while (iter.hasNext()) {
+         buffer.append(delimiter).append(iter.next());
+      }
+      if (delimiterAtEnd) {
+         buffer.append(delimiter);
+      }
+      return buffer.toString();
+   }
+
+   private static String movePayloadTypesToFront(List<String> preferredPayloadTypes, String mLine)
+   {
+      final List<String> origLineParts = Arrays.asList(mLine.split(" "));
+      if (origLineParts.size() <= 3) {
+         return null;
+      }
+      final List<String> header = origLineParts.subList(0, 3);
+      final List<String> unpreferredPayloadTypes = new ArrayList<String>(origLineParts.subList(3, origLineParts.size()));
+      unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
+      final List<String> newLineParts = new ArrayList<String>();
+      newLineParts.addAll(header);
+      newLineParts.addAll(preferredPayloadTypes);
+      newLineParts.addAll(unpreferredPayloadTypes);
+      return joinString(newLineParts, " ", false);
+   }
+
+   private static String preferCodec(String sdpDescription, String codec, boolean isAudio)
+   {
+      final String[] lines = sdpDescription.split("\r\n");
+      final int mLineIndex = findMediaDescriptionLine(isAudio, lines);
+      if (mLineIndex == -1) {
+         return sdpDescription;
+      }
+      final List<String> codecPayloadTypes = new ArrayList<String>();
+      final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
+      for (int i = 0; i < lines.length; ++i) {
+         Matcher codecMatcher = codecPattern.matcher(lines[i]);
+         if (codecMatcher.matches()) {
+            codecPayloadTypes.add(codecMatcher.group(1));
+         }
+      }
+      if (codecPayloadTypes.isEmpty()) {
+         return sdpDescription;
+      }
+
+      final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
+      if (newMLine == null) {
+         return sdpDescription;
+      }
+      lines[mLineIndex] = newMLine;
+      return joinString(Arrays.asList(lines), "\r\n", true);
+   }
+}
@@ -0,0 +1,49 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+/**
+ * Lets tests outside this package feed JainSipClient the connectivity changes JainSipNotificationManager would report, without
+ * actually touching the device's network. Needs to be called on the signaling thread, like JainSipNotificationManager does.
+ */
+public class ConnectivitySimulator {
+   private ConnectivitySimulator()
+   {
+   }
+
+   /**
+    * Network lost
+    */
+   public static void goOffline(JainSipClient jainSipClient)
+   {
+      jainSipClient.onConnectivityChange(JainSipNotificationManager.ConnectivityChange.OFFLINE);
+   }
+
+   /**
+    * Network back, over WiFi
+    */
+   public static void goOnline(JainSipClient jainSipClient)
+   {
+      jainSipClient.onConnectivityChange(JainSipNotificationManager.ConnectivityChange.OFFLINE_TO_WIFI);
+   }
+}
@@ -0,0 +1,208 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.SipFactory;
+import android.javax.sip.SipProvider;
+import android.javax.sip.SipStack;
+import android.javax.sip.Transaction;
+import android.javax.sip.header.CallIdHeader;
+
+import junit.framework.TestCase;
+
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.util.Benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Checks that JainSipJobManager's Call-ID and branch-ID indexes follow jobs as they are added, removed and get their transaction replaced,
+ * and measures the cost of matching a Call-ID/branch-ID to a job as the number of live jobs grows, comparing the indexes with the linear
+ * scan over all jobs that the manager used to do. Indexed lookups should stay flat regardless of job count. Results are logged under tag
+ * 'JobManagerBenchmark'. Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class JainSipJobManagerBenchmarkTest extends TestCase {
+   private static final String TAG = "JobManagerBenchmark";
+   private static final int[] JOB_COUNTS = { 10, 100, 1000, 5000 };
+   private static final int WARMUP_LOOKUPS = 2000;
+   private static final int LOOKUPS = 20000;
+   private static final int LOCAL_SIP_PORT = 5096;
+   private static final String DOMAIN = "sip:cloud.restcomm.com:5060";
+
+   private SipStack sipStack;
+   private ListeningPoint listeningPoint;
+   private SipProvider sipProvider;
+   private JainSipMessageBuilder messageBuilder;
+   private HashMap<String, Object> configuration;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      SipFactory sipFactory = SipFactory.getInstance();
+      sipFactory.resetFactory();
+      sipFactory.setPathName("android.gov.nist");
+      Properties properties = new Properties();
+      properties.setProperty("android.javax.sip.STACK_NAME", "jobManagerBenchmark");
+      sipStack = sipFactory.createSipStack(properties);
+      listeningPoint = sipStack.createListeningPoint("127.0.0.1", LOCAL_SIP_PORT, ListeningPoint.UDP);
+      sipProvider = sipStack.createSipProvider(listeningPoint);
+
+      messageBuilder = new JainSipMessageBuilder();
+      messageBuilder.initialize(sipFactory, sipProvider);
+
+      configuration = new HashMap<String, Object>();
+      configuration.put(RCDevice.ParameterKeys.SIGNALING_USERNAME, "bob");
+      configuration.put(RCDevice.ParameterKeys.SIGNALING_DOMAIN, DOMAIN);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      messageBuilder.shutdown();
+      sipStack.deleteSipProvider(sipProvider);
+      sipStack.deleteListeningPoint(listeningPoint);
+      sipStack.stop();
+      super.tearDown();
+   }
+
+   public void testIndexConsistency() throws Exception
+   {
+      JainSipJobManager jobManager = new JainSipJobManager(null);
+      ClientTransaction first = newTransaction();
+      ClientTransaction second = newTransaction();
+
+      JainSipJob job = jobManager.add("job-1", JainSipJob.Type.TYPE_MESSAGE, first, new HashMap<String, Object>(), null);
+      assertSame(job, jobManager.getByCallId(getCallId(first)));
+      assertSame(job, jobManager.getByBranchId(first.getBranchId()));
+
+      // replacing the transaction (like when re-sending after authentication) moves the job to the new index entries
+      job.updateTransaction(second);
+      assertNull(jobManager.getByCallId(getCallId(first)));
+      assertNull(jobManager.getByBranchId(first.getBranchId()));
+      assertSame(job, jobManager.getByCallId(getCallId(second)));
+      assertSame(job, jobManager.getByBranchId(second.getBranchId()));
+
+      jobManager.remove("job-1");
+      assertNull(jobManager.getByCallId(getCallId(second)));
+      assertNull(jobManager.getByBranchId(second.getBranchId()));
+      assertNull(jobManager.getByCallId(null));
+      assertNull(jobManager.getByBranchId(null));
+   }
+
+   public void testBenchmark() throws Exception
+   {
+      for (int jobCount : JOB_COUNTS) {
+         final JainSipJobManager jobManager = new JainSipJobManager(null);
+         List<Transaction> transactions = new ArrayList<>(jobCount);
+         for (int i = 0; i < jobCount; i++) {
+            ClientTransaction transaction = newTransaction();
+            jobManager.add("job-" + i, JainSipJob.Type.TYPE_MESSAGE, transaction, new HashMap<String, Object>(), null);
+            transactions.add(transaction);
+         }
+         final String[] callIds = new String[transactions.size()];
+         final String[] branchIds = new String[transactions.size()];
+         for (int i = 0; i < transactions.size(); i++) {
+            callIds[i] = getCallId(transactions.get(i));
+            branchIds[i] = transactions.get(i).getBranchId();
+         }
+
+         // make sure both approaches agree before timing them
+         for (int i = 0; i < jobCount; i++) {
+            assertSame(findByCallIdWithScan(jobManager, callIds[i]), jobManager.getByCallId(callIds[i]));
+            assertSame(findByBranchIdWithScan(jobManager, branchIds[i]), jobManager.getByBranchId(branchIds[i]));
+         }
+
+         new Benchmark(TAG, WARMUP_LOOKUPS, LOOKUPS).compare(jobCount + " jobs", "Call-ID + branch-ID lookup",
+               "scan", new Benchmark.Iteration() {
+                  @Override
+                  public void run(int iteration)
+                  {
+                     int position = iteration % callIds.length;
+                     if (findByCallIdWithScan(jobManager, callIds[position]) == null ||
+                           findByBranchIdWithScan(jobManager, branchIds[position]) == null) {
+                        fail("Job not found");
+                     }
+                  }
+               },
+               "indexed", new Benchmark.Iteration() {
+                  @Override
+                  public void run(int iteration)
+                  {
+                     int position = iteration % callIds.length;
+                     if (jobManager.getByCallId(callIds[position]) == null || jobManager.getByBranchId(branchIds[position]) == null) {
+                        fail("Job not found");
+                     }
+                  }
+               });
+
+         jobManager.removeAll();
+      }
+   }
+
+   // Helpers
+   private ClientTransaction newTransaction() throws Exception
+   {
+      // each MESSAGE gets a new Call-ID, and each client transaction a new branch-ID
+      return sipProvider.getNewClientTransaction(messageBuilder.buildMessageRequest("sip:alice@cloud.restcomm.com", "Hello there",
+            listeningPoint, configuration));
+   }
+
+   private static String getCallId(Transaction transaction)
+   {
+      return ((CallIdHeader) transaction.getRequest().getHeader(CallIdHeader.NAME)).getCallId();
+   }
+
+   // Baseline: how JainSipJobManager used to match Call-IDs and branch-IDs to jobs, kept here for comparison
+   private static JainSipJob findByBranchIdWithScan(JainSipJobManager jobManager, String branchId)
+   {
+      for (Map.Entry<String, JainSipJob> entry : jobManager.jobs.entrySet()) {
+         JainSipJob job = entry.getValue();
+         if (job.transaction.getBranchId().equals(branchId)) {
+            return job;
+         }
+      }
+      return null;
+   }
+
+   private static JainSipJob findByCallIdWithScan(JainSipJobManager jobManager, String callId)
+   {
+      for (Map.Entry<String, JainSipJob> entry : jobManager.jobs.entrySet()) {
+         JainSipJob job = entry.getValue();
+         if (job.transaction == null) {
+            continue;
+         }
+         if (((CallIdHeader) job.transaction.getRequest().getHeader(CallIdHeader.NAME)).getCallId().equals(callId)) {
+            return job;
+         }
+      }
+      return null;
+   }
+}
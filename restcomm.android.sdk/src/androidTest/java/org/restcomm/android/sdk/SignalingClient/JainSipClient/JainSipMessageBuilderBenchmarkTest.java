@@ -0,0 +1,169 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.SipFactory;
+import android.javax.sip.SipProvider;
+import android.javax.sip.SipStack;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.FromHeader;
+import android.javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.util.Benchmark;
+
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * Checks that requests built from pre-parsed header templates are the same as the ones built from scratch, and compares how long
+ * building REGISTER and MESSAGE requests takes in each case. Building from scratch is emulated by dropping the templates before every
+ * request, which makes the builder parse From, Request-URI, Route and Contact again, like it did before templating. Results are logged
+ * under tag 'RequestBuilderBenchmark'. Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class JainSipMessageBuilderBenchmarkTest extends TestCase {
+   private static final String TAG = "RequestBuilderBenchmark";
+   private static final int WARMUP_ITERATIONS = 500;
+   private static final int ITERATIONS = 5000;
+   private static final int LOCAL_SIP_PORT = 5095;
+   private static final String DOMAIN = "sip:cloud.restcomm.com:5060";
+   private static final String PEER = "sip:alice@cloud.restcomm.com";
+   private static final String TEXT = "Hello there";
+
+   private SipStack sipStack;
+   private ListeningPoint listeningPoint;
+   private SipProvider sipProvider;
+   private JainSipMessageBuilder messageBuilder;
+   private HashMap<String, Object> configuration;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      SipFactory sipFactory = SipFactory.getInstance();
+      sipFactory.resetFactory();
+      sipFactory.setPathName("android.gov.nist");
+      Properties properties = new Properties();
+      properties.setProperty("android.javax.sip.STACK_NAME", "requestBuilderBenchmark");
+      sipStack = sipFactory.createSipStack(properties);
+      listeningPoint = sipStack.createListeningPoint("127.0.0.1", LOCAL_SIP_PORT, ListeningPoint.UDP);
+      sipProvider = sipStack.createSipProvider(listeningPoint);
+
+      messageBuilder = new JainSipMessageBuilder();
+      messageBuilder.initialize(sipFactory, sipProvider);
+
+      configuration = new HashMap<String, Object>();
+      configuration.put(RCDevice.ParameterKeys.SIGNALING_USERNAME, "bob");
+      configuration.put(RCDevice.ParameterKeys.SIGNALING_DOMAIN, DOMAIN);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      messageBuilder.shutdown();
+      sipStack.deleteSipProvider(sipProvider);
+      sipStack.deleteListeningPoint(listeningPoint);
+      sipStack.stop();
+      super.tearDown();
+   }
+
+   public void testRegisterEquivalence() throws Exception
+   {
+      messageBuilder.invalidateTemplates();
+      Request fromScratch = buildRegister(false);
+      Request fromTemplate = buildRegister(true);
+      assertSameRequest(fromScratch, fromTemplate);
+      // and the template must not be altered by the requests built from it
+      assertSameRequest(fromTemplate, buildRegister(true));
+   }
+
+   public void testMessageEquivalence() throws Exception
+   {
+      messageBuilder.invalidateTemplates();
+      Request fromScratch = buildMessage(false);
+      Request fromTemplate = buildMessage(true);
+      assertSameRequest(fromScratch, fromTemplate);
+      assertSameRequest(fromTemplate, buildMessage(true));
+   }
+
+   public void testBenchmark() throws Exception
+   {
+      Benchmark benchmark = new Benchmark(TAG, WARMUP_ITERATIONS, ITERATIONS);
+      benchmark.compare("REGISTER", "request", "from scratch", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration) throws Exception
+         {
+            buildRegister(false);
+         }
+      }, "from template", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration) throws Exception
+         {
+            buildRegister(true);
+         }
+      });
+      benchmark.compare("MESSAGE", "request", "from scratch", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration) throws Exception
+         {
+            buildMessage(false);
+         }
+      }, "from template", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration) throws Exception
+         {
+            buildMessage(true);
+         }
+      });
+   }
+
+   // Helpers
+   private Request buildRegister(boolean useTemplate) throws Exception
+   {
+      if (!useTemplate) {
+         messageBuilder.invalidateTemplates();
+      }
+      return messageBuilder.buildRegisterRequest(listeningPoint, 3600, configuration);
+   }
+
+   private Request buildMessage(boolean useTemplate) throws Exception
+   {
+      if (!useTemplate) {
+         messageBuilder.invalidateTemplates();
+      }
+      return messageBuilder.buildMessageRequest(PEER, TEXT, listeningPoint, configuration);
+   }
+
+   // Requests are the same apart from the per request Call-ID and From tag
+   private static void assertSameRequest(Request expected, Request actual) throws Exception
+   {
+      Request normalized = (Request) actual.clone();
+      normalized.setHeader((CallIdHeader) expected.getHeader(CallIdHeader.NAME).clone());
+      ((FromHeader) normalized.getHeader(FromHeader.NAME)).setTag(((FromHeader) expected.getHeader(FromHeader.NAME)).getTag());
+      assertEquals(expected.toString(), normalized.toString());
+   }
+}
@@ -0,0 +1,168 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import android.util.Log;
+
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCConnection;
+import org.restcomm.android.sdk.util.RCUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test for job id generation: fires thousands of sendMessage() calls concurrently from several threads against SipStandIn and
+ * checks that every one of them gets its own job id and its own reply, i.e. that no job is lost because another one minted in the same
+ * millisecond overwrote it in JainSipJobManager. Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class MessageStressTest extends SignalingTestCase {
+   private static final String TAG = "MessageStressTest";
+   private static final int THREADS = 8;
+   private static final int MESSAGES_PER_THREAD = 500;
+   private static final int ID_ITERATIONS_PER_THREAD = 100000;
+   private static final int LOCAL_SIP_PORT = 5091;
+   // thousands of messages through a single connection take a while on slower devices
+   private static final long MESSAGES_TIMEOUT_SECONDS = 120;
+
+   private volatile CountDownLatch messageLatch;
+   private final Set<String> repliedJobIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+   private volatile int messageErrors;
+
+   @Override
+   int getLocalSipPort()
+   {
+      return LOCAL_SIP_PORT;
+   }
+
+   public void testUniqueIdsAcrossThreads() throws Exception
+   {
+      final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      List<Thread> threads = startConcurrently(new Runnable() {
+         @Override
+         public void run()
+         {
+            for (int i = 0; i < ID_ITERATIONS_PER_THREAD; i++) {
+               ids.add(RCUtils.generateUniqueId());
+            }
+         }
+      });
+      join(threads);
+
+      assertEquals(THREADS * ID_ITERATIONS_PER_THREAD, ids.size());
+   }
+
+   public void testConcurrentSendMessage() throws Exception
+   {
+      final int total = THREADS * MESSAGES_PER_THREAD;
+      final Set<String> sentJobIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+      open();
+      long duration;
+      try {
+         messageLatch = new CountDownLatch(total);
+         long start = System.nanoTime();
+         List<Thread> threads = startConcurrently(new Runnable() {
+            @Override
+            public void run()
+            {
+               for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                  HashMap<String, Object> messageParameters = new HashMap<String, Object>();
+                  messageParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, "peer" + (i % 10));
+                  messageParameters.put("text-message", "stress message " + i);
+                  sentJobIds.add(signalingClient.sendMessage(messageParameters));
+               }
+            }
+         });
+         join(threads);
+         await(messageLatch, "message replies", MESSAGES_TIMEOUT_SECONDS);
+         duration = System.nanoTime() - start;
+      }
+      finally {
+         close();
+      }
+
+      Log.i(TAG, String.format(Locale.US, "%d concurrent messages from %d threads in %.2fms, errors: %d", total, THREADS, duration / 1e6,
+            messageErrors));
+      // every call got its own job, every job got a reply, and every request made it to the server
+      assertEquals(total, sentJobIds.size());
+      assertEquals(sentJobIds, repliedJobIds);
+      assertEquals(total, sipStandIn.getRequestCount("MESSAGE"));
+      assertEquals(0, messageErrors);
+   }
+
+   // Helpers
+   // Start THREADS threads running the given runnable, released all at once so that they actually contend
+   private List<Thread> startConcurrently(final Runnable runnable)
+   {
+      final CountDownLatch startGate = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<>(THREADS);
+      for (int i = 0; i < THREADS; i++) {
+         Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+               try {
+                  startGate.await();
+               }
+               catch (InterruptedException e) {
+                  return;
+               }
+               runnable.run();
+            }
+         }, "MessageStressTest-" + i);
+         thread.start();
+         threads.add(thread);
+      }
+      startGate.countDown();
+      return threads;
+   }
+
+   private static void join(List<Thread> threads) throws InterruptedException
+   {
+      for (Thread thread : threads) {
+         thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+         assertFalse("Thread didn't finish: " + thread.getName(), thread.isAlive());
+      }
+   }
+
+   // SignalingClientListener
+   @Override
+   public void onMessageReply(String jobId, RCClient.ErrorCodes status, String text)
+   {
+      if (!repliedJobIds.add(jobId)) {
+         Log.e(TAG, "onMessageReply(): duplicate reply for job: " + jobId);
+      }
+      if (status != RCClient.ErrorCodes.SUCCESS) {
+         messageErrors++;
+      }
+      messageLatch.countDown();
+   }
+}
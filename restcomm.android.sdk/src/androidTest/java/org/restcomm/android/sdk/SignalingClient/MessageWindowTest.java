@@ -0,0 +1,160 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCConnection;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.RCDeviceListener;
+import org.restcomm.android.sdk.SignalingClient.JainSipClient.ConnectivitySimulator;
+import org.restcomm.android.sdk.SignalingClient.JainSipClient.JainSipClient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the text message window, i.e. for SIGNALING_MESSAGE_WINDOW messages in flight with the rest queued. Checks that losing
+ * connectivity with the window full fails all outstanding messages, and that messages still go out once connectivity is back, i.e.
+ * that no slot of the window stays occupied by a message whose transaction went away with the old SIP provider.
+ * Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class MessageWindowTest extends SignalingTestCase {
+   private static final int LOCAL_SIP_PORT = 5092;
+   private static final int WINDOW = 4;
+   private static final int QUEUED = 3;
+
+   private volatile CountDownLatch messageLatch;
+   private volatile CountDownLatch connectivityLatch;
+   private final Map<String, RCClient.ErrorCodes> replies = new ConcurrentHashMap<>();
+
+   @Override
+   int getLocalSipPort()
+   {
+      return LOCAL_SIP_PORT;
+   }
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      parameters.put(RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW, WINDOW);
+   }
+
+   public void testOfflineWithWindowFull() throws Exception
+   {
+      open();
+      try {
+         // fill the window with messages the stand-in never answers, and queue some more behind them
+         sipStandIn.setHoldMessages(true);
+         messageLatch = new CountDownLatch(WINDOW + QUEUED);
+         for (int i = 0; i < WINDOW + QUEUED; i++) {
+            sendMessage("held message " + i);
+         }
+         waitForMessageRequests(WINDOW);
+
+         connectivityLatch = new CountDownLatch(1);
+         changeConnectivity(false);
+         await(connectivityLatch, "going offline");
+         await(messageLatch, "replies to held messages");
+         assertEquals(WINDOW + QUEUED, replies.size());
+         for (RCClient.ErrorCodes status : replies.values()) {
+            assertEquals(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY, status);
+         }
+
+         connectivityLatch = new CountDownLatch(1);
+         changeConnectivity(true);
+         await(connectivityLatch, "coming back online");
+
+         // more than a full window, so that it only goes through if all slots have been freed
+         sipStandIn.setHoldMessages(false);
+         replies.clear();
+         messageLatch = new CountDownLatch(2 * WINDOW);
+         for (int i = 0; i < 2 * WINDOW; i++) {
+            sendMessage("message " + i);
+         }
+         await(messageLatch, "replies to messages after reconnecting");
+         assertEquals(2 * WINDOW, replies.size());
+         for (RCClient.ErrorCodes status : replies.values()) {
+            assertEquals(RCClient.ErrorCodes.SUCCESS, status);
+         }
+         // queued messages were failed without ever being sent
+         assertEquals(3 * WINDOW, sipStandIn.getRequestCount("MESSAGE"));
+      }
+      finally {
+         close();
+      }
+   }
+
+   // Helpers
+   private void sendMessage(String text)
+   {
+      HashMap<String, Object> messageParameters = new HashMap<String, Object>();
+      messageParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, "peer");
+      messageParameters.put("text-message", text);
+      signalingClient.sendMessage(messageParameters);
+   }
+
+   // Simulate losing or regaining connectivity, on the signaling thread where JainSipNotificationManager normally reports it
+   private void changeConnectivity(final boolean online)
+   {
+      signalingClient.signalingHandler.post(new Runnable() {
+         @Override
+         public void run()
+         {
+            JainSipClient jainSipClient = ((SignalingHandler) signalingClient.signalingHandler).jainSipClient;
+            if (online) {
+               ConnectivitySimulator.goOnline(jainSipClient);
+            }
+            else {
+               ConnectivitySimulator.goOffline(jainSipClient);
+            }
+         }
+      });
+   }
+
+   private void waitForMessageRequests(int count) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+      while (sipStandIn.getRequestCount("MESSAGE") < count) {
+         assertTrue("Timed out waiting for " + count + " MESSAGE requests", System.nanoTime() < deadline);
+         Thread.sleep(10);
+      }
+   }
+
+   // SignalingClientListener
+   @Override
+   public void onMessageReply(String jobId, RCClient.ErrorCodes status, String text)
+   {
+      replies.put(jobId, status);
+      messageLatch.countDown();
+   }
+
+   @Override
+   public void onConnectivityEvent(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus)
+   {
+      connectivityLatch.countDown();
+   }
+}
@@ -0,0 +1,233 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import android.util.Log;
+
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Signaling benchmarks that drive SignalingClient (and through it JainSipClient and JainSipJobManager) against SipStandIn, an in-process
+ * SIP server on the loopback interface, so that numbers reflect our own signaling path and not network or Restcomm latency.
+ *
+ * Covers registration (open/close cycles), call setup/teardown (INVITE/ACK/BYE, no media) and text message bursts, and logs latency
+ * percentiles and throughput under tag 'SignalingBenchmark'. Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class SignalingBenchmarkTest extends SignalingTestCase {
+   private static final String TAG = "SignalingBenchmark";
+   private static final int WARMUP_ITERATIONS = 5;
+   private static final int REGISTER_ITERATIONS = 30;
+   private static final int CALL_ITERATIONS = 50;
+   private static final int MESSAGE_BURST_SIZE = 500;
+   private static final int LOCAL_SIP_PORT = 5090;
+   // Minimal SDP offer; the stand-in doesn't look at it
+   private static final String SDP_OFFER =
+         "v=0\r\n" +
+         "o=benchmark 1 1 IN IP4 127.0.0.1\r\n" +
+         "s=-\r\n" +
+         "c=IN IP4 127.0.0.1\r\n" +
+         "t=0 0\r\n" +
+         "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n" +
+         "a=rtpmap:111 opus/48000/2\r\n";
+
+   // latches for the operation in progress, counted down from the main thread where SignalingClient delivers callbacks
+   private volatile CountDownLatch connectedLatch;
+   private volatile CountDownLatch disconnectedLatch;
+   private volatile CountDownLatch messageLatch;
+   // message job id -> send time in nanoseconds, and resulting latencies
+   private final ConcurrentHashMap<String, Long> messageSendTimes = new ConcurrentHashMap<>();
+   private final List<Long> messageLatencies = new ArrayList<>();
+   private volatile int messageErrors;
+
+   @Override
+   int getLocalSipPort()
+   {
+      return LOCAL_SIP_PORT;
+   }
+
+   public void testRegisterLatency() throws Exception
+   {
+      List<Long> openLatencies = new ArrayList<>();
+      List<Long> closeLatencies = new ArrayList<>();
+
+      for (int i = 0; i < WARMUP_ITERATIONS + REGISTER_ITERATIONS; i++) {
+         long openLatency = open();
+         long closeLatency = close();
+         if (i >= WARMUP_ITERATIONS) {
+            openLatencies.add(openLatency);
+            closeLatencies.add(closeLatency);
+         }
+      }
+
+      report("open (bind + REGISTER)", openLatencies);
+      report("close (unREGISTER + unbind)", closeLatencies);
+   }
+
+   public void testCallSetupLatency() throws Exception
+   {
+      open();
+
+      List<Long> setupLatencies = new ArrayList<>();
+      List<Long> teardownLatencies = new ArrayList<>();
+      try {
+         for (int i = 0; i < WARMUP_ITERATIONS + CALL_ITERATIONS; i++) {
+            final String jobId = UUID.randomUUID().toString();
+            final HashMap<String, Object> callParameters = new HashMap<String, Object>();
+            callParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, "alice");
+            callParameters.put("sdp", SDP_OFFER);
+
+            connectedLatch = new CountDownLatch(1);
+            long start = System.nanoTime();
+            getInstrumentation().runOnMainSync(new Runnable() {
+               @Override
+               public void run()
+               {
+                  signalingClient.call(jobId, callParameters);
+               }
+            });
+            await(connectedLatch, "call");
+            long setupLatency = System.nanoTime() - start;
+
+            disconnectedLatch = new CountDownLatch(1);
+            start = System.nanoTime();
+            getInstrumentation().runOnMainSync(new Runnable() {
+               @Override
+               public void run()
+               {
+                  signalingClient.disconnect(jobId, null);
+               }
+            });
+            await(disconnectedLatch, "disconnect");
+            long teardownLatency = System.nanoTime() - start;
+
+            if (i >= WARMUP_ITERATIONS) {
+               setupLatencies.add(setupLatency);
+               teardownLatencies.add(teardownLatency);
+            }
+         }
+      }
+      finally {
+         close();
+      }
+
+      report("call setup (INVITE -> 200 OK -> ACK)", setupLatencies);
+      report("call teardown (BYE -> 200 OK)", teardownLatencies);
+      assertEquals(WARMUP_ITERATIONS + CALL_ITERATIONS, sipStandIn.getRequestCount("BYE"));
+   }
+
+   public void testMessageBurstThroughput() throws Exception
+   {
+      open();
+
+      long duration;
+      try {
+         final List<HashMap<String, Object>> messages = new ArrayList<>(MESSAGE_BURST_SIZE);
+         for (int i = 0; i < MESSAGE_BURST_SIZE; i++) {
+            HashMap<String, Object> messageParameters = new HashMap<String, Object>();
+            // spread over a few peers, to exercise peer normalization caching as well
+            messageParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, "peer" + (i % 10));
+            messageParameters.put("text-message", "benchmark message " + i);
+            messages.add(messageParameters);
+         }
+
+         messageLatch = new CountDownLatch(MESSAGE_BURST_SIZE);
+         final long start = System.nanoTime();
+         getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run()
+            {
+               // replies can only arrive once we return to the main looper, so it's safe to record send times after the fact
+               for (String jobId : signalingClient.sendMessages(messages)) {
+                  messageSendTimes.put(jobId, start);
+               }
+            }
+         });
+         await(messageLatch, "sendMessages");
+         duration = System.nanoTime() - start;
+      }
+      finally {
+         close();
+      }
+
+      report("message (MESSAGE -> 200 OK, burst of " + MESSAGE_BURST_SIZE + ")", messageLatencies);
+      Log.i(TAG, String.format(Locale.US, "message throughput: %.1f messages/s, errors: %d", MESSAGE_BURST_SIZE * 1e9 / duration, messageErrors));
+      assertEquals(0, messageErrors);
+   }
+
+   // Helpers
+   private void report(String operation, List<Long> latencies)
+   {
+      long[] sorted = new long[latencies.size()];
+      for (int i = 0; i < sorted.length; i++) {
+         sorted[i] = latencies.get(i);
+      }
+      Arrays.sort(sorted);
+
+      Log.i(TAG, String.format(Locale.US, "%s: samples: %d, p50: %.2fms, p90: %.2fms, p99: %.2fms, max: %.2fms", operation, sorted.length,
+            percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[sorted.length - 1] / 1e6));
+   }
+
+   // nearest-rank percentile, in milliseconds
+   private static double percentile(long[] sorted, int percentile)
+   {
+      int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+      return sorted[Math.max(0, rank - 1)] / 1e6;
+   }
+
+   // SignalingClientListener
+   @Override
+   public void onMessageReply(String jobId, RCClient.ErrorCodes status, String text)
+   {
+      Long sendTime = messageSendTimes.remove(jobId);
+      if (sendTime != null) {
+         messageLatencies.add(System.nanoTime() - sendTime);
+      }
+      if (status != RCClient.ErrorCodes.SUCCESS) {
+         messageErrors++;
+      }
+      messageLatch.countDown();
+   }
+
+   // SignalingClientCallListener
+   @Override
+   public void onCallOutgoingConnectedEvent(String jobId, String sdpAnswer, HashMap<String, String> customHeaders)
+   {
+      connectedLatch.countDown();
+   }
+
+   @Override
+   public void onCallLocalDisconnectedEvent(String jobId)
+   {
+      disconnectedLatch.countDown();
+   }
+}
@@ -0,0 +1,283 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import junit.framework.TestCase;
+
+import org.restcomm.android.sdk.util.Benchmark;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that SignalingParameters.generateSipSdp() and extractCandidates() produce the same SDP as the regex based implementation they
+ * replaced, and compares how long each takes to merge candidates into and strip them from a video call SDP with a realistic candidate
+ * count (40, over several interfaces). Results are logged under tag 'CandidatesBenchmark'.
+ * Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class SignalingParametersBenchmarkTest extends TestCase {
+   private static final String TAG = "CandidatesBenchmark";
+   private static final int WARMUP_ITERATIONS = 500;
+   private static final int ITERATIONS = 5000;
+
+   // Representative Chrome audio/video offer
+   private static final String SDP =
+         "v=0\r\n" +
+         "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+         "s=-\r\n" +
+         "t=0 0\r\n" +
+         "a=group:BUNDLE audio video\r\n" +
+         "a=msid-semantic: WMS ARDAMS\r\n" +
+         "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 110 112 113 126\r\n" +
+         "c=IN IP4 0.0.0.0\r\n" +
+         "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+         "a=ice-ufrag:4ZcD\r\n" +
+         "a=ice-pwd:2/1muCWoOi3uLifh0NuRHlAM\r\n" +
+         "a=fingerprint:sha-256 C2:56:8A:6E:60:F1:0A:F6:A1:7A:1A:A5:7E:9C:A0:8E:4F:C3:A6:10:43:53:5B:B1:0B:0F:2F:82:1A:7A:3C:07\r\n" +
+         "a=setup:actpass\r\n" +
+         "a=mid:audio\r\n" +
+         "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n" +
+         "a=sendrecv\r\n" +
+         "a=rtcp-mux\r\n" +
+         "a=rtpmap:111 opus/48000/2\r\n" +
+         "a=rtcp-fb:111 transport-cc\r\n" +
+         "a=fmtp:111 minptime=10;useinbandfec=1\r\n" +
+         "a=rtpmap:103 ISAC/16000\r\n" +
+         "a=rtpmap:104 ISAC/32000\r\n" +
+         "a=rtpmap:9 G722/8000\r\n" +
+         "a=rtpmap:102 ILBC/8000\r\n" +
+         "a=rtpmap:0 PCMU/8000\r\n" +
+         "a=rtpmap:8 PCMA/8000\r\n" +
+         "a=rtpmap:106 CN/32000\r\n" +
+         "a=rtpmap:105 CN/16000\r\n" +
+         "a=rtpmap:13 CN/8000\r\n" +
+         "a=rtpmap:110 telephone-event/48000\r\n" +
+         "a=rtpmap:112 telephone-event/32000\r\n" +
+         "a=rtpmap:113 telephone-event/16000\r\n" +
+         "a=rtpmap:126 telephone-event/8000\r\n" +
+         "a=ssrc:3066507236 cname:lW3YUdZAHJ8Bz3vR\r\n" +
+         "a=ssrc:3066507236 msid:ARDAMS ARDAMSa0\r\n" +
+         "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127\r\n" +
+         "c=IN IP4 0.0.0.0\r\n" +
+         "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+         "a=ice-ufrag:4ZcD\r\n" +
+         "a=ice-pwd:2/1muCWoOi3uLifh0NuRHlAM\r\n" +
+         "a=fingerprint:sha-256 C2:56:8A:6E:60:F1:0A:F6:A1:7A:1A:A5:7E:9C:A0:8E:4F:C3:A6:10:43:53:5B:B1:0B:0F:2F:82:1A:7A:3C:07\r\n" +
+         "a=setup:actpass\r\n" +
+         "a=mid:video\r\n" +
+         "a=sendrecv\r\n" +
+         "a=rtcp-mux\r\n" +
+         "a=rtcp-rsize\r\n" +
+         "a=rtpmap:96 VP8/90000\r\n" +
+         "a=rtcp-fb:96 ccm fir\r\n" +
+         "a=rtcp-fb:96 nack\r\n" +
+         "a=rtcp-fb:96 nack pli\r\n" +
+         "a=rtcp-fb:96 goog-remb\r\n" +
+         "a=rtpmap:97 rtx/90000\r\n" +
+         "a=fmtp:97 apt=96\r\n" +
+         "a=rtpmap:98 VP9/90000\r\n" +
+         "a=rtpmap:99 rtx/90000\r\n" +
+         "a=fmtp:99 apt=98\r\n" +
+         "a=rtpmap:100 H264/90000\r\n" +
+         "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n" +
+         "a=rtpmap:101 rtx/90000\r\n" +
+         "a=fmtp:101 apt=100\r\n" +
+         "a=rtpmap:127 red/90000\r\n" +
+         "a=ssrc:1818853520 cname:lW3YUdZAHJ8Bz3vR\r\n" +
+         "a=ssrc:1818853520 msid:ARDAMS ARDAMSv0\r\n";
+
+   // Data channel m-section, to check that sections other than the first audio and video ones are handled
+   private static final String DATA_SECTION =
+         "m=application 9 DTLS/SCTP 5000\r\n" +
+         "c=IN IP4 0.0.0.0\r\n" +
+         "a=ice-ufrag:4ZcD\r\n" +
+         "a=ice-pwd:2/1muCWoOi3uLifh0NuRHlAM\r\n" +
+         "a=mid:data\r\n" +
+         "a=sctpmap:5000 webrtc-datachannel 1024\r\n";
+
+   // Candidates gathered for SDP above by a dual stack device on both Wi-Fi and cellular, with a TURN server: host UDP and TCP,
+   // server reflexive and relayed, for each of 5 addresses and both m-sections
+   private static final List<IceCandidate> CANDIDATES = videoCallCandidates();
+
+   public void testMergeEquivalence()
+   {
+      assertEquals(mergeWithRegex(SDP, CANDIDATES), merge(SDP, CANDIDATES));
+   }
+
+   public void testStripEquivalence()
+   {
+      String merged = merge(SDP, CANDIDATES);
+      List<IceCandidate> regexCandidates = new ArrayList<>();
+      assertEquals(SDP, stripWithRegex(merged, regexCandidates));
+
+      SignalingParameters params = SignalingParameters.extractCandidates(new SessionDescription(SessionDescription.Type.OFFER, merged));
+      assertEquals(SDP, params.offerSdp.description);
+      assertEquals(CANDIDATES.size(), params.iceCandidates.size());
+      for (int i = 0; i < CANDIDATES.size(); i++) {
+         assertEquals(regexCandidates.get(i).sdp, params.iceCandidates.get(i).sdp);
+         assertEquals(regexCandidates.get(i).sdpMid, params.iceCandidates.get(i).sdpMid);
+         // unlike the regex implementation, the real m-line index is kept
+         assertEquals(CANDIDATES.get(i).sdpMLineIndex, params.iceCandidates.get(i).sdpMLineIndex);
+      }
+   }
+
+   public void testAnyNumberOfSections()
+   {
+      String sdp = SDP + DATA_SECTION;
+      List<IceCandidate> candidates = new ArrayList<>(CANDIDATES);
+      candidates.add(new IceCandidate("data", 2, "candidate:1 1 udp 2122260223 192.168.1.23 50200 typ host generation 0"));
+
+      String merged = merge(sdp, candidates);
+      // the data section has no 'a=rtcp:' line, so its candidate goes at the end of it
+      assertTrue(merged.endsWith("a=sctpmap:5000 webrtc-datachannel 1024\r\na=" + candidates.get(candidates.size() - 1).sdp + "\r\n"));
+
+      SignalingParameters params = SignalingParameters.extractCandidates(new SessionDescription(SessionDescription.Type.OFFER, merged));
+      assertEquals(sdp, params.offerSdp.description);
+      assertEquals(candidates.size(), params.iceCandidates.size());
+      IceCandidate last = params.iceCandidates.get(params.iceCandidates.size() - 1);
+      assertEquals("data", last.sdpMid);
+      assertEquals(2, last.sdpMLineIndex);
+   }
+
+   public void testBenchmark() throws Exception
+   {
+      final SessionDescription merged = new SessionDescription(SessionDescription.Type.OFFER, merge(SDP, CANDIDATES));
+      Benchmark benchmark = new Benchmark(TAG, WARMUP_ITERATIONS, ITERATIONS);
+      benchmark.compare("merge " + CANDIDATES.size() + " candidates", "SDP", "regex", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            mergeWithRegex(SDP, CANDIDATES);
+         }
+      }, "SignalingParameters", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            merge(SDP, CANDIDATES);
+         }
+      });
+      benchmark.compare("strip " + CANDIDATES.size() + " candidates", "SDP", "regex", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            stripWithRegex(merged.description, new ArrayList<IceCandidate>());
+         }
+      }, "SignalingParameters", new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            SignalingParameters.extractCandidates(merged);
+         }
+      });
+   }
+
+   // Helpers
+   private static List<IceCandidate> videoCallCandidates()
+   {
+      // local address, server reflexive address, relayed address
+      String[][] addresses = {
+            { "192.168.1.23", "85.73.112.41", "52.18.94.203" },
+            { "10.145.20.7", "176.58.201.14", "52.18.94.203" },
+            { "2a02:587:4c1a:6e00:8d4:1c3f:a52e:91b0", "2a02:587:4c1a:6e00:8d4:1c3f:a52e:91b0", "2a05:d018:1b3:c400::17" },
+            { "2a02:587:4c1a:6e00:f1d2:68a9:3b1e:7c05", "2a02:587:4c1a:6e00:f1d2:68a9:3b1e:7c05", "2a05:d018:1b3:c400::17" },
+            { "100.71.34.190", "176.58.201.15", "52.18.94.203" },
+      };
+      String[] mids = { "audio", "video" };
+      List<IceCandidate> candidates = new ArrayList<>();
+      int foundation = 842163049;
+      for (int index = 0; index < mids.length; index++) {
+         for (int network = 0; network < addresses.length; network++) {
+            int port = 50000 + 100 * index + 10 * network;
+            int networkCost = (network == 1 || network == 4) ? 900 : 10;
+            String suffix = " generation 0 ufrag 4ZcD network-id " + (network + 1) + " network-cost " + networkCost;
+            candidates.add(new IceCandidate(mids[index], index, "candidate:" + foundation++ + " 1 udp " + (2122260223 - 256 * network) +
+                  " " + addresses[network][0] + " " + port + " typ host" + suffix));
+            candidates.add(new IceCandidate(mids[index], index, "candidate:" + foundation++ + " 1 tcp " + (1518280447 - 256 * network) +
+                  " " + addresses[network][0] + " 9 typ host tcptype active" + suffix));
+            candidates.add(new IceCandidate(mids[index], index, "candidate:" + foundation++ + " 1 udp " + (1686052607 - 256 * network) +
+                  " " + addresses[network][1] + " " + (port + 1) + " typ srflx raddr " + addresses[network][0] + " rport " + port + suffix));
+            candidates.add(new IceCandidate(mids[index], index, "candidate:" + foundation++ + " 1 udp " + (41885439 - 256 * network) +
+                  " " + addresses[network][2] + " " + (60000 + port % 1000) + " typ relay raddr " + addresses[network][1] + " rport " +
+                  (port + 1) + suffix));
+         }
+      }
+      return candidates;
+   }
+
+   private static String merge(String sdp, List<IceCandidate> candidates)
+   {
+      return new SignalingParameters().generateSipSdp(new SessionDescription(SessionDescription.Type.OFFER, sdp), candidates);
+   }
+
+   // -- Previous SignalingParameters.generateSipSdp() and extractCandidates() implementations, kept here as a baseline
+   private static String mergeWithRegex(String sdp, List<IceCandidate> candidates)
+   {
+      String audioCandidates = "";
+      String videoCandidates = "";
+      for (IceCandidate candidate : candidates) {
+         if (candidate.sdpMid.equals("audio") || candidate.sdpMid.equals("sdparta_0")) {
+            audioCandidates += "a=" + candidate.sdp + "\r\n";
+         }
+         if (candidate.sdpMid.equals("video") || candidate.sdpMid.equals("sdparta_1")) {
+            videoCandidates += "a=" + candidate.sdp + "\r\n";
+         }
+      }
+
+      Matcher matcher = Pattern.compile("(a=rtcp:.*?\\r\\n)").matcher(sdp);
+      int index = 0;
+      StringBuffer stringBuffer = new StringBuffer();
+      while (matcher.find()) {
+         if (index == 0) {
+            matcher.appendReplacement(stringBuffer, "$1" + audioCandidates);
+         }
+         else {
+            matcher.appendReplacement(stringBuffer, "$1" + videoCandidates);
+         }
+         index++;
+      }
+      matcher.appendTail(stringBuffer);
+      return stringBuffer.toString();
+   }
+
+   private static String stripWithRegex(String sdp, List<IceCandidate> extracted)
+   {
+      Matcher matcher = Pattern.compile("m=audio|m=video|a=(candidate.*)\\r\\n").matcher(sdp);
+      String collectionState = "none";
+      while (matcher.find()) {
+         if (matcher.group(0).equals("m=audio")) {
+            collectionState = "audio";
+            continue;
+         }
+         if (matcher.group(0).equals("m=video")) {
+            collectionState = "video";
+            continue;
+         }
+         extracted.add(new IceCandidate(collectionState, 0, matcher.group(1)));
+      }
+      return sdp.replaceAll("a=candidate.*?\\r\\n", "");
+   }
+}
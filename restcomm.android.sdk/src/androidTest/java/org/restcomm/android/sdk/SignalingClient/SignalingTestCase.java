@@ -0,0 +1,234 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.RCDeviceListener;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base for tests that drive SignalingClient (and through it JainSipClient) against SipStandIn. Starts the stand-in, prepares the
+ * parameters for SignalingClient to register with it, and provides open()/close() helpers that block until the respective reply
+ * arrives. Listener callbacks do nothing by default; subclasses override the ones they are interested in.
+ *
+ * Each subclass uses its own local SIP port (see getLocalSipPort()), so that tests don't collide with each other. Keep in mind that
+ * the device needs to have some network connectivity, since JainSipClient refuses to open otherwise.
+ */
+abstract class SignalingTestCase extends InstrumentationTestCase implements SignalingClient.SignalingClientListener,
+      SignalingClient.SignalingClientCallListener {
+   static final long TIMEOUT_SECONDS = 30;
+
+   SipStandIn sipStandIn;
+   SignalingClient signalingClient;
+   HashMap<String, Object> parameters;
+
+   // latches for open/close in progress, counted down from the main thread where SignalingClient delivers callbacks
+   private volatile CountDownLatch openLatch;
+   private volatile CountDownLatch closeLatch;
+   private volatile RCClient.ErrorCodes openStatus;
+
+   /**
+    * Local SIP port for SignalingClient to bind to; needs to be different for each subclass
+    */
+   abstract int getLocalSipPort();
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      sipStandIn = new SipStandIn();
+      sipStandIn.start();
+
+      parameters = new HashMap<String, Object>();
+      parameters.put(RCDevice.ParameterKeys.SIGNALING_USERNAME, getClass().getSimpleName().toLowerCase(Locale.US));
+      parameters.put(RCDevice.ParameterKeys.SIGNALING_PASSWORD, "");
+      parameters.put(RCDevice.ParameterKeys.SIGNALING_DOMAIN, "127.0.0.1:" + sipStandIn.getPort() + ";transport=tcp");
+      parameters.put(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED, false);
+      parameters.put(RCDevice.ParameterKeys.SIGNALING_LOCAL_PORT, getLocalSipPort());
+      parameters.put(RCDevice.ParameterKeys.DEBUG_JAIN_DISABLE_CERTIFICATE_VERIFICATION, true);
+
+      // SignalingClient is a Handler bound to the looper of whichever thread touches it first, so make sure that's the main thread
+      getInstrumentation().runOnMainSync(new Runnable() {
+         @Override
+         public void run()
+         {
+            signalingClient = SignalingClient.getInstance();
+         }
+      });
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      sipStandIn.stop();
+      super.tearDown();
+   }
+
+   // Helpers
+   /**
+    * Open SignalingClient against the stand-in and wait for it to register
+    * @return Time it took, in nanoseconds
+    */
+   long open() throws InterruptedException
+   {
+      openLatch = new CountDownLatch(1);
+      long start = System.nanoTime();
+      getInstrumentation().runOnMainSync(new Runnable() {
+         @Override
+         public void run()
+         {
+            signalingClient.open(SignalingTestCase.this, getInstrumentation().getTargetContext(), new HashMap<String, Object>(parameters));
+         }
+      });
+      await(openLatch, "open");
+      assertEquals(RCClient.ErrorCodes.SUCCESS, openStatus);
+      return System.nanoTime() - start;
+   }
+
+   /**
+    * Close SignalingClient and wait for it to unregister
+    * @return Time it took, in nanoseconds
+    */
+   long close() throws InterruptedException
+   {
+      closeLatch = new CountDownLatch(1);
+      long start = System.nanoTime();
+      getInstrumentation().runOnMainSync(new Runnable() {
+         @Override
+         public void run()
+         {
+            signalingClient.close();
+         }
+      });
+      await(closeLatch, "close");
+      return System.nanoTime() - start;
+   }
+
+   void await(CountDownLatch latch, String operation) throws InterruptedException
+   {
+      await(latch, operation, TIMEOUT_SECONDS);
+   }
+
+   void await(CountDownLatch latch, String operation, long timeoutSeconds) throws InterruptedException
+   {
+      assertTrue("Timed out waiting for " + operation + ", " + latch.getCount() + " left",
+            latch.await(timeoutSeconds, TimeUnit.SECONDS));
+   }
+
+   // SignalingClientListener
+   public void onOpenReply(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus, RCClient.ErrorCodes status, String text)
+   {
+      openStatus = status;
+      openLatch.countDown();
+   }
+
+   public void onCloseReply(String jobId, RCClient.ErrorCodes status, String text)
+   {
+      closeLatch.countDown();
+   }
+
+   public void onReconfigureReply(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus, RCClient.ErrorCodes status, String text)
+   {
+   }
+
+   public void onMessageReply(String jobId, RCClient.ErrorCodes status, String text)
+   {
+   }
+
+   public void onCallArrivedEvent(String jobId, String peer, String sdpOffer, HashMap<String, String> customHeaders)
+   {
+   }
+
+   public void onMessageArrivedEvent(String jobId, String peer, String messageText)
+   {
+   }
+
+   public void onErrorEvent(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus, RCClient.ErrorCodes status, String text)
+   {
+      Log.e(getClass().getSimpleName(), "onErrorEvent(): " + status + ", " + text);
+   }
+
+   public void onConnectivityEvent(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus)
+   {
+   }
+
+   public void onRegisteringEvent(String jobId)
+   {
+   }
+
+   public SignalingClient.SignalingClientCallListener getConnectionByJobId(String jobId)
+   {
+      return this;
+   }
+
+   // SignalingClientCallListener
+   public void onCallOutgoingConnectedEvent(String jobId, String sdpAnswer, HashMap<String, String> customHeaders)
+   {
+   }
+
+   public void onCallIncomingConnectedEvent(String jobId)
+   {
+   }
+
+   public void onCallPeerDisconnectEvent(String jobId)
+   {
+   }
+
+   public void onCallOutgoingPeerRingingEvent(String jobId)
+   {
+   }
+
+   public void onCallLocalDisconnectedEvent(String jobId)
+   {
+   }
+
+   public void onCallErrorEvent(String jobId, RCClient.ErrorCodes status, String text)
+   {
+      Log.e(getClass().getSimpleName(), "onCallErrorEvent(): " + status + ", " + text);
+   }
+
+   public void onCallIncomingCanceledEvent(String jobId)
+   {
+   }
+
+   public void onCallSentDigitsEvent(String jobId, RCClient.ErrorCodes statusCode, String statusText)
+   {
+   }
+
+   public void onCallReinviteEvent(String jobId, String sdpAnswer, RCClient.ErrorCodes statusCode, String statusText)
+   {
+   }
+
+   public void onCallNetworkHandoverEvent(String jobId)
+   {
+   }
+}
@@ -0,0 +1,345 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SIP UAS over TCP, standing in for Restcomm in signaling benchmarks. It answers REGISTER, MESSAGE, BYE (and
+ * anything else apart from ACK) with 200 OK, and INVITE with 100 Trying followed by 200 OK carrying a fixed SDP answer.
+ *
+ * It doesn't do any authentication, dialog or transaction handling, just enough header mirroring (Via, From, To, Call-ID, CSeq) for
+ * JAIN SIP on the client side to match responses to requests. Each TCP connection is served by its own thread.
+ */
+class SipStandIn {
+   private static final String TAG = "SipStandIn";
+   private static final String SDP_ANSWER =
+         "v=0\r\n" +
+         "o=standin 1 1 IN IP4 127.0.0.1\r\n" +
+         "s=-\r\n" +
+         "c=IN IP4 127.0.0.1\r\n" +
+         "t=0 0\r\n" +
+         "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n" +
+         "a=rtpmap:111 opus/48000/2\r\n";
+
+   private ServerSocket serverSocket;
+   private final List<Socket> sockets = new ArrayList<>();
+   private final AtomicInteger tagCounter = new AtomicInteger();
+   private volatile boolean running = false;
+   // requests served, per method
+   private final Map<String, AtomicInteger> requestCounts = new LinkedHashMap<>();
+   // when set, MESSAGE requests are counted but never answered, to keep them in flight on the client side
+   private volatile boolean holdMessages = false;
+
+   /**
+    * Start listening on an ephemeral loopback port
+    */
+   void start() throws IOException
+   {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      running = true;
+      Thread acceptThread = new Thread(new Runnable() {
+         @Override
+         public void run()
+         {
+            while (running) {
+               try {
+                  final Socket socket = serverSocket.accept();
+                  socket.setTcpNoDelay(true);
+                  synchronized (sockets) {
+                     sockets.add(socket);
+                  }
+                  Thread connectionThread = new Thread(new Runnable() {
+                     @Override
+                     public void run()
+                     {
+                        serve(socket);
+                     }
+                  }, "SipStandIn-connection");
+                  connectionThread.start();
+               }
+               catch (IOException e) {
+                  if (running) {
+                     Log.e(TAG, "accept() failed: " + e.getMessage());
+                  }
+               }
+            }
+         }
+      }, "SipStandIn-accept");
+      acceptThread.start();
+      Log.i(TAG, "Listening at 127.0.0.1:" + getPort());
+   }
+
+   void stop()
+   {
+      running = false;
+      try {
+         serverSocket.close();
+      }
+      catch (IOException e) {
+         // nothing to do
+      }
+      synchronized (sockets) {
+         for (Socket socket : sockets) {
+            try {
+               socket.close();
+            }
+            catch (IOException e) {
+               // nothing to do
+            }
+         }
+         sockets.clear();
+      }
+   }
+
+   int getPort()
+   {
+      return serverSocket.getLocalPort();
+   }
+
+   /**
+    * Stop (or resume) answering MESSAGE requests. Held requests are never answered, even after resuming
+    */
+   void setHoldMessages(boolean holdMessages)
+   {
+      this.holdMessages = holdMessages;
+   }
+
+   int getRequestCount(String method)
+   {
+      synchronized (requestCounts) {
+         AtomicInteger count = requestCounts.get(method);
+         return (count == null) ? 0 : count.get();
+      }
+   }
+
+   // Helpers
+   private void serve(Socket socket)
+   {
+      try {
+         InputStream input = socket.getInputStream();
+         OutputStream output = socket.getOutputStream();
+         String sourceAddress = socket.getInetAddress().getHostAddress();
+         int sourcePort = socket.getPort();
+
+         while (running) {
+            SipRequest request = readRequest(input);
+            if (request == null) {
+               break;
+            }
+            countRequest(request.method);
+
+            if (request.method.equals("ACK") || (request.method.equals("MESSAGE") && holdMessages)) {
+               continue;
+            }
+            if (request.method.equals("INVITE")) {
+               output.write(buildResponse(request, 100, "Trying", null, sourceAddress, sourcePort, false));
+               output.write(buildResponse(request, 200, "OK", SDP_ANSWER, sourceAddress, sourcePort, true));
+            }
+            else {
+               output.write(buildResponse(request, 200, "OK", null, sourceAddress, sourcePort, request.method.equals("REGISTER")));
+            }
+            output.flush();
+         }
+      }
+      catch (SocketException e) {
+         // connection closed, typically by stop()
+      }
+      catch (IOException e) {
+         Log.e(TAG, "serve() failed: " + e.getMessage());
+      }
+      finally {
+         try {
+            socket.close();
+         }
+         catch (IOException e) {
+            // nothing to do
+         }
+      }
+   }
+
+   private void countRequest(String method)
+   {
+      synchronized (requestCounts) {
+         AtomicInteger count = requestCounts.get(method);
+         if (count == null) {
+            count = new AtomicInteger();
+            requestCounts.put(method, count);
+         }
+         count.incrementAndGet();
+      }
+   }
+
+   private static class SipRequest {
+      String method;
+      // header lines in the order received, with compact names expanded
+      List<String[]> headers = new ArrayList<>();
+
+      List<String> getHeaders(String name)
+      {
+         List<String> values = new ArrayList<>();
+         for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+               values.add(header[1]);
+            }
+         }
+         return values;
+      }
+
+      String getHeader(String name)
+      {
+         List<String> values = getHeaders(name);
+         return values.isEmpty() ? null : values.get(0);
+      }
+   }
+
+   // Read a request off the stream; returns null when the connection is closed
+   private static SipRequest readRequest(InputStream input) throws IOException
+   {
+      ByteArrayOutputStream head = new ByteArrayOutputStream();
+      int matched = 0;
+      int b;
+      // read until the empty line that ends the headers, skipping any keep-alive CRLFs in between messages
+      while (matched < 4 && (b = input.read()) != -1) {
+         if (head.size() == 0 && (b == '\r' || b == '\n')) {
+            continue;
+         }
+         head.write(b);
+         matched = ((matched % 2 == 0 && b == '\r') || (matched % 2 == 1 && b == '\n')) ? matched + 1 : 0;
+      }
+      if (matched < 4) {
+         return null;
+      }
+
+      String[] lines = head.toString("UTF-8").split("\r\n");
+      SipRequest request = new SipRequest();
+      request.method = lines[0].substring(0, lines[0].indexOf(' '));
+      for (int i = 1; i < lines.length; i++) {
+         int colon = lines[i].indexOf(':');
+         if (colon <= 0) {
+            continue;
+         }
+         request.headers.add(new String[] { expandHeaderName(lines[i].substring(0, colon).trim()), lines[i].substring(colon + 1).trim() });
+      }
+
+      // skip the body, we don't need it
+      String contentLength = request.getHeader("Content-Length");
+      int length = (contentLength == null) ? 0 : Integer.parseInt(contentLength);
+      while (length > 0) {
+         long skipped = input.skip(length);
+         if (skipped <= 0) {
+            if (input.read() == -1) {
+               return null;
+            }
+            skipped = 1;
+         }
+         length -= skipped;
+      }
+
+      return request;
+   }
+
+   private static String expandHeaderName(String name)
+   {
+      if (name.length() != 1) {
+         return name;
+      }
+      switch (Character.toLowerCase(name.charAt(0))) {
+         case 'v':
+            return "Via";
+         case 'f':
+            return "From";
+         case 't':
+            return "To";
+         case 'i':
+            return "Call-ID";
+         case 'l':
+            return "Content-Length";
+         case 'm':
+            return "Contact";
+         case 'c':
+            return "Content-Type";
+         default:
+            return name;
+      }
+   }
+
+   private byte[] buildResponse(SipRequest request, int code, String reason, String sdp, String sourceAddress, int sourcePort,
+                                boolean addContact) throws IOException
+   {
+      StringBuilder response = new StringBuilder(512);
+      response.append("SIP/2.0 ").append(code).append(' ').append(reason).append("\r\n");
+
+      List<String> vias = request.getHeaders("Via");
+      for (int i = 0; i < vias.size(); i++) {
+         String via = vias.get(i);
+         if (i == 0) {
+            // fill in rport and received in the top Via, like a real server would
+            via = via.replace(";rport;", ";rport=" + sourcePort + ";").replaceAll(";rport$", ";rport=" + sourcePort) + ";received=" + sourceAddress;
+         }
+         response.append("Via: ").append(via).append("\r\n");
+      }
+      response.append("From: ").append(request.getHeader("From")).append("\r\n");
+      String to = request.getHeader("To");
+      if (code > 100 && !to.contains(";tag=")) {
+         to += ";tag=standin" + tagCounter.incrementAndGet();
+      }
+      response.append("To: ").append(to).append("\r\n");
+      response.append("Call-ID: ").append(request.getHeader("Call-ID")).append("\r\n");
+      response.append("CSeq: ").append(request.getHeader("CSeq")).append("\r\n");
+      if (addContact) {
+         if (request.method.equals("REGISTER")) {
+            response.append("Contact: ").append(request.getHeader("Contact")).append(";expires=3600\r\n");
+         }
+         else {
+            response.append("Contact: <sip:standin@127.0.0.1:").append(getPort()).append(";transport=tcp>\r\n");
+         }
+      }
+      byte[] body = (sdp == null) ? new byte[0] : sdp.getBytes("UTF-8");
+      if (sdp != null) {
+         response.append("Content-Type: application/sdp\r\n");
+      }
+      response.append(String.format(Locale.US, "Content-Length: %d\r\n\r\n", body.length));
+
+      byte[] head = response.toString().getBytes("UTF-8");
+      byte[] message = new byte[head.length + body.length];
+      System.arraycopy(head, 0, message, 0, head.length);
+      System.arraycopy(body, 0, message, head.length, body.length);
+      return message;
+   }
+}
@@ -0,0 +1,109 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.util;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Timing loop shared by the micro benchmarks: runs an operation a number of times to warm up (JIT, caches), then times a fixed number
+ * of iterations with System.nanoTime(). compare() does that for a baseline implementation and its replacement, and logs the time per
+ * iteration of each and the speedup, i.e.:
+ *
+ * new Benchmark(TAG, 2000, 20000).compare("munge", "SDP", "strings/regex", baseline, "model", replacement);
+ */
+public class Benchmark {
+   /**
+    * One iteration of the operation being timed
+    */
+   public interface Iteration {
+      /**
+       * @param iteration Iteration number, starting from 0 for warmup and timed runs alike
+       */
+      void run(int iteration) throws Exception;
+   }
+
+   private final String tag;
+   private final int warmupIterations;
+   private final int iterations;
+
+   /**
+    * @param tag Log tag to report results under
+    * @param warmupIterations Iterations to run before timing
+    * @param iterations Iterations to time
+    */
+   public Benchmark(String tag, int warmupIterations, int iterations)
+   {
+      this.tag = tag;
+      this.warmupIterations = warmupIterations;
+      this.iterations = iterations;
+   }
+
+   /**
+    * Warm up both implementations, time each in turn and log the results
+    * @param operation What is being timed, for the log
+    * @param unit What a single iteration processes, for the log (i.e. 'SDP' for 'us per SDP')
+    * @param baselineName Name of the implementation being replaced
+    * @param baseline Implementation being replaced
+    * @param name Name of the replacement
+    * @param replacement Replacement implementation
+    * @return Speedup of the replacement over the baseline
+    */
+   public double compare(String operation, String unit, String baselineName, Iteration baseline, String name, Iteration replacement)
+         throws Exception
+   {
+      run(baseline, warmupIterations);
+      run(replacement, warmupIterations);
+      long baselineNs = run(baseline, iterations);
+      long replacementNs = run(replacement, iterations);
+
+      double speedup = (double) baselineNs / replacementNs;
+      Log.i(tag, String.format(Locale.US, "%s: %s: %s per %s, %s: %s per %s, speedup: %.1fx", operation,
+            baselineName, formatDuration((double) baselineNs / iterations), unit,
+            name, formatDuration((double) replacementNs / iterations), unit, speedup));
+      return speedup;
+   }
+
+   // Helpers
+   private static long run(Iteration operation, int count) throws Exception
+   {
+      long start = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+         operation.run(i);
+      }
+      return System.nanoTime() - start;
+   }
+
+   // Pick the unit so that there's a handful of significant digits, whether it's a hash lookup or an HTTP request
+   private static String formatDuration(double nanoseconds)
+   {
+      if (nanoseconds < 1000) {
+         return String.format(Locale.US, "%.1fns", nanoseconds);
+      }
+      if (nanoseconds < 1000000) {
+         return String.format(Locale.US, "%.2fus", nanoseconds / 1000);
+      }
+      return String.format(Locale.US, "%.2fms", nanoseconds / 1000000);
+   }
+}
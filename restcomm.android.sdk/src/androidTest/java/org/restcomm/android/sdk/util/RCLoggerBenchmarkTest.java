@@ -0,0 +1,142 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.util;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the cost of logging a SIP message through RCLogger's deferred (tag, msg, Object) variants against building the message
+ * up front with string concatenation, both with the level disabled (the default, Log.ERROR, for RCLogger.i()) and enabled. With
+ * the level disabled the deferred variants shouldn't serialize the message at all. Results are logged under tag 'RCLoggerBenchmark'.
+ * Run with: ./gradlew :restcomm.android.sdk:connectedAndroidTest
+ */
+public class RCLoggerBenchmarkTest extends TestCase {
+   private static final String TAG = "RCLoggerBenchmark";
+   // messages logged while benchmarking go to a separate tag, so that they are easy to filter out of logcat
+   private static final String SINK_TAG = "RCLoggerBenchmarkSink";
+   private static final int WARMUP_ITERATIONS = 2000;
+   private static final int DISABLED_ITERATIONS = 20000;
+   // logging to logcat is slow and floods it, so use fewer iterations when enabled
+   private static final int ENABLED_WARMUP_ITERATIONS = 100;
+   private static final int ENABLED_ITERATIONS = 1000;
+   private static final String SIP_MESSAGE =
+         "MESSAGE sip:alice@cloud.restcomm.com SIP/2.0\r\n" +
+         "Call-ID: 6d0d2e4d8a0b4c3f8b7e5a1f2c9d0e1a@192.168.1.10\r\n" +
+         "CSeq: 1 MESSAGE\r\n" +
+         "From: <sip:bob@cloud.restcomm.com>;tag=1476800000000\r\n" +
+         "To: <sip:alice@cloud.restcomm.com>\r\n" +
+         "Via: SIP/2.0/WSS 192.168.1.10:5090;branch=z9hG4bK-363433-2c9d0e1a;rport\r\n" +
+         "Max-Forwards: 70\r\n" +
+         "Route: <sip:cloud.restcomm.com:5063;transport=wss;lr>\r\n" +
+         "User-Agent: TelScale Restcomm Android Client 1.0.0-BETA6\r\n" +
+         "Content-Type: text/plain;charset=UTF-8\r\n" +
+         "Content-Length: 11\r\n" +
+         "\r\n" +
+         "Hello there";
+
+   private int previousLevel;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      previousLevel = RCLogger.getLogLevel();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      RCLogger.setLogLevel(previousLevel);
+      super.tearDown();
+   }
+
+   public void testDisabledLevelSkipsSerialization()
+   {
+      RCLogger.setLogLevel(Log.ERROR);
+      SipMessage message = new SipMessage();
+      RCLogger.v(SINK_TAG, "Sending SIP request: \n", message);
+      RCLogger.d(SINK_TAG, "Sending SIP request: \n", message);
+      RCLogger.i(SINK_TAG, "Sending SIP request: \n", message);
+      RCLogger.w(SINK_TAG, "Sending SIP request: \n", message);
+      assertEquals(0, message.serializations);
+
+      RCLogger.e(SINK_TAG, "Sending SIP request: \n", message);
+      assertEquals(1, message.serializations);
+   }
+
+   public void testBenchmark() throws Exception
+   {
+      final SipMessage message = new SipMessage();
+      Benchmark.Iteration eager = new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            logEagerly(message);
+         }
+      };
+      Benchmark.Iteration deferred = new Benchmark.Iteration() {
+         @Override
+         public void run(int iteration)
+         {
+            logDeferred(message);
+         }
+      };
+
+      RCLogger.setLogLevel(Log.ERROR);
+      new Benchmark(TAG, WARMUP_ITERATIONS, DISABLED_ITERATIONS).compare("RCLogger.i(), level disabled", "call", "eager", eager,
+            "deferred", deferred);
+      RCLogger.setLogLevel(Log.VERBOSE);
+      new Benchmark(TAG, ENABLED_WARMUP_ITERATIONS, ENABLED_ITERATIONS).compare("RCLogger.i(), level enabled", "call", "eager", eager,
+            "deferred", deferred);
+   }
+
+   // Helpers
+   // Baseline: how call sites used to log SIP messages, serializing them whether the level is enabled or not
+   private static void logEagerly(SipMessage message)
+   {
+      RCLogger.i(SINK_TAG, "Sending SIP request: \n" + message.toString());
+   }
+
+   private static void logDeferred(SipMessage message)
+   {
+      RCLogger.i(SINK_TAG, "Sending SIP request: \n", message);
+   }
+
+   // Stands in for a JAIN SIP message, whose toString() serializes every header each time it's called
+   private static class SipMessage {
+      int serializations = 0;
+
+      @Override
+      public String toString()
+      {
+         serializations++;
+         StringBuilder builder = new StringBuilder(SIP_MESSAGE.length());
+         for (String line : SIP_MESSAGE.split("\r\n", -1)) {
+            builder.append(line).append("\r\n");
+         }
+         return builder.substring(0, builder.length() - 2);
+      }
+   }
+}
@@ -0,0 +1,64 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * Routes media events (i.e. PeerConnectionClient.PeerConnectionEvents) of all RCConnections of an RCDevice from the webrtc thread to the
+ * UI thread. There's a single instance per RCDevice, and each event is an android.os.Message from the system pool carrying the target
+ * RCConnection in 'obj' and the event type in 'what', so dispatching doesn't allocate a Handler and a Runnable per event. Any event
+ * payload is handed over through the RCConnection itself, which also coalesces high frequency events (ICE candidates, stats), so that
+ * bursts of them only wake up the UI thread once (see RCConnection.handleMediaEvent())
+ */
+class ConnectionEventDispatcher extends Handler {
+   static final int EVENT_LOCAL_DESCRIPTION = 1;
+   static final int EVENT_ICE_CANDIDATES = 2;
+   static final int EVENT_ICE_CANDIDATES_REMOVED = 3;
+   static final int EVENT_ICE_GATHERING_COMPLETE = 4;
+   static final int EVENT_ICE_CONNECTED = 5;
+   static final int EVENT_ICE_DISCONNECTED = 6;
+   static final int EVENT_STATS_READY = 7;
+   static final int EVENT_PEER_CONNECTION_ERROR = 8;
+   static final int EVENT_LOCAL_VIDEO = 9;
+   static final int EVENT_REMOTE_VIDEO = 10;
+
+   ConnectionEventDispatcher(Looper looper)
+   {
+      super(looper);
+   }
+
+   // Can be called from any thread
+   void dispatch(RCConnection connection, int event)
+   {
+      obtainMessage(event, connection).sendToTarget();
+   }
+
+   @Override
+   public void handleMessage(Message message)
+   {
+      ((RCConnection) message.obj).handleMediaEvent(message.what);
+   }
+}
@@ -13,25 +13,24 @@ package org.restcomm.android.sdk.MediaClient;
 import android.content.Context;
 import android.os.Environment;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.EnumSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.restcomm.android.sdk.MediaClient.util.SdpModel;
+import org.restcomm.android.sdk.MediaClient.util.WebrtcLogging;
 import org.restcomm.android.sdk.SignalingClient.SignalingParameters;
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
@@ -66,7 +65,9 @@ import org.webrtc.voiceengine.WebRtcAudioUtils;
  * <p>
  * <p>All public methods are routed to local looper thread.
  * All PeerConnectionEvents callbacks are invoked from the same looper thread.
- * This class is a singleton.
+ * There is one instance per call; the looper thread, the peer connection factory (and hence the audio device module) and local
+ * capture sources are shared by all instances, so that concurrent calls (like one active and one on hold) don't open the
+ * microphone and camera twice.
  */
 public class PeerConnectionClient {
    public static final String VIDEO_TRACK_ID = "ARDAMSv0";
@@ -80,38 +81,65 @@ public class PeerConnectionClient {
    private static final String VIDEO_CODEC_H264_HIGH = "H264 High";
    private static final String AUDIO_CODEC_OPUS = "opus";
    private static final String AUDIO_CODEC_ISAC = "ISAC";
-   private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
    private static final String VIDEO_FLEXFEC_FIELDTRIAL = "WebRTC-FlexFEC-03/Enabled/";
    private static final String VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL = "WebRTC-IntelVP8/Enabled/";
    private static final String VIDEO_H264_HIGH_PROFILE_FIELDTRIAL =
          "WebRTC-H264HighProfile/Enabled/";
-   private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
    private static final String AUDIO_ECHO_CANCELLATION_CONSTRAINT = "googEchoCancellation";
    private static final String AUDIO_AUTO_GAIN_CONTROL_CONSTRAINT = "googAutoGainControl";
    private static final String AUDIO_HIGH_PASS_FILTER_CONSTRAINT = "googHighpassFilter";
    private static final String AUDIO_NOISE_SUPPRESSION_CONSTRAINT = "googNoiseSuppression";
    private static final String AUDIO_LEVEL_CONTROL_CONSTRAINT = "levelControl";
    private static final String DTLS_SRTP_KEY_AGREEMENT_CONSTRAINT = "DtlsSrtpKeyAgreement";
+   private static final String DATA_CHANNEL_LABEL = "restcomm-data";
+   // Data channel buffered amount above which sendData() refuses more data, and below which we signal that sending can resume
+   private static final long DATA_CHANNEL_BUFFERED_AMOUNT_HIGH = 1024 * 1024;
+   private static final long DATA_CHANNEL_BUFFERED_AMOUNT_LOW = 256 * 1024;
    private static final int HD_VIDEO_WIDTH = 1280;
    private static final int HD_VIDEO_HEIGHT = 720;
    private static final int BPS_IN_KBPS = 1000;
 
-   private static final PeerConnectionClient instance = new PeerConnectionClient();
+   // Executor thread is started once and is used for all peer connection API calls of all instances, to ensure new peer connection
+   // factory is created on the same thread as previously destroyed factory.
+   private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+   // Resources shared by all calls; only accessed from executor thread
+   private static PeerConnectionFactory factory;
+   // The factory is long lived, i.e. shared across calls, and only re-created when the parameters that affect it change (or after
+   // dispose). This describes the parameters the current factory was created with
+   private static String factoryConfiguration;
+   private static PeerConnectionFactory.Options options = null;
+   // Instances with a live peer connection
+   private static final List<PeerConnectionClient> activeClients = new ArrayList<>();
+   // Local capture sources, each call adds its own tracks on top of them. Created by the first call that needs them (and with its
+   // constraints & capture format) and disposed when the last call using them is closed
+   private static AudioSource audioSource;
+   private static int audioSourceUsers = 0;
+   private static VideoSource videoSource;
+   private static VideoCapturer sharedVideoCapturer;
+   private static int videoSourceUsers = 0;
+   // users of the video source that haven't asked to stop it (see stopVideoSource()); capture stops only when none is left
+   private static int videoSourceActiveUsers = 0;
+   private static boolean videoCapturerStopped;
+   // format the shared capturer was started with, and the one the shared source is currently adapted to
+   private static int captureWidth, captureHeight, captureFps;
+   private static int adaptedWidth, adaptedHeight, adaptedFps;
+
    private final PCObserver pcObserver = new PCObserver();
    private final SDPObserver sdpObserver = new SDPObserver();
-   private final ScheduledExecutorService executor;
-
-   private PeerConnectionFactory factory;
    private PeerConnection peerConnection;
-   PeerConnectionFactory.Options options = null;
-   private AudioSource audioSource;
-   private VideoSource videoSource;
    private boolean videoCallEnabled;
    private boolean preferIsac;
    private String preferredVideoCodec;
-   private boolean videoCapturerStopped;
    private boolean isError;
-   private Timer statsTimer;
+   // whether this instance holds a reference to the shared audio/video source
+   private boolean usingAudioSource;
+   private boolean usingVideoSource;
+   // whether this instance has asked for the shared video source to stop, see stopVideoSource()
+   private boolean videoSourceStopped;
+   // on hold, local tracks and senders are disabled and remote tracks aren't played out, see setHold()
+   private volatile boolean onHold;
+   // periodic stats retrieval, scheduled directly on the executor
+   private ScheduledFuture<?> statsFuture;
    private VideoRenderer.Callbacks localRender;
    private List<VideoRenderer.Callbacks> remoteRenders;
    private SignalingParameters signalingParameters;
@@ -119,15 +147,24 @@ public class PeerConnectionClient {
    private int videoWidth;
    private int videoHeight;
    private int videoFps;
+   // output format requested for this call via changeCaptureFormat(), 0 if none
+   private int requestedVideoWidth;
+   private int requestedVideoHeight;
+   private int requestedVideoFps;
    private MediaConstraints audioConstraints;
    private ParcelFileDescriptor aecDumpFileDescriptor;
+   // Android log level for native WebRTC logging, see WebrtcLogging
+   private volatile int nativeLoggingLevel = Log.ERROR;
+   // When set, ICE failures are reported as disconnects instead of errors, so that media can be recovered with an ICE restart
+   private volatile boolean handoverEnabled = false;
    private MediaConstraints sdpMediaConstraints;
    private PeerConnectionParameters peerConnectionParameters;
    // Queued remote ICE candidates are consumed only after both local and
    // remote descriptions are set. Similarly local ICE candidates are sent to
    // remote peer after both local and remote description are set.
    private LinkedList<IceCandidate> queuedRemoteCandidates;
-   private PeerConnectionEvents events;
+   // cleared when closing, while callbacks from webrtc threads might still be coming in; read it once and check it before use
+   private volatile PeerConnectionEvents events;
    private boolean isInitiator;
    private SessionDescription localSdp; // either offer or answer SDP
    private MediaStream mediaStream;
@@ -136,12 +173,22 @@ public class PeerConnectionClient {
    private boolean renderVideo;
    private VideoTrack localVideoTrack;
    private VideoTrack remoteVideoTrack;
+   private AudioTrack remoteAudioTrack;
    private RtpSender localVideoSender;
+   private boolean configuredVideoMaxBitrateApplied;
    // enableAudio is set to true if audio should be sent.
    private boolean enableAudio;
    private AudioTrack localAudioTrack;
+   // Only touched from executor thread, like the peer connection
    private DataChannel dataChannel;
    private boolean dataChannelEnabled;
+   // Data channel status as seen from App threads calling sendData(): open state, bytes buffered natively (as of the latest send or
+   // buffered amount change) and bytes handed to executor but not sent yet
+   private volatile boolean dataChannelOpen;
+   private volatile long dataChannelBufferedAmount;
+   private final AtomicLong dataChannelPendingAmount = new AtomicLong();
+   // Set when sendData() is refused due to too much buffered data, so that we notify when buffered amount drops again
+   private volatile boolean dataChannelBackpressure;
 
    /**
     * Peer connection parameters.
@@ -305,24 +352,69 @@ public class PeerConnectionClient {
        */
       void onVideoResumed();
 
+      /**
+       * Callback fired when the data channel opens or closes.
+       */
+      void onDataChannelStateChange(final boolean open);
+
+      /**
+       * Callback fired when a data channel message is received. Buffer data is only valid for the duration of the callback.
+       */
+      void onDataChannelMessage(final DataChannel.Buffer buffer);
+
+      /**
+       * Callback fired when data channel buffered amount drops low again, after sendData() was refused due to too much buffered data.
+       */
+      void onDataChannelBufferedAmountLow();
+
    }
 
-   private PeerConnectionClient()
+   public static void setPeerConnectionFactoryOptions(final PeerConnectionFactory.Options options)
    {
-      // Executor thread is started once in private ctor and is used for all
-      // peer connection API calls to ensure new peer connection factory is
-      // created on the same thread as previously destroyed factory.
-      executor = Executors.newSingleThreadScheduledExecutor();
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            PeerConnectionClient.options = options;
+            // options are only applied when creating the factory, so make sure it is re-created for the next call
+            factoryConfiguration = null;
+         }
+      });
    }
 
-   public static PeerConnectionClient getInstance()
+   /**
+    * Create the peer connection factory in the background ahead of any calls, so that the first call doesn't have to pay for it.
+    * Does nothing if a factory already exists
+    */
+   public static void warmUpPeerConnectionFactory(final Context context, final PeerConnectionParameters peerConnectionParameters)
    {
-      return instance;
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            if (factory == null) {
+               createPeerConnectionFactoryInternal(context, peerConnectionParameters);
+            }
+         }
+      });
    }
 
-   public void setPeerConnectionFactoryOptions(PeerConnectionFactory.Options options)
+   /**
+    * Dispose the peer connection factory; to be called when media facilities are no longer needed (i.e. when releasing the device),
+    * after all calls have been closed
+    */
+   public static void disposePeerConnectionFactory()
    {
-      this.options = options;
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            if (!activeClients.isEmpty()) {
+               Log.w(TAG, "Disposing peer connection factory while " + activeClients.size() + " call(s) still active");
+            }
+            disposePeerConnectionFactoryInternal();
+         }
+      });
    }
 
    public void createPeerConnectionFactory(final Context context,
@@ -332,12 +424,17 @@ public class PeerConnectionClient {
       this.events = events;
       videoCallEnabled = peerConnectionParameters.videoCallEnabled;
       dataChannelEnabled = peerConnectionParameters.dataChannelParameters != null;
-      // Reset variables to initial states.
-      factory = null;
+      // Reset variables to initial states. Notice that the factory is kept around, if already created, and re-used
       peerConnection = null;
       preferIsac = false;
-      videoCapturerStopped = false;
       isError = false;
+      usingAudioSource = false;
+      usingVideoSource = false;
+      videoSourceStopped = false;
+      requestedVideoWidth = 0;
+      requestedVideoHeight = 0;
+      requestedVideoFps = 0;
+      onHold = false;
       queuedRemoteCandidates = null;
       localSdp = null; // either offer or answer SDP
       mediaStream = null;
@@ -345,16 +442,22 @@ public class PeerConnectionClient {
       renderVideo = true;
       localVideoTrack = null;
       remoteVideoTrack = null;
+      remoteAudioTrack = null;
       localVideoSender = null;
+      configuredVideoMaxBitrateApplied = false;
       enableAudio = true;
       localAudioTrack = null;
-      statsTimer = new Timer();
+      statsFuture = null;
 
       executor.execute(new Runnable() {
          @Override
          public void run()
          {
-            createPeerConnectionFactoryInternal(context);
+            isError = false;
+            if (!createPeerConnectionFactoryInternal(context, peerConnectionParameters)) {
+               reportError("Failed to initializeAndroidGlobals");
+            }
+            configureCodecsInternal();
          }
       });
    }
@@ -406,13 +509,112 @@ public class PeerConnectionClient {
       });
    }
 
+   /**
+    * Set native WebRTC logging level; takes effect when the next peer connection is created
+    * @param level Level following Android logging levels at Log.*
+    */
+   public void setNativeLoggingLevel(int level)
+   {
+      nativeLoggingLevel = level;
+   }
+
+   /**
+    * Set whether the caller is going to recover media after network changes with restartIce(); if so ICE failures don't tear down
+    * the peer connection. Takes effect immediately
+    * @param enabled Whether handover is enabled
+    */
+   public void setHandoverEnabled(boolean enabled)
+   {
+      handoverEnabled = enabled;
+   }
+
+   /**
+    * Send data over the data channel; can be called from any thread. Data from its position to its limit is sent asynchronously, so
+    * the buffer must not be modified after this call
+    * @param data Data to send
+    * @param binary Whether data is binary or UTF-8 text
+    * @return true if data was queued for sending, false if the channel isn't open or too much data is already buffered, in which case
+    * PeerConnectionEvents.onDataChannelBufferedAmountLow() will be fired once the buffered data drains
+    */
+   public boolean sendData(final ByteBuffer data, final boolean binary)
+   {
+      if (!dataChannelOpen) {
+         return false;
+      }
+      final int size = data.remaining();
+      if (getDataBufferedAmount() + size > DATA_CHANNEL_BUFFERED_AMOUNT_HIGH) {
+         dataChannelBackpressure = true;
+         return false;
+      }
+      dataChannelPendingAmount.addAndGet(size);
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            dataChannelPendingAmount.addAndGet(-size);
+            if (dataChannel == null) {
+               return;
+            }
+            if (!dataChannel.send(new DataChannel.Buffer(data, binary))) {
+               Log.w(TAG, "Failed to send " + size + " bytes over data channel");
+            }
+            dataChannelBufferedAmount = dataChannel.bufferedAmount();
+         }
+      });
+      return true;
+   }
+
+   /**
+    * @return Bytes passed to sendData() but not sent over the network yet
+    */
+   public long getDataBufferedAmount()
+   {
+      return dataChannelBufferedAmount + dataChannelPendingAmount.get();
+   }
+
    public boolean isVideoCallEnabled()
    {
       return videoCallEnabled;
    }
 
-   private void createPeerConnectionFactoryInternal(Context context)
+   // Parameters that the factory (or the globals initialized along with it) depends on; if any of those changes we need a new factory
+   private static String getFactoryConfiguration(PeerConnectionParameters peerConnectionParameters)
+   {
+      return "tracing=" + peerConnectionParameters.tracing +
+            ", flexfec=" + peerConnectionParameters.videoFlexfecEnabled +
+            ", h264High=" + isH264HighProfile(peerConnectionParameters) +
+            ", hwAcceleration=" + peerConnectionParameters.videoCodecHwAcceleration +
+            ", openSLES=" + peerConnectionParameters.useOpenSLES +
+            ", disableAEC=" + peerConnectionParameters.disableBuiltInAEC +
+            ", disableAGC=" + peerConnectionParameters.disableBuiltInAGC +
+            ", disableNS=" + peerConnectionParameters.disableBuiltInNS;
+   }
+
+   private static boolean isH264HighProfile(PeerConnectionParameters peerConnectionParameters)
    {
+      return peerConnectionParameters.videoCallEnabled && VIDEO_CODEC_H264_HIGH.equals(peerConnectionParameters.videoCodec);
+   }
+
+   // Returns false if android globals failed to initialize
+   private static boolean createPeerConnectionFactoryInternal(Context context, PeerConnectionParameters peerConnectionParameters)
+   {
+      String configuration = getFactoryConfiguration(peerConnectionParameters);
+      if (factory != null) {
+         if (configuration.equals(factoryConfiguration)) {
+            Log.d(TAG, "Re-using peer connection factory.");
+            return true;
+         }
+         if (!activeClients.isEmpty()) {
+            // other calls are using the factory, so we can't re-create it; this call goes with the configuration of the existing one
+            Log.w(TAG, "Peer connection factory configuration changed from: " + factoryConfiguration + ", to: " + configuration +
+                  ", but it is in use by other calls; re-using it");
+            return true;
+         }
+         Log.d(TAG, "Peer connection factory configuration changed from: " + factoryConfiguration + ", to: " + configuration + ", re-creating it");
+         disposePeerConnectionFactoryInternal();
+      }
+
+      long startTimeMs = SystemClock.elapsedRealtime();
       PeerConnectionFactory.initializeInternalTracer();
       if (peerConnectionParameters.tracing) {
          PeerConnectionFactory.startInternalTracingCapture(
@@ -421,7 +623,6 @@ public class PeerConnectionClient {
       }
       Log.d(TAG,
             "Create peer connection factory. Use video: " + peerConnectionParameters.videoCallEnabled);
-      isError = false;
 
       // Initialize field trials.
       String fieldTrials = "";
@@ -430,38 +631,13 @@ public class PeerConnectionClient {
          Log.d(TAG, "Enable FlexFEC field trial.");
       }
       fieldTrials += VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL;
-
-      // Check preferred video codec.
-      preferredVideoCodec = VIDEO_CODEC_VP8;
-      if (videoCallEnabled && peerConnectionParameters.videoCodec != null) {
-         switch (peerConnectionParameters.videoCodec) {
-            case VIDEO_CODEC_VP8:
-               preferredVideoCodec = VIDEO_CODEC_VP8;
-               break;
-            case VIDEO_CODEC_VP9:
-               preferredVideoCodec = VIDEO_CODEC_VP9;
-               break;
-            case VIDEO_CODEC_H264:
-            case VIDEO_CODEC_H264_BASELINE:
-               preferredVideoCodec = VIDEO_CODEC_H264;
-               break;
-            case VIDEO_CODEC_H264_HIGH:
-               // TODO(magjed): Strip High from SDP when selecting Baseline instead of using field trial.
-               fieldTrials += VIDEO_H264_HIGH_PROFILE_FIELDTRIAL;
-               preferredVideoCodec = VIDEO_CODEC_H264;
-               break;
-            default:
-               preferredVideoCodec = VIDEO_CODEC_VP8;
-         }
+      if (isH264HighProfile(peerConnectionParameters)) {
+         // TODO(magjed): Strip High from SDP when selecting Baseline instead of using field trial.
+         fieldTrials += VIDEO_H264_HIGH_PROFILE_FIELDTRIAL;
       }
-      Log.d(TAG, "Preferred video codec: " + preferredVideoCodec);
       PeerConnectionFactory.initializeFieldTrials(fieldTrials);
       Log.d(TAG, "Field trials: " + fieldTrials);
 
-      // Check if ISAC is used by default.
-      preferIsac = peerConnectionParameters.audioCodec != null
-            && peerConnectionParameters.audioCodec.equals(AUDIO_CODEC_ISAC);
-
       // Enable/disable OpenSL ES playback.
       if (!peerConnectionParameters.useOpenSLES) {
          Log.d(TAG, "Disable OpenSL ES audio even if device supports it");
@@ -505,34 +681,80 @@ public class PeerConnectionClient {
          public void onWebRtcAudioRecordInitError(String errorMessage)
          {
             Log.e(TAG, "onWebRtcAudioRecordInitError: " + errorMessage);
-            reportError(errorMessage);
+            reportErrorToActiveClients(errorMessage);
          }
 
          @Override
          public void onWebRtcAudioRecordStartError(String errorMessage)
          {
             Log.e(TAG, "onWebRtcAudioRecordStartError: " + errorMessage);
-            reportError(errorMessage);
+            reportErrorToActiveClients(errorMessage);
          }
 
          @Override
          public void onWebRtcAudioRecordError(String errorMessage)
          {
             Log.e(TAG, "onWebRtcAudioRecordError: " + errorMessage);
-            reportError(errorMessage);
+            reportErrorToActiveClients(errorMessage);
          }
       });
 
       // Create peer connection factory.
-      if (!PeerConnectionFactory.initializeAndroidGlobals(
-            context, true, true, peerConnectionParameters.videoCodecHwAcceleration)) {
-         events.onPeerConnectionError("Failed to initializeAndroidGlobals");
+      boolean globalsInitialized = PeerConnectionFactory.initializeAndroidGlobals(
+            context, true, true, peerConnectionParameters.videoCodecHwAcceleration);
+      if (!globalsInitialized) {
+         Log.e(TAG, "Failed to initializeAndroidGlobals");
       }
       if (options != null) {
          Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
       }
       factory = new PeerConnectionFactory(options);
-      Log.d(TAG, "Peer connection factory created.");
+      factoryConfiguration = configuration;
+      Log.d(TAG, "Peer connection factory created in " + (SystemClock.elapsedRealtime() - startTimeMs) + "ms.");
+      return globalsInitialized;
+   }
+
+   // Codec preferences are per call, so they need to be evaluated even when re-using the factory
+   private void configureCodecsInternal()
+   {
+      // Check preferred video codec.
+      preferredVideoCodec = VIDEO_CODEC_VP8;
+      if (videoCallEnabled && peerConnectionParameters.videoCodec != null) {
+         switch (peerConnectionParameters.videoCodec) {
+            case VIDEO_CODEC_VP8:
+               preferredVideoCodec = VIDEO_CODEC_VP8;
+               break;
+            case VIDEO_CODEC_VP9:
+               preferredVideoCodec = VIDEO_CODEC_VP9;
+               break;
+            case VIDEO_CODEC_H264:
+            case VIDEO_CODEC_H264_BASELINE:
+            case VIDEO_CODEC_H264_HIGH:
+               // H264 High profile is enabled via field trial when creating the factory
+               preferredVideoCodec = VIDEO_CODEC_H264;
+               break;
+            default:
+               preferredVideoCodec = VIDEO_CODEC_VP8;
+         }
+      }
+      Log.d(TAG, "Preferred video codec: " + preferredVideoCodec);
+
+      // Check if ISAC is used by default.
+      preferIsac = peerConnectionParameters.audioCodec != null
+            && peerConnectionParameters.audioCodec.equals(AUDIO_CODEC_ISAC);
+   }
+
+   private static void disposePeerConnectionFactoryInternal()
+   {
+      if (factory == null) {
+         return;
+      }
+      Log.d(TAG, "Closing peer connection factory.");
+      factory.dispose();
+      factory = null;
+      factoryConfiguration = null;
+      PeerConnectionFactory.stopInternalTracingCapture();
+      PeerConnectionFactory.shutdownInternalTracer();
    }
 
    private void createMediaConstraintsInternal()
@@ -634,13 +856,15 @@ public class PeerConnectionClient {
       rtcConfig.bundlePolicy = PeerConnection.BundlePolicy.MAXCOMPAT;
       rtcConfig.rtcpMuxPolicy = PeerConnection.RtcpMuxPolicy.REQUIRE;
       // TODO: Let's disable continual gathering so that we still get notified when gathering completes. Remember that with GATHER_CONTINUALLY
-      // no notification occurs and the SDK keeps waiting forever. When we transition to using trickle ice, we should be able to uncomment this
+      // no notification occurs and the SDK keeps waiting forever. When we transition to using trickle ice, we should be able to uncomment this.
+      // Until then network handovers are covered by restartIce(), which gathers again over the interfaces that are up at that point
       //rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
       rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_ONCE;
       // Use ECDSA encryption.
       rtcConfig.keyType = PeerConnection.KeyType.ECDSA;
 
       peerConnection = factory.createPeerConnection(rtcConfig, pcConstraints, pcObserver);
+      activeClients.add(this);
 
       if (dataChannelEnabled) {
          DataChannel.Init init = new DataChannel.Init();
@@ -650,14 +874,14 @@ public class PeerConnectionClient {
          init.maxRetransmitTimeMs = peerConnectionParameters.dataChannelParameters.maxRetransmitTimeMs;
          init.id = peerConnectionParameters.dataChannelParameters.id;
          init.protocol = peerConnectionParameters.dataChannelParameters.protocol;
-         dataChannel = peerConnection.createDataChannel("ApprtcDemo data", init);
+         dataChannel = peerConnection.createDataChannel(DATA_CHANNEL_LABEL, init);
+         dataChannel.registerObserver(new DataChannelObserver(dataChannel));
       }
       isInitiator = false;
 
-      // Set default WebRTC tracing and INFO libjingle logging.
+      // Set WebRTC tracing and libjingle logging according to configured level.
       // NOTE: this _must_ happen while |factory| is alive!
-      Logging.enableTracing("logcat:", EnumSet.of(Logging.TraceLevel.TRACE_DEFAULT));
-      Logging.enableLogToDebugOutput(Logging.Severity.LS_INFO);
+      WebrtcLogging.configure(nativeLoggingLevel);
 
       mediaStream = factory.createLocalMediaStream("ARDAMS");
       if (videoCallEnabled) {
@@ -671,7 +895,8 @@ public class PeerConnectionClient {
          findVideoSender();
       }
 
-      if (peerConnectionParameters.aecDump) {
+      // the dump is factory wide, so only the first of concurrent calls starts it
+      if (peerConnectionParameters.aecDump && activeClients.size() == 1) {
          try {
             aecDumpFileDescriptor =
                   ParcelFileDescriptor.open(new File(Environment.getExternalStorageDirectory().getPath()
@@ -690,53 +915,38 @@ public class PeerConnectionClient {
 
    private void closeInternal()
    {
-      if (factory != null && peerConnectionParameters.aecDump) {
+      activeClients.remove(this);
+      if (factory != null && peerConnectionParameters.aecDump && activeClients.isEmpty()) {
          factory.stopAecDump();
       }
       Log.d(TAG, "Closing peer connection.");
-      statsTimer.cancel();
+      cancelStatsInternal();
+      dataChannelOpen = false;
       if (dataChannel != null) {
+         dataChannel.unregisterObserver();
          dataChannel.dispose();
          dataChannel = null;
       }
+      dataChannelBufferedAmount = 0;
+      dataChannelPendingAmount.set(0);
+      dataChannelBackpressure = false;
       if (peerConnection != null) {
          peerConnection.dispose();
          peerConnection = null;
       }
-      Log.d(TAG, "Closing audio source.");
-      if (audioSource != null) {
-         audioSource.dispose();
-         audioSource = null;
-      }
-      Log.d(TAG, "Stopping capture.");
-      if (videoCapturer != null) {
-         try {
-            videoCapturer.stopCapture();
-         }
-         catch (InterruptedException e) {
-            throw new RuntimeException(e);
-         }
-         videoCapturerStopped = true;
+      if (videoCapturer != null && !usingVideoSource) {
+         // capturer handed to us that never got to be used
          videoCapturer.dispose();
-         videoCapturer = null;
-      }
-      Log.d(TAG, "Closing video source.");
-      if (videoSource != null) {
-         videoSource.dispose();
-         videoSource = null;
       }
+      // Notice that local tracks have been disposed along with the peer connection, but sources might still be used by other calls
+      releaseAudioSourceInternal();
+      releaseVideoSourceInternal();
+      videoCapturer = null;
       localRender = null;
       remoteRenders = null;
-      Log.d(TAG, "Closing peer connection factory.");
-      if (factory != null) {
-         factory.dispose();
-         factory = null;
-      }
-      options = null;
+      // Notice that we don't dispose the factory here; it is re-used by the next call and disposed via disposePeerConnectionFactory()
       Log.d(TAG, "Closing peer connection done.");
       events.onPeerConnectionClosed();
-      PeerConnectionFactory.stopInternalTracingCapture();
-      PeerConnectionFactory.shutdownInternalTracer();
       events = null;
    }
 
@@ -758,7 +968,11 @@ public class PeerConnectionClient {
          @Override
          public void onComplete(final StatsReport[] reports)
          {
-            events.onPeerConnectionStatsReady(reports);
+            // events might be gone if the call was closed while stats were being retrieved
+            PeerConnectionEvents events = PeerConnectionClient.this.events;
+            if (events != null) {
+               events.onPeerConnectionStatsReady(reports);
+            }
          }
       }, null);
       if (!success) {
@@ -766,30 +980,36 @@ public class PeerConnectionClient {
       }
    }
 
-   public void enableStatsEvents(boolean enable, int periodMs)
+   public void enableStatsEvents(final boolean enable, final int periodMs)
    {
-      if (enable) {
-         try {
-            statsTimer.schedule(new TimerTask() {
-               @Override
-               public void run()
-               {
-                  executor.execute(new Runnable() {
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            cancelStatsInternal();
+            if (enable) {
+               try {
+                  statsFuture = executor.scheduleAtFixedRate(new Runnable() {
                      @Override
                      public void run()
                      {
                         getStats();
                      }
-                  });
+                  }, 0, periodMs, TimeUnit.MILLISECONDS);
                }
-            }, 0, periodMs);
-         }
-         catch (Exception e) {
-            Log.e(TAG, "Can not schedule statistics timer", e);
+               catch (Exception e) {
+                  Log.e(TAG, "Can not schedule statistics timer", e);
+               }
+            }
          }
-      }
-      else {
-         statsTimer.cancel();
+      });
+   }
+
+   private void cancelStatsInternal()
+   {
+      if (statsFuture != null) {
+         statsFuture.cancel(false);
+         statsFuture = null;
       }
    }
 
@@ -801,7 +1021,7 @@ public class PeerConnectionClient {
          {
             enableAudio = enable;
             if (localAudioTrack != null) {
-               localAudioTrack.setEnabled(enableAudio);
+               localAudioTrack.setEnabled(enableAudio && !onHold);
             }
          }
       });
@@ -809,8 +1029,9 @@ public class PeerConnectionClient {
 
    public boolean getLocalAudioEnabled()
    {
+      // notice that while on hold the track is disabled regardless of mute
       if (localAudioTrack != null) {
-         return localAudioTrack.enabled();
+         return enableAudio;
       }
 
       return false;
@@ -845,7 +1066,7 @@ public class PeerConnectionClient {
          {
             renderVideo = enable;
             if (localVideoTrack != null) {
-               localVideoTrack.setEnabled(renderVideo);
+               localVideoTrack.setEnabled(renderVideo && !onHold);
             }
          }
       });
@@ -854,12 +1075,68 @@ public class PeerConnectionClient {
    public boolean getLocalVideoEnabled()
    {
       if (localVideoTrack != null) {
-         return localVideoTrack.enabled();
+         return renderVideo;
       }
 
       return false;
    }
 
+   /**
+    * Put the call on hold or resume it. On hold no local media is sent (senders are deactivated, so held calls don't use any encoding
+    * resources) and remote media isn't played out, but the peer connection is kept up (including ICE, DTLS and RTCP) so that the call
+    * can be resumed right away without renegotiation. Shared capture keeps running as long as other calls use it
+    * @param hold Whether to hold or resume
+    */
+   public void setHold(final boolean hold)
+   {
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            if (peerConnection == null || isError) {
+               return;
+            }
+            Log.d(TAG, (hold ? "Hold" : "Resume") + " call");
+            onHold = hold;
+            for (RtpSender sender : peerConnection.getSenders()) {
+               setSenderActiveInternal(sender, !hold);
+            }
+            if (localAudioTrack != null) {
+               localAudioTrack.setEnabled(enableAudio && !hold);
+            }
+            if (localVideoTrack != null) {
+               localVideoTrack.setEnabled(renderVideo && !hold);
+            }
+            if (remoteAudioTrack != null) {
+               remoteAudioTrack.setEnabled(!hold);
+            }
+            if (remoteVideoTrack != null) {
+               remoteVideoTrack.setEnabled(renderVideo && !hold);
+            }
+         }
+      });
+   }
+
+   public boolean isOnHold()
+   {
+      return onHold;
+   }
+
+   private void setSenderActiveInternal(RtpSender sender, boolean active)
+   {
+      RtpParameters parameters = sender.getParameters();
+      if (parameters.encodings.size() == 0) {
+         Log.w(TAG, "RtpParameters are not ready.");
+         return;
+      }
+      for (RtpParameters.Encoding encoding : parameters.encodings) {
+         encoding.active = active;
+      }
+      if (!sender.setParameters(parameters)) {
+         Log.e(TAG, "RtpSender.setParameters failed.");
+      }
+   }
+
    public void createOffer()
    {
       executor.execute(new Runnable() {
@@ -875,6 +1152,27 @@ public class PeerConnectionClient {
       });
    }
 
+   // Create a new offer with fresh ICE credentials, so that candidates are gathered over the network interfaces that are currently up
+   // and connectivity checks start over once the answer is set. The offer is delivered through onLocalDescription() as usual
+   public void restartIce()
+   {
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            if (peerConnection != null && !isError) {
+               Log.d(TAG, "PC restart ICE");
+               isInitiator = true;
+               localSdp = null;
+               MediaConstraints iceRestartConstraints = new MediaConstraints();
+               iceRestartConstraints.mandatory.addAll(sdpMediaConstraints.mandatory);
+               iceRestartConstraints.mandatory.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+               peerConnection.createOffer(sdpObserver, iceRestartConstraints);
+            }
+         }
+      });
+   }
+
    public void createAnswer()
    {
       executor.execute(new Runnable() {
@@ -934,17 +1232,7 @@ public class PeerConnectionClient {
             if (peerConnection == null || isError) {
                return;
             }
-            String sdpDescription = sdp.description;
-            if (preferIsac) {
-               sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
-            }
-            if (videoCallEnabled) {
-               sdpDescription = preferCodec(sdpDescription, preferredVideoCodec, false);
-            }
-            if (peerConnectionParameters.audioStartBitrate > 0) {
-               sdpDescription = setStartBitrate(
-                     AUDIO_CODEC_OPUS, false, sdpDescription, peerConnectionParameters.audioStartBitrate);
-            }
+            String sdpDescription = mungeSdp(sdp.description, true);
             Log.d(TAG, "Set remote SDP.");
             SessionDescription sdpRemote = new SessionDescription(sdp.type, sdpDescription);
             peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
@@ -958,15 +1246,18 @@ public class PeerConnectionClient {
          @Override
          public void run()
          {
-            if (videoCapturer != null && !videoCapturerStopped) {
-               Log.d(TAG, "Stop video source.");
-               try {
-                  videoCapturer.stopCapture();
-               }
-               catch (InterruptedException e) {
-               }
-               videoCapturerStopped = true;
+            // the source is shared with other calls, so capture only stops once all calls using it have asked for it
+            if (!usingVideoSource || videoSourceStopped) {
+               return;
+            }
+            videoSourceStopped = true;
+            videoSourceActiveUsers--;
+            if (videoSourceActiveUsers > 0) {
+               Log.d(TAG, "Video source still used by " + videoSourceActiveUsers + " other call(s)");
+               return;
             }
+            Log.d(TAG, "Stop video source.");
+            stopCaptureInternal();
          }
       });
    }
@@ -977,10 +1268,14 @@ public class PeerConnectionClient {
          @Override
          public void run()
          {
-            if (videoCapturer != null && videoCapturerStopped) {
+            if (!usingVideoSource || !videoSourceStopped) {
+               return;
+            }
+            videoSourceStopped = false;
+            videoSourceActiveUsers++;
+            if (videoCapturerStopped) {
                Log.d(TAG, "Restart video source.");
-               videoCapturer.startCapture(videoWidth, videoHeight, videoFps);
-               videoCapturerStopped = false;
+               startCaptureInternal();
             }
          }
       });
@@ -1019,6 +1314,20 @@ public class PeerConnectionClient {
       });
    }
 
+   // Errors of shared resources (like audio recording) affect all calls
+   private static void reportErrorToActiveClients(final String errorMessage)
+   {
+      executor.execute(new Runnable() {
+         @Override
+         public void run()
+         {
+            for (PeerConnectionClient client : new ArrayList<>(activeClients)) {
+               client.reportError(errorMessage);
+            }
+         }
+      });
+   }
+
    private void reportError(final String errorMessage)
    {
       Log.e(TAG, "Peerconnection error: " + errorMessage);
@@ -1026,7 +1335,8 @@ public class PeerConnectionClient {
          @Override
          public void run()
          {
-            if (!isError) {
+            // events can be null when the error occurs while warming up the factory outside of a call
+            if (!isError && events != null) {
                events.onPeerConnectionError(errorMessage);
                isError = true;
             }
@@ -1036,7 +1346,14 @@ public class PeerConnectionClient {
 
    private AudioTrack createAudioTrack()
    {
-      audioSource = factory.createAudioSource(audioConstraints);
+      if (audioSource == null) {
+         audioSource = factory.createAudioSource(audioConstraints);
+      }
+      else {
+         Log.d(TAG, "Re-using audio source of " + audioSourceUsers + " other call(s)");
+      }
+      audioSourceUsers++;
+      usingAudioSource = true;
       localAudioTrack = factory.createAudioTrack(AUDIO_TRACK_ID, audioSource);
       localAudioTrack.setEnabled(enableAudio);
       return localAudioTrack;
@@ -1044,8 +1361,29 @@ public class PeerConnectionClient {
 
    private VideoTrack createVideoTrack(VideoCapturer capturer)
    {
-      videoSource = factory.createVideoSource(capturer);
-      capturer.startCapture(videoWidth, videoHeight, videoFps);
+      if (videoSource == null) {
+         videoSource = factory.createVideoSource(capturer);
+         sharedVideoCapturer = capturer;
+         captureWidth = adaptedWidth = videoWidth;
+         captureHeight = adaptedHeight = videoHeight;
+         captureFps = adaptedFps = videoFps;
+         startCaptureInternal();
+      }
+      else {
+         // the camera is already captured for another call, so we don't need the capturer we were given; notice that camera
+         // operations of this call (like switchCamera()) from now on apply to the shared capturer
+         Log.d(TAG, "Re-using video source of " + videoSourceUsers + " other call(s)");
+         capturer.dispose();
+         videoCapturer = sharedVideoCapturer;
+      }
+      videoSourceUsers++;
+      videoSourceActiveUsers++;
+      usingVideoSource = true;
+      // other calls might have stopped capture or scaled the source down further than this call wants
+      if (videoCapturerStopped) {
+         startCaptureInternal();
+      }
+      adaptVideoSourceInternal();
 
       localVideoTrack = factory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
       localVideoTrack.setEnabled(renderVideo);
@@ -1053,168 +1391,145 @@ public class PeerConnectionClient {
       return localVideoTrack;
    }
 
-   private void findVideoSender()
+   private void releaseAudioSourceInternal()
    {
-      for (RtpSender sender : peerConnection.getSenders()) {
-         if (sender.track() != null) {
-            String trackType = sender.track().kind();
-            if (trackType.equals(VIDEO_TRACK_TYPE)) {
-               Log.d(TAG, "Found video sender.");
-               localVideoSender = sender;
-            }
-         }
+      if (!usingAudioSource) {
+         return;
+      }
+      usingAudioSource = false;
+      audioSourceUsers--;
+      if (audioSourceUsers == 0 && audioSource != null) {
+         Log.d(TAG, "Closing audio source.");
+         audioSource.dispose();
+         audioSource = null;
       }
    }
 
-   private static String setStartBitrate(
-         String codec, boolean isVideoCodec, String sdpDescription, int bitrateKbps)
+   private void releaseVideoSourceInternal()
    {
-      String[] lines = sdpDescription.split("\r\n");
-      int rtpmapLineIndex = -1;
-      boolean sdpFormatUpdated = false;
-      String codecRtpMap = null;
-      // Search for codec rtpmap in format
-      // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-      String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-      Pattern codecPattern = Pattern.compile(regex);
-      for (int i = 0; i < lines.length; i++) {
-         Matcher codecMatcher = codecPattern.matcher(lines[i]);
-         if (codecMatcher.matches()) {
-            codecRtpMap = codecMatcher.group(1);
-            rtpmapLineIndex = i;
-            break;
-         }
+      if (!usingVideoSource) {
+         return;
       }
-      if (codecRtpMap == null) {
-         Log.w(TAG, "No rtpmap for " + codec + " codec");
-         return sdpDescription;
-      }
-      Log.d(TAG, "Found " + codec + " rtpmap " + codecRtpMap + " at " + lines[rtpmapLineIndex]);
-
-      // Check if a=fmtp string already exist in remote SDP for this codec and
-      // update it with new bitrate parameter.
-      regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-      codecPattern = Pattern.compile(regex);
-      for (int i = 0; i < lines.length; i++) {
-         Matcher codecMatcher = codecPattern.matcher(lines[i]);
-         if (codecMatcher.matches()) {
-            Log.d(TAG, "Found " + codec + " " + lines[i]);
-            if (isVideoCodec) {
-               lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-            }
-            else {
-               lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-            }
-            Log.d(TAG, "Update remote SDP line: " + lines[i]);
-            sdpFormatUpdated = true;
-            break;
-         }
+      usingVideoSource = false;
+      videoSourceUsers--;
+      if (!videoSourceStopped) {
+         videoSourceActiveUsers--;
       }
-
-      StringBuilder newSdpDescription = new StringBuilder();
-      for (int i = 0; i < lines.length; i++) {
-         newSdpDescription.append(lines[i]).append("\r\n");
-         // Append new a=fmtp line if no such line exist for a codec.
-         if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-            String bitrateSet;
-            if (isVideoCodec) {
-               bitrateSet =
-                     "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-            }
-            else {
-               bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
-                     + (bitrateKbps * 1000);
-            }
-            Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-            newSdpDescription.append(bitrateSet).append("\r\n");
+      videoSourceStopped = false;
+      if (videoSourceUsers > 0) {
+         // remaining calls might have all asked to stop capture, or be fine with a smaller format than this one needed
+         if (videoSourceActiveUsers == 0) {
+            stopCaptureInternal();
          }
+         adaptVideoSourceInternal();
+         return;
+      }
+      Log.d(TAG, "Stopping capture.");
+      if (sharedVideoCapturer != null) {
+         stopCaptureInternal();
+         sharedVideoCapturer.dispose();
+         sharedVideoCapturer = null;
+      }
+      Log.d(TAG, "Closing video source.");
+      if (videoSource != null) {
+         videoSource.dispose();
+         videoSource = null;
       }
-      return newSdpDescription.toString();
    }
 
-   /**
-    * Returns the line number containing "m=audio|video", or -1 if no such line exists.
-    */
-   private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines)
+   // Sender encodings only become available once the local description is set, so that's when we apply the max video bitrate the
+   // App configured; only the first time though, since later on (i.e. on ICE restarts) video adaptation might have lowered it
+   private void applyConfiguredVideoMaxBitrateInternal()
    {
-      final String mediaDescription = isAudio ? "m=audio " : "m=video ";
-      for (int i = 0; i < sdpLines.length; ++i) {
-         if (sdpLines[i].startsWith(mediaDescription)) {
-            return i;
-         }
+      if (configuredVideoMaxBitrateApplied || peerConnectionParameters.videoMaxBitrate <= 0 || localVideoSender == null) {
+         return;
       }
-      return -1;
+      configuredVideoMaxBitrateApplied = true;
+      setVideoMaxBitrate(peerConnectionParameters.videoMaxBitrate);
    }
 
-   private static String joinString(
-         Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd)
+   private static void startCaptureInternal()
    {
-      Iterator<? extends CharSequence> iter = s.iterator();
-      if (!iter.hasNext()) {
-         return "";
+      sharedVideoCapturer.startCapture(captureWidth, captureHeight, captureFps);
+      videoCapturerStopped = false;
+   }
+
+   private static void stopCaptureInternal()
+   {
+      if (videoCapturerStopped) {
+         return;
       }
-      StringBuilder buffer = new StringBuilder(iter.next());
-      while (iter.hasNext()) {
-         buffer.append(delimiter).append(iter.next());
+      try {
+         sharedVideoCapturer.stopCapture();
       }
-      if (delimiterAtEnd) {
-         buffer.append(delimiter);
+      catch (InterruptedException e) {
+         throw new RuntimeException(e);
       }
-      return buffer.toString();
+      videoCapturerStopped = true;
    }
 
-   private static String movePayloadTypesToFront(List<String> preferredPayloadTypes, String mLine)
-   {
-      // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-      final List<String> origLineParts = Arrays.asList(mLine.split(" "));
-      if (origLineParts.size() <= 3) {
-         Log.e(TAG, "Wrong SDP media description format: " + mLine);
-         return null;
-      }
-      final List<String> header = origLineParts.subList(0, 3);
-      final List<String> unpreferredPayloadTypes =
-            new ArrayList<String>(origLineParts.subList(3, origLineParts.size()));
-      unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
-      // Reconstruct the line with |preferredPayloadTypes| moved to the beginning of the payload
-      // types.
-      final List<String> newLineParts = new ArrayList<String>();
-      newLineParts.addAll(header);
-      newLineParts.addAll(preferredPayloadTypes);
-      newLineParts.addAll(unpreferredPayloadTypes);
-      return joinString(newLineParts, " ", false /* delimiterAtEnd */);
-   }
-
-   private static String preferCodec(String sdpDescription, String codec, boolean isAudio)
+   // The video source is shared, so it's only scaled down as far as the most demanding of the calls using it allows; limits of
+   // individual calls are applied to their own senders instead (see setVideoMaxBitrate())
+   private static void adaptVideoSourceInternal()
    {
-      final String[] lines = sdpDescription.split("\r\n");
-      final int mLineIndex = findMediaDescriptionLine(isAudio, lines);
-      if (mLineIndex == -1) {
-         Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
-         return sdpDescription;
-      }
-      // A list with all the payload types with name |codec|. The payload types are integers in the
-      // range 96-127, but they are stored as strings here.
-      final List<String> codecPayloadTypes = new ArrayList<String>();
-      // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-      final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
-      for (int i = 0; i < lines.length; ++i) {
-         Matcher codecMatcher = codecPattern.matcher(lines[i]);
-         if (codecMatcher.matches()) {
-            codecPayloadTypes.add(codecMatcher.group(1));
+      if (videoSource == null) {
+         return;
+      }
+      int width = 0;
+      int height = 0;
+      int fps = 0;
+      for (PeerConnectionClient client : activeClients) {
+         if (!client.usingVideoSource) {
+            continue;
          }
+         if (client.requestedVideoWidth == 0) {
+            // no limit requested, so the full capture format is needed
+            width = captureWidth;
+            height = captureHeight;
+            fps = captureFps;
+            break;
+         }
+         width = Math.max(width, client.requestedVideoWidth);
+         height = Math.max(height, client.requestedVideoHeight);
+         fps = Math.max(fps, client.requestedVideoFps);
+      }
+      if (width == 0 || (width == adaptedWidth && height == adaptedHeight && fps == adaptedFps)) {
+         return;
       }
-      if (codecPayloadTypes.isEmpty()) {
-         Log.w(TAG, "No payload types with name " + codec);
-         return sdpDescription;
+      Log.d(TAG, "Adapting shared video source to: " + width + "x" + height + "@" + fps);
+      videoSource.adaptOutputFormat(width, height, fps);
+      adaptedWidth = width;
+      adaptedHeight = height;
+      adaptedFps = fps;
+   }
+
+   private void findVideoSender()
+   {
+      for (RtpSender sender : peerConnection.getSenders()) {
+         if (sender.track() != null) {
+            String trackType = sender.track().kind();
+            if (trackType.equals(VIDEO_TRACK_TYPE)) {
+               Log.d(TAG, "Found video sender.");
+               localVideoSender = sender;
+            }
+         }
       }
+   }
 
-      final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
-      if (newMLine == null) {
-         return sdpDescription;
+   // Apply codec preferences (and optionally start bitrate) on a single parse of the SDP
+   private String mungeSdp(String sdpDescription, boolean setStartBitrate)
+   {
+      SdpModel sdpModel = SdpModel.parse(sdpDescription);
+      if (preferIsac) {
+         sdpModel.preferCodec("audio", AUDIO_CODEC_ISAC);
+      }
+      if (videoCallEnabled) {
+         sdpModel.preferCodec("video", preferredVideoCodec);
       }
-      Log.d(TAG, "Change media description from: " + lines[mLineIndex] + " to " + newMLine);
-      lines[mLineIndex] = newMLine;
-      return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
+      if (setStartBitrate && peerConnectionParameters.audioStartBitrate > 0) {
+         sdpModel.setStartBitrate(AUDIO_CODEC_OPUS, false, peerConnectionParameters.audioStartBitrate);
+      }
+      return sdpModel.toString();
    }
 
    private void drainCandidates()
@@ -1274,7 +1589,10 @@ public class PeerConnectionClient {
          return;
       }
       Log.d(TAG, "changeCaptureFormat: " + width + "x" + height + "@" + framerate);
-      videoSource.adaptOutputFormat(width, height, framerate);
+      requestedVideoWidth = width;
+      requestedVideoHeight = height;
+      requestedVideoFps = framerate;
+      adaptVideoSourceInternal();
    }
 
    // Implementation detail: observe ICE & stream changes and react accordingly.
@@ -1286,7 +1604,10 @@ public class PeerConnectionClient {
             @Override
             public void run()
             {
-               events.onIceCandidate(candidate);
+               PeerConnectionEvents events = PeerConnectionClient.this.events;
+               if (events != null) {
+                  events.onIceCandidate(candidate);
+               }
             }
          });
       }
@@ -1298,7 +1619,10 @@ public class PeerConnectionClient {
             @Override
             public void run()
             {
-               events.onIceCandidatesRemoved(candidates);
+               PeerConnectionEvents events = PeerConnectionClient.this.events;
+               if (events != null) {
+                  events.onIceCandidatesRemoved(candidates);
+               }
             }
          });
       }
@@ -1317,6 +1641,10 @@ public class PeerConnectionClient {
             public void run()
             {
                Log.d(TAG, "IceConnectionState: " + newState);
+               PeerConnectionEvents events = PeerConnectionClient.this.events;
+               if (events == null) {
+                  return;
+               }
                if (newState == IceConnectionState.CONNECTED) {
                   events.onIceConnected();
                }
@@ -1324,7 +1652,13 @@ public class PeerConnectionClient {
                   events.onIceDisconnected();
                }
                else if (newState == IceConnectionState.FAILED) {
-                  reportError("ICE connection failed.");
+                  if (handoverEnabled) {
+                     // most likely the network interface we were using went away; the peer connection is still usable after an ICE restart
+                     events.onIceDisconnected();
+                  }
+                  else {
+                     reportError("ICE connection failed.");
+                  }
                }
             }
          });
@@ -1334,7 +1668,8 @@ public class PeerConnectionClient {
       public void onIceGatheringChange(PeerConnection.IceGatheringState newState)
       {
          Log.d(TAG, "IceGatheringState: " + newState);
-         if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+         PeerConnectionEvents events = PeerConnectionClient.this.events;
+         if (newState == PeerConnection.IceGatheringState.COMPLETE && events != null) {
             events.onIceGatheringComplete();
          }
       }
@@ -1359,13 +1694,20 @@ public class PeerConnectionClient {
                   reportError("Weird-looking stream: " + stream);
                   return;
                }
+               if (stream.audioTracks.size() == 1) {
+                  remoteAudioTrack = stream.audioTracks.get(0);
+                  remoteAudioTrack.setEnabled(!onHold);
+               }
                if (stream.videoTracks.size() == 1) {
                   remoteVideoTrack = stream.videoTracks.get(0);
-                  remoteVideoTrack.setEnabled(renderVideo);
+                  remoteVideoTrack.setEnabled(renderVideo && !onHold);
                   for (VideoRenderer.Callbacks remoteRender : remoteRenders) {
                      remoteVideoTrack.addRenderer(new VideoRenderer(remoteRender));
                   }
-                  events.onRemoteVideo();
+                  PeerConnectionEvents events = PeerConnectionClient.this.events;
+                  if (events != null) {
+                     events.onRemoteVideo();
+                  }
                }
             }
          });
@@ -1379,6 +1721,7 @@ public class PeerConnectionClient {
             public void run()
             {
                remoteVideoTrack = null;
+               remoteAudioTrack = null;
             }
          });
       }
@@ -1391,30 +1734,24 @@ public class PeerConnectionClient {
          if (!dataChannelEnabled)
             return;
 
-         dc.registerObserver(new DataChannel.Observer() {
-            public void onBufferedAmountChange(long previousAmount)
-            {
-               Log.d(TAG, "Data channel buffered amount changed: " + dc.label() + ": " + dc.state());
-            }
-
-            @Override
-            public void onStateChange()
-            {
-               Log.d(TAG, "Data channel state changed: " + dc.label() + ": " + dc.state());
-            }
-
+         // Channel opened in-band by the peer (i.e. not pre-negotiated); use it unless we already have one
+         executor.execute(new Runnable() {
             @Override
-            public void onMessage(final DataChannel.Buffer buffer)
+            public void run()
             {
-               if (buffer.binary) {
-                  Log.d(TAG, "Received binary msg over " + dc);
+               if (dataChannel != null || peerConnection == null) {
+                  Log.w(TAG, "Ignoring data channel " + dc.label());
                   return;
                }
-               ByteBuffer data = buffer.data;
-               final byte[] bytes = new byte[data.capacity()];
-               data.get(bytes);
-               String strData = new String(bytes);
-               Log.d(TAG, "Got msg: " + strData + " over " + dc);
+               dataChannel = dc;
+               dc.registerObserver(new DataChannelObserver(dc));
+               if (dc.state() == DataChannel.State.OPEN) {
+                  dataChannelOpen = true;
+                  PeerConnectionEvents events = PeerConnectionClient.this.events;
+                  if (events != null) {
+                     events.onDataChannelStateChange(true);
+                  }
+               }
             }
          });
       }
@@ -1432,6 +1769,59 @@ public class PeerConnectionClient {
       }
    }
 
+   // Data channel events, delivered from the webrtc signaling thread
+   private class DataChannelObserver implements DataChannel.Observer {
+      private final DataChannel dc;
+
+      DataChannelObserver(DataChannel dc)
+      {
+         this.dc = dc;
+      }
+
+      @Override
+      public void onBufferedAmountChange(long previousAmount)
+      {
+         dataChannelBufferedAmount = dc.bufferedAmount();
+         if (dataChannelBackpressure && getDataBufferedAmount() <= DATA_CHANNEL_BUFFERED_AMOUNT_LOW) {
+            dataChannelBackpressure = false;
+            PeerConnectionEvents events = PeerConnectionClient.this.events;
+            if (events != null) {
+               events.onDataChannelBufferedAmountLow();
+            }
+         }
+      }
+
+      @Override
+      public void onStateChange()
+      {
+         DataChannel.State state = dc.state();
+         Log.d(TAG, "Data channel state changed: " + dc.label() + ": " + state);
+         PeerConnectionEvents events = PeerConnectionClient.this.events;
+         if (state == DataChannel.State.OPEN) {
+            dataChannelOpen = true;
+            if (events != null) {
+               events.onDataChannelStateChange(true);
+            }
+         }
+         else if (state == DataChannel.State.CLOSED) {
+            dataChannelOpen = false;
+            if (events != null) {
+               events.onDataChannelStateChange(false);
+            }
+         }
+      }
+
+      @Override
+      public void onMessage(final DataChannel.Buffer buffer)
+      {
+         // no copying here; the buffer is handed over as is and only valid until we return
+         PeerConnectionEvents events = PeerConnectionClient.this.events;
+         if (events != null) {
+            events.onDataChannelMessage(buffer);
+         }
+      }
+   }
+
    // Implementation detail: handle offer creation/signaling and answer setting,
    // as well as adding remote ICE candidates once the answer SDP is set.
    private class SDPObserver implements SdpObserver {
@@ -1442,13 +1832,7 @@ public class PeerConnectionClient {
             reportError("Multiple SDP create.");
             return;
          }
-         String sdpDescription = origSdp.description;
-         if (preferIsac) {
-            sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
-         }
-         if (videoCallEnabled) {
-            sdpDescription = preferCodec(sdpDescription, preferredVideoCodec, false);
-         }
+         String sdpDescription = mungeSdp(origSdp.description, false);
          final SessionDescription sdp = new SessionDescription(origSdp.type, sdpDescription);
          localSdp = sdp;
          executor.execute(new Runnable() {
@@ -1475,10 +1859,12 @@ public class PeerConnectionClient {
                }
                if (isInitiator) {
                   // For offering peer connection we first create offer and set
-                  // local SDP, then after receiving answer set remote SDP.
-                  if (peerConnection.getRemoteDescription() == null) {
+                  // local SDP, then after receiving answer set remote SDP. Notice that we check signaling state instead of
+                  // whether there's a remote description, since when restarting ICE there's already one from the initial negotiation
+                  if (peerConnection.signalingState() == PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
                      // We've just set our local SDP so time to send it.
                      Log.d(TAG, "Local SDP set succesfully");
+                     applyConfiguredVideoMaxBitrateInternal();
                      events.onLocalDescription(localSdp);
                   }
                   else {
@@ -1495,6 +1881,7 @@ public class PeerConnectionClient {
                      // We've just set our local SDP so time to send it, drain
                      // remote and send local ICE candidates.
                      Log.d(TAG, "Local SDP set succesfully");
+                     applyConfiguredVideoMaxBitrateInternal();
                      events.onLocalDescription(localSdp);
                      drainCandidates();
                   }
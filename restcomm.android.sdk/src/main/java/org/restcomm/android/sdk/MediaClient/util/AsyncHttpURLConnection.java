@@ -27,24 +27,40 @@
 
 package org.restcomm.android.sdk.MediaClient.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Asynchronous http requests implementation.
+ * Asynchronous http requests implementation. Requests run on a small shared executor and
+ * connections are left to HttpURLConnection's pool once responses are fully read, so that
+ * subsequent requests to the same host can reuse the (TLS) connection.
  */
 public class AsyncHttpURLConnection {
   private static final int HTTP_TIMEOUT_MS = 8000;
   private static final String HTTP_ORIGIN = "https://apprtc.appspot.com";
+  private static final int HTTP_EXECUTOR_THREADS = 2;
+  private static final int HTTP_EXECUTOR_KEEP_ALIVE_SECONDS = 30;
+  // Used when the server doesn't tell us the response size
+  private static final int DEFAULT_RESPONSE_BUFFER_SIZE = 1024;
+  private static final ThreadPoolExecutor executor = createExecutor();
   private final String method;
   private final String url;
   private final AsyncHttpEvents events;
   private String contentType;
+  private volatile boolean cancelled = false;
+  private volatile HttpURLConnection connection = null;
+  private Future<?> future = null;
 
   /**
    * Http requests callbacks.
@@ -71,15 +87,34 @@ public class AsyncHttpURLConnection {
         sendHttpMessage();
       }
     };
-    new Thread(runHttp).start();
+    future = executor.submit(runHttp);
+  }
+
+  /**
+   * Cancel the request; no callbacks will be fired after this returns.
+   */
+  public void cancel() {
+    cancelled = true;
+    if (future != null) {
+      future.cancel(true);
+    }
+    // interrupting doesn't unblock socket I/O, disconnecting does
+    HttpURLConnection activeConnection = connection;
+    if (activeConnection != null) {
+      activeConnection.disconnect();
+    }
   }
 
   private void sendHttpMessage() {
+    if (cancelled) {
+      return;
+    }
     try {
-      HttpURLConnection connection =
-        (HttpURLConnection) new URL(url).openConnection();
+      connection = (HttpURLConnection) new URL(url).openConnection();
       byte[] postData = new byte[0];
       connection.setRequestMethod(method);
+      // responses carry short lived credentials, so they shouldn't be cached. This doesn't
+      // affect connection reuse
       connection.setUseCaches(false);
       connection.setDoInput(true);
       connection.setConnectTimeout(HTTP_TIMEOUT_MS);
@@ -108,27 +143,64 @@ public class AsyncHttpURLConnection {
       // Get response.
       int responseCode = connection.getResponseCode();
       if (responseCode != 200) {
-        events.onHttpError("Non-200 response to " + method + " to URL: "
-            + url + " : " + connection.getHeaderField(null));
+        String errorMessage = "Non-200 response to " + method + " to URL: "
+            + url + " : " + connection.getHeaderField(null);
         connection.disconnect();
+        if (!cancelled) {
+          events.onHttpError(errorMessage);
+        }
         return;
       }
       InputStream responseStream = connection.getInputStream();
-      String response = drainStream(responseStream);
+      String response = drainStream(responseStream, connection.getContentLength());
+      // Closing the fully read stream (as opposed to calling disconnect()) returns the
+      // connection to the keep-alive pool
       responseStream.close();
-      connection.disconnect();
-      events.onHttpComplete(response);
+      connection = null;
+      if (!cancelled) {
+        events.onHttpComplete(response);
+      }
     } catch (SocketTimeoutException e) {
-      events.onHttpError("HTTP " + method + " to " + url + " timeout");
+      if (!cancelled) {
+        events.onHttpError("HTTP " + method + " to " + url + " timeout");
+      }
     } catch (IOException e) {
-      events.onHttpError("HTTP " + method + " to " + url + " error: "
-          + e.getMessage());
+      if (!cancelled) {
+        events.onHttpError("HTTP " + method + " to " + url + " error: "
+            + e.getMessage());
+      }
     }
   }
 
-  // Return the contents of an InputStream as a String.
-  private static String drainStream(InputStream in) {
-    Scanner s = new Scanner(in).useDelimiter("\\A");
-    return s.hasNext() ? s.next() : "";
+  // Return the contents of an InputStream as a String, using contentLength (if known) to
+  // size the buffer up front.
+  private static String drainStream(InputStream in, int contentLength) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(
+        contentLength > 0 ? contentLength : DEFAULT_RESPONSE_BUFFER_SIZE);
+    byte[] buffer = new byte[contentLength > 0
+        ? Math.min(contentLength, 8192) : DEFAULT_RESPONSE_BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toString("UTF-8");
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(HTTP_EXECUTOR_THREADS,
+        HTTP_EXECUTOR_THREADS, HTTP_EXECUTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(1);
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "async-http-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    // don't keep idle threads around between calls
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 }
@@ -0,0 +1,266 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import org.restcomm.android.sdk.RCConnectionStats;
+import org.webrtc.StatsReport;
+
+/**
+ * Parses the StatsReport[] we get periodically from PeerConnection.getStats() into compact samples, kept in a fixed size
+ * ring buffer, and aggregates them into RCConnectionStats at a configurable interval.
+ *
+ * Since stats are sampled every second for the whole duration of a call, samples are stored in pre-allocated primitive arrays
+ * and parsing is done without creating any objects (no String splitting, boxing or regex), to avoid adding GC pressure during
+ * video calls. Only aggregate() allocates (a single RCConnectionStats).
+ *
+ * Not thread safe; it is meant to be accessed from the thread that delivers stats reports
+ */
+public class CallStatsCollector {
+   // number of samples kept around
+   public static final int DEFAULT_CAPACITY = 60;
+   private static final int UNKNOWN = -1;
+
+   // ring buffer of samples; counters (packets, bytes) are cumulative as reported by webrtc
+   private final long[] timestampMs;
+   private final int[] rttMs;
+   private final int[] jitterMs;
+   private final long[] packetsLost;
+   private final long[] packetsReceived;
+   private final long[] bytesSent;
+   private final long[] bytesReceived;
+   private final int[] encoderFrameRate;
+   private final int[] decoderFrameRate;
+   // whether the encoder resolution is reduced because of CPU overuse
+   private final boolean[] cpuLimited;
+   // index where next sample will be stored
+   private int head = 0;
+   private int count = 0;
+   // samples added since the last aggregate()
+   private int pendingCount = 0;
+
+   private final long reportIntervalMs;
+   private long lastReportTimestampMs = UNKNOWN;
+
+   /**
+    * @param capacity Number of samples to keep
+    * @param reportIntervalMs Interval between aggregates
+    */
+   public CallStatsCollector(int capacity, long reportIntervalMs)
+   {
+      timestampMs = new long[capacity];
+      rttMs = new int[capacity];
+      jitterMs = new int[capacity];
+      packetsLost = new long[capacity];
+      packetsReceived = new long[capacity];
+      bytesSent = new long[capacity];
+      bytesReceived = new long[capacity];
+      encoderFrameRate = new int[capacity];
+      decoderFrameRate = new int[capacity];
+      cpuLimited = new boolean[capacity];
+      this.reportIntervalMs = reportIntervalMs;
+   }
+
+   /**
+    * Parse reports into a new sample
+    *
+    * @param reports Reports as returned by PeerConnection.getStats()
+    * @param nowMs Current time, from a monotonic clock (i.e. SystemClock.elapsedRealtime())
+    */
+   public void addSample(StatsReport[] reports, long nowMs)
+   {
+      int rtt = UNKNOWN;
+      int jitter = UNKNOWN;
+      int encoderFps = UNKNOWN;
+      int decoderFps = UNKNOWN;
+      long lost = 0;
+      long received = 0;
+      long sent = 0;
+      long receivedBytes = 0;
+      boolean cpu = false;
+
+      for (StatsReport report : reports) {
+         // we 're only interested in per SSRC reports, like 'ssrc_1234_send' and 'ssrc_1234_recv'
+         if (!"ssrc".equals(report.type)) {
+            continue;
+         }
+         boolean isSend = report.id.endsWith("_send");
+         for (StatsReport.Value value : report.values) {
+            String name = value.name;
+            if (isSend) {
+               if ("googRtt".equals(name)) {
+                  rtt = Math.max(rtt, (int) parseLong(value.value));
+               }
+               else if ("bytesSent".equals(name)) {
+                  sent += parseLong(value.value);
+               }
+               else if ("googFrameRateSent".equals(name)) {
+                  encoderFps = Math.max(encoderFps, (int) parseLong(value.value));
+               }
+               else if ("googCpuLimitedResolution".equals(name)) {
+                  cpu |= "true".equals(value.value);
+               }
+            }
+            else {
+               if ("googJitterReceived".equals(name)) {
+                  jitter = Math.max(jitter, (int) parseLong(value.value));
+               }
+               else if ("packetsLost".equals(name)) {
+                  lost += parseLong(value.value);
+               }
+               else if ("packetsReceived".equals(name)) {
+                  received += parseLong(value.value);
+               }
+               else if ("bytesReceived".equals(name)) {
+                  receivedBytes += parseLong(value.value);
+               }
+               else if ("googFrameRateDecoded".equals(name)) {
+                  decoderFps = Math.max(decoderFps, (int) parseLong(value.value));
+               }
+            }
+         }
+      }
+
+      timestampMs[head] = nowMs;
+      rttMs[head] = rtt;
+      jitterMs[head] = jitter;
+      packetsLost[head] = lost;
+      packetsReceived[head] = received;
+      bytesSent[head] = sent;
+      bytesReceived[head] = receivedBytes;
+      encoderFrameRate[head] = encoderFps;
+      decoderFrameRate[head] = decoderFps;
+      cpuLimited[head] = cpu;
+
+      head = (head + 1) % timestampMs.length;
+      if (count < timestampMs.length) {
+         count++;
+      }
+      pendingCount++;
+      if (lastReportTimestampMs == UNKNOWN) {
+         lastReportTimestampMs = nowMs;
+      }
+   }
+
+   /**
+    * @return true if reportIntervalMs has passed since the last aggregate
+    */
+   public boolean isReportDue()
+   {
+      return pendingCount > 0 && timestampMs[index(0)] - lastReportTimestampMs >= reportIntervalMs;
+   }
+
+   /**
+    * Aggregate the samples added since the last call (limited to the buffer capacity)
+    *
+    * @return Aggregated stats or null if there are no new samples
+    */
+   public RCConnectionStats aggregate()
+   {
+      if (pendingCount == 0) {
+         return null;
+      }
+
+      // need one more sample than the ones in the window, if available, to compute deltas of cumulative counters
+      int window = Math.min(pendingCount, count);
+      int baseline = Math.min(window, count - 1);
+      int newest = index(0);
+      int oldest = index(baseline);
+
+      long rttSum = 0, jitterSum = 0, encoderSum = 0, decoderSum = 0;
+      int rttCount = 0, jitterCount = 0, encoderCount = 0, decoderCount = 0;
+      boolean cpu = false;
+      for (int i = 0; i < window; i++) {
+         int current = index(i);
+         if (rttMs[current] != UNKNOWN) {
+            rttSum += rttMs[current];
+            rttCount++;
+         }
+         if (jitterMs[current] != UNKNOWN) {
+            jitterSum += jitterMs[current];
+            jitterCount++;
+         }
+         if (encoderFrameRate[current] != UNKNOWN) {
+            encoderSum += encoderFrameRate[current];
+            encoderCount++;
+         }
+         if (decoderFrameRate[current] != UNKNOWN) {
+            decoderSum += decoderFrameRate[current];
+            decoderCount++;
+         }
+         cpu |= cpuLimited[current];
+      }
+
+      // counters might go backwards if streams are re-created, hence the Math.max()
+      long periodMs = timestampMs[newest] - timestampMs[oldest];
+      long lostDelta = Math.max(0, packetsLost[newest] - packetsLost[oldest]);
+      long receivedDelta = Math.max(0, packetsReceived[newest] - packetsReceived[oldest]);
+      float packetLossPercent = (lostDelta + receivedDelta > 0) ? (100f * lostDelta) / (lostDelta + receivedDelta) : 0;
+      int sendBitrateKbps = UNKNOWN;
+      int receiveBitrateKbps = UNKNOWN;
+      if (periodMs > 0) {
+         // bytes * 8 / ms = kbps
+         sendBitrateKbps = (int) (Math.max(0, bytesSent[newest] - bytesSent[oldest]) * 8 / periodMs);
+         receiveBitrateKbps = (int) (Math.max(0, bytesReceived[newest] - bytesReceived[oldest]) * 8 / periodMs);
+      }
+
+      pendingCount = 0;
+      lastReportTimestampMs = timestampMs[newest];
+
+      return new RCConnectionStats(periodMs, window,
+            average(rttSum, rttCount), average(jitterSum, jitterCount), packetLossPercent,
+            sendBitrateKbps, receiveBitrateKbps, average(encoderSum, encoderCount), average(decoderSum, decoderCount), cpu);
+   }
+
+   // Helpers
+   // ring index of the sample 'age' positions before the newest one
+   private int index(int age)
+   {
+      return (head - 1 - age + timestampMs.length * 2) % timestampMs.length;
+   }
+
+   private static int average(long sum, int count)
+   {
+      return (count > 0) ? (int) (sum / count) : UNKNOWN;
+   }
+
+   // Lenient parse of the leading integer part of a stats value, without allocating (i.e. '12' -> 12, '12.5' -> 12, '' -> 0)
+   private static long parseLong(String value)
+   {
+      long result = 0;
+      boolean negative = false;
+      int length = value.length();
+      int i = 0;
+      if (length > 0 && value.charAt(0) == '-') {
+         negative = true;
+         i++;
+      }
+      for (; i < length; i++) {
+         char c = value.charAt(i);
+         if (c < '0' || c > '9') {
+            break;
+         }
+         result = result * 10 + (c - '0');
+      }
+      return negative ? -result : result;
+   }
+}
@@ -0,0 +1,268 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.util.RCLogger;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Caches ICE servers retrieved by IceServerFetcher so that calls don't need to wait for an HTTPS round trip to the ICE
+ * endpoint before they can start. Lifetime of cached servers follows the lifetime of TURN credentials when it can be
+ * figured out (i.e. TURN REST API style usernames '<expiry timestamp>:<user>'), otherwise DEFAULT_LIFETIME_MILLIS is used.
+ *
+ * Cached entries go through two phases: while fresh they are returned right away; once past half their lifetime they are
+ * still returned right away but a refresh is triggered in the background (stale-while-revalidate), so that a slow ICE
+ * endpoint doesn't end up in the call setup path. Only when an entry has expired (or there's none) does the caller have
+ * to wait for the fetch.
+ *
+ * All state is accessed from the Looper passed in the constructor (normally the main Looper) and all callbacks are fired
+ * from there as well.
+ */
+public class IceServerCache {
+    private static final String TAG = "IceServerCache";
+    // Used when we can't figure out TURN credential lifetime from the response
+    private static final long DEFAULT_LIFETIME_MILLIS = 10 * 60 * 1000;
+    // Consider entries expired a bit before credentials actually expire, to leave room for call setup
+    private static final long EXPIRY_MARGIN_MILLIS = 30 * 1000;
+
+    private final Handler handler;
+
+    // What we have cached
+    private String cachedUrl = null;
+    private boolean cachedTurnEnabled = false;
+    private LinkedList<PeerConnection.IceServer> cachedIceServers = null;
+    // elapsedRealtime() based timestamps
+    private long freshUntil = 0;
+    private long expiresAt = 0;
+
+    // Outstanding fetch, if any, and who is waiting for it
+    private IceServerFetcher pendingFetcher = null;
+    private String pendingUrl = null;
+    private boolean pendingTurnEnabled = false;
+    private ArrayList<IceServerFetcher.IceServerFetcherEvents> pendingListeners = new ArrayList<>();
+
+    // Statistics
+    private int hits = 0;
+    private int staleHits = 0;
+    private int misses = 0;
+
+    public IceServerCache(Looper looper) {
+        this.handler = new Handler(looper);
+    }
+
+    /**
+     * Retrieve ICE servers for given ICE url, either from cache or by fetching them. Result is conveyed via events
+     */
+    public void getIceServers(final String iceUrl, final boolean turnEnabled, final IceServerFetcher.IceServerFetcherEvents events) {
+        long now = SystemClock.elapsedRealtime();
+
+        if (matchesCached(iceUrl, turnEnabled) && now < expiresAt) {
+            final LinkedList<PeerConnection.IceServer> iceServers = cachedIceServers;
+            if (now < freshUntil) {
+                hits++;
+                RCLogger.i(TAG, "getIceServers(): cache hit, " + getPrintableStats());
+            }
+            else {
+                staleHits++;
+                RCLogger.i(TAG, "getIceServers(): cache hit on stale entry, revalidating in the background, " + getPrintableStats());
+                fetch(iceUrl, turnEnabled, null);
+            }
+            // keep the callback asynchronous like it is when actually fetching, so that callers don't need to care
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    events.onIceServersReady(new LinkedList<PeerConnection.IceServer>(iceServers));
+                }
+            });
+            return;
+        }
+
+        misses++;
+        RCLogger.i(TAG, "getIceServers(): cache miss, " + getPrintableStats());
+        fetch(iceUrl, turnEnabled, events);
+    }
+
+    /**
+     * Fetch ICE servers in the background so that they are ready when a call comes or goes out. Does nothing if we
+     * already have fresh servers for the given url
+     */
+    public void prefetch(String iceUrl, boolean turnEnabled) {
+        if (matchesCached(iceUrl, turnEnabled) && SystemClock.elapsedRealtime() < freshUntil) {
+            return;
+        }
+        RCLogger.i(TAG, "prefetch()");
+        fetch(iceUrl, turnEnabled, null);
+    }
+
+    /**
+     * Forget cached servers, for example because network changed and they might not be reachable any more from the new one
+     */
+    public void invalidate() {
+        RCLogger.i(TAG, "invalidate()");
+        cachedUrl = null;
+        cachedIceServers = null;
+        freshUntil = 0;
+        expiresAt = 0;
+        if (pendingFetcher != null) {
+            // outstanding request went out over the previous network and might never complete; abort it and start
+            // over on behalf of anyone waiting
+            String url = pendingUrl;
+            boolean turnEnabled = pendingTurnEnabled;
+            pendingFetcher.cancel();
+            ArrayList<IceServerFetcher.IceServerFetcherEvents> listeners = drainPending();
+            for (IceServerFetcher.IceServerFetcherEvents listener : listeners) {
+                fetch(url, turnEnabled, listener);
+            }
+        }
+    }
+
+    /**
+     * Stop notifying given listener about an outstanding fetch, for example because the call it belongs to is over
+     */
+    public void cancel(IceServerFetcher.IceServerFetcherEvents events) {
+        pendingListeners.remove(events);
+        // Notice that we don't abort the HTTP request itself even if nobody else is waiting; its result will still be cached
+        // for the next call
+    }
+
+    public String getPrintableStats() {
+        return "hits: " + hits + ", stale hits: " + staleHits + ", misses: " + misses;
+    }
+
+    private boolean matchesCached(String iceUrl, boolean turnEnabled) {
+        return cachedIceServers != null && iceUrl.equals(cachedUrl) && turnEnabled == cachedTurnEnabled;
+    }
+
+    // Start fetching, unless there's already a fetch for the same url in progress in which case we just wait for that one
+    private void fetch(final String iceUrl, final boolean turnEnabled, IceServerFetcher.IceServerFetcherEvents events) {
+        if (events != null) {
+            pendingListeners.add(events);
+        }
+
+        if (pendingFetcher != null && iceUrl.equals(pendingUrl) && turnEnabled == pendingTurnEnabled) {
+            return;
+        }
+
+        final long startTime = SystemClock.elapsedRealtime();
+        pendingUrl = iceUrl;
+        pendingTurnEnabled = turnEnabled;
+        pendingFetcher = new IceServerFetcher(iceUrl, turnEnabled, new IceServerFetcher.IceServerFetcherEvents() {
+            // Notice that those come from the HTTP thread
+            @Override
+            public void onIceServersReady(final LinkedList<PeerConnection.IceServer> iceServers) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        RCLogger.i(TAG, "ICE servers fetched, took: " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                        if (!iceUrl.equals(pendingUrl) || turnEnabled != pendingTurnEnabled) {
+                            // superseded by a fetch for different url, ignore
+                            return;
+                        }
+                        store(iceUrl, turnEnabled, iceServers);
+                        for (IceServerFetcher.IceServerFetcherEvents listener : drainPending()) {
+                            listener.onIceServersReady(new LinkedList<PeerConnection.IceServer>(iceServers));
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onIceServersError(final String description) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!iceUrl.equals(pendingUrl) || turnEnabled != pendingTurnEnabled) {
+                            return;
+                        }
+                        ArrayList<IceServerFetcher.IceServerFetcherEvents> listeners = drainPending();
+                        if (matchesCached(iceUrl, turnEnabled) && SystemClock.elapsedRealtime() < expiresAt) {
+                            // refresh failed but what we have is still usable
+                            RCLogger.w(TAG, "Failed to refresh ICE servers, using cached ones: " + description);
+                            for (IceServerFetcher.IceServerFetcherEvents listener : listeners) {
+                                listener.onIceServersReady(new LinkedList<PeerConnection.IceServer>(cachedIceServers));
+                            }
+                            return;
+                        }
+                        for (IceServerFetcher.IceServerFetcherEvents listener : listeners) {
+                            listener.onIceServersError(description);
+                        }
+                    }
+                });
+            }
+        });
+        pendingFetcher.makeRequest();
+    }
+
+    private ArrayList<IceServerFetcher.IceServerFetcherEvents> drainPending() {
+        ArrayList<IceServerFetcher.IceServerFetcherEvents> listeners = pendingListeners;
+        pendingListeners = new ArrayList<>();
+        pendingFetcher = null;
+        pendingUrl = null;
+        return listeners;
+    }
+
+    private void store(String iceUrl, boolean turnEnabled, LinkedList<PeerConnection.IceServer> iceServers) {
+        long now = SystemClock.elapsedRealtime();
+        long lifetime = credentialLifetime(iceServers);
+
+        cachedUrl = iceUrl;
+        cachedTurnEnabled = turnEnabled;
+        cachedIceServers = iceServers;
+        expiresAt = now + Math.max(lifetime - EXPIRY_MARGIN_MILLIS, 0);
+        freshUntil = now + lifetime / 2;
+        RCLogger.i(TAG, "Cached " + iceServers.size() + " ICE servers, lifetime: " + lifetime / 1000 + " s");
+    }
+
+    // Figure out how long the TURN credentials we got are valid for. TURN REST API (draft-uberti-behave-turn-rest) style
+    // credentials carry their expiry as a unix timestamp prefix in the username, e.g. '1487254423:bob'. If more servers carry
+    // one, the earliest wins; if none does we go with DEFAULT_LIFETIME_MILLIS
+    private static long credentialLifetime(LinkedList<PeerConnection.IceServer> iceServers) {
+        long lifetime = -1;
+        for (PeerConnection.IceServer iceServer : iceServers) {
+            if (iceServer.username == null) {
+                continue;
+            }
+            int colon = iceServer.username.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            try {
+                long expiry = Long.parseLong(iceServer.username.substring(0, colon)) * 1000;
+                long remaining = Math.max(expiry - System.currentTimeMillis(), 0);
+                lifetime = (lifetime == -1) ? remaining : Math.min(lifetime, remaining);
+            }
+            catch (NumberFormatException e) {
+                // not a TURN REST API username, nothing to learn from it
+            }
+        }
+        return (lifetime == -1) ? DEFAULT_LIFETIME_MILLIS : lifetime;
+    }
+}
@@ -111,6 +111,13 @@ public class IceServerFetcher {
         httpConnection.send();
     }
 
+    // Abort an outstanding request; no events will be fired afterwards
+    public void cancel() {
+        if (httpConnection != null) {
+            httpConnection.cancel();
+        }
+    }
+
     private void iceServersHttpResponseParse(String response) {
         try {
             JSONObject iceServersJson = new JSONObject(response);
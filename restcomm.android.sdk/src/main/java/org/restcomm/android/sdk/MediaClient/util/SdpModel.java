@@ -0,0 +1,382 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import org.restcomm.android.sdk.util.RCLogger;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * SDP parsed once into session level lines and m-sections, so that we can apply all our munging (codec preference, bitrate fmtp,
+ * candidate merge/strip, media direction checks) on the model and serialize only once at the end, instead of splitting, regex matching
+ * and re-joining the whole SDP string for each operation.
+ *
+ * Lines are kept verbatim (without line endings) and serialized with CRLF. Not thread safe.
+ */
+public class SdpModel {
+   private static final String TAG = "SdpModel";
+
+   private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+   private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+
+   /**
+    * A single m-section: the parsed m-line plus the lines that follow it, up to the next m-line
+    */
+   public static class MediaSection {
+      private final int index;
+      // m=<media> <port> <proto> <fmt> ...
+      private final String[] header;
+      private final List<String> formats = new ArrayList<>();
+      private final List<String> lines = new ArrayList<>();
+      // rtpmap encoding name -> payload types, like 'VP8' -> [ '100' ]
+      private final HashMap<String, List<String>> payloadTypes = new HashMap<>();
+      private String mid;
+
+      private MediaSection(int index, String mLine)
+      {
+         this.index = index;
+         String[] parts = mLine.substring(2).split(" ");
+         if (parts.length < 3) {
+            RCLogger.e(TAG, "Wrong SDP media description format: " + mLine);
+            header = parts;
+            return;
+         }
+         header = new String[] { parts[0], parts[1], parts[2] };
+         for (int i = 3; i < parts.length; i++) {
+            formats.add(parts[i]);
+         }
+      }
+
+      private void addLine(String line)
+      {
+         lines.add(line);
+         if (line.startsWith("a=rtpmap:")) {
+            // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+            int space = line.indexOf(' ');
+            int slash = line.indexOf('/', space);
+            if (space != -1 && slash != -1) {
+               String codec = line.substring(space + 1, slash);
+               List<String> codecPayloadTypes = payloadTypes.get(codec);
+               if (codecPayloadTypes == null) {
+                  codecPayloadTypes = new ArrayList<>();
+                  payloadTypes.put(codec, codecPayloadTypes);
+               }
+               codecPayloadTypes.add(line.substring(9, space));
+            }
+         }
+         else if (line.startsWith("a=mid:")) {
+            mid = line.substring(6);
+         }
+      }
+
+      public int getIndex()
+      {
+         return index;
+      }
+
+      public String getMedia()
+      {
+         return header[0];
+      }
+
+      public boolean isPortZero()
+      {
+         return header.length > 1 && header[1].equals("0");
+      }
+
+      /**
+       * @return The a=mid of the section, or the media type (like 'audio') if there's none
+       */
+      public String getMid()
+      {
+         return (mid != null) ? mid : getMedia();
+      }
+
+      public boolean hasAttribute(String attribute)
+      {
+         return lines.contains(attribute);
+      }
+
+      /**
+       * Move the payload types of 'codec' at the front of the m-line format list
+       * @return true if the section was changed
+       */
+      public boolean preferCodec(String codec)
+      {
+         List<String> codecPayloadTypes = payloadTypes.get(codec);
+         if (codecPayloadTypes == null) {
+            RCLogger.w(TAG, "preferCodec(): No payload types with name " + codec);
+            return false;
+         }
+         if (header.length < 3) {
+            return false;
+         }
+         formats.removeAll(codecPayloadTypes);
+         formats.addAll(0, codecPayloadTypes);
+         return true;
+      }
+
+      /**
+       * Set start bitrate for 'codec' by updating its a=fmtp line, or adding one right after its a=rtpmap if there's none
+       * @return true if the section was changed
+       */
+      public boolean setStartBitrate(String codec, boolean isVideoCodec, int bitrateKbps)
+      {
+         List<String> codecPayloadTypes = payloadTypes.get(codec);
+         if (codecPayloadTypes == null) {
+            return false;
+         }
+         String payloadType = codecPayloadTypes.get(0);
+         String bitrateParam = isVideoCodec ? VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps : AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
+
+         String fmtpPrefix = "a=fmtp:" + payloadType + " ";
+         String rtpmapPrefix = "a=rtpmap:" + payloadType + " ";
+         int rtpmapIndex = -1;
+         for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith(fmtpPrefix)) {
+               lines.set(i, line + "; " + bitrateParam);
+               return true;
+            }
+            if (rtpmapIndex == -1 && line.startsWith(rtpmapPrefix)) {
+               rtpmapIndex = i;
+            }
+         }
+         lines.add(rtpmapIndex + 1, fmtpPrefix + bitrateParam);
+         return true;
+      }
+
+      // Add candidate lines (without the 'a=' prefix) right after 'a=rtcp:' if present, or at the end of the section
+      private void addCandidates(List<String> candidates)
+      {
+         int position = lines.size();
+         for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("a=rtcp:")) {
+               position = i + 1;
+               break;
+            }
+         }
+         List<String> candidateLines = new ArrayList<>(candidates.size());
+         for (String candidate : candidates) {
+            candidateLines.add("a=" + candidate);
+         }
+         lines.addAll(position, candidateLines);
+      }
+
+      private void serialize(StringBuilder builder)
+      {
+         builder.append("m=");
+         for (int i = 0; i < header.length; i++) {
+            if (i > 0) {
+               builder.append(' ');
+            }
+            builder.append(header[i]);
+         }
+         for (String format : formats) {
+            builder.append(' ').append(format);
+         }
+         builder.append("\r\n");
+         appendLines(builder, lines);
+      }
+   }
+
+   private final List<String> sessionLines = new ArrayList<>();
+   private final List<MediaSection> sections = new ArrayList<>();
+   private final int originalLength;
+
+   private SdpModel(int originalLength)
+   {
+      this.originalLength = originalLength;
+   }
+
+   /**
+    * Parse SDP in a single pass. Both CRLF and LF line endings are accepted; empty lines are dropped
+    */
+   public static SdpModel parse(String description)
+   {
+      SdpModel model = new SdpModel(description.length());
+      MediaSection section = null;
+      int start = 0;
+      while (start < description.length()) {
+         int end = description.indexOf('\n', start);
+         int next = (end == -1) ? description.length() : end + 1;
+         int lineEnd = (end == -1) ? description.length() : end;
+         if (lineEnd > start && description.charAt(lineEnd - 1) == '\r') {
+            lineEnd--;
+         }
+
+         if (lineEnd > start) {
+            String line = description.substring(start, lineEnd);
+            if (line.startsWith("m=")) {
+               section = new MediaSection(model.sections.size(), line);
+               model.sections.add(section);
+            }
+            else if (section == null) {
+               model.sessionLines.add(line);
+            }
+            else {
+               section.addLine(line);
+            }
+         }
+         start = next;
+      }
+      return model;
+   }
+
+   public List<MediaSection> getSections()
+   {
+      return sections;
+   }
+
+   /**
+    * @return First m-section for 'media' (like 'audio' or 'video'), or null if there's none
+    */
+   public MediaSection getSection(String media)
+   {
+      for (MediaSection section : sections) {
+         if (section.getMedia().equals(media)) {
+            return section;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Prefer 'codec' in the first m-section for 'media'
+    */
+   public boolean preferCodec(String media, String codec)
+   {
+      MediaSection section = getSection(media);
+      if (section == null) {
+         RCLogger.w(TAG, "preferCodec(): No " + media + " m-section, so can't prefer " + codec);
+         return false;
+      }
+      return section.preferCodec(codec);
+   }
+
+   /**
+    * Set start bitrate for 'codec', in the first m-section that has it
+    */
+   public boolean setStartBitrate(String codec, boolean isVideoCodec, int bitrateKbps)
+   {
+      for (MediaSection section : sections) {
+         if (section.setStartBitrate(codec, isVideoCodec, bitrateKbps)) {
+            return true;
+         }
+      }
+      RCLogger.w(TAG, "setStartBitrate(): No rtpmap for " + codec + " codec");
+      return false;
+   }
+
+   /**
+    * @return true if there's a video m-section and no video m-section is disabled (port 0) or recvonly
+    */
+   public boolean isVideoActive()
+   {
+      boolean foundVideo = false;
+      for (MediaSection section : sections) {
+         if (section.getMedia().equals("video")) {
+            if (section.isPortZero() || section.hasAttribute("a=recvonly")) {
+               return false;
+            }
+            foundVideo = true;
+         }
+      }
+      return foundVideo;
+   }
+
+   /**
+    * Add candidates to the m-sections they belong to, as designated by their sdpMLineIndex
+    */
+   public void addCandidates(List<IceCandidate> iceCandidates)
+   {
+      List<List<String>> sectionCandidates = new ArrayList<>(sections.size());
+      for (int i = 0; i < sections.size(); i++) {
+         sectionCandidates.add(new ArrayList<String>());
+      }
+      for (IceCandidate candidate : iceCandidates) {
+         if (candidate.sdpMLineIndex < 0 || candidate.sdpMLineIndex >= sections.size()) {
+            RCLogger.w(TAG, "addCandidates(): candidate for non existing m-section, skipping: " + candidate);
+            continue;
+         }
+         sectionCandidates.get(candidate.sdpMLineIndex).add(candidate.sdp);
+      }
+      for (int i = 0; i < sections.size(); i++) {
+         if (!sectionCandidates.get(i).isEmpty()) {
+            sections.get(i).addCandidates(sectionCandidates.get(i));
+         }
+      }
+   }
+
+   /**
+    * Remove all 'a=candidate' lines and return them as IceCandidates, with their section's mid and index
+    */
+   public List<IceCandidate> removeCandidates()
+   {
+      List<IceCandidate> iceCandidates = new LinkedList<>();
+      // candidates at session level (i.e. before any m-line) are not legit, but let's keep them around tied to the first m-section
+      removeCandidates(sessionLines, "audio", 0, iceCandidates);
+      for (MediaSection section : sections) {
+         removeCandidates(section.lines, section.getMid(), section.getIndex(), iceCandidates);
+      }
+      return iceCandidates;
+   }
+
+   /**
+    * Serialize back to an SDP string, with CRLF line endings
+    */
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder(originalLength + 256);
+      appendLines(builder, sessionLines);
+      for (MediaSection section : sections) {
+         section.serialize(builder);
+      }
+      return builder.toString();
+   }
+
+   // Helpers
+   private static void removeCandidates(List<String> lines, String mid, int index, List<IceCandidate> iceCandidates)
+   {
+      for (int i = 0; i < lines.size(); ) {
+         if (lines.get(i).startsWith("a=candidate")) {
+            iceCandidates.add(new IceCandidate(mid, index, lines.remove(i).substring(2)));
+         }
+         else {
+            i++;
+         }
+      }
+   }
+
+   private static void appendLines(StringBuilder builder, List<String> lines)
+   {
+      for (String line : lines) {
+         builder.append(line).append("\r\n");
+      }
+   }
+}
@@ -0,0 +1,206 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.RCConnectionStats;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps local video capture format and max bitrate up or down depending on network (packet loss, RTT) and device (CPU overuse,
+ * temperature) conditions, as reported by periodic RCConnectionStats aggregates.
+ *
+ * Levels go from the format the App asked for (level 0, which we never exceed) down to a low resolution/frame rate. The max bitrate
+ * of a level is never above the one the App configured either. To avoid oscillation we step down only after DOWN_THRESHOLD
+ * consecutive bad evaluations, step up only after UP_THRESHOLD consecutive good ones, and after any change we let HOLD_EVALUATIONS
+ * evaluations pass before considering another one.
+ *
+ * Needs to be accessed from a single thread (the UI thread in RCConnection)
+ */
+public class VideoAdaptationController {
+   private static final String TAG = "VideoAdaptationController";
+
+   /**
+    * Applies adapted parameters to the media layer
+    */
+   public interface Listener {
+      void onVideoAdaptation(int width, int height, int fps, int maxBitrateKbps);
+   }
+
+   // Conditions that make an evaluation bad or good (everything in between is neutral)
+   private static final float LOSS_BAD_PERCENT = 5;
+   private static final float LOSS_GOOD_PERCENT = 1;
+   private static final int RTT_BAD_MS = 400;
+   private static final int RTT_GOOD_MS = 250;
+   // battery temperature (in tenths of a degree Celsius) above which we consider the device overheating
+   private static final int TEMPERATURE_BAD = 430;
+   // battery temperature changes slowly, so there's no point in querying it at every evaluation
+   private static final long TEMPERATURE_SAMPLE_INTERVAL_MILIS = 30000;
+   // hysteresis
+   private static final int DOWN_THRESHOLD = 2;
+   private static final int UP_THRESHOLD = 5;
+   private static final int HOLD_EVALUATIONS = 2;
+   // Resolutions we can step down to, from largest to smallest
+   private static final int[][] RESOLUTIONS = { { 1920, 1080 }, { 1280, 720 }, { 960, 540 }, { 640, 480 }, { 640, 360 }, { 480, 360 }, { 320, 240 } };
+   private static final int MIN_FPS = 15;
+   // rough bits per pixel we need for decent quality with VP8/H264
+   private static final float BITS_PER_PIXEL = 0.07f;
+   private static final int MIN_BITRATE_KBPS = 100;
+
+   private static class Level {
+      final int width;
+      final int height;
+      final int fps;
+      final int maxBitrateKbps;
+
+      Level(int width, int height, int fps, int limitKbps)
+      {
+         this.width = width;
+         this.height = height;
+         this.fps = fps;
+         int bitrateKbps = Math.max(MIN_BITRATE_KBPS, (int) (width * height * fps * BITS_PER_PIXEL / 1000));
+         this.maxBitrateKbps = (limitKbps > 0) ? Math.min(limitKbps, bitrateKbps) : bitrateKbps;
+      }
+
+      public String toString()
+      {
+         return width + "x" + height + "@" + fps + ", " + maxBitrateKbps + "kbps";
+      }
+   }
+
+   private final Context context;
+   private final Listener listener;
+   private final List<Level> levels = new ArrayList<>();
+   private int currentLevel = 0;
+   private int badCount = 0;
+   private int goodCount = 0;
+   private int holdCount = 0;
+   private boolean overheating = false;
+   private long temperatureSampledAt = 0;
+   // stats
+   private int stepDownCount = 0;
+   private int stepUpCount = 0;
+
+   /**
+    * @param width Initial (and maximum) capture width
+    * @param height Initial (and maximum) capture height
+    * @param fps Initial (and maximum) capture frame rate
+    * @param maxBitrateKbps Max video bitrate configured by the App, which no level exceeds; 0 for no limit
+    */
+   public VideoAdaptationController(Context context, int width, int height, int fps, int maxBitrateKbps, Listener listener)
+   {
+      this.context = context;
+      this.listener = listener;
+
+      levels.add(new Level(width, height, fps, maxBitrateKbps));
+      int step = 1;
+      for (int[] resolution : RESOLUTIONS) {
+         if (resolution[0] * resolution[1] >= width * height) {
+            continue;
+         }
+         // first couple of steps down keep the frame rate, since motion smoothness matters more than detail for calls
+         int levelFps = (step <= 2) ? fps : Math.max(MIN_FPS, Math.min(fps, 30 - 5 * (step - 2)));
+         levels.add(new Level(resolution[0], resolution[1], Math.min(fps, levelFps), maxBitrateKbps));
+         step++;
+      }
+      RCLogger.i(TAG, "VideoAdaptationController(): levels: ", levels);
+   }
+
+   /**
+    * Evaluate latest stats and adapt if needed
+    */
+   public void onStats(RCConnectionStats stats)
+   {
+      boolean overheating = isOverheating();
+      boolean bad = stats.getPacketLossPercent() >= LOSS_BAD_PERCENT || stats.getRttMs() >= RTT_BAD_MS || stats.isCpuLimited() || overheating;
+      boolean good = !bad && stats.getPacketLossPercent() <= LOSS_GOOD_PERCENT && stats.getRttMs() >= 0 && stats.getRttMs() <= RTT_GOOD_MS;
+
+      if (holdCount > 0) {
+         holdCount--;
+         return;
+      }
+
+      if (bad) {
+         goodCount = 0;
+         badCount++;
+         if (badCount >= DOWN_THRESHOLD && currentLevel < levels.size() - 1) {
+            RCLogger.i(TAG, "onStats(): stepping down; loss: " + stats.getPacketLossPercent() + "%, rtt: " + stats.getRttMs() +
+                  "ms, cpu limited: " + stats.isCpuLimited() + ", overheating: " + overheating);
+            stepDownCount++;
+            apply(currentLevel + 1);
+         }
+      }
+      else if (good) {
+         badCount = 0;
+         goodCount++;
+         if (goodCount >= UP_THRESHOLD && currentLevel > 0) {
+            RCLogger.i(TAG, "onStats(): stepping up");
+            stepUpCount++;
+            apply(currentLevel - 1);
+         }
+      }
+      else {
+         badCount = 0;
+         goodCount = 0;
+      }
+   }
+
+   public String getPrintableStats()
+   {
+      return "level: " + levels.get(currentLevel) + ", step downs: " + stepDownCount + ", step ups: " + stepUpCount;
+   }
+
+   // Helpers
+   private void apply(int level)
+   {
+      currentLevel = level;
+      badCount = 0;
+      goodCount = 0;
+      holdCount = HOLD_EVALUATIONS;
+
+      Level target = levels.get(level);
+      RCLogger.i(TAG, "apply(): " + target);
+      listener.onVideoAdaptation(target.width, target.height, target.fps, target.maxBitrateKbps);
+   }
+
+   private boolean isOverheating()
+   {
+      long now = SystemClock.elapsedRealtime();
+      if (temperatureSampledAt != 0 && now - temperatureSampledAt < TEMPERATURE_SAMPLE_INTERVAL_MILIS) {
+         return overheating;
+      }
+      temperatureSampledAt = now;
+      // ACTION_BATTERY_CHANGED is sticky, so this just returns the latest value without actually registering anything
+      Intent batteryStatus = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+      overheating = batteryStatus != null && batteryStatus.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) >= TEMPERATURE_BAD;
+      return overheating;
+   }
+}
@@ -0,0 +1,189 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import org.restcomm.android.sdk.util.RCLogger;
+import org.webrtc.Logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Controls native WebRTC logging and tracing, which are process wide. By default they follow the SDK log level (see RCLogger), so that
+ * at the default ERROR level native media threads don't flood logcat and waste CPU during calls.
+ *
+ * Also provides on demand capture of recent logs to a file, typically right after a call fails. Since native WebRTC logs only go to
+ * logcat, we rely on the logcat ring buffer of our process: nothing is kept on our side while calls run, and we only pay the cost of
+ * reading it when dumping.
+ */
+public class WebrtcLogging {
+   private static final String TAG = "WebrtcLogging";
+   // RCLogger level that enables everything
+   private static final int LEVEL_ALL = 8;
+   // max logcat lines to dump
+   private static final int DUMP_MAX_LINES = 5000;
+   // max dump files to keep around
+   private static final int DUMP_MAX_FILES = 5;
+   private static final String DUMP_DIRECTORY = "webrtc-logs";
+
+   // Severity currently applied to native logging; null if we never touched native logging, in which case it's off
+   private static Logging.Severity currentSeverity = null;
+   private static boolean currentTracing = false;
+
+   /**
+    * Apply logging level to native WebRTC logging. Needs to be called from the thread that owns the PeerConnectionFactory, while the
+    * factory is alive
+    * @param level Level following Android logging levels at Log.*; Log.ERROR and above keep native logging at errors only (or off if
+    *              it was never enabled), INFO and below enable INFO logging, while DEBUG and below also enable tracing
+    */
+   public static synchronized void configure(int level)
+   {
+      Logging.Severity severity;
+      boolean tracing = false;
+      if (level == LEVEL_ALL || level <= Log.VERBOSE) {
+         severity = Logging.Severity.LS_VERBOSE;
+         tracing = true;
+      }
+      else if (level <= Log.DEBUG) {
+         severity = Logging.Severity.LS_INFO;
+         tracing = true;
+      }
+      else if (level <= Log.INFO) {
+         severity = Logging.Severity.LS_INFO;
+      }
+      else if (level <= Log.WARN) {
+         severity = Logging.Severity.LS_WARNING;
+      }
+      else {
+         if (currentSeverity == null) {
+            // native logging is off by default, no need to touch it
+            return;
+         }
+         severity = Logging.Severity.LS_ERROR;
+      }
+
+      if (severity == currentSeverity && tracing == currentTracing) {
+         return;
+      }
+
+      RCLogger.i(TAG, "configure(): native severity: " + severity + ", tracing: " + tracing);
+      if (tracing) {
+         Logging.enableTracing("logcat:", EnumSet.of(Logging.TraceLevel.TRACE_DEFAULT));
+      }
+      else if (currentTracing) {
+         Logging.enableTracing("logcat:", EnumSet.of(Logging.TraceLevel.TRACE_NONE));
+      }
+      Logging.enableLogToDebugOutput(severity);
+      currentSeverity = severity;
+      currentTracing = tracing;
+   }
+
+   /**
+    * Dump recent logs of our process (SDK and native WebRTC) from the logcat ring buffer to a file in the App's private storage.
+    * Blocks while logcat is read, so don't call it from the UI thread. Only the latest few dumps are kept
+    * @param context Android context
+    * @param label Label to add in the file name, like the call job id
+    * @return Path of the dump file, or null if dumping failed
+    */
+   public static String dumpLog(Context context, String label)
+   {
+      File directory = new File(context.getFilesDir(), DUMP_DIRECTORY);
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         RCLogger.e(TAG, "dumpLog(): failed to create directory: " + directory);
+         return null;
+      }
+      removeOldDumps(directory);
+
+      String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+      File file = new File(directory, "webrtc-" + timestamp + "-" + label + ".txt");
+
+      java.lang.Process logcat = null;
+      BufferedReader reader = null;
+      FileWriter writer = null;
+      try {
+         // Apps can only read their own entries from logcat, but let's filter by pid anyway in case we are a privileged App
+         logcat = Runtime.getRuntime().exec(new String[] { "logcat", "-d", "-v", "threadtime", "-t", String.valueOf(DUMP_MAX_LINES) });
+         reader = new BufferedReader(new InputStreamReader(logcat.getInputStream()));
+         writer = new FileWriter(file);
+         String pid = " " + Process.myPid() + " ";
+         String line;
+         while ((line = reader.readLine()) != null) {
+            // threadtime format: <date> <time> <pid> <tid> <level> <tag>: <message>
+            if (line.indexOf(pid) > 0) {
+               writer.write(line);
+               writer.write('\n');
+            }
+         }
+         RCLogger.i(TAG, "dumpLog(): logs dumped to: " + file);
+         return file.getAbsolutePath();
+      }
+      catch (IOException e) {
+         RCLogger.e(TAG, "dumpLog(): failed to dump logs: " + e.getMessage());
+         return null;
+      }
+      finally {
+         try {
+            if (reader != null) {
+               reader.close();
+            }
+            if (writer != null) {
+               writer.close();
+            }
+         }
+         catch (IOException e) {
+            // nothing to do
+         }
+         if (logcat != null) {
+            logcat.destroy();
+         }
+      }
+   }
+
+   // Helpers
+   private static void removeOldDumps(File directory)
+   {
+      File[] files = directory.listFiles();
+      if (files == null || files.length < DUMP_MAX_FILES) {
+         return;
+      }
+      // file names start with a timestamp, so lexicographical order is chronological
+      Arrays.sort(files);
+      for (int i = 0; i <= files.length - DUMP_MAX_FILES; i++) {
+         if (!files[i].delete()) {
+            RCLogger.w(TAG, "removeOldDumps(): failed to remove: " + files[i]);
+         }
+      }
+   }
+}
@@ -50,32 +50,43 @@
 package org.restcomm.android.sdk;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.Toast;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.restcomm.android.sdk.MediaClient.AppRTCAudioManager;
 import org.restcomm.android.sdk.MediaClient.PeerConnectionClient;
 import org.restcomm.android.sdk.SignalingClient.SignalingParameters;
 import org.restcomm.android.sdk.SignalingClient.SignalingClient;
+import org.restcomm.android.sdk.MediaClient.util.CallStatsCollector;
 import org.restcomm.android.sdk.MediaClient.util.IceServerFetcher;
+import org.restcomm.android.sdk.MediaClient.util.SdpModel;
+import org.restcomm.android.sdk.MediaClient.util.VideoAdaptationController;
+import org.restcomm.android.sdk.MediaClient.util.WebrtcLogging;
 
 import org.restcomm.android.sdk.util.PercentFrameLayout;
 import org.restcomm.android.sdk.util.RCLogger;
+import org.restcomm.android.sdk.util.RCUtils;
 import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
+import org.webrtc.DataChannel;
 import org.webrtc.EglBase;
 import org.webrtc.FileVideoCapturer;
 import org.webrtc.IceCandidate;
@@ -258,6 +269,31 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       // Incoming headers from Restcomm both for incoming and outgoing calls
       public static final String CONNECTION_CUSTOM_INCOMING_SIP_HEADERS = "sip-headers-incoming";
       public static final String CONNECTION_SIP_HEADER_KEY_CALL_SID = "X-RestComm-CallSid";
+      // Send the SDP (INVITE or 200 OK) as soon as enough ICE candidates have been gathered, instead of waiting for ICE gathering to complete
+      public static final String CONNECTION_EARLY_SDP_ENABLED = "early-sdp-enabled";
+      // Number of local ICE candidates after which the SDP is sent in early SDP mode. If not set (or 0) we send as soon as we have
+      // at least one host and one server reflexive or relay candidate
+      public static final String CONNECTION_EARLY_SDP_CANDIDATE_BUDGET = "early-sdp-candidate-budget";
+      // Maximum time in miliseconds to wait for candidates after the local description is ready in early SDP mode
+      public static final String CONNECTION_EARLY_SDP_TIMEOUT = "early-sdp-timeout";
+      // Interval in miliseconds at which call quality stats are reported via RCConnectionListener.onConnectionStats(). If not set (or 0) stats are not collected
+      public static final String CONNECTION_STATS_REPORT_INTERVAL = "stats-report-interval";
+      // Maximum bitrate in kbps for local video; if not set (or 0) it's up to webrtc bandwidth estimation
+      public static final String CONNECTION_VIDEO_MAX_BITRATE = "video-max-bitrate";
+      // Automatically adapt local video resolution, frame rate and max bitrate to network and device conditions (only applies to video calls)
+      public static final String CONNECTION_VIDEO_ADAPTATION_ENABLED = "video-adaptation-enabled";
+      // In-call data channel for low latency messaging directly with the peer (see sendData() and RCDataChannelListener)
+      public static final String CONNECTION_DATA_CHANNEL_ENABLED = "data-channel-enabled";
+      // Whether data channel messages are delivered in order; default is true
+      public static final String CONNECTION_DATA_CHANNEL_ORDERED = "data-channel-ordered";
+      // Partial reliability: maximum retransmissions, or maximum time in miliseconds to keep retransmitting a message. Only one of
+      // them can be set; if none is set the channel is reliable
+      public static final String CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS = "data-channel-max-retransmits";
+      public static final String CONNECTION_DATA_CHANNEL_MAX_RETRANSMIT_TIME = "data-channel-max-retransmit-time";
+      // Keep the call up when media connectivity is lost, and recover media with an ICE restart when the device moves to a different network
+      public static final String CONNECTION_HANDOVER_ENABLED = "handover-enabled";
+      // Time in miliseconds we wait for media to recover in handover mode before disconnecting the call
+      public static final String CONNECTION_HANDOVER_TIMEOUT = "handover-timeout";
    }
 
    // Let's use a builder since RCConnections don't have uniform way to construct
@@ -349,7 +385,8 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    private SurfaceViewRenderer remoteRender;
    private PercentFrameLayout localRenderLayout;
    private PercentFrameLayout remoteRenderLayout;
-   private PeerConnectionClient peerConnectionClient = null;
+   // read from App threads as well in sendData()
+   private volatile PeerConnectionClient peerConnectionClient = null;
    private SignalingParameters signalingParameters;
    private AppRTCAudioManager audioManager = null;
    private ScalingType scalingType;
@@ -366,6 +403,50 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    private Handler timeoutHandler = null;
    // call times out if it hasn't been established after 15 seconds
    private final int CALL_TIMEOUT_DURATION_MILIS = 15 * 1000;
+   // Default time to wait for candidates when early SDP mode is enabled
+   private final int EARLY_SDP_TIMEOUT_DEFAULT_MILIS = 1000;
+   // Call quality stats are sampled at this period and aggregated every CONNECTION_STATS_REPORT_INTERVAL. Collector is set from UI
+   // thread and used from the thread webrtc delivers stats on
+   private final int STATS_SAMPLING_PERIOD_MILIS = 1000;
+   private volatile CallStatsCollector statsCollector = null;
+   // Adapts video capture format and bitrate based on stats, if enabled with CONNECTION_VIDEO_ADAPTATION_ENABLED; only accessed from UI thread.
+   // When the App hasn't asked for stats reports, stats are aggregated every VIDEO_ADAPTATION_INTERVAL_MILIS just for adaptation
+   private VideoAdaptationController videoAdaptationController = null;
+   private final int VIDEO_ADAPTATION_INTERVAL_MILIS = 2000;
+   // Used for adaptation when the App didn't specify video resolution/frame rate, same as PeerConnectionClient defaults
+   private final int DEFAULT_VIDEO_WIDTH = 1280;
+   private final int DEFAULT_VIDEO_HEIGHT = 720;
+   private final int DEFAULT_VIDEO_FPS = 30;
+   // Early SDP mode related state: whether SDP has been sent (either early or at ICE gathering complete), when it was sent, and
+   // how many candidates were gathered after it was sent and hence didn't make it into the SDP
+   private boolean localSdpSent = false;
+   private long localSdpSentTimeMs = 0;
+   private int lateIceCandidates = 0;
+   private Runnable earlySdpTimeoutRunnable = null;
+   private boolean earlySdpTimedOut = false;
+   // Data channel events are delivered straight from the webrtc thread, hence volatile
+   private volatile RCDataChannelListener dataChannelListener = null;
+   // Data channel is pre-negotiated (i.e. both peers create it with the same id) so that it's usable as soon as media is connected
+   private final int DATA_CHANNEL_ID = 0;
+   // Network handover related state (see CONNECTION_HANDOVER_ENABLED), only accessed from UI thread: whether an ICE restart is in progress and
+   // whether another one is needed once it completes, the offer of the ICE restart, when media connectivity was lost (0 while media is flowing)
+   // and the timer that disconnects the call if media doesn't come back in time
+   private boolean iceRestartInProgress = false;
+   private boolean iceRestartQueued = false;
+   private SessionDescription iceRestartOfferSdp = null;
+   private long mediaGapStartTimeMs = 0;
+   private Runnable handoverTimeoutRunnable = null;
+   private int mediaRecoveryCount = 0;
+   private final int HANDOVER_TIMEOUT_DEFAULT_MILIS = 15 * 1000;
+   // Payloads of media events on their way from the webrtc thread to the UI thread (see handleMediaEvent())
+   private volatile SessionDescription pendingLocalDescription = null;
+   private volatile String pendingErrorDescription = null;
+   // ICE candidates gathered but not yet handled in the UI thread; guarded by itself
+   private final List<IceCandidate> pendingIceCandidates = new ArrayList<>();
+   // re-used by the UI thread to handle candidates outside the lock
+   private final List<IceCandidate> drainedIceCandidates = new ArrayList<>();
+   // latest stats aggregate not yet handled in the UI thread
+   private final AtomicReference<RCConnectionStats> pendingStats = new AtomicReference<>();
    // Device was already busy with another Connection when this Connection arrived. If so we need to set this so that we have custom behavior later
    private boolean deviceAlreadyBusy = false;
 
@@ -407,7 +488,7 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
 
       if (builder.jobId == null) {
          // create a unique jobId for the RCConnection, this is used for signaling actions to maintain state
-         jobId = Long.toString(System.currentTimeMillis());
+         jobId = RCUtils.generateUniqueId();
       }
       else {
          jobId = builder.jobId;
@@ -516,6 +597,21 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
     *   <b>RCConnection.ParameterKeys.CONNECTION_PREFERRED_VIDEO_CODEC</b>: Preferred video codec to use. Default is VP8. Possible values are enumerated at <i>RCConnection.VideoCodec</i> <br>
     *   <b>RCConnection.ParameterKeys.CONNECTION_PREFERRED_VIDEO_RESOLUTION</b>: Preferred video resolution to use. Default is HD (1280x720). Possible values are enumerated at <i>RCConnection.VideoResolution</i> <br>
     *   <b>RCConnection.ParameterKeys.CONNECTION_PREFERRED_VIDEO_FRAME_RATE</b>: Preferred frame rate to use. Default is 30fps. Possible values are enumerated at <i>RCConnection.VideoFrameRate</i> <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_EARLY_SDP_ENABLED</b>: Send the 200 OK as soon as enough ICE candidates are gathered instead of waiting for ICE gathering to complete. Default is false <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_EARLY_SDP_CANDIDATE_BUDGET</b>: In early SDP mode, number of local candidates after which the 200 OK is sent. Default is one host plus one server reflexive or relay candidate <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_EARLY_SDP_TIMEOUT</b>: In early SDP mode, maximum time in miliseconds to wait for candidates. Default is 1000 <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL</b>: Interval in miliseconds at which call quality stats are reported via RCConnectionListener.onConnectionStats(). Default is 0 (i.e. no stats) <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_VIDEO_MAX_BITRATE</b>: Maximum bitrate in kbps for local video. Video adaptation, if enabled, never goes above it either. Default is 0 (i.e. no limit) <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_VIDEO_ADAPTATION_ENABLED</b>: Automatically step local video resolution, frame rate and max bitrate down (and back up) depending on packet loss, RTT, CPU and device temperature. Default is false <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_ENABLED</b>: Open an in-call data channel for low latency messaging directly with the peer, see RCConnection.sendData() and
+    *   RCConnection.setDataChannelListener(). The channel is pre-negotiated, so both parties need to enable it with the same settings. Default is false <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_ORDERED</b>: Whether data channel messages are delivered in order. Default is true <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS</b>: For partially reliable data channel, maximum number of retransmissions of a message. Default is unlimited <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMIT_TIME</b>: For partially reliable data channel, maximum time in miliseconds to keep retransmitting a message.
+    *   Can't be combined with CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS. Default is unlimited <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_HANDOVER_ENABLED</b>: Keep the call up when media connectivity is lost and, when the device moves to a different network (like from WiFi to cellular data),
+    *   restart ICE over the new network with a re-INVITE. When media is back RCConnectionListener.onMediaRecovered() is fired with the duration of the media gap. Default is false <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_HANDOVER_TIMEOUT</b>: In handover mode, time in miliseconds to wait for media to recover before disconnecting the call. Default is 15000 <br>
     *   <b>RCConnection.ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS</b>: An optional HashMap&lt;String,String&gt; of custom SIP headers we want to add. For an example
 
 
@@ -523,7 +619,7 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
     */
    public void accept(Map<String, Object> parameters)
    {
-      RCLogger.i(TAG, "accept(): " + parameters.toString());
+      RCLogger.i(TAG, "accept(): ", parameters);
       if (!checkPermissions(parameters.containsKey(ParameterKeys.CONNECTION_VIDEO_ENABLED) && (Boolean)parameters.get(ParameterKeys.CONNECTION_VIDEO_ENABLED))) {
          return;
       }
@@ -744,6 +840,80 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       return false;
    }
 
+   /**
+    * Put connection on hold so that no media is exchanged with the other party, or resume it. Media session is kept up while on hold,
+    * so that resuming is instant and doesn't involve signaling
+    *
+    * @param hold True to hold and false in order to resume
+    */
+   public void setHold(boolean hold)
+   {
+      RCLogger.i(TAG, "setHold(): " + hold);
+
+      if (this.peerConnectionClient != null) {
+         this.peerConnectionClient.setHold(hold);
+      }
+      else {
+         RCLogger.e(TAG, "setHold called when peerConnectionClient in NULL");
+      }
+   }
+
+   /**
+    * Retrieve whether connection is on hold or not
+    *
+    * @return True connection is on hold and false otherwise
+    */
+   public boolean isOnHold()
+   {
+      if (this.peerConnectionClient != null) {
+         return this.peerConnectionClient.isOnHold();
+      }
+      return false;
+   }
+
+   /**
+    * Set listener for data channel events. Needs to be set before the call is connected, i.e. right after RCDevice.connect() for
+    * outgoing calls, or before accept() for incoming ones
+    *
+    * @param listener Listener for data channel events, which are invoked from an internal WebRTC thread (see RCDataChannelListener)
+    */
+   public void setDataChannelListener(RCDataChannelListener listener)
+   {
+      dataChannelListener = listener;
+   }
+
+   /**
+    * Send data to the peer over the in-call data channel, enabled with RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_ENABLED.
+    * Can be called from any thread. Data is sent asynchronously, so the buffer must not be modified afterwards
+    *
+    * @param data Data to send, from its position to its limit
+    * @param binary Whether data is binary or UTF-8 text
+    * @return true if data was queued for sending. false if the data channel isn't open, or if too much data is already buffered for sending;
+    * in the latter case wait for RCDataChannelListener.onDataBufferedAmountLow() before sending more
+    */
+   public boolean sendData(ByteBuffer data, boolean binary)
+   {
+      PeerConnectionClient client = peerConnectionClient;
+      if (client == null || !isDataChannelEnabled()) {
+         return false;
+      }
+      return client.sendData(data, binary);
+   }
+
+   /**
+    * Get the amount of data passed to sendData() that hasn't been sent over the network yet
+    *
+    * @return Buffered amount in bytes
+    */
+   public long getDataBufferedAmount()
+   {
+      PeerConnectionClient client = peerConnectionClient;
+      if (client == null || !isDataChannelEnabled()) {
+         return 0;
+      }
+      return client.getDataBufferedAmount();
+   }
+
    /**
     * Send DTMF digits over the connection
     *
@@ -871,6 +1041,50 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
 
    }
 
+   public void onCallReinviteEvent(String jobId, String sdpAnswer, RCClient.ErrorCodes statusCode, String statusText)
+   {
+      RCLogger.i(TAG, "onCallReinviteEvent(): jobId: " + jobId + ", status: " + statusCode + ", text: " + statusText);
+      iceRestartInProgress = false;
+      if (peerConnectionClient == null || state != ConnectionState.CONNECTED) {
+         return;
+      }
+
+      if (statusCode == RCClient.ErrorCodes.SUCCESS) {
+         // like with the initial answer, candidates are conveyed separately
+         SignalingParameters params = SignalingParameters.extractCandidates(new SessionDescription(SessionDescription.Type.ANSWER, sdpAnswer));
+         peerConnectionClient.setRemoteDescription(params.offerSdp);
+         onRemoteIceCandidates(params.iceCandidates);
+      }
+      else {
+         RCLogger.w(TAG, "onCallReinviteEvent(): ICE restart failed; media can only recover over the previous network");
+         if (iceConnected) {
+            // media never went down, so there's no gap to measure
+            mediaGapStartTimeMs = 0;
+         }
+      }
+
+      if (iceRestartQueued) {
+         iceRestartQueued = false;
+         restartIce("queued network handover");
+      }
+   }
+
+   public void onCallNetworkHandoverEvent(String jobId)
+   {
+      RCLogger.i(TAG, "onCallNetworkHandoverEvent(): jobId: " + jobId);
+      if (!isHandoverEnabled() || state != ConnectionState.CONNECTED || peerConnectionClient == null) {
+         RCLogger.i(TAG, "onCallNetworkHandoverEvent(): handover not enabled or call not connected, ignoring");
+         return;
+      }
+
+      // media over the previous network is most likely already gone; notice that we don't start the handover timer here, since if
+      // media is still flowing over the previous network it's not our place to tear down the call
+      if (mediaGapStartTimeMs == 0) {
+         mediaGapStartTimeMs = System.currentTimeMillis();
+      }
+      restartIce("network handover");
+   }
+
    public void onCallErrorEvent(String jobId, RCClient.ErrorCodes errorCode, String errorText)
    {
       RCLogger.e(TAG, "onCallErrorEvent(): jobId: " + jobId + ", error code: " + errorCode + ", error text: " + errorText);
@@ -1101,20 +1315,8 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
 
    private void startTurn()
    {
-      HashMap<String, Object> deviceParameters = device.getParameters();
-      String url = deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_URL) + "?ident=" +
-            deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_USERNAME) + "&secret=" +
-            deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_PASSWORD) + "&domain=" +
-            deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_DOMAIN) + "&application=default&room=default&secure=1";
-
-      boolean turnEnabled = false;
-      if (deviceParameters.containsKey(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED) &&
-            !deviceParameters.get(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED).equals("")) {
-         turnEnabled = true;
-      }
-
-      //String url = "https://service.xirsys.com/ice?ident=atsakiridis&secret=SECRET_HERE&domain=cloud.restcomm.com&application=default&room=default&secure=1";
-      new IceServerFetcher(url, turnEnabled, this).makeRequest();
+      // ICE servers are normally already cached by RCDevice, in which case this doesn't hit the network
+      device.fetchIceServers(this);
    }
 
    private void startMediaTimer()
@@ -1245,6 +1447,37 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    }
    */
 
+   // Data channel callbacks; delivered to the App as is from the webrtc thread to avoid copying and thread hops
+   public void onDataChannelStateChange(boolean open)
+   {
+      RCLogger.i(TAG, "onDataChannelStateChange(): " + open);
+      RCDataChannelListener listener = dataChannelListener;
+      if (listener != null) {
+         if (open) {
+            listener.onDataChannelOpen(this);
+         }
+         else {
+            listener.onDataChannelClosed(this);
+         }
+      }
+   }
+
+   public void onDataChannelMessage(DataChannel.Buffer buffer)
+   {
+      RCDataChannelListener listener = dataChannelListener;
+      if (listener != null) {
+         listener.onData(this, buffer.data, buffer.binary);
+      }
+   }
+
+   public void onDataChannelBufferedAmountLow()
+   {
+      RCDataChannelListener listener = dataChannelListener;
+      if (listener != null) {
+         listener.onDataBufferedAmountLow(this);
+      }
+   }
+
    // Callback fired when video is paused after call to pauseVideo()
    // IMPORTANT: runs in media thread, need to post on Main thread
    public void onVideoPaused()
@@ -1426,6 +1659,77 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       }
    }
 
+   // Parameters for PeerConnectionClient. Also used by RCDevice to warm up the peer connection factory ahead of calls, hence by keeping
+   // it in one place we make sure that the warmed up factory is compatible with the one needed for calls and can be re-used
+   static PeerConnectionClient.PeerConnectionParameters createPeerConnectionParameters(boolean videoEnabled, int videoWidth, int videoHeight, int videoFps,
+                                                                                       int videoMaxBitrate,
+                                                                                       String preferredVideoCodecString, String preferredAudioCodecString,
+                                                                                       PeerConnectionClient.DataChannelParameters dataChannelParameters)
+   {
+      return new PeerConnectionClient.PeerConnectionParameters(
+            videoEnabled,  // video call
+            false,  // loopback
+            false,  // tracing
+            videoWidth,  // video width
+            videoHeight,  // video height
+            videoFps,  // video fps
+            videoMaxBitrate,  // video max bitrate
+            preferredVideoCodecString,  // video codec
+            true,  // video codec hw acceleration enabled
+            false, // capture to texture
+            0,  // audio start bitrate
+            preferredAudioCodecString,  // audio codec
+            false,  // no audio processing
+            false,  // AEC dump
+            false,  // use OpenGLES
+            false,  // disable builtin AEC
+            false,  // disable builtin AGC
+            false,  // disable builtin NS
+            false,  // enable level control
+            dataChannelParameters);  // data channel, if enabled
+   }
+
+   // Data channel parameters from call parameters, or null if data channel isn't enabled
+   private PeerConnectionClient.DataChannelParameters createDataChannelParameters()
+   {
+      if (!isDataChannelEnabled()) {
+         return null;
+      }
+      boolean ordered = !callParams.containsKey(ParameterKeys.CONNECTION_DATA_CHANNEL_ORDERED) ||
+            (Boolean) callParams.get(ParameterKeys.CONNECTION_DATA_CHANNEL_ORDERED);
+      int maxRetransmits = -1;
+      if (callParams.containsKey(ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS)) {
+         maxRetransmits = (Integer) callParams.get(ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS);
+      }
+      int maxRetransmitTimeMs = -1;
+      if (callParams.containsKey(ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMIT_TIME)) {
+         maxRetransmitTimeMs = (Integer) callParams.get(ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMIT_TIME);
+      }
+      RCLogger.i(TAG, "createDataChannelParameters(): ordered: " + ordered + ", max retransmits: " + maxRetransmits +
+            ", max retransmit time: " + maxRetransmitTimeMs);
+      return new PeerConnectionClient.DataChannelParameters(ordered, maxRetransmitTimeMs, maxRetransmits, "", true, DATA_CHANNEL_ID);
+   }
+
+   private int getVideoMaxBitrate()
+   {
+      if (callParams != null && callParams.containsKey(ParameterKeys.CONNECTION_VIDEO_MAX_BITRATE)) {
+         return (Integer) callParams.get(ParameterKeys.CONNECTION_VIDEO_MAX_BITRATE);
+      }
+      return 0;
+   }
+
+   private boolean isHandoverEnabled()
+   {
+      return callParams != null && callParams.containsKey(ParameterKeys.CONNECTION_HANDOVER_ENABLED) &&
+            (Boolean) callParams.get(ParameterKeys.CONNECTION_HANDOVER_ENABLED);
+   }
+
+   private boolean isDataChannelEnabled()
+   {
+      return callParams != null && callParams.containsKey(ParameterKeys.CONNECTION_DATA_CHANNEL_ENABLED) &&
+            (Boolean) callParams.get(ParameterKeys.CONNECTION_DATA_CHANNEL_ENABLED);
+   }
+
    // initialize webrtc facilities for the call
    private void initializeWebrtc(boolean videoEnabled,
                                  PercentFrameLayout localRenderLayout,
@@ -1454,26 +1758,8 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       RCLogger.i(TAG, "Initializing PeerConnection parameters: audioCodec: " + preferredAudioCodecString + ", videoCodec: " + preferredVideoCodecString +
             ", resolution: " + resolution + ", frameRate: " + frameRateInt);
 
-      peerConnectionParameters = new PeerConnectionClient.PeerConnectionParameters(
-            videoEnabled,  // video call
-            false,  // loopback
-            false,  // tracing
-            resolution.width,  // video width
-            resolution.height,  // video height
-            frameRateInt,  // video fps
-            0,  // video start bitrate
-            preferredVideoCodecString,  // video codec
-            true,  // video codec hw acceleration enabled
-            false, // capture to texture
-            0,  // audio start bitrate
-            preferredAudioCodecString,  // audio codec
-            false,  // no audio processing
-            false,  // AEC dump
-            false,  // use OpenGLES
-            false,  // disable builtin AEC
-            false,  // disable builtin AGC
-            false,  // disable builtin NS
-            false);  // enable level control
+      peerConnectionParameters = createPeerConnectionParameters(videoEnabled, resolution.width, resolution.height, frameRateInt,
+            getVideoMaxBitrate(), preferredVideoCodecString, preferredAudioCodecString, createDataChannelParameters());
 
       createPeerConnectionFactory();
    }
@@ -1550,6 +1836,17 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    {
       RCLogger.i(TAG, "disconnectWebrtc");
 
+      device.cancelIceServers(this);
+      statsCollector = null;
+      if (handoverTimeoutRunnable != null) {
+         timeoutHandler.removeCallbacks(handoverTimeoutRunnable);
+         handoverTimeoutRunnable = null;
+      }
+      if (videoAdaptationController != null) {
+         RCLogger.i(TAG, "disconnectWebrtc(): video adaptation stats: " + videoAdaptationController.getPrintableStats());
+         videoAdaptationController = null;
+      }
+
       if (peerConnectionClient != null) {
          peerConnectionClient.close();
          peerConnectionClient = null;
@@ -1605,7 +1902,7 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
             if (peerConnectionClient == null) {
                final long delta = System.currentTimeMillis() - callStartedTimeMs;
                RCLogger.d(TAG, "Creating peer connection factory, delay=" + delta + "ms");
-               peerConnectionClient = PeerConnectionClient.getInstance();
+               peerConnectionClient = new PeerConnectionClient();
                peerConnectionClient.createPeerConnectionFactory(device,
                      peerConnectionParameters,
                      connection);
@@ -1645,163 +1942,157 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    @Override
    public void onLocalDescription(final SessionDescription sdp)
    {
-      final long delta = System.currentTimeMillis() - callStartedTimeMs;
-      final RCConnection connection = this;
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.i(TAG, "onLocalDescription" + sdp.type + ", delay=" + delta + "ms");
-            if (signalingParameters != null) {  // && !signalingParameters.sipUrl.isEmpty()) {
-               //logAndToast("Sending " + sdp.type + ", delay=" + delta + "ms");
-               if (signalingParameters.initiator) {
-                  // keep it around so that we combine it with candidates before sending it over
-                  connection.signalingParameters.offerSdp = sdp;
-                  //appRtcClient.sendOfferSdp(sdp);
-               }
-               else {
-                  //appRtcClient.sendAnswerSdp(sdp);
-                  connection.signalingParameters.answerSdp = sdp;
-                  // for an incoming call we have already stored the offer candidates there, now
-                  // we are done with those and need to come up with answer candidates
-                  // TODO: this might prove dangerous as the signalingParms struct used to be all const,
-                  // but I changed it since with JAIN sip signalling where various parts are picked up
-                  // at different points in time
-                  connection.signalingParameters.iceCandidates.clear();
-               }
-            }
-         }
-      };
-      mainHandler.post(myRunnable);
+      pendingLocalDescription = sdp;
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_LOCAL_DESCRIPTION);
    }
 
    @Override
    public void onIceCandidate(final IceCandidate candidate)
    {
-      final RCConnection connection = this;
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.i(TAG, "onIceCandidate:" + candidate);
-            connection.signalingParameters.addIceCandidate(candidate);
-         }
-      };
-      mainHandler.post(myRunnable);
+      // Candidates arrive in bursts; only wake up the UI thread for the first one of a burst, the rest are picked up along with it
+      boolean dispatch;
+      synchronized (pendingIceCandidates) {
+         dispatch = pendingIceCandidates.isEmpty();
+         pendingIceCandidates.add(candidate);
+      }
+      if (dispatch) {
+         device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_ICE_CANDIDATES);
+      }
    }
 
    @Override
    public void onIceCandidatesRemoved(final IceCandidate[] candidates)
    {
-      final RCConnection connection = this;
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.i(TAG, "onIceCandidateRemoved: Not Implemented Yet");
-         }
-      };
-      mainHandler.post(myRunnable);
-
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_ICE_CANDIDATES_REMOVED);
    }
 
    public void onIceGatheringComplete()
    {
-      final RCConnection connection = this;
-
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.i(TAG, "onIceGatheringComplete");
-            if (peerConnectionClient == null) {
-               // if the user hangs up the call before its setup we need to bail
-               return;
-            }
-            if (signalingParameters.initiator) {
-               HashMap<String, Object> parameters = new HashMap<String, Object>();
-               parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, signalingParameters.sipUrl);
-               parameters.put("sdp", connection.signalingParameters.generateSipSdp(connection.signalingParameters.offerSdp, connection.signalingParameters.iceCandidates));
-               parameters.put(ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS, connection.signalingParameters.sipHeaders);
-
-               signalingClient.call(jobId, parameters);
-            }
-            else {
-               HashMap<String, Object> parameters = new HashMap<>();
-               parameters.put("sdp", connection.signalingParameters.generateSipSdp(connection.signalingParameters.answerSdp,
-                     connection.signalingParameters.iceCandidates));
-               signalingClient.accept(jobId, parameters);
-               //connection.state = ConnectionState.CONNECTING;
-            }
-         }
-      };
-      mainHandler.post(myRunnable);
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_ICE_GATHERING_COMPLETE);
    }
 
-   @Override
-   public void onIceConnected()
+   // Send local SDP combined with the local candidates gathered so far, either via INVITE (outgoing call) or via 200 OK (incoming call).
+   // Normally called when ICE gathering completes, but in early SDP mode it can be called sooner. Needs to run in UI thread
+   private void sendLocalSdp(String trigger)
    {
-      final long delta = System.currentTimeMillis() - callStartedTimeMs;
+      if (localSdpSent) {
+         return;
+      }
 
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.i(TAG, "onIceConnected");
+      SessionDescription localSdp;
+      if (iceRestartInProgress) {
+         localSdp = iceRestartOfferSdp;
+      }
+      else {
+         localSdp = signalingParameters.initiator ? signalingParameters.offerSdp : signalingParameters.answerSdp;
+      }
+      if (localSdp == null) {
+         RCLogger.w(TAG, "sendLocalSdp(): local description not ready yet, trigger: " + trigger);
+         return;
+      }
 
-            // stop any calling or ringing sound
-            audioManager.stop();
-            audioManager.startCallMedia();
+      localSdpSent = true;
+      localSdpSentTimeMs = System.currentTimeMillis();
+      if (earlySdpTimeoutRunnable != null) {
+         timeoutHandler.removeCallbacks(earlySdpTimeoutRunnable);
+         earlySdpTimeoutRunnable = null;
+      }
 
-            // we 're connected, cancel any pending timeout timers
-            timeoutHandler.removeCallbacksAndMessages(null);
+      RCLogger.i(TAG, "sendLocalSdp(): trigger: " + trigger + ", candidates: " + signalingParameters.iceCandidates.size() +
+            ", delay=" + (localSdpSentTimeMs - callStartedTimeMs) + "ms");
 
-            logAndToast("ICE connected, delay=" + delta + "ms");
-            iceConnected = true;
-            RCConnection.this.state = ConnectionState.CONNECTED;
-            updateVideoView(VideoViewState.ICE_CONNECTED);
+      if (iceRestartInProgress) {
+         HashMap<String, Object> parameters = new HashMap<>();
+         parameters.put("sdp", signalingParameters.generateSipSdp(localSdp, signalingParameters.iceCandidates));
+         signalingClient.reinvite(jobId, parameters);
+      }
+      else if (signalingParameters.initiator) {
+         HashMap<String, Object> parameters = new HashMap<String, Object>();
+         parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, signalingParameters.sipUrl);
+         parameters.put("sdp", signalingParameters.generateSipSdp(localSdp, signalingParameters.iceCandidates));
+         parameters.put(ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS, signalingParameters.sipHeaders);
 
-            HashMap<String, String> customHeaders = null;
-            if (callParams.containsKey(ParameterKeys.CONNECTION_CUSTOM_INCOMING_SIP_HEADERS)) {
-               customHeaders = (HashMap<String, String>) callParams.get(ParameterKeys.CONNECTION_CUSTOM_INCOMING_SIP_HEADERS);
-            }
+         signalingClient.call(jobId, parameters);
+      }
+      else {
+         HashMap<String, Object> parameters = new HashMap<>();
+         parameters.put("sdp", signalingParameters.generateSipSdp(localSdp, signalingParameters.iceCandidates));
+         signalingClient.accept(jobId, parameters);
+         //connection.state = ConnectionState.CONNECTING;
+      }
+   }
 
-            sendQoSConnectionIntent("connected");
+   private boolean isEarlySdpEnabled()
+   {
+      return callParams.containsKey(ParameterKeys.CONNECTION_EARLY_SDP_ENABLED) &&
+            (Boolean) callParams.get(ParameterKeys.CONNECTION_EARLY_SDP_ENABLED);
+   }
 
-            if (device.isAttached()) {
-               device.onNotificationCallConnected(RCConnection.this);
-               listener.onConnected(RCConnection.this, customHeaders);
-            }
-            else {
-               RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onConnected()");
-            }
+   // Check if we have gathered enough candidates to send the SDP in early SDP mode
+   private boolean isEarlySdpCandidateBudgetMet()
+   {
+      List<IceCandidate> candidates = signalingParameters.iceCandidates;
+      if (callParams.containsKey(ParameterKeys.CONNECTION_EARLY_SDP_CANDIDATE_BUDGET) &&
+            (Integer) callParams.get(ParameterKeys.CONNECTION_EARLY_SDP_CANDIDATE_BUDGET) > 0) {
+         return candidates.size() >= (Integer) callParams.get(ParameterKeys.CONNECTION_EARLY_SDP_CANDIDATE_BUDGET);
+      }
 
+      // default budget: at least one host candidate, plus one server reflexive or relay so that we can traverse NATs
+      boolean haveHost = false, haveReflexive = false;
+      for (IceCandidate candidate : candidates) {
+         if (candidate.sdp.contains(" typ host")) {
+            haveHost = true;
          }
-      };
-      mainHandler.post(myRunnable);
+         else if (candidate.sdp.contains(" typ srflx") || candidate.sdp.contains(" typ relay")) {
+            haveReflexive = true;
+         }
+      }
+      return haveHost && haveReflexive;
    }
 
-   @Override
-   public void onIceDisconnected()
+   // In early SDP mode don't wait more than the configured timeout for candidates after local description is ready
+   private void startEarlySdpTimer()
    {
-      // Notice that this is actually means that media connectivity has been lost, hence showing an error (maps to IceConnectionState.DISCONNECTED)
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
+      if (localSdpSent || earlySdpTimeoutRunnable != null) {
+         return;
+      }
+
+      int timeout = EARLY_SDP_TIMEOUT_DEFAULT_MILIS;
+      if (callParams.containsKey(ParameterKeys.CONNECTION_EARLY_SDP_TIMEOUT)) {
+         timeout = (Integer) callParams.get(ParameterKeys.CONNECTION_EARLY_SDP_TIMEOUT);
+      }
+
+      earlySdpTimeoutRunnable = new Runnable() {
          @Override
          public void run()
          {
-            RCLogger.i(TAG, "onIceDisconnected");
-            logAndToast("ICE disconnected");
-            iceConnected = false;
-            handleDisconnect("Connectivity-Drop");
+            earlySdpTimeoutRunnable = null;
+            earlySdpTimedOut = true;
+            if (peerConnectionClient == null || signalingParameters == null) {
+               return;
+            }
+            if (signalingParameters.iceCandidates.isEmpty()) {
+               // without any candidates the SDP is useless, let's send it along with the first candidate instead
+               RCLogger.w(TAG, "Early SDP timeout fired, but no candidates gathered yet");
+               return;
+            }
+            sendLocalSdp("early SDP timeout");
          }
       };
-      mainHandler.post(myRunnable);
+      timeoutHandler.postDelayed(earlySdpTimeoutRunnable, timeout);
+   }
+
+   @Override
+   public void onIceConnected()
+   {
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_ICE_CONNECTED);
+   }
+
+   @Override
+   public void onIceDisconnected()
+   {
+      // Notice that this is actually means that media connectivity has been lost, hence showing an error (maps to IceConnectionState.DISCONNECTED)
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_ICE_DISCONNECTED);
    }
 
    @Override
@@ -1813,92 +2104,414 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    @Override
    public void onPeerConnectionStatsReady(final StatsReport[] reports)
    {
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            if (iceConnected) {
-               //hudFragment.updateEncoderStatistics(reports);
-            }
-         }
-      };
-      mainHandler.post(myRunnable);
+      // Notice that we parse the reports right here, in the webrtc thread, so that we only bother the UI thread when an aggregate is ready
+      CallStatsCollector collector = statsCollector;
+      if (collector == null) {
+         return;
+      }
+      collector.addSample(reports, SystemClock.elapsedRealtime());
+      if (!collector.isReportDue()) {
+         return;
+      }
+      // if the UI thread hasn't picked up the previous aggregate yet, just replace it with the latest one
+      if (pendingStats.getAndSet(collector.aggregate()) == null) {
+         device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_STATS_READY);
+      }
+   }
+
+   // Start collecting call quality stats, if the App asked for them or if we need them for video adaptation
+   private void startStats()
+   {
+      if (peerConnectionClient == null) {
+         return;
+      }
+
+      if (isVideoAdaptationEnabled() && videoAdaptationController == null) {
+         final PeerConnectionClient client = peerConnectionClient;
+         videoAdaptationController = new VideoAdaptationController(device,
+               peerConnectionParameters.videoWidth != 0 ? peerConnectionParameters.videoWidth : DEFAULT_VIDEO_WIDTH,
+               peerConnectionParameters.videoHeight != 0 ? peerConnectionParameters.videoHeight : DEFAULT_VIDEO_HEIGHT,
+               peerConnectionParameters.videoFps != 0 ? peerConnectionParameters.videoFps : DEFAULT_VIDEO_FPS,
+               peerConnectionParameters.videoMaxBitrate,
+               new VideoAdaptationController.Listener() {
+                  @Override
+                  public void onVideoAdaptation(int width, int height, int fps, int maxBitrateKbps)
+                  {
+                     client.changeCaptureFormat(width, height, fps);
+                     client.setVideoMaxBitrate(maxBitrateKbps);
+                  }
+               });
+      }
+
+      int reportInterval;
+      if (isStatsReportEnabled()) {
+         reportInterval = (Integer) callParams.get(ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL);
+      }
+      else if (videoAdaptationController != null) {
+         reportInterval = VIDEO_ADAPTATION_INTERVAL_MILIS;
+      }
+      else {
+         return;
+      }
+
+      if (statsCollector == null) {
+         statsCollector = new CallStatsCollector(CallStatsCollector.DEFAULT_CAPACITY, reportInterval);
+      }
+      peerConnectionClient.enableStatsEvents(true, STATS_SAMPLING_PERIOD_MILIS);
+   }
+
+   private boolean isStatsReportEnabled()
+   {
+      return callParams.containsKey(ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL) &&
+            (Integer) callParams.get(ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL) > 0;
+   }
+
+   private boolean isVideoAdaptationEnabled()
+   {
+      return peerConnectionParameters != null && peerConnectionParameters.videoCallEnabled && peerConnectionClient.isVideoCallEnabled() &&
+            callParams.containsKey(ParameterKeys.CONNECTION_VIDEO_ADAPTATION_ENABLED) &&
+            (Boolean) callParams.get(ParameterKeys.CONNECTION_VIDEO_ADAPTATION_ENABLED);
    }
 
    @Override
    public void onPeerConnectionError(final String description)
    {
-      final RCConnection connection = this;
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.e(TAG, "PeerConnection error: " + description);
-            String reason = null;
-            if (description.equals("ICE connection failed")) {
-               // in cases where this is the result of IceConnectionState.FAILED, which means that media connectivity is lost we need to add proper reason header
-               reason = "Connectivity-Drop";
-            }
-            handleDisconnect(reason);
+      pendingErrorDescription = description;
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_PEER_CONNECTION_ERROR);
+   }
 
-            if (device.isAttached() && connection.listener != null) {
-               connection.listener.onDisconnected(connection, RCClient.ErrorCodes.ERROR_CONNECTION_WEBRTC_PEERCONNECTION_ERROR.ordinal(), description);
-            }
-            else {
-               RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onDisconnected()");
-            }
+   public void onLocalVideo()
+   {
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_LOCAL_VIDEO);
+   }
 
-            // Phone state Intents to capture dropped call event
-            sendQoSDisconnectErrorIntent(RCClient.ErrorCodes.ERROR_CONNECTION_WEBRTC_PEERCONNECTION_ERROR.ordinal(), description);
+   public void onRemoteVideo()
+   {
+      device.getConnectionEventDispatcher().dispatch(this, ConnectionEventDispatcher.EVENT_REMOTE_VIDEO);
+   }
+
+   // -----Handling of PeerConnectionClient events in UI thread (see ConnectionEventDispatcher)----
+   void handleMediaEvent(int event)
+   {
+      switch (event) {
+         case ConnectionEventDispatcher.EVENT_LOCAL_DESCRIPTION:
+            handleLocalDescription();
+            break;
+         case ConnectionEventDispatcher.EVENT_ICE_CANDIDATES:
+            handleIceCandidates();
+            break;
+         case ConnectionEventDispatcher.EVENT_ICE_CANDIDATES_REMOVED:
+            handleIceCandidatesRemoved();
+            break;
+         case ConnectionEventDispatcher.EVENT_ICE_GATHERING_COMPLETE:
+            handleIceGatheringComplete();
+            break;
+         case ConnectionEventDispatcher.EVENT_ICE_CONNECTED:
+            handleIceConnected();
+            break;
+         case ConnectionEventDispatcher.EVENT_ICE_DISCONNECTED:
+            handleIceDisconnected();
+            break;
+         case ConnectionEventDispatcher.EVENT_STATS_READY:
+            handleStatsReady();
+            break;
+         case ConnectionEventDispatcher.EVENT_PEER_CONNECTION_ERROR:
+            handlePeerConnectionError();
+            break;
+         case ConnectionEventDispatcher.EVENT_LOCAL_VIDEO:
+            handleLocalVideo();
+            break;
+         case ConnectionEventDispatcher.EVENT_REMOTE_VIDEO:
+            handleRemoteVideo();
+            break;
+         default:
+            RCLogger.e(TAG, "handleMediaEvent(): unknown event: " + event);
+      }
+   }
+
+   private void handleLocalDescription()
+   {
+      final SessionDescription sdp = pendingLocalDescription;
+      final long delta = System.currentTimeMillis() - callStartedTimeMs;
+      final RCConnection connection = this;
+      RCLogger.i(TAG, "onLocalDescription" + sdp.type + ", delay=" + delta + "ms");
+      if (signalingParameters != null) {  // && !signalingParameters.sipUrl.isEmpty()) {
+         //logAndToast("Sending " + sdp.type + ", delay=" + delta + "ms");
+         if (iceRestartInProgress) {
+            // offer for an ICE restart; candidates have already been cleared when the restart was kicked off
+            iceRestartOfferSdp = sdp;
          }
-      };
-      mainHandler.post(myRunnable);
+         else if (signalingParameters.initiator) {
+            // keep it around so that we combine it with candidates before sending it over
+            connection.signalingParameters.offerSdp = sdp;
+            //appRtcClient.sendOfferSdp(sdp);
+         }
+         else {
+            //appRtcClient.sendAnswerSdp(sdp);
+            connection.signalingParameters.answerSdp = sdp;
+            // for an incoming call we have already stored the offer candidates there, now
+            // we are done with those and need to come up with answer candidates
+            // TODO: this might prove dangerous as the signalingParms struct used to be all const,
+            // but I changed it since with JAIN sip signalling where various parts are picked up
+            // at different points in time
+            connection.signalingParameters.iceCandidates.clear();
+         }
+
+         if (isEarlySdpEnabled()) {
+            startEarlySdpTimer();
+         }
+      }
    }
 
-   public void onLocalVideo()
+   private void handleIceCandidates()
    {
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            RCLogger.i(TAG, "onLocalVideo");
-            localVideoReceived = true;
-            updateVideoView(VideoViewState.LOCAL_VIEW_RECEIVED);
-            if (device.isAttached()) {
-               listener.onLocalVideo(RCConnection.this);
-            }
-            else {
-               RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onLocalVideo()");
-            }
+      // pick up all candidates of the burst at once
+      synchronized (pendingIceCandidates) {
+         drainedIceCandidates.addAll(pendingIceCandidates);
+         pendingIceCandidates.clear();
+      }
+      for (IceCandidate candidate : drainedIceCandidates) {
+         handleIceCandidate(candidate);
+      }
+      drainedIceCandidates.clear();
+   }
 
-         }
-      };
-      mainHandler.post(myRunnable);
+   private void handleIceCandidate(IceCandidate candidate)
+   {
+      RCLogger.i(TAG, "onIceCandidate:" + candidate);
+      if (localSdpSent) {
+         // SDP already sent in early SDP mode; Restcomm doesn't support trickling candidates over SIP, so this one won't be used
+         lateIceCandidates++;
+         RCLogger.i(TAG, "onIceCandidate: candidate gathered after SDP was sent, not signaled to peer: " + candidate.sdp);
+         return;
+      }
+      signalingParameters.addIceCandidate(candidate);
+      if (isEarlySdpEnabled() && (earlySdpTimedOut || isEarlySdpCandidateBudgetMet())) {
+         sendLocalSdp("candidate budget met");
+      }
    }
 
-   public void onRemoteVideo()
+   private void handleIceCandidatesRemoved()
    {
-      Handler mainHandler = new Handler(device.getMainLooper());
-      Runnable myRunnable = new Runnable() {
+      RCLogger.i(TAG, "onIceCandidateRemoved: Not Implemented Yet");
+   }
+
+   private void handleIceGatheringComplete()
+   {
+      RCLogger.i(TAG, "onIceGatheringComplete");
+      if (peerConnectionClient == null) {
+         // if the user hangs up the call before its setup we need to bail
+         return;
+      }
+      if (localSdpSent) {
+         // early SDP mode: SDP already went out, let's just keep track of how much call setup time we saved
+         final long saved = System.currentTimeMillis() - localSdpSentTimeMs;
+         RCLogger.i(TAG, "onIceGatheringComplete: early SDP was sent " + saved + "ms before ICE gathering completed, call setup time: " +
+               (localSdpSentTimeMs - callStartedTimeMs) + "ms, candidates not signaled: " + lateIceCandidates);
+         return;
+      }
+      sendLocalSdp("ICE gathering complete");
+   }
+
+   private void handleIceConnected()
+   {
+      final long delta = System.currentTimeMillis() - callStartedTimeMs;
+      RCLogger.i(TAG, "onIceConnected");
+
+      if (state == ConnectionState.CONNECTED) {
+         // we 've been connected before, so this is media coming back after connectivity loss or an ICE restart (handover mode)
+         handleMediaRecovered();
+         return;
+      }
+
+      // stop any calling or ringing sound
+      audioManager.stop();
+      audioManager.startCallMedia();
+
+      // we 're connected, cancel any pending timeout timers
+      timeoutHandler.removeCallbacksAndMessages(null);
+
+      logAndToast("ICE connected, delay=" + delta + "ms");
+      iceConnected = true;
+      this.state = ConnectionState.CONNECTED;
+      updateVideoView(VideoViewState.ICE_CONNECTED);
+
+      startStats();
+
+      HashMap<String, String> customHeaders = null;
+      if (callParams.containsKey(ParameterKeys.CONNECTION_CUSTOM_INCOMING_SIP_HEADERS)) {
+         customHeaders = (HashMap<String, String>) callParams.get(ParameterKeys.CONNECTION_CUSTOM_INCOMING_SIP_HEADERS);
+      }
+
+      sendQoSConnectionIntent("connected");
+
+      if (device.isAttached()) {
+         device.onNotificationCallConnected(this);
+         listener.onConnected(this, customHeaders);
+      }
+      else {
+         RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onConnected()");
+      }
+   }
+
+   private void handleIceDisconnected()
+   {
+      RCLogger.i(TAG, "onIceDisconnected");
+      logAndToast("ICE disconnected");
+      iceConnected = false;
+      if (isHandoverEnabled() && state == ConnectionState.CONNECTED) {
+         // give media a chance to recover, either on its own or via ICE restart once signaling tells us we 're on a new network
+         handleMediaLost();
+         return;
+      }
+      handleDisconnect("Connectivity-Drop");
+   }
+
+   // Media connectivity is lost in handover mode; start measuring the gap and disconnect if media doesn't come back in time
+   private void handleMediaLost()
+   {
+      if (mediaGapStartTimeMs == 0) {
+         mediaGapStartTimeMs = System.currentTimeMillis();
+      }
+      if (handoverTimeoutRunnable != null) {
+         return;
+      }
+
+      int timeout = HANDOVER_TIMEOUT_DEFAULT_MILIS;
+      if (callParams.containsKey(ParameterKeys.CONNECTION_HANDOVER_TIMEOUT)) {
+         timeout = (Integer) callParams.get(ParameterKeys.CONNECTION_HANDOVER_TIMEOUT);
+      }
+      final int finalTimeout = timeout;
+      handoverTimeoutRunnable = new Runnable() {
          @Override
          public void run()
          {
-            RCLogger.i(TAG, "onRemoteVideo");
-            remoteVideoReceived = true;
-            updateVideoView(VideoViewState.REMOTE_VIEW_RECEIVED);
-            if (device.isAttached()) {
-               listener.onRemoteVideo(RCConnection.this);
-            }
-            else {
-               RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onRemoteVideo()");
-            }
-
+            handoverTimeoutRunnable = null;
+            RCLogger.w(TAG, "Media didn't recover within " + finalTimeout + "ms, disconnecting");
+            handleDisconnect("Connectivity-Drop");
          }
       };
-      mainHandler.post(myRunnable);
+      timeoutHandler.postDelayed(handoverTimeoutRunnable, timeout);
+   }
+
+   private void handleMediaRecovered()
+   {
+      iceConnected = true;
+      if (handoverTimeoutRunnable != null) {
+         timeoutHandler.removeCallbacks(handoverTimeoutRunnable);
+         handoverTimeoutRunnable = null;
+      }
+      if (mediaGapStartTimeMs == 0) {
+         return;
+      }
+
+      final long mediaGapMs = System.currentTimeMillis() - mediaGapStartTimeMs;
+      mediaGapStartTimeMs = 0;
+      mediaRecoveryCount++;
+      RCLogger.i(TAG, "handleMediaRecovered(): media gap: " + mediaGapMs + "ms, recoveries so far: " + mediaRecoveryCount);
+      logAndToast("Media recovered after " + mediaGapMs + "ms");
+
+      if (device.isAttached()) {
+         listener.onMediaRecovered(this, mediaGapMs);
+      }
+      else {
+         RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onMediaRecovered()");
+      }
+   }
+
+   // Re-establish media over the network interfaces currently up: create an offer with new ICE credentials, gather candidates and send it
+   // to the peer with a re-INVITE, just like the initial offer (i.e. at ICE gathering complete, or sooner in early SDP mode)
+   private void restartIce(String trigger)
+   {
+      if (iceRestartInProgress) {
+         // the restart in progress might have gathered candidates on the previous network, let's do another one once it's done
+         iceRestartQueued = true;
+         return;
+      }
+
+      RCLogger.i(TAG, "restartIce(): trigger: " + trigger);
+      iceRestartInProgress = true;
+      iceRestartOfferSdp = null;
+      localSdpSent = false;
+      earlySdpTimedOut = false;
+      lateIceCandidates = 0;
+      signalingParameters.iceCandidates.clear();
+      peerConnectionClient.restartIce();
+   }
+
+   private void handleStatsReady()
+   {
+      final RCConnectionStats stats = pendingStats.getAndSet(null);
+      if (stats == null) {
+         return;
+      }
+      RCLogger.v(TAG, "onPeerConnectionStatsReady: ", stats);
+      if (videoAdaptationController != null) {
+         videoAdaptationController.onStats(stats);
+      }
+
+      if (!isStatsReportEnabled()) {
+         // stats are only collected for video adaptation
+         return;
+      }
+      if (device.isAttached()) {
+         listener.onConnectionStats(this, stats);
+      }
+      else {
+         RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onConnectionStats()");
+      }
+   }
+
+   private void handlePeerConnectionError()
+   {
+      final String description = pendingErrorDescription;
+      final RCConnection connection = this;
+      RCLogger.e(TAG, "PeerConnection error: " + description);
+      if (isWebrtcLogCaptureEnabled()) {
+         dumpWebrtcLog();
+      }
+      String reason = null;
+      if (description.equals("ICE connection failed")) {
+         // in cases where this is the result of IceConnectionState.FAILED, which means that media connectivity is lost we need to add proper reason header
+         reason = "Connectivity-Drop";
+      }
+      handleDisconnect(reason);
+
+      if (device.isAttached() && connection.listener != null) {
+         connection.listener.onDisconnected(connection, RCClient.ErrorCodes.ERROR_CONNECTION_WEBRTC_PEERCONNECTION_ERROR.ordinal(), description);
+      }
+      else {
+         RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onDisconnected()");
+      }
+
+      // Phone state Intents to capture dropped call event
+      sendQoSDisconnectErrorIntent(RCClient.ErrorCodes.ERROR_CONNECTION_WEBRTC_PEERCONNECTION_ERROR.ordinal(), description);
+   }
+
+   private void handleLocalVideo()
+   {
+      RCLogger.i(TAG, "onLocalVideo");
+      localVideoReceived = true;
+      updateVideoView(VideoViewState.LOCAL_VIEW_RECEIVED);
+      if (device.isAttached()) {
+         listener.onLocalVideo(this);
+      }
+      else {
+         RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onLocalVideo()");
+      }
+   }
+
+   private void handleRemoteVideo()
+   {
+      RCLogger.i(TAG, "onRemoteVideo");
+      remoteVideoReceived = true;
+      updateVideoView(VideoViewState.REMOTE_VIEW_RECEIVED);
+      if (device.isAttached()) {
+         listener.onRemoteVideo(this);
+      }
+      else {
+         RCLogger.w(TAG, "RCConnectionListener event suppressed since Restcomm Client Service not attached: onRemoteVideo()");
+      }
    }
 
    // -----Implementation of AppRTCClient.AppRTCSignalingEvents ---------------
@@ -2021,6 +2634,8 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       }
 
       logAndToast("Creating peer connection, delay=" + delta + "ms");
+      peerConnectionClient.setNativeLoggingLevel(getNativeLoggingLevel());
+      peerConnectionClient.setHandoverEnabled(isHandoverEnabled());
       peerConnectionClient.createPeerConnection(rootEglBase != null ? rootEglBase.getEglBaseContext(): null,
             localRender, remoteRender, videoCapturer, signalingParameters);
 
@@ -2098,43 +2713,55 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    }
 
    // Helpers
-   // get from SDP if this is an audio or audio/video call
-   static ConnectionMediaType sdp2Mediatype(String sdp)
+   // native WebRTC logging follows the SDK log level, unless the App has set it explicitly. When log capture is enabled it's raised to at
+   // least INFO (without tracing), otherwise at the default ERROR level native logging stays off and dumps would have nothing from it
+   private int getNativeLoggingLevel()
    {
-      boolean foundVideo = false;
+      HashMap<String, Object> deviceParameters = device.getParameters();
+      int level;
+      if (deviceParameters != null && deviceParameters.get(RCDevice.ParameterKeys.DEBUG_WEBRTC_LOGGING_LEVEL) != null) {
+         level = (Integer) deviceParameters.get(RCDevice.ParameterKeys.DEBUG_WEBRTC_LOGGING_LEVEL);
+      }
+      else {
+         level = RCLogger.getLogLevel();
+      }
+      // WebrtcLogging.configure() treats levels above ASSERT as 'all', which is already more than INFO
+      if (isWebrtcLogCaptureEnabled() && level > Log.INFO && level <= Log.ASSERT) {
+         level = Log.INFO;
+      }
+      return level;
+   }
 
-      // split the media SDP sections
-      String[] sections = sdp.split("m=");
-      for (int i = 0; i < sections.length; i++) {
-         // and check if the media secion starts with 'video'
-         if (sections[i].matches("(?s)^video.*")) {
-            // if so checks if the video section has recvonly
-            if (sections[i].matches("(?s).*a=recvonly.*")) {
-               return ConnectionMediaType.AUDIO;
-            }
-            else if (sections[i].matches("(?s).*video 0.*")) {
-               return ConnectionMediaType.AUDIO;
-            }
-            foundVideo = true;
+   private boolean isWebrtcLogCaptureEnabled()
+   {
+      HashMap<String, Object> deviceParameters = device.getParameters();
+      return deviceParameters != null && deviceParameters.get(RCDevice.ParameterKeys.DEBUG_WEBRTC_LOG_CAPTURE_ENABLED) != null &&
+            (Boolean) deviceParameters.get(RCDevice.ParameterKeys.DEBUG_WEBRTC_LOG_CAPTURE_ENABLED);
+   }
+
+   // dump recent logs to file in the background, since reading logcat takes a while
+   private void dumpWebrtcLog()
+   {
+      final Context context = device.getApplicationContext();
+      final String label = jobId;
+      new Thread(new Runnable() {
+         @Override
+         public void run()
+         {
+            WebrtcLogging.dumpLog(context, label);
          }
-      }
+      }, "WebrtcLogDump").start();
+   }
 
-      if (!foundVideo) {
-         return ConnectionMediaType.AUDIO;
+   // get from SDP if this is an audio or audio/video call; video counts only if its m-section isn't disabled (port 0) or recvonly
+   static ConnectionMediaType sdp2Mediatype(String sdp)
+   {
+      if (SdpModel.parse(sdp).isVideoActive()) {
+         return ConnectionMediaType.AUDIO_VIDEO;
       }
       else {
-         return ConnectionMediaType.AUDIO_VIDEO;
+         return ConnectionMediaType.AUDIO;
       }
-
-      // if there is a video line AND the port value is different than 0 (hence 1-9 in the first digit) then we have video
-        /* Let's keep this around commented in case Firefox changes how it works
-        if (sdp.matches("(?s).*m=video [1-9].*")) {
-            return ConnectionMediaType.AUDIO_VIDEO;
-        }
-        else {
-            return ConnectionMediaType.AUDIO;
-        }
-        */
    }
 
    // -- Notify QoS module of Connection related events through intents, if the module is available
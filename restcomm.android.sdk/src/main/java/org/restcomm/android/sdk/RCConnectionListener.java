@@ -103,5 +103,23 @@ public interface RCConnectionListener {
     */
    void onRemoteVideo(RCConnection connection);
 
+   /**
+    * Call quality stats aggregated over the last RCConnection.ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL. Only fired if the App has set
+    * that parameter when connecting or accepting the call
+    *
+    * @param connection Connection
+    * @param stats Aggregated stats
+    */
+   void onConnectionStats(RCConnection connection, RCConnectionStats stats);
+
+   /**
+    * Media is flowing again after connectivity was lost, for example when the device moved from WiFi to cellular data. Only fired if the App
+    * has set RCConnection.ParameterKeys.CONNECTION_HANDOVER_ENABLED when connecting or accepting the call
+    *
+    * @param connection Connection
+    * @param mediaGapMs Time in miliseconds media wasn't flowing
+    */
+   void onMediaRecovered(RCConnection connection, long mediaGapMs);
+
 }
 
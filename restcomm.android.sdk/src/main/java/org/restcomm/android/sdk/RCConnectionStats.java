@@ -0,0 +1,143 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk;
+
+/**
+ * RCConnectionStats represents call quality statistics of an RCConnection, aggregated over a period of time (see
+ * RCConnection.ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL). It is delivered periodically through RCConnectionListener.onConnectionStats().
+ * Values that aren't available (for example frame rates in audio only calls) are -1
+ */
+public class RCConnectionStats {
+   private final long periodMs;
+   private final int sampleCount;
+   private final int rttMs;
+   private final int jitterMs;
+   private final float packetLossPercent;
+   private final int sendBitrateKbps;
+   private final int receiveBitrateKbps;
+   private final int encoderFrameRate;
+   private final int decoderFrameRate;
+   private final boolean cpuLimited;
+
+   public RCConnectionStats(long periodMs, int sampleCount, int rttMs, int jitterMs, float packetLossPercent, int sendBitrateKbps,
+                            int receiveBitrateKbps, int encoderFrameRate, int decoderFrameRate, boolean cpuLimited)
+   {
+      this.periodMs = periodMs;
+      this.sampleCount = sampleCount;
+      this.rttMs = rttMs;
+      this.jitterMs = jitterMs;
+      this.packetLossPercent = packetLossPercent;
+      this.sendBitrateKbps = sendBitrateKbps;
+      this.receiveBitrateKbps = receiveBitrateKbps;
+      this.encoderFrameRate = encoderFrameRate;
+      this.decoderFrameRate = decoderFrameRate;
+      this.cpuLimited = cpuLimited;
+   }
+
+   /**
+    * @return Time period in miliseconds these stats cover
+    */
+   public long getPeriodMs()
+   {
+      return periodMs;
+   }
+
+   /**
+    * @return Number of stats samples aggregated
+    */
+   public int getSampleCount()
+   {
+      return sampleCount;
+   }
+
+   /**
+    * @return Average round trip time in miliseconds
+    */
+   public int getRttMs()
+   {
+      return rttMs;
+   }
+
+   /**
+    * @return Average jitter of received audio in miliseconds
+    */
+   public int getJitterMs()
+   {
+      return jitterMs;
+   }
+
+   /**
+    * @return Percentage of received packets lost during the period
+    */
+   public float getPacketLossPercent()
+   {
+      return packetLossPercent;
+   }
+
+   /**
+    * @return Average send bitrate (audio and video) in kbps
+    */
+   public int getSendBitrateKbps()
+   {
+      return sendBitrateKbps;
+   }
+
+   /**
+    * @return Average receive bitrate (audio and video) in kbps
+    */
+   public int getReceiveBitrateKbps()
+   {
+      return receiveBitrateKbps;
+   }
+
+   /**
+    * @return Average frame rate of the local video encoder
+    */
+   public int getEncoderFrameRate()
+   {
+      return encoderFrameRate;
+   }
+
+   /**
+    * @return Average frame rate of the remote video decoder
+    */
+   public int getDecoderFrameRate()
+   {
+      return decoderFrameRate;
+   }
+
+   /**
+    * @return Whether the local video encoder had to reduce resolution due to CPU overuse during the period
+    */
+   public boolean isCpuLimited()
+   {
+      return cpuLimited;
+   }
+
+   public String toString()
+   {
+      return "RCConnectionStats: period: " + periodMs + "ms, samples: " + sampleCount + ", rtt: " + rttMs + "ms, jitter: " + jitterMs +
+            "ms, packet loss: " + packetLossPercent + "%, send bitrate: " + sendBitrateKbps + "kbps, receive bitrate: " + receiveBitrateKbps +
+            "kbps, encoder fps: " + encoderFrameRate + ", decoder fps: " + decoderFrameRate + ", cpu limited: " + cpuLimited;
+   }
+}
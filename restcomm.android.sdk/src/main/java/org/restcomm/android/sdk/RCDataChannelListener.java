@@ -0,0 +1,66 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Events of the in-call data channel of an RCConnection (see RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_ENABLED and
+ * RCConnection.setDataChannelListener()).
+ *
+ * Important: to keep latency low and avoid copying, callbacks are invoked directly from the internal WebRTC thread, not the UI thread.
+ * Don't block in them, and post to your own thread any work that takes time
+ */
+public interface RCDataChannelListener {
+   /**
+    * Data channel is open and RCConnection.sendData() can be used
+    *
+    * @param connection Connection
+    */
+   void onDataChannelOpen(RCConnection connection);
+
+   /**
+    * Data channel was closed by the peer
+    *
+    * @param connection Connection
+    */
+   void onDataChannelClosed(RCConnection connection);
+
+   /**
+    * Data received from the peer. The buffer refers directly to WebRTC memory, which is released as soon as this method returns,
+    * so you need to consume it (or copy it) before returning
+    *
+    * @param connection Connection
+    * @param data Data received
+    * @param binary Whether data is binary or UTF-8 text
+    */
+   void onData(RCConnection connection, ByteBuffer data, boolean binary);
+
+   /**
+    * Data buffered for sending has drained below the low threshold, after RCConnection.sendData() was refused because too much
+    * data was buffered. You can resume sending
+    *
+    * @param connection Connection
+    */
+   void onDataBufferedAmountLow(RCConnection connection);
+}
@@ -37,6 +37,9 @@ import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
 import org.restcomm.android.sdk.MediaClient.AppRTCAudioManager;
+import org.restcomm.android.sdk.MediaClient.PeerConnectionClient;
+import org.restcomm.android.sdk.MediaClient.util.IceServerCache;
+import org.restcomm.android.sdk.MediaClient.util.IceServerFetcher;
 import org.restcomm.android.sdk.SignalingClient.JainSipClient.JainSipConfiguration;
 import org.restcomm.android.sdk.SignalingClient.SignalingClient;
 //import org.restcomm.android.sdk.util.ErrorStruct;
@@ -44,8 +47,10 @@ import org.restcomm.android.sdk.util.RCException;
 import org.restcomm.android.sdk.util.RCLogger;
 import org.restcomm.android.sdk.util.RCUtils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -167,8 +172,15 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       public static final String SIGNALING_PASSWORD = "pref_sip_password";
       public static final String SIGNALING_SECURE_ENABLED = "signaling-secure";
       public static final String SIGNALING_LOCAL_PORT = "signaling-local-port";
+      // Size of the window (percentage of the registration expiry, ending at expiry - 50 seconds) within which registration refresh is randomly scheduled
+      public static final String SIGNALING_REGISTER_REFRESH_WINDOW = "signaling-register-refresh-window";
+      // Maximum number of text messages sent that haven't been replied yet, when sending messages in batches
+      public static final String SIGNALING_MESSAGE_WINDOW = "signaling-message-window";
       public static final String DEBUG_JAIN_SIP_LOGGING_ENABLED = "jain-sip-logging-enabled";
       public static final String DEBUG_JAIN_DISABLE_CERTIFICATE_VERIFICATION = "jain-sip-disable-certificate-verification";
+      // Android log level (Log.*) for native WebRTC logging; by default follows the SDK log level
+      public static final String DEBUG_WEBRTC_LOGGING_LEVEL = "webrtc-logging-level";
+      public static final String DEBUG_WEBRTC_LOG_CAPTURE_ENABLED = "webrtc-log-capture-enabled";
       public static final String MEDIA_TURN_ENABLED = "turn-enabled";
       public static final String MEDIA_ICE_URL = "turn-url";
       public static final String MEDIA_ICE_USERNAME = "turn-username";
@@ -302,6 +314,10 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
    private RCDeviceListener.RCConnectivityStatus cachedConnectivityStatus = RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone;
    private SignalingClient signalingClient;
    private AppRTCAudioManager audioManager = null;
+   // ICE servers cache, so that calls don't need to wait for the ICE endpoint
+   private IceServerCache iceServerCache = null;
+   // Shared by all connections to deliver media events to the UI thread
+   private ConnectionEventDispatcher connectionEventDispatcher = null;
    //private Context context = null;
 
    // Binder given to clients
@@ -469,6 +485,13 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     *                        the System Wide Android CA Store, so that we properly accept only legit server certificates. If not passed (or false) signaling is cleartext (optional) <br>
     *                        <b>RCDevice.ParameterKeys.MEDIA_TURN_ENABLED</b>: Should TURN be enabled for webrtc media? (optional) <br>
     *                        <b>RCDevice.ParameterKeys.SIGNALING_LOCAL_PORT</b>: Local port to use for signaling (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_REGISTER_REFRESH_WINDOW</b>: Registration refresh is scheduled randomly within a window that ends 50 seconds before expiry, to avoid
+    *                        all clients refreshing at the same time. This is the size of the window as a percentage of expiry; default is 50, i.e. refresh between half the expiry and expiry - 50 seconds (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW</b>: Maximum number of text messages in flight (i.e. sent but not replied yet); the rest are queued and sent as replies arrive. Default is 8 (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.DEBUG_WEBRTC_LOGGING_LEVEL</b>: Level of native WebRTC logging to logcat, following Android levels at Log.*, like <i>Log.INFO</i>. DEBUG and below also enable native tracing.
+    *                        Default is the SDK log level as set with setLogLevel(), which means native logging stays off unless you raise it (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.DEBUG_WEBRTC_LOG_CAPTURE_ENABLED</b>: When a call fails due to a media error, dump recent SDK and native WebRTC logs from logcat to a file under the App's files directory
+    *                        (at 'webrtc-logs'), for troubleshooting. Only the latest 5 dumps are kept. While enabled, native WebRTC logging is raised to at least <i>Log.INFO</i> (without tracing) so that dumps contain it. Default is false (optional) <br>
     *                        <b>RCDevice.ParameterKeys.RESOURCE_SOUND_CALLING</b>: The SDK provides the user with default sounds for calling, ringing, busy (declined) and message events, but the user can override them
     *                        by providing their own resource files (i.e. .wav, .mp3, etc) at res/raw passing them here with Resource IDs like R.raw.user_provided_calling_sound. This parameter
     *                        configures the sound you will hear when you make a call and until the call is either replied or you hang up<br>
@@ -486,7 +509,7 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
          //context = activityContext;
          state = DeviceState.OFFLINE;
 
-         RCLogger.i(TAG, "RCDevice(): " + parameters.toString());
+         RCLogger.i(TAG, "RCDevice(): ", parameters);
 
          RCUtils.validateDeviceParms(parameters);
 
@@ -506,6 +529,8 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
          // check if TURN keys are there
          //params.put(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED, prefs.getBoolean(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED, true));
 
+         iceServerCache = new IceServerCache(getMainLooper());
+
          signalingClient = SignalingClient.getInstance();
          signalingClient.open(this, getApplicationContext(), parameters);
 
@@ -581,6 +606,9 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       signalingClient.close();
       state = DeviceState.OFFLINE;
 
+      // media factory is shared across calls for the lifetime of the device
+      PeerConnectionClient.disposePeerConnectionFactory();
+
       isServiceAttached = false;
       isServiceInitialized = false;
    }
@@ -637,13 +665,35 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     *                   <b>RCConnection.ParameterKeys.CONNECTION_PREFERRED_VIDEO_FRAME_RATE</b>: Preferred frame rate to use. Default is 30fps. Possible values are enumerated at <i>RCConnection.VideoFrameRate</i> (optional) <br>
     *                   <b>RCConnection.ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS</b>: An optional HashMap&lt;String,String&gt; of custom SIP headers we want to add. For an example
     *                   please check restcomm-helloworld or restcomm-olympus sample Apps (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_EARLY_SDP_ENABLED</b>: Send the INVITE as soon as enough ICE candidates are gathered instead of waiting for ICE gathering to
+    *                   complete, which cuts post dial delay especially on cellular networks with TURN. Default is false (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_EARLY_SDP_CANDIDATE_BUDGET</b>: In early SDP mode, number of local candidates after which the INVITE is sent. Default is one host
+    *                   plus one server reflexive or relay candidate (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_EARLY_SDP_TIMEOUT</b>: In early SDP mode, maximum time in miliseconds to wait for candidates. Default is 1000 (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_STATS_REPORT_INTERVAL</b>: Interval in miliseconds at which call quality stats (RTT, jitter, packet loss, bitrates, frame rates)
+    *                   are reported via RCConnectionListener.onConnectionStats(). Default is 0, i.e. no stats are collected (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_VIDEO_MAX_BITRATE</b>: Maximum bitrate in kbps for local video. Video adaptation, if enabled, never goes above it either.
+    *                   Default is 0, i.e. no limit (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_VIDEO_ADAPTATION_ENABLED</b>: Automatically step local video resolution, frame rate and max bitrate down (and back up) depending
+    *                   on packet loss, RTT, CPU and device temperature, to avoid freezes on congested links. Only applies to video calls. Default is false (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_ENABLED</b>: Open an in-call data channel for low latency messaging directly with the peer, see RCConnection.sendData() and
+    *                   RCConnection.setDataChannelListener(). The channel is pre-negotiated, so both parties need to enable it with the same settings. Default is false (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_ORDERED</b>: Whether data channel messages are delivered in order. Default is true (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS</b>: For partially reliable data channel, maximum number of retransmissions of a message. Default is unlimited (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_DATA_CHANNEL_MAX_RETRANSMIT_TIME</b>: For partially reliable data channel, maximum time in miliseconds to keep retransmitting a message.
+    *                   Can't be combined with CONNECTION_DATA_CHANNEL_MAX_RETRANSMITS. Default is unlimited (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_HANDOVER_ENABLED</b>: Keep the call up when media connectivity is lost and, when the device moves to a different network (like
+    *                   from WiFi to cellular data), restart ICE over the new network with a re-INVITE. When media is back RCConnectionListener.onMediaRecovered() is fired with the
+    *                   duration of the media gap. Default is false (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_HANDOVER_TIMEOUT</b>: In handover mode, time in miliseconds to wait for media to recover before disconnecting the call.
+    *                   Default is 15000 (optional) <br>
     * @param listener   The listener object that will receive events when the connection state changes
     * @return An RCConnection object representing the new connection or null in case of error. Error
     * means that RCDevice.state not ready to make a call (this usually means no WiFi available)
     */
    public RCConnection connect(HashMap<String, Object> parameters, RCConnectionListener listener) throws RCException
    {
-      RCLogger.i(TAG, "connect(): " + parameters.toString());
+      RCLogger.i(TAG, "connect(): ", parameters);
 
       RCUtils.validateConnectionParms(parameters);
 
@@ -687,8 +737,7 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     */
    public String sendMessage(String message, Map<String, String> parameters) throws RCException
    {
-      RCLogger.i(TAG, "sendMessage(): message:" + message + "\nparameters: " + parameters.toString());
-
+      RCLogger.i(TAG, "sendMessage(): peer: " + parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER));
 
       if (state != DeviceState.OFFLINE) {
          HashMap<String, Object> messageParameters = new HashMap<>();
@@ -703,6 +752,36 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       }
    }
 
+   /**
+    * Send many instant messages, to one or more endpoints, in one go. Messages are pipelined over the signaling connection, with up to
+    * RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW of them in flight at any time, which is much faster than calling sendMessage() for each
+    * one when syncing history or fanning out notifications. Messages to the same peer are sent in order. You get an RCDeviceListener.onMessageSent()
+    * for each message, just like with sendMessage()
+    *
+    * @param messages Messages to send, keyed by recepient (i.e. same format as RCConnection.ParameterKeys.CONNECTION_PEER in sendMessage())
+    * @return Job ids for the messages (one for each message, in the iteration order of messages), to correlate them with onMessageSent() events
+    */
+   public List<String> sendMessages(Map<String, List<String>> messages) throws RCException
+   {
+      if (state == DeviceState.OFFLINE) {
+         throw new RCException(RCClient.ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE));
+      }
+
+      List<HashMap<String, Object>> messageParametersList = new ArrayList<>();
+      for (Map.Entry<String, List<String>> entry : messages.entrySet()) {
+         for (String message : entry.getValue()) {
+            HashMap<String, Object> messageParameters = new HashMap<>();
+            messageParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, entry.getKey());
+            messageParameters.put("text-message", message);
+            messageParametersList.add(messageParameters);
+         }
+      }
+      RCLogger.i(TAG, "sendMessages(): " + messageParametersList.size() + " messages to " + messages.size() + " peers");
+
+      return signalingClient.sendMessages(messageParametersList);
+   }
+
    /**
     * Disconnect all connections
     */
@@ -880,6 +959,13 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     *               the System Wide Android CA Store, so that we properly accept only legit server certificates. If not passed (or false) signaling is cleartext (optional) <br>
     *               <b>RCDevice.ParameterKeys.MEDIA_TURN_ENABLED</b>: Should TURN be enabled for webrtc media? (optional) <br>
     *               <b>RCDevice.ParameterKeys.SIGNALING_LOCAL_PORT</b>: Local port to use for signaling (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_REGISTER_REFRESH_WINDOW</b>: Registration refresh is scheduled randomly within a window that ends 50 seconds before expiry, to avoid
+    *               all clients refreshing at the same time. This is the size of the window as a percentage of expiry; default is 50, i.e. refresh between half the expiry and expiry - 50 seconds (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW</b>: Maximum number of text messages in flight (i.e. sent but not replied yet); the rest are queued and sent as replies arrive. Default is 8 (optional) <br>
+    *               <b>RCDevice.ParameterKeys.DEBUG_WEBRTC_LOGGING_LEVEL</b>: Level of native WebRTC logging to logcat, following Android levels at Log.*, like <i>Log.INFO</i>. DEBUG and below also enable native tracing.
+    *               Default is the SDK log level as set with setLogLevel(), which means native logging stays off unless you raise it (optional) <br>
+    *               <b>RCDevice.ParameterKeys.DEBUG_WEBRTC_LOG_CAPTURE_ENABLED</b>: When a call fails due to a media error, dump recent SDK and native WebRTC logs from logcat to a file under the App's files directory
+    *               (at 'webrtc-logs'), for troubleshooting. Only the latest 5 dumps are kept. While enabled, native WebRTC logging is raised to at least <i>Log.INFO</i> (without tracing) so that dumps contain it. Default is false (optional) <br>
     * @see RCDevice
     * @return right now this is more of a placeholder and always returns true
     */
@@ -900,6 +986,59 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       return parameters;
    }
 
+   // Dispatcher of media events to the UI thread, shared by all connections of this device. Called from webrtc thread as well, hence synchronized
+   synchronized ConnectionEventDispatcher getConnectionEventDispatcher()
+   {
+      if (connectionEventDispatcher == null) {
+         connectionEventDispatcher = new ConnectionEventDispatcher(getMainLooper());
+      }
+      return connectionEventDispatcher;
+   }
+
+   // Retrieve ICE servers to use for a call, from the cache if possible
+   void fetchIceServers(IceServerFetcher.IceServerFetcherEvents events)
+   {
+      iceServerCache.getIceServers(getIceUrl(), isTurnEnabled(), events);
+   }
+
+   // Call is over, don't notify it if ICE servers arrive later
+   void cancelIceServers(IceServerFetcher.IceServerFetcherEvents events)
+   {
+      if (iceServerCache != null) {
+         iceServerCache.cancel(events);
+      }
+   }
+
+   // Warm up ICE servers cache, so that next call can start right away
+   private void prefetchIceServers()
+   {
+      if (iceServerCache != null) {
+         iceServerCache.prefetch(getIceUrl(), isTurnEnabled());
+      }
+   }
+
+   // Create the WebRTC peer connection factory in the background, so that it's ready for the first call and re-used afterwards
+   // (instead of initializing WebRTC facilities in every call's setup path)
+   private void warmUpPeerConnectionFactory()
+   {
+      PeerConnectionClient.warmUpPeerConnectionFactory(getApplicationContext(),
+            RCConnection.createPeerConnectionParameters(false, 0, 0, 0, 0, null, null, null));
+   }
+
+   private String getIceUrl()
+   {
+      return parameters.get(RCDevice.ParameterKeys.MEDIA_ICE_URL) + "?ident=" +
+            parameters.get(RCDevice.ParameterKeys.MEDIA_ICE_USERNAME) + "&secret=" +
+            parameters.get(RCDevice.ParameterKeys.MEDIA_ICE_PASSWORD) + "&domain=" +
+            parameters.get(RCDevice.ParameterKeys.MEDIA_ICE_DOMAIN) + "&application=default&room=default&secure=1";
+   }
+
+   private boolean isTurnEnabled()
+   {
+      return parameters.containsKey(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED) &&
+            !parameters.get(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED).equals("");
+   }
+
    /**
     * Internal method; not meant for application use.
     * @param jobId the jobId to use for the filtering of connections
@@ -941,6 +1080,10 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       }
 
       state = DeviceState.READY;
+      if (connectivityStatus != RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone) {
+         prefetchIceServers();
+      }
+      warmUpPeerConnectionFactory();
       if (isServiceAttached) {
          listener.onInitialized(this, connectivityStatus, RCClient.ErrorCodes.SUCCESS.ordinal(), RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
       }
@@ -981,6 +1124,8 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       cachedConnectivityStatus = connectivityStatus;
       if (status == RCClient.ErrorCodes.SUCCESS) {
          state = DeviceState.READY;
+         // ICE parameters might have changed as well
+         prefetchIceServers();
          if (isServiceAttached) {
             listener.onStartListening(this, connectivityStatus);
          }
@@ -1178,6 +1323,13 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       if (state != DeviceState.OFFLINE && connectivityStatus == RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone) {
          state = DeviceState.OFFLINE;
       }
+      // cached ICE servers were retrieved over a different network and might not be usable any more; refresh them over the new one
+      if (iceServerCache != null) {
+         iceServerCache.invalidate();
+         if (connectivityStatus != RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone) {
+            prefetchIceServers();
+         }
+      }
       if (isServiceAttached) {
          listener.onConnectivityUpdate(this, connectivityStatus);
       }
@@ -0,0 +1,332 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.address.SipURI;
+import android.javax.sip.header.AuthorizationHeader;
+import android.javax.sip.header.CSeqHeader;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ProxyAuthenticateHeader;
+import android.javax.sip.header.WWWAuthenticateHeader;
+import android.javax.sip.message.Message;
+import android.javax.sip.message.Request;
+import android.javax.sip.message.Response;
+
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Keeps the last digest challenge received per server (i.e. Request URI host) and challenge type (401 or 407) so that subsequent requests towards the same server
+ * (registration refreshes, calls, messages) can carry pre-computed Authorization/Proxy-Authorization headers and avoid the
+ * 401/407 round trip. Nonce count is increased for each request that re-uses a nonce. When the server doesn't accept the
+ * pre-computed credentials (typically because the nonce went stale) the entry is dropped and the regular challenge path kicks in.
+ * The two challenge types are kept apart since servers like Restcomm challenge REGISTER with 401 and other requests with 407
+ * (with a different realm and nonce); each request picks the type its method was last challenged with.
+ *
+ * Only MD5 with qop 'auth' or no qop is supported for preemptive authentication; for anything else we always go through the challenge.
+ * All methods need to be called from the signaling thread
+ */
+class JainSipAuthenticationCache {
+   private static final String TAG = "JainSipAuthenticationCache";
+
+   // Digest parameters of the latest challenge from a server
+   private static class Entry {
+      String username;
+      String password;
+      String realm;
+      String nonce;
+      String opaque;
+      String algorithm;
+      // null if the server didn't ask for qop
+      String qop;
+      // whether server challenged with 407 (hence we need Proxy-Authorization) or 401
+      boolean proxy;
+      int nonceCount;
+   }
+
+   // server (host:port of Request URI) and challenge type -> latest challenge
+   private HashMap<String, Entry> entries = new HashMap<>();
+   // method -> whether it was last challenged with 407 (true) or 401 (false)
+   private HashMap<String, Boolean> methodChallengeTypes = new HashMap<>();
+   // requests we have preemptively authorized and are still waiting for final response, keyed by Call-ID + CSeq
+   private HashSet<String> pendingRequests = new HashSet<>();
+   private SecureRandom random = new SecureRandom();
+
+   // stats
+   private int preemptiveCount = 0;
+   private int staleCount = 0;
+   private int rejectedCount = 0;
+   // round trips saved per method (i.e. preemptively authorized requests that weren't challenged)
+   private HashMap<String, Integer> roundTripsSaved = new HashMap<>();
+
+   /**
+    * Add pre-computed Authorization (or Proxy-Authorization) header to an outgoing request, if we have a cached challenge for its server
+    * and the credentials are the same as the ones used when we were challenged
+    *
+    * @return true if header was added
+    */
+   boolean authorize(Request request, HeaderFactory headerFactory, String username, String password)
+   {
+      if (username == null || username.isEmpty()) {
+         return false;
+      }
+      if (password == null) {
+         password = "";
+      }
+
+      String entryKey = getEntryKey(request, isProxyChallengeExpected(request.getMethod()));
+      Entry entry = entries.get(entryKey);
+      if (entry == null || !entry.username.equals(username) || !entry.password.equals(password)) {
+         return false;
+      }
+
+      try {
+         String uri = request.getRequestURI().toString();
+         String cnonce = null;
+         entry.nonceCount++;
+         String nc = String.format(Locale.US, "%08x", entry.nonceCount);
+
+         String ha1 = md5Hex(entry.username + ":" + entry.realm + ":" + entry.password);
+         String ha2 = md5Hex(request.getMethod() + ":" + uri);
+         String response;
+         if (entry.qop != null) {
+            cnonce = newCnonce();
+            response = md5Hex(ha1 + ":" + entry.nonce + ":" + nc + ":" + cnonce + ":" + entry.qop + ":" + ha2);
+         }
+         else {
+            response = md5Hex(ha1 + ":" + entry.nonce + ":" + ha2);
+         }
+
+         AuthorizationHeader authorizationHeader;
+         if (entry.proxy) {
+            authorizationHeader = headerFactory.createProxyAuthorizationHeader("Digest");
+         }
+         else {
+            authorizationHeader = headerFactory.createAuthorizationHeader("Digest");
+         }
+         authorizationHeader.setUsername(entry.username);
+         authorizationHeader.setRealm(entry.realm);
+         authorizationHeader.setNonce(entry.nonce);
+         authorizationHeader.setURI(request.getRequestURI());
+         authorizationHeader.setResponse(response);
+         if (entry.algorithm != null) {
+            authorizationHeader.setAlgorithm(entry.algorithm);
+         }
+         if (entry.opaque != null) {
+            authorizationHeader.setOpaque(entry.opaque);
+         }
+         if (entry.qop != null) {
+            authorizationHeader.setQop(entry.qop);
+            authorizationHeader.setCNonce(cnonce);
+            authorizationHeader.setNonceCount(entry.nonceCount);
+         }
+
+         request.setHeader(authorizationHeader);
+      }
+      catch (ParseException e) {
+         RCLogger.w(TAG, "authorize(): failed to build authorization header, falling back to challenge: " + e.getMessage());
+         entries.remove(entryKey);
+         return false;
+      }
+
+      pendingRequests.add(getMessageKey(request));
+      preemptiveCount++;
+      RCLogger.v(TAG, "authorize(): added preemptive credentials to " + request.getMethod() + ", realm: " + entry.realm + ", nc: " + entry.nonceCount);
+      return true;
+   }
+
+   /**
+    * Remember the challenge in a 401/407 response so that we can use it preemptively later. Call this when going through
+    * the regular challenge path
+    */
+   void onChallenge(Request request, Response response, String username, String password)
+   {
+      WWWAuthenticateHeader challenge;
+      boolean proxy;
+      if (response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED) {
+         challenge = (ProxyAuthenticateHeader) response.getHeader(ProxyAuthenticateHeader.NAME);
+         proxy = true;
+      }
+      else {
+         challenge = (WWWAuthenticateHeader) response.getHeader(WWWAuthenticateHeader.NAME);
+         proxy = false;
+      }
+
+      methodChallengeTypes.put(request.getMethod(), proxy);
+      String entryKey = getEntryKey(request, proxy);
+      if (challenge == null || username == null || username.isEmpty() ||
+            (challenge.getScheme() != null && !challenge.getScheme().equalsIgnoreCase("Digest"))) {
+         entries.remove(entryKey);
+         return;
+      }
+
+      String algorithm = challenge.getAlgorithm();
+      if (algorithm != null && !algorithm.equalsIgnoreCase("MD5")) {
+         RCLogger.v(TAG, "onChallenge(): unsupported algorithm for preemptive authentication: " + algorithm);
+         entries.remove(entryKey);
+         return;
+      }
+
+      String qop = null;
+      if (challenge.getQop() != null) {
+         for (String option : challenge.getQop().split(",")) {
+            if (option.trim().equalsIgnoreCase("auth")) {
+               qop = "auth";
+               break;
+            }
+         }
+         if (qop == null) {
+            RCLogger.v(TAG, "onChallenge(): unsupported qop for preemptive authentication: " + challenge.getQop());
+            entries.remove(entryKey);
+            return;
+         }
+      }
+
+      Entry entry = new Entry();
+      entry.username = username;
+      entry.password = (password == null) ? "" : password;
+      entry.realm = challenge.getRealm();
+      entry.nonce = challenge.getNonce();
+      entry.opaque = challenge.getOpaque();
+      entry.algorithm = algorithm;
+      entry.qop = qop;
+      entry.proxy = proxy;
+      // the request answering this challenge is built by the JAIN SIP AuthenticationHelper, which uses nonce count 1
+      entry.nonceCount = 1;
+      entries.put(entryKey, entry);
+   }
+
+   /**
+    * Update stats and cache state with a response; needs to be called for all responses to outgoing requests
+    */
+   void onResponse(Response response)
+   {
+      if (response.getStatusCode() < Response.OK || pendingRequests.isEmpty()) {
+         return;
+      }
+
+      if (!pendingRequests.remove(getMessageKey(response))) {
+         // not preemptively authorized
+         return;
+      }
+
+      if (response.getStatusCode() == Response.UNAUTHORIZED || response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED) {
+         WWWAuthenticateHeader challenge = (WWWAuthenticateHeader) response.getHeader(
+               response.getStatusCode() == Response.UNAUTHORIZED ? WWWAuthenticateHeader.NAME : ProxyAuthenticateHeader.NAME);
+         if (challenge != null && challenge.isStale()) {
+            staleCount++;
+            RCLogger.i(TAG, "onResponse(): preemptive credentials rejected due to stale nonce, falling back to challenge");
+         }
+         else {
+            rejectedCount++;
+            RCLogger.w(TAG, "onResponse(): preemptive credentials rejected, falling back to challenge");
+         }
+         // the challenge path will cache the new challenge via onChallenge()
+         return;
+      }
+
+      String method = ((CSeqHeader) response.getHeader(CSeqHeader.NAME)).getMethod();
+      Integer saved = roundTripsSaved.get(method);
+      roundTripsSaved.put(method, (saved == null) ? 1 : saved + 1);
+      RCLogger.v(TAG, "onResponse(): saved one round trip for " + method + ", " + getPrintableStats());
+   }
+
+   void clear()
+   {
+      entries.clear();
+      methodChallengeTypes.clear();
+      pendingRequests.clear();
+   }
+
+   String getPrintableStats()
+   {
+      return "preemptive: " + preemptiveCount + ", stale: " + staleCount + ", rejected: " + rejectedCount +
+            ", round trips saved: " + roundTripsSaved;
+   }
+
+   // Helpers
+   private static String getEntryKey(Request request, boolean proxy)
+   {
+      String challengeType = proxy ? "407" : "401";
+      if (request.getRequestURI().isSipURI()) {
+         SipURI uri = (SipURI) request.getRequestURI();
+         return uri.getHost() + ":" + uri.getPort() + ":" + challengeType;
+      }
+      return request.getRequestURI().toString() + ":" + challengeType;
+   }
+
+   // Until a method is challenged we go with what registrars and proxies typically do: REGISTER is challenged by the registrar
+   // with 401, everything else by the proxy with 407
+   private boolean isProxyChallengeExpected(String method)
+   {
+      Boolean proxy = methodChallengeTypes.get(method);
+      if (proxy != null) {
+         return proxy;
+      }
+      return !method.equals(Request.REGISTER);
+   }
+
+   // key that matches a request with its responses
+   private static String getMessageKey(Message message)
+   {
+      CSeqHeader cseq = (CSeqHeader) message.getHeader(CSeqHeader.NAME);
+      CallIdHeader callId = (CallIdHeader) message.getHeader(CallIdHeader.NAME);
+      return callId.getCallId() + ":" + cseq.getSeqNumber() + ":" + cseq.getMethod();
+   }
+
+   private String newCnonce()
+   {
+      byte[] bytes = new byte[8];
+      random.nextBytes(bytes);
+      return toHex(bytes);
+   }
+
+   private static String md5Hex(String input)
+   {
+      try {
+         MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+         return toHex(messageDigest.digest(input.getBytes()));
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException("MD5 not available", e);
+      }
+   }
+
+   private static String toHex(byte[] bytes)
+   {
+      final char[] digits = "0123456789abcdef".toCharArray();
+      StringBuilder builder = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes) {
+         builder.append(digits[(b >> 4) & 0x0f]).append(digits[b & 0x0f]);
+      }
+      return builder.toString();
+   }
+}
@@ -22,7 +22,9 @@
 
 package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
+import android.gov.nist.javax.sip.DialogExt;
 import android.gov.nist.javax.sip.ResponseEventExt;
+import android.gov.nist.javax.sip.SipProviderExt;
 import android.gov.nist.javax.sip.message.SIPMessage;
 import android.javax.sip.ClientTransaction;
 import android.javax.sip.Dialog;
@@ -69,10 +71,18 @@ public class JainSipCall {
       void onCallArrivedEvent(String jobId, String peer, String sdpOffer, HashMap<String, String> customHeaders);
 
       void onCallDigitsEvent(String jobId, RCClient.ErrorCodes status, String text);
+
+      // re-INVITE we sent got a final response (or timed out); sdpAnswer is only set on success
+      void onCallReinviteEvent(String jobId, String sdpAnswer, RCClient.ErrorCodes status, String text);
+
+      // signaling moved to a new network interface while the call was up
+      void onCallNetworkHandoverEvent(String jobId);
    }
 
    JainSipClient jainSipClient;
    JainSipCallListener listener;
+   // A re-INVITE is pending; only one INVITE transaction can be in progress per dialog
+   private boolean reinviteInProgress = false;
    //String jobId;
    static final String TAG = "JainSipCall";
 
@@ -85,7 +95,7 @@ public class JainSipCall {
    // make a call with the given jobId, using given parameters
    public void open(String jobId, HashMap<String, Object> parameters)
    {
-      RCLogger.i(TAG, "open(): id: " + jobId + ", parameters: " + parameters.toString());
+      RCLogger.i(TAG, "open(): id: " + jobId + ", parameters: ", parameters);
       try {
          Transaction transaction = jainSipCallInvite(parameters);
          jainSipClient.jainSipJobManager.add(jobId, JainSipJob.Type.TYPE_CALL, transaction, parameters, this);
@@ -100,7 +110,7 @@ public class JainSipCall {
    // accept a call with the given jobId, using given parameters
    public void accept(JainSipJob jainSipJob, HashMap<String, Object> parameters)
    {
-      RCLogger.i(TAG, "accept(): jobId: " + jainSipJob.jobId + ", parameters: " + parameters.toString());
+      RCLogger.i(TAG, "accept(): jobId: " + jainSipJob.jobId + ", parameters: ", parameters);
       try {
          jainSipCallAccept(jainSipJob, parameters);
       }
@@ -128,6 +138,40 @@ public class JainSipCall {
       }
    }
 
+   // Update an established call with a new SDP offer via re-INVITE. Outcome is conveyed with onCallReinviteEvent()
+   public void reinvite(JainSipJob jainSipJob, HashMap<String, Object> parameters)
+   {
+      RCLogger.i(TAG, "reinvite(): jobId: " + jainSipJob.jobId);
+      if (!jainSipClient.jainSipNotificationManager.haveConnectivity()) {
+         listener.onCallReinviteEvent(jainSipJob.jobId, null, RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
+         return;
+      }
+      if (reinviteInProgress) {
+         RCLogger.w(TAG, "reinvite(): jobId: " + jainSipJob.jobId + " - previous re-INVITE still pending");
+         listener.onCallReinviteEvent(jainSipJob.jobId, null, RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT));
+         return;
+      }
+      try {
+         jainSipCallReinvite(jainSipJob, parameters);
+         reinviteInProgress = true;
+      }
+      catch (JainSipException e) {
+         e.printStackTrace();
+         listener.onCallReinviteEvent(jainSipJob.jobId, null, e.errorCode, e.errorText);
+      }
+   }
+
+   // Signaling has been re-bound to a new network interface (see JainSipClient.onConnectivityChange()). Make sure that in-dialog requests
+   // from now on go out through the new provider and let the call know, so that it can re-establish media over the new network
+   void onNetworkHandover(JainSipJob jainSipJob)
+   {
+      RCLogger.i(TAG, "onNetworkHandover(): jobId: " + jainSipJob.jobId);
+      ((DialogExt) jainSipJob.transaction.getDialog()).setSipProvider((SipProviderExt) jainSipClient.jainSipProvider);
+      listener.onCallNetworkHandoverEvent(jainSipJob.jobId);
+   }
+
    // Close an existing call. The actual SIP request emitted depends on current state: a. If its an early incoming call we Decline, b. If its an early outgoing
    // call we Cancel and c. On any other case we Bye
    public void disconnect(JainSipJob jainSipJob, String reason)
@@ -173,7 +217,8 @@ public class JainSipCall {
 
       try {
          Request inviteRequest = jainSipClient.jainSipMessageBuilder.buildInviteRequest(jainSipClient.jainSipListeningPoint, parameters, jainSipClient.configuration, jainSipClient.jainSipClientContext);
-         RCLogger.i(TAG, "Sending SIP request: \n" + inviteRequest.toString());
+         jainSipClient.addPreemptiveAuthorization(inviteRequest, jainSipClient.configuration);
+         RCLogger.i(TAG, "Sending SIP request: \n", inviteRequest);
          transaction = jainSipClient.jainSipProvider.getNewClientTransaction(inviteRequest);
          transaction.sendRequest();
       }
@@ -197,7 +242,7 @@ public class JainSipCall {
          Response response = jainSipClient.jainSipMessageBuilder.buildInvite200OKResponse(transaction, (String) parameters.get("sdp"), jainSipClient.jainSipListeningPoint,
                jainSipClient.jainSipClientContext);
 
-         RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+         RCLogger.i(TAG, "Sending SIP response: \n", response);
          transaction.sendResponse(response);
       }
       catch (JainSipException e) {
@@ -215,7 +260,7 @@ public class JainSipCall {
       Request byeRequest = null;
       try {
          byeRequest = jainSipClient.jainSipMessageBuilder.buildByeRequest(jainSipJob.transaction.getDialog(), reason, clientConfiguration);
-         RCLogger.i(TAG, "Sending SIP request: \n" + byeRequest.toString());
+         RCLogger.i(TAG, "Sending SIP request: \n", byeRequest);
 
          ClientTransaction transaction = jainSipClient.jainSipProvider.getNewClientTransaction(byeRequest);
          jainSipJob.transaction.getDialog().sendRequest(transaction);
@@ -234,12 +279,39 @@ public class JainSipCall {
       }
    }
 
+   public ClientTransaction jainSipCallReinvite(JainSipJob jainSipJob, HashMap<String, Object> parameters) throws JainSipException
+   {
+      RCLogger.v(TAG, "jainSipCallReinvite(): jobId: " + jainSipJob.jobId);
+      try {
+         Dialog dialog = jainSipJob.transaction.getDialog();
+         Request request = jainSipClient.jainSipMessageBuilder.buildReinviteRequest(dialog, (String) parameters.get("sdp"), jainSipClient.jainSipListeningPoint,
+               jainSipClient.configuration, jainSipClient.jainSipClientContext);
+         jainSipClient.addPreemptiveAuthorization(request, jainSipClient.configuration);
+         RCLogger.i(TAG, "Sending SIP request: \n", request);
+
+         ClientTransaction transaction = jainSipClient.jainSipProvider.getNewClientTransaction(request);
+         dialog.sendRequest(transaction);
+
+         // update transaction in the job to contain the latest transaction, so that responses (and authentication) are matched against it
+         jainSipJob.updateTransaction(transaction);
+
+         return transaction;
+      }
+      catch (JainSipException e) {
+         throw e;
+      }
+      catch (Exception e) {
+         throw new JainSipException(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT), e);
+      }
+   }
+
    public ClientTransaction jainSipCallCancel(JainSipJob jainSipJob) throws JainSipException
    {
       RCLogger.v(TAG, "jainSipCallCancel(): jobId: " + jainSipJob.jobId);
       try {
          final Request request = ((ClientTransaction) jainSipJob.transaction).createCancel();
-         RCLogger.i(TAG, "Sending SIP response: \n" + request.toString());
+         RCLogger.i(TAG, "Sending SIP response: \n", request);
 
          ClientTransaction cancelTransaction = jainSipClient.jainSipProvider.getNewClientTransaction(request);
          //jainSipJob.updateTransaction(cancelTransaction);
@@ -258,7 +330,7 @@ public class JainSipCall {
 
       try {
          Response responseDecline = jainSipClient.jainSipMessageBuilder.buildResponse(Response.DECLINE, jainSipJob.transaction.getRequest());
-         RCLogger.i(TAG, "Sending SIP response: \n" + responseDecline.toString());
+         RCLogger.i(TAG, "Sending SIP response: \n", responseDecline);
          ((ServerTransaction) jainSipJob.transaction).sendResponse(responseDecline);
 
       }
@@ -275,7 +347,7 @@ public class JainSipCall {
       try {
          Dialog dialog = jainSipJob.transaction.getDialog();
          Request request = jainSipClient.jainSipMessageBuilder.buildDtmfInfoRequest(dialog, digits);
-         RCLogger.i(TAG, "Sending SIP request: \n" + request.toString());
+         RCLogger.i(TAG, "Sending SIP request: \n", request);
          ClientTransaction transaction = jainSipClient.jainSipProvider.getNewClientTransaction(request);
          dialog.sendRequest(transaction);
          return transaction;
@@ -296,7 +368,7 @@ public class JainSipCall {
       if (method.equals(Request.BYE)) {
          try {
             Response response = jainSipClient.jainSipMessageBuilder.buildResponse(Response.OK, request);
-            RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+            RCLogger.i(TAG, "Sending SIP response: \n", response);
             serverTransaction.sendResponse(response);
 
             listener.onCallPeerDisconnectedEvent(jainSipJob.jobId);
@@ -312,14 +384,14 @@ public class JainSipCall {
       else if (method.equals(Request.CANCEL)) {
          try {
             Response response = jainSipClient.jainSipMessageBuilder.buildResponse(Response.OK, request);
-            RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+            RCLogger.i(TAG, "Sending SIP response: \n", response);
             serverTransaction.sendResponse(response);
 
             if (jainSipJob.transaction != null) {
                // also send a 487 Request Terminated response to the original INVITE request
                Request originalInviteRequest = jainSipJob.transaction.getRequest();
                Response originalInviteResponse = jainSipClient.jainSipMessageBuilder.buildResponse(Response.REQUEST_TERMINATED, originalInviteRequest);
-               RCLogger.i(TAG, "Sending SIP response: \n" + originalInviteResponse.toString());
+               RCLogger.i(TAG, "Sending SIP response: \n", originalInviteResponse);
                ((ServerTransaction) jainSipJob.transaction).sendResponse(originalInviteResponse);
             }
             listener.onCallIncomingCanceledEvent(jainSipJob.jobId);
@@ -347,7 +419,7 @@ public class JainSipCall {
             toHeader.setTag(Long.toString(System.currentTimeMillis()));
             response.setHeader(toHeader);
 
-            RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+            RCLogger.i(TAG, "Sending SIP response: \n", response);
             serverTransaction.sendResponse(response);
 
             String sdpOffer = new String(request.getRawContent(), "UTF-8");
@@ -377,13 +449,25 @@ public class JainSipCall {
       CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
       String method = cseq.getMethod();
 
+      if (method.equals(Request.INVITE) && reinviteInProgress) {
+         if (response.getStatusCode() < Response.OK) {
+            // nothing to do with provisional responses to a re-INVITE
+            return;
+         }
+         if (response.getStatusCode() != Response.PROXY_AUTHENTICATION_REQUIRED && response.getStatusCode() != Response.UNAUTHORIZED) {
+            processReinviteResponse(jainSipJob, response);
+            return;
+         }
+         // challenged re-INVITE, authentication is handled below as with any other request
+      }
+
       if (response.getStatusCode() == Response.OK) {
          if (method.equals(Request.INVITE)) {
             try {
                // create and send out ACK
                Dialog dialog = jainSipJob.transaction.getDialog();
                Request ackRequest = dialog.createAck(((CSeqHeader) response.getHeader(CSeqHeader.NAME)).getSeqNumber());
-               RCLogger.i(TAG, "Sending SIP request: \n" + ackRequest.toString());
+               RCLogger.i(TAG, "Sending SIP request: \n", ackRequest);
                dialog.sendAck(ackRequest);
 
                // filter out SDP to return to UI thread
@@ -490,8 +574,55 @@ public class JainSipCall {
       // Notice that we 're not handling '200 Canceling' response as it doesn't add any value to the SDK, at least for now
    }
 
+   // Final response to a re-INVITE we sent. Notice that regardless of the outcome the call stays up; for non 2xx responses the session is
+   // left as it was before the re-INVITE (RFC 3261 14.1)
+   private void processReinviteResponse(JainSipJob jainSipJob, Response response)
+   {
+      reinviteInProgress = false;
+
+      if (response.getStatusCode() == Response.OK && response.getRawContent() != null) {
+         try {
+            Dialog dialog = jainSipJob.transaction.getDialog();
+            Request ackRequest = dialog.createAck(((CSeqHeader) response.getHeader(CSeqHeader.NAME)).getSeqNumber());
+            RCLogger.i(TAG, "Sending SIP request: \n", ackRequest);
+            dialog.sendAck(ackRequest);
+
+            String sdpAnswer = new String(response.getRawContent(), "UTF-8");
+            listener.onCallReinviteEvent(jainSipJob.jobId, sdpAnswer, RCClient.ErrorCodes.SUCCESS, RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
+         }
+         catch (Exception e) {
+            e.printStackTrace();
+            listener.onCallReinviteEvent(jainSipJob.jobId, null, RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT,
+                  RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT));
+         }
+      }
+      else {
+         RCLogger.w(TAG, "processReinviteResponse(): re-INVITE failed with: " + response.getStatusCode());
+         RCClient.ErrorCodes errorCode = RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT;
+         if (response.getStatusCode() == Response.FORBIDDEN) {
+            errorCode = RCClient.ErrorCodes.ERROR_CONNECTION_AUTHENTICATION_FORBIDDEN;
+         }
+         else if (response.getStatusCode() == Response.SERVICE_UNAVAILABLE) {
+            errorCode = RCClient.ErrorCodes.ERROR_CONNECTION_SERVICE_UNAVAILABLE;
+         }
+         else if (response.getStatusCode() == Response.SERVER_INTERNAL_ERROR) {
+            errorCode = RCClient.ErrorCodes.ERROR_CONNECTION_SERVICE_INTERNAL_ERROR;
+         }
+         listener.onCallReinviteEvent(jainSipJob.jobId, null, errorCode, RCClient.errorText(errorCode));
+      }
+   }
+
    public void processTimeout(JainSipJob jainSipJob, final TimeoutEvent timeoutEvent)
    {
+      if (reinviteInProgress && !timeoutEvent.isServerTransaction() &&
+            timeoutEvent.getClientTransaction().getRequest().getMethod().equals(Request.INVITE)) {
+         // a re-INVITE timing out doesn't necessarily mean that the call is gone, let the call decide
+         reinviteInProgress = false;
+         listener.onCallReinviteEvent(jainSipJob.jobId, null, RCClient.ErrorCodes.ERROR_CONNECTION_SIGNALING_TIMEOUT,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_SIGNALING_TIMEOUT));
+         return;
+      }
+
       listener.onCallErrorEvent(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_CONNECTION_SIGNALING_TIMEOUT,
             RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_SIGNALING_TIMEOUT));
       jainSipClient.jainSipJobManager.remove(jainSipJob.jobId);
@@ -28,6 +28,7 @@ import android.gov.nist.javax.sip.SipStackExt;
 import android.gov.nist.javax.sip.clientauthutils.AuthenticationHelper;
 import android.gov.nist.javax.sip.message.SIPMessage;
 import android.javax.sip.ClientTransaction;
+import android.javax.sip.DialogState;
 import android.javax.sip.DialogTerminatedEvent;
 import android.javax.sip.IOExceptionEvent;
 import android.javax.sip.ListeningPoint;
@@ -43,8 +44,12 @@ import android.javax.sip.SipStack;
 import android.javax.sip.TimeoutEvent;
 import android.javax.sip.Transaction;
 import android.javax.sip.TransactionTerminatedEvent;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.address.URI;
 import android.javax.sip.header.CSeqHeader;
 import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.ExpiresHeader;
 import android.javax.sip.header.ViaHeader;
 import android.javax.sip.message.Request;
 import android.javax.sip.message.Response;
@@ -62,16 +67,23 @@ import org.restcomm.android.sdk.RCConnection;
 import org.restcomm.android.sdk.RCDevice;
 import org.restcomm.android.sdk.RCDeviceListener;
 import org.restcomm.android.sdk.util.RCLogger;
+import org.restcomm.android.sdk.util.RCUtils;
 
 import java.io.File;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 /**
  * JainSipClient hides the JAIN SIP complexity and offers an easy to use API to implement SIP signaling. JainSipClient is typically used by Signaling Handler
@@ -120,6 +132,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    JainSipMessageBuilder jainSipMessageBuilder;
    JainSipJobManager jainSipJobManager;
    JainSipNotificationManager jainSipNotificationManager;
+   JainSipAuthenticationCache jainSipAuthenticationCache;
    private Context androidContext;
    HashMap<String, Object> configuration;
    // any client context that is not configuration related, like the rport
@@ -133,11 +146,34 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    // Register expiry in seconds
    private final int DEFAULT_REGISTER_EXPIRY_PERIOD = 3600;
    private final int DEFAULT_LOCAL_SIP_PORT = 5090;
-   // the registration refresh needs to happen sooner than expiry to make sure that the client has a registration at all times. Let's
-   // set it to EXPIRY - 50 seconds. TODO: in the future we could randomize this so that for example it is between half the expiry
-   // and full expiry (in this example, a random between [30, 60] seconds) to avoid having all android clients refreshing all at
-   // the same time and stressing Restcomm. Actually this is how Sofia SIP in restcomm-ios-sdk does it by default. Value is in seconds
+   // the registration refresh needs to happen sooner than expiry to make sure that the client has a registration at all times. Latest
+   // refresh time is EXPIRY - 50 seconds. Value is in seconds
    final int REGISTER_REFRESH_MINUS_INTERVAL = 50;
+   // To avoid having all android clients refreshing at the same time and stressing Restcomm, the actual refresh time is randomized
+   // inside a window that ends at EXPIRY - REGISTER_REFRESH_MINUS_INTERVAL. This is the default size of the window as a percentage
+   // of EXPIRY (i.e. for 50 refresh happens between [EXPIRY / 2, EXPIRY - 50]). Can be overriden with RCDevice.ParameterKeys.SIGNALING_REGISTER_REFRESH_WINDOW
+   private final int DEFAULT_REGISTER_REFRESH_WINDOW_PERCENT = 50;
+   // Register refresh state: the parameters and expiry of the last registration, the earliest time (in uptimeMillis) we can refresh it,
+   // so that we can piggyback the refresh on other outgoing traffic, and stats on when refreshes are scheduled (in buckets of 10% of expiry)
+   private HashMap<String, Object> registerRefreshParameters = null;
+   private int registerRequestedExpiry = 0;
+   private long registerRefreshEarliestUptime = 0;
+   private int[] registerRefreshStats = new int[10];
+   private int registerRefreshCoalescedCount = 0;
+   private final Random registerRefreshRandom = new Random();
+   // Local address resolution: interface name patterns per network type, and the addresses resolved for the currently active network,
+   // which are kept until the next connectivity change
+   private static final Pattern WIFI_INTERFACE_PATTERN = Pattern.compile("wlan");
+   private static final Pattern CELLULAR_INTERFACE_PATTERN = Pattern.compile("rmnet");
+   private static final Pattern EMULATOR_CELLULAR_INTERFACE_PATTERN = Pattern.compile("(rmnet|eth)");
+   private static final Pattern ETHERNET_INTERFACE_PATTERN = Pattern.compile("eth");
+   private String cachedIPv4Address = null;
+   private String cachedIPv6Address = null;
+   private JainSipNotificationManager.NetworkStatus cachedAddressNetworkStatus = null;
+   // Outgoing text messages waiting to be sent and job ids of the ones sent but not yet replied (see sendMessages())
+   private final int DEFAULT_MESSAGE_WINDOW = 8;
+   private LinkedList<QueuedMessage> messageQueue = new LinkedList<>();
+   private HashSet<String> messagesInFlight = new HashSet<>();
    // how long after we force close the client if it takes too long to process JainSipClient.close()
    static final int FORCE_CLOSE_INTERVAL = 3000;
 
@@ -147,6 +183,17 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    public ListeningPoint jainSipListeningPoint;
    public SipProvider jainSipProvider;
 
+   private static class QueuedMessage {
+      final String jobId;
+      final HashMap<String, Object> parameters;
+
+      QueuedMessage(String jobId, HashMap<String, Object> parameters)
+      {
+         this.jobId = jobId;
+         this.parameters = parameters;
+      }
+   }
+
    public JainSipClient(Handler signalingHandler)
    {
       this.signalingHandler = signalingHandler;
@@ -155,7 +202,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    // -- Published API
    public void open(String jobId, Context androidContext, HashMap<String, Object> configuration, JainSipClientListener listener)
    {
-      RCLogger.i(TAG, "open(): " + configuration.toString());
+      RCLogger.i(TAG, "open(): ", configuration);
 
       if (JainSipClient.clientOpened) {
          listener.onClientOpenedReply(jobId, RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone,
@@ -170,6 +217,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       jainSipMessageBuilder = new JainSipMessageBuilder();
       jainSipJobManager = new JainSipJobManager(this);
       jainSipNotificationManager = new JainSipNotificationManager(androidContext, signalingHandler, this);
+      jainSipAuthenticationCache = new JainSipAuthenticationCache();
       jainSipClientContext = new HashMap<String, Object>();
 
       jainSipFactory = SipFactory.getInstance();
@@ -183,7 +231,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       // Setup TLS even if currently we aren't using it, so that if user changes the setting later
       // the SIP stack is ready to support it
       String keystoreFilename = "restcomm-android.keystore";
-      HashMap<String, String> securityParameters = JainSipSecurityHelper.generateKeystore(androidContext, keystoreFilename);
+      HashMap<String, String> securityParameters = JainSipSecurityHelper.loadOrGenerateKeystore(androidContext, keystoreFilename);
       JainSipSecurityHelper.setProperties(properties, securityParameters.get("keystore-path"), securityParameters.get("keystore-password"),
             (Boolean)configuration.get(RCDevice.ParameterKeys.DEBUG_JAIN_DISABLE_CERTIFICATE_VERIFICATION));
 
@@ -256,7 +304,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
    public void reconfigure(String jobId, HashMap<String, Object> parameters, JainSipClientListener listener)
    {
-      RCLogger.i(TAG, "reconfigure(): " + parameters.toString());
+      RCLogger.i(TAG, "reconfigure(): ", parameters);
 
       // normalize before checking which parameters changed
       jainSipMessageBuilder.normalizeDomain(parameters);
@@ -273,6 +321,9 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       HashMap<String, Object> oldParameters = new HashMap<String, Object>();
       oldParameters.putAll(configuration);
 
+      // username or domain might have changed; pre-parsed headers need to be rebuilt
+      jainSipMessageBuilder.invalidateTemplates();
+
       // remember that the new parameters can be just a subset of the currently stored in configuration, so to update the current parameters we need
       // to merge them with the new (i.e. keep the old and replace any new keys with new values)
       configuration = JainSipConfiguration.mergeParameters(configuration, parameters);
@@ -318,13 +369,15 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    // ------ Call-related methods
    public void call(String jobId, HashMap<String, Object> parameters, JainSipCall.JainSipCallListener listener)
    {
-      RCLogger.i(TAG, "call(): jobId: " + jobId + ", username: " + parameters.toString());
+      RCLogger.i(TAG, "call(): jobId: " + jobId + ", username: ", parameters);
 
       if (!jainSipNotificationManager.haveConnectivity()) {
          listener.onCallErrorEvent(jobId, RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY, RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
          return;
       }
 
+      coalesceRegisterRefresh();
+
       try {
          jainSipMessageBuilder.normalizePeer(parameters, configuration);
 
@@ -338,7 +391,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
    public void accept(String jobId, HashMap<String, Object> parameters, JainSipCall.JainSipCallListener listener)
    {
-      RCLogger.i(TAG, "accept(): jobId: " + jobId + ", parameters: " + parameters.toString());
+      RCLogger.i(TAG, "accept(): jobId: " + jobId + ", parameters: ", parameters);
 
       if (!jainSipNotificationManager.haveConnectivity()) {
          listener.onCallErrorEvent(jobId, RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY, RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
@@ -382,27 +435,117 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       jainSipJob.jainSipCall.sendDigits(jainSipJob, digits);
    }
 
+   public void reinvite(String jobId, HashMap<String, Object> parameters, JainSipCall.JainSipCallListener listener)
+   {
+      RCLogger.i(TAG, "reinvite(): jobId: " + jobId);
+
+      JainSipJob jainSipJob = jainSipJobManager.get(jobId);
+      if (jainSipJob == null) {
+         // call was released while the request was on its way
+         RCLogger.w(TAG, "reinvite(): job doesn't exist for the call");
+         listener.onCallReinviteEvent(jobId, null, RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT));
+         return;
+      }
+      jainSipJob.jainSipCall.reinvite(jainSipJob, parameters);
+   }
+
    // ------ Message-related methods
    public void sendMessage(String jobId, HashMap<String, Object> parameters)
    {
-      RCLogger.i(TAG, "sendMessage(): jobId: " + jobId + ", parameters: " + parameters.toString());
+      RCLogger.i(TAG, "sendMessage(): jobId: " + jobId + ", peer: " + parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER));
+
+      sendMessages(Collections.singletonList(jobId), Collections.singletonList(parameters));
+   }
+
+   // Messages are queued and sent pipelined, keeping at most SIGNALING_MESSAGE_WINDOW of them in flight (i.e. without final response);
+   // each time a message is replied the next one from the queue is sent. Replies are still notified per message
+   public void sendMessages(List<String> jobIds, List<HashMap<String, Object>> parametersList)
+   {
+      RCLogger.v(TAG, "sendMessages(): count: " + jobIds.size() + ", queued: " + messageQueue.size() + ", in flight: " + messagesInFlight.size());
 
       if (!jainSipNotificationManager.haveConnectivity()) {
-         listener.onClientMessageReply(jobId, RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY, RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
+         for (String jobId : jobIds) {
+            listener.onClientMessageReply(jobId, RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY, RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
+         }
          return;
       }
 
-      try {
-         jainSipMessageBuilder.normalizePeer(parameters, configuration);
+      coalesceRegisterRefresh();
 
-         Transaction transaction = jainSipClientSendMessage(parameters);
-         jainSipJobManager.add(jobId, JainSipJob.Type.TYPE_MESSAGE, transaction, parameters, null);
+      // batches usually target a handful of peers, no need to normalize the same peer over and over
+      HashMap<String, String> normalizedPeers = new HashMap<>();
+      for (int i = 0; i < jobIds.size(); i++) {
+         HashMap<String, Object> parameters = parametersList.get(i);
+         String peer = (String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER);
+         try {
+            if (normalizedPeers.containsKey(peer)) {
+               parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, normalizedPeers.get(peer));
+            }
+            else {
+               jainSipMessageBuilder.normalizePeer(parameters, configuration);
+               normalizedPeers.put(peer, (String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER));
+            }
+            messageQueue.add(new QueuedMessage(jobIds.get(i), parameters));
+         }
+         catch (JainSipException e) {
+            listener.onClientMessageReply(jobIds.get(i), e.errorCode, e.errorText);
+         }
       }
-      catch (JainSipException e) {
-         listener.onClientMessageReply(jobId, e.errorCode, e.errorText);
+
+      sendQueuedMessages();
+   }
+
+   // Send as many queued messages as the window allows
+   private void sendQueuedMessages()
+   {
+      int window = DEFAULT_MESSAGE_WINDOW;
+      if (configuration.containsKey(RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW) &&
+            !configuration.get(RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW).equals("")) {
+         window = Math.max(1, (Integer) configuration.get(RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW));
+      }
+
+      while (messagesInFlight.size() < window && !messageQueue.isEmpty()) {
+         QueuedMessage queuedMessage = messageQueue.poll();
+         try {
+            Transaction transaction = jainSipClientSendMessage(queuedMessage.parameters);
+            jainSipJobManager.add(queuedMessage.jobId, JainSipJob.Type.TYPE_MESSAGE, transaction, queuedMessage.parameters, null);
+            messagesInFlight.add(queuedMessage.jobId);
+         }
+         catch (JainSipException e) {
+            listener.onClientMessageReply(queuedMessage.jobId, e.errorCode, e.errorText);
+         }
       }
    }
 
+   // A message got its final outcome; free its slot in the window and send the next one
+   private void onMessageCompleted(String jobId)
+   {
+      jainSipJobManager.remove(jobId);
+      if (messagesInFlight.remove(jobId)) {
+         sendQueuedMessages();
+      }
+   }
+
+   // Fail messages that haven't been sent yet (i.e. when we lose connectivity)
+   private void failQueuedMessages(RCClient.ErrorCodes errorCode)
+   {
+      while (!messageQueue.isEmpty()) {
+         listener.onClientMessageReply(messageQueue.poll().jobId, errorCode, RCClient.errorText(errorCode));
+      }
+   }
+
+   // Fail messages sent but not yet replied. Used when tearing down the provider their transactions belong to, since after that
+   // no response or timeout will ever arrive for them and they would keep their slots in the window forever
+   private void failMessagesInFlight(RCClient.ErrorCodes errorCode)
+   {
+      for (String jobId : new ArrayList<>(messagesInFlight)) {
+         jainSipJobManager.remove(jobId);
+         listener.onClientMessageReply(jobId, errorCode, RCClient.errorText(errorCode));
+      }
+      messagesInFlight.clear();
+   }
+
    // ------ Internal APIs
    // Setup JAIN networking facilities
    public void jainSipClientBind(HashMap<String, Object> parameters) throws JainSipException
@@ -431,6 +574,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             jainSipProvider = jainSipStack.createSipProvider(jainSipListeningPoint);
             jainSipProvider.addSipListener(this);
             jainSipMessageBuilder.initialize(jainSipFactory, jainSipProvider);
+            // messages queued while we were rebinding (i.e. on handover) can go out now
+            sendQueuedMessages();
          }
          /*
          catch (SocketException e) {
@@ -454,6 +599,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    {
       RCLogger.v(TAG, "unbind()");
       if (jainSipListeningPoint != null) {
+         // messages in flight are bound to the provider we are about to delete
+         failMessagesInFlight(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY);
          try {
             jainSipProvider.removeSipListener(this);
             if (jainSipProvider.getListeningPoints().length > 1) {
@@ -485,6 +632,10 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    {
       jainSipStack.stop();
       jainSipMessageBuilder.shutdown();
+      RCLogger.i(TAG, "jainSipClientStopStack(): preemptive authentication stats: " + jainSipAuthenticationCache.getPrintableStats());
+      jainSipAuthenticationCache.clear();
+      messageQueue.clear();
+      messagesInFlight.clear();
       jainSipFactory.resetFactory();
 
         /*
@@ -520,7 +671,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       ClientTransaction transaction;
       try {
          Request registerRequest = jainSipMessageBuilder.buildRegisterRequest(jainSipListeningPoint, expiry, parameters);
-         RCLogger.i(TAG, "Sending SIP request: \n" + registerRequest.toString());
+         addPreemptiveAuthorization(registerRequest, parameters);
+         RCLogger.i(TAG, "Sending SIP request: \n", registerRequest);
 
          // only notify on registering on specific types of jobs, otherwise we would swamp the App with notifications
          if (jainSipJob.type == JainSipJob.Type.TYPE_RECONFIGURE || jainSipJob.type == JainSipJob.Type.TYPE_RECONFIGURE_RELOAD_NETWORKING ||
@@ -543,19 +695,130 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          }
       }
 
+      // schedule a registration refresh based on the expiry we requested. When the 200 OK arrives we reschedule based on the
+      // expiry actually granted by the server (see processResponse())
+      registerRequestedExpiry = expiry;
+      scheduleRegisterRefresh(parameters, expiry);
+
+      return transaction;
+   }
+
+   // Schedule a registration refresh at a random point within the refresh window for given expiry (in seconds), cancelling any
+   // previously scheduled one
+   private void scheduleRegisterRefresh(final HashMap<String, Object> parameters, int expiry)
+   {
       // cancel any pending scheduled registrations (in case this is an on-demand registration and we end up posting to handler on top of the old)
       signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
-      // schedule a registration update after 'registrationRefresh' seconds
+
+      int windowPercent = DEFAULT_REGISTER_REFRESH_WINDOW_PERCENT;
+      if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_REGISTER_REFRESH_WINDOW) &&
+            !parameters.get(RCDevice.ParameterKeys.SIGNALING_REGISTER_REFRESH_WINDOW).equals("")) {
+         windowPercent = Math.max(0, Math.min(100, (Integer) parameters.get(RCDevice.ParameterKeys.SIGNALING_REGISTER_REFRESH_WINDOW)));
+      }
+
+      // all in miliseconds. If the server granted a really small expiry, make sure we refresh at the latest at half of it
+      long latest = Math.max((expiry - REGISTER_REFRESH_MINUS_INTERVAL) * 1000L, expiry * 1000L / 2);
+      long earliest = Math.min(expiry * 1000L * (100 - windowPercent) / 100, latest);
+      long refresh = earliest + (long) (registerRefreshRandom.nextDouble() * (latest - earliest));
+
+      long now = SystemClock.uptimeMillis();
+      registerRefreshParameters = parameters;
+      registerRefreshEarliestUptime = now + earliest;
+
+      int bucket = (int) Math.min(9, refresh * 10 / (expiry * 1000L));
+      registerRefreshStats[bucket]++;
+      RCLogger.i(TAG, "scheduleRegisterRefresh(): refresh in " + refresh / 1000 + "s (window: [" + earliest / 1000 + "s, " + latest / 1000 +
+            "s], expiry: " + expiry + "s), " + getPrintableRegisterRefreshStats());
+
+      // schedule a registration update after 'refresh' miliseconds
       Runnable runnable = new Runnable() {
          @Override
          public void run()
          {
-            jainSipJobManager.add(Long.toString(System.currentTimeMillis()), JainSipJob.Type.TYPE_REGISTER_REFRESH, parameters);
+            registerRefreshParameters = null;
+            jainSipJobManager.add(RCUtils.generateUniqueId(), JainSipJob.Type.TYPE_REGISTER_REFRESH, parameters);
          }
       };
-      signalingHandler.postAtTime(runnable, REGISTER_REFRESH_HANDLER_TOKEN, SystemClock.uptimeMillis() + (expiry - REGISTER_REFRESH_MINUS_INTERVAL) * 1000);
+      signalingHandler.postAtTime(runnable, REGISTER_REFRESH_HANDLER_TOKEN, now + refresh);
+   }
 
-      return transaction;
+   // If we are about to send out traffic anyway and a registration refresh is already within its refresh window, refresh right away
+   // instead of waking up the radio separately later
+   private void coalesceRegisterRefresh()
+   {
+      if (registerRefreshParameters == null) {
+         // no refresh pending
+         return;
+      }
+      if (SystemClock.uptimeMillis() < registerRefreshEarliestUptime) {
+         return;
+      }
+
+      registerRefreshCoalescedCount++;
+      RCLogger.i(TAG, "coalesceRegisterRefresh(): refreshing registration along with outgoing request, " + getPrintableRegisterRefreshStats());
+      signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
+      final HashMap<String, Object> parameters = registerRefreshParameters;
+      registerRefreshParameters = null;
+      signalingHandler.post(new Runnable() {
+         @Override
+         public void run()
+         {
+            jainSipJobManager.add(RCUtils.generateUniqueId(), JainSipJob.Type.TYPE_REGISTER_REFRESH, parameters);
+         }
+      });
+   }
+
+   // Figure out the registration expiry granted by the server in a REGISTER 200 OK: expires parameter of our own Contact takes precedence
+   // over the Expires header (RFC 3261, 10.2.4). If nothing is there we assume the server granted what we requested
+   private int getGrantedRegisterExpiry(Request request, Response response, int requestedExpiry)
+   {
+      int granted = -1;
+      ContactHeader ourContact = (request != null) ? (ContactHeader) request.getHeader(ContactHeader.NAME) : null;
+      ListIterator contactHeaders = response.getHeaders(ContactHeader.NAME);
+      while (ourContact != null && contactHeaders != null && contactHeaders.hasNext()) {
+         // the 200 OK lists all current bindings of the user, including other devices' with their own remaining time, which we need to ignore
+         ContactHeader contactHeader = (ContactHeader) contactHeaders.next();
+         if (isSameContact(ourContact, contactHeader)) {
+            granted = contactHeader.getExpires();
+            break;
+         }
+      }
+      if (granted == -1) {
+         ExpiresHeader expiresHeader = (ExpiresHeader) response.getHeader(ExpiresHeader.NAME);
+         if (expiresHeader != null) {
+            granted = expiresHeader.getExpires();
+         }
+      }
+      if (granted == -1) {
+         granted = requestedExpiry;
+      }
+      return granted;
+   }
+
+   // Compare Contact URIs the way registrars do when matching bindings; we can't rely on URI.equals() as the registrar might
+   // add or drop URI parameters
+   private boolean isSameContact(ContactHeader ours, ContactHeader theirs)
+   {
+      URI ourUri = ours.getAddress().getURI();
+      URI theirUri = theirs.getAddress().getURI();
+      if (!(ourUri instanceof SipURI) || !(theirUri instanceof SipURI)) {
+         return ourUri.equals(theirUri);
+      }
+      SipURI ourSipUri = (SipURI) ourUri;
+      SipURI theirSipUri = (SipURI) theirUri;
+      return ourSipUri.getHost().equalsIgnoreCase(theirSipUri.getHost()) &&
+            ourSipUri.getPort() == theirSipUri.getPort() &&
+            (ourSipUri.getUser() == null ? theirSipUri.getUser() == null : ourSipUri.getUser().equals(theirSipUri.getUser()));
+   }
+
+   private String getPrintableRegisterRefreshStats()
+   {
+      StringBuilder result = new StringBuilder("register refresh distribution (% of expiry): ");
+      for (int i = 0; i < registerRefreshStats.length; i++) {
+         result.append(i * 10).append("-").append((i + 1) * 10).append("%: ").append(registerRefreshStats[i]).append(", ");
+      }
+      result.append("coalesced: ").append(registerRefreshCoalescedCount);
+      return result.toString();
    }
 
    public ClientTransaction jainSipClientUnregister(final HashMap<String, Object> parameters) throws JainSipException
@@ -570,7 +833,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       ClientTransaction transaction = null;
       try {
          Request registerRequest = jainSipMessageBuilder.buildRegisterRequest(jainSipListeningPoint, 0, parameters);
-         RCLogger.i(TAG, "Sending SIP request: \n" + registerRequest.toString());
+         addPreemptiveAuthorization(registerRequest, parameters);
+         RCLogger.i(TAG, "Sending SIP request: \n", registerRequest);
 
          // Remember that this might block waiting for DNS server
          transaction = this.jainSipProvider.getNewClientTransaction(registerRequest);
@@ -583,6 +847,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
       // cancel any pending scheduled registrations
       signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
+      registerRefreshParameters = null;
 
       return transaction;
    }
@@ -594,7 +859,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       try {
          Request request = jainSipMessageBuilder.buildMessageRequest((String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER),
                (String) parameters.get("text-message"), jainSipListeningPoint, configuration);
-         RCLogger.i(TAG, "Sending SIP request: \n" + request.toString());
+         addPreemptiveAuthorization(request, configuration);
+         RCLogger.i(TAG, "Sending SIP request: \n", request);
 
          ClientTransaction transaction = this.jainSipProvider.getNewClientTransaction(request);
          transaction.sendRequest();
@@ -606,18 +872,26 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       }
    }
 
+   // Add Authorization/Proxy-Authorization header to an outgoing request if we have a cached challenge for its server, to avoid
+   // the 401/407 round trip. 'parameters' are the ones holding the credentials
+   void addPreemptiveAuthorization(Request request, HashMap<String, Object> parameters)
+   {
+      jainSipAuthenticationCache.authorize(request, jainSipMessageBuilder.getHeaderFactory(),
+            (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_USERNAME), (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_PASSWORD));
+   }
+
    // Notice that this is used both for registrations and calls
    public void jainSipAuthenticate(JainSipJob jainSipJob, HashMap<String, Object> parameters, ResponseEventExt responseEventExt) throws JainSipException
    {
       try {
+         String username = (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_USERNAME);
          String password = (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_PASSWORD);
          if (password == null) {
             password = "";
          }
 
          AuthenticationHelper authenticationHelper = ((SipStackExt) jainSipStack).getAuthenticationHelper(
-               new JainSipAccountManagerImpl((String) parameters.get(RCDevice.ParameterKeys.SIGNALING_USERNAME),
-                     responseEventExt.getRemoteIpAddress(), password), jainSipMessageBuilder.getHeaderFactory());
+               new JainSipAccountManagerImpl(username, responseEventExt.getRemoteIpAddress(), password), jainSipMessageBuilder.getHeaderFactory());
 
          // we 're subtracting one since the first attempt has already taken place
          // (that way we are enforcing MAX_AUTH_ATTEMPTS at most)
@@ -625,9 +899,12 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             ClientTransaction authenticationTransaction = authenticationHelper.handleChallenge(responseEventExt.getResponse(),
                   (ClientTransaction) jainSipJob.transaction, jainSipProvider, 5, true);
 
+            // remember the challenge so that following requests to the same server can be authorized preemptively
+            jainSipAuthenticationCache.onChallenge(authenticationTransaction.getRequest(), responseEventExt.getResponse(), username, password);
+
             // update previous transaction with authenticationTransaction (remember that previous ended with 407 final response)
             jainSipJob.updateTransaction(authenticationTransaction);
-            RCLogger.i(TAG, "Sending SIP request: \n" + authenticationTransaction.getRequest().toString());
+            RCLogger.i(TAG, "Sending SIP request: \n", authenticationTransaction.getRequest());
             authenticationTransaction.sendRequest();
             jainSipJob.increaseAuthAttempts();
          }
@@ -660,11 +937,11 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          public void run()
          {
             Request request = requestEvent.getRequest();
-            RCLogger.i(TAG, "Received SIP request: \n" + request.toString());
+            RCLogger.i(TAG, "Received SIP request: \n", request);
             String callId = ((CallIdHeader)request.getHeader("Call-ID")).getCallId();
 
             // create a new jobId for the new job
-            String jobId = Long.toString(System.currentTimeMillis());
+            String jobId = RCUtils.generateUniqueId();
             ServerTransaction serverTransaction = requestEvent.getServerTransaction();
             String method = request.getMethod();
 
@@ -684,7 +961,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   }
 
                   Response response = jainSipMessageBuilder.buildResponse(Response.OK, request);
-                  RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+                  RCLogger.i(TAG, "Sending SIP response: \n", response);
                   serverTransaction.sendResponse(response);
                   String messageText = ((SIPMessage)request).getMessageContent();
                   listener.onClientMessageArrivedEvent(jobId, ((SIPMessage)request).getFrom().getAddress().toString(), messageText);
@@ -701,7 +978,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   }
 
                   Response response = jainSipMessageBuilder.buildOptions200OKResponse(request, jainSipListeningPoint);
-                  RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+                  RCLogger.i(TAG, "Sending SIP response: \n", response);
                   serverTransaction.sendResponse(response);
                }
                catch (Exception e) {
@@ -732,7 +1009,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          {
             ResponseEventExt responseEventExt = (ResponseEventExt) responseEvent;
             Response response = responseEvent.getResponse();
-            RCLogger.i(TAG, "Received SIP response: \n" + response.toString());
+            RCLogger.i(TAG, "Received SIP response: \n", response);
 
             //JainSipJob jainSipJob = jainSipJobManager.getByBranchId(responseEvent.getClientTransaction().getBranchId());
             JainSipJob jainSipJob = jainSipJobManager.getByCallId(((CallIdHeader)response.getHeader("Call-ID")).getCallId());
@@ -741,6 +1018,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                return;
             }
 
+            jainSipAuthenticationCache.onResponse(response);
+
             CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
             String method = cseq.getMethod();
             if (method.equals(Request.REGISTER)) {
@@ -760,6 +1039,17 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   //ViaHeader viaHeader = (ViaHeader) response.getHeader(ViaHeader.NAME);
                   updateViaReceivedAndRport((ViaHeader)response.getHeader(ViaHeader.NAME));
 
+                  // honor the expiry granted by the server rather than the one we requested when scheduling refresh. Notice that
+                  // registerRefreshParameters is null for un-REGISTER responses
+                  if (registerRefreshParameters != null) {
+                     Request registerRequest = responseEvent.getClientTransaction() != null ? responseEvent.getClientTransaction().getRequest() : null;
+                     int grantedExpiry = getGrantedRegisterExpiry(registerRequest, response, registerRequestedExpiry);
+                     if (grantedExpiry > 0 && grantedExpiry != registerRequestedExpiry) {
+                        RCLogger.i(TAG, "processResponse(): server granted register expiry: " + grantedExpiry + "s, requested: " + registerRequestedExpiry + "s");
+                        scheduleRegisterRefresh(registerRefreshParameters, grantedExpiry);
+                     }
+                  }
+
                   jainSipJob.processFsm(jainSipJob.jobId, JainSipJob.FsmEvents.REGISTER_SUCCESS, null, RCClient.ErrorCodes.SUCCESS, RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
                }
             }
@@ -775,9 +1065,12 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   }
                   catch (JainSipException e) {
                      listener.onClientMessageReply(jainSipJob.jobId, e.errorCode, e.errorText);
+                     onMessageCompleted(jainSipJob.jobId);
                   }
+                  return;
                }
-               else if (response.getStatusCode() == Response.OK) {
+
+               if (response.getStatusCode() == Response.OK) {
                   listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.SUCCESS,
                         RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
                }
@@ -789,6 +1082,29 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_SERVICE_UNAVAILABLE,
                         RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_SERVICE_UNAVAILABLE));
                }
+               else if (response.getStatusCode() == Response.NOT_FOUND) {
+                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND,
+                        RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND));
+               }
+               else if (response.getStatusCode() == Response.TEMPORARILY_UNAVAILABLE) {
+                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_PEER_UNAVAILABLE,
+                        RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_PEER_UNAVAILABLE));
+               }
+               else if (response.getStatusCode() < Response.MULTIPLE_CHOICES && response.getStatusCode() > Response.OK) {
+                  // like 202 Accepted, which is what most servers reply with for MESSAGE (RFC 3428)
+                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.SUCCESS,
+                        RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
+               }
+               else if (response.getStatusCode() >= Response.MULTIPLE_CHOICES) {
+                  // every message needs a reply, so that callers (especially batched ones) don't wait forever
+                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_COULD_NOT_CONNECT,
+                        RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_COULD_NOT_CONNECT) + " (" + response.getStatusCode() + " " +
+                              response.getReasonPhrase() + ")");
+               }
+
+               if (response.getStatusCode() >= Response.OK) {
+                  onMessageCompleted(jainSipJob.jobId);
+               }
             }
          }
       };
@@ -868,7 +1184,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             else if (jainSipJob.type == JainSipJob.Type.TYPE_MESSAGE) {
                listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_TIMEOUT,
                      RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_TIMEOUT));
-               jainSipJobManager.remove(jainSipJob.jobId);
+               onMessageCompleted(jainSipJob.jobId);
             }
             else {
                // register, register refresh, reconfigure, etc
@@ -885,16 +1201,21 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    {
       // No matter the connectivity change, cancel any pending scheduled registrations
       signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
+      registerRefreshParameters = null;
+      // local address is most likely different now
+      invalidateIPAddress();
 
       if (connectivityChange == JainSipNotificationManager.ConnectivityChange.OFFLINE) {
+         // no point in keeping messages around; in flight ones are failed when unbinding below
+         failQueuedMessages(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY);
          try {
             jainSipClientUnbind();
-            listener.onClientConnectivityEvent(Long.toString(System.currentTimeMillis()), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
+            listener.onClientConnectivityEvent(RCUtils.generateUniqueId(), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
          }
          catch (JainSipException e) {
             // let's notify the App regardless of the exception since we no longer have connectivity
             e.printStackTrace();
-            listener.onClientConnectivityEvent(Long.toString(System.currentTimeMillis()), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
+            listener.onClientConnectivityEvent(RCUtils.generateUniqueId(), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
          }
       }
       else if (connectivityChange == JainSipNotificationManager.ConnectivityChange.OFFLINE_TO_WIFI ||
@@ -910,7 +1231,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          else {
             parameters.put("connectivity-status", RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusEthernet);
          }
-         jainSipJobManager.add(Long.toString(System.currentTimeMillis()), JainSipJob.Type.TYPE_START_NETWORKING, parameters);
+         jainSipJobManager.add(RCUtils.generateUniqueId(), JainSipJob.Type.TYPE_START_NETWORKING, parameters);
       }
       else if (connectivityChange == JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_WIFI ||
             connectivityChange == JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_CELLULAR_DATA ||
@@ -926,90 +1247,134 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             // connectivityChange == JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_ETHERNET
             parameters.put("connectivity-status", RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusEthernet);
          }
-         jainSipJobManager.add(Long.toString(System.currentTimeMillis()), JainSipJob.Type.TYPE_RELOAD_NETWORKING, parameters);
+         // once signaling is up over the new network, established calls are notified so that they can recover media (see notifyCallsOfHandover())
+         jainSipJobManager.add(RCUtils.generateUniqueId(), JainSipJob.Type.TYPE_RELOAD_NETWORKING, parameters);
       }
    }
 
-   // Search through the interfaces to find the one who's name is starting with 'networkInterfacePrefix' and return
-   // the ip address corresponding to it
-   private String interface2Address(boolean useIPv4, String networkInterfacePrefix) throws SocketException
+   // Called once signaling has been moved to the new network after a handover; notify established calls so that they can recover media
+   void notifyCallsOfHandover()
+   {
+      for (JainSipJob jainSipJob : jainSipJobManager.getByType(JainSipJob.Type.TYPE_CALL)) {
+         if (jainSipJob.transaction != null && jainSipJob.transaction.getDialog() != null &&
+               jainSipJob.transaction.getDialog().getState() == DialogState.CONFIRMED) {
+            jainSipJob.jainSipCall.onNetworkHandover(jainSipJob);
+         }
+      }
+   }
+
+   // Search through the interfaces to find the ones who's name is starting with 'interfacePattern' and return
+   // the ip address corresponding to the first one that is up and has an address of the requested family
+   private String interface2Address(boolean useIPv4, Pattern interfacePattern) throws SocketException
    {
       String stringAddress = "";
 
       List<NetworkInterface> interfaces = Collections.list(NetworkInterface.getNetworkInterfaces());
       for (NetworkInterface intf : interfaces) {
-         RCLogger.i(TAG, "interface2Address(): Current interface: " + intf.toString());
-         if (intf.isUp() && intf.getName().matches(networkInterfacePrefix + ".*")) {
-            List<InetAddress> addrs = Collections.list(intf.getInetAddresses());
-            for (InetAddress addr : addrs) {
-               if (!addr.isLoopbackAddress()) {
-                  String sAddr = addr.getHostAddress().toUpperCase();
-                  boolean isIPv4 = addr instanceof Inet4Address;  //InetAddressUtils.isIPv4Address(sAddr);
-                  if (useIPv4) {
-                     if (isIPv4) {
-                        stringAddress = sAddr;
-                        break;
-                     }
-                  }
-                  else {
-                     if (!isIPv4) {
-                        int delim = sAddr.indexOf('%'); // drop ip6 port
-                        // suffix
-                        stringAddress = delim < 0 ? sAddr : sAddr.substring(0, delim);
-                        break;
-                     }
-                  }
-               }
+         if (!intf.isUp() || !interfacePattern.matcher(intf.getName()).lookingAt()) {
+            continue;
+         }
+         for (InetAddress addr : Collections.list(intf.getInetAddresses())) {
+            if (addr.isLoopbackAddress()) {
+               continue;
+            }
+            boolean isIPv4 = addr instanceof Inet4Address;
+            if (useIPv4 && isIPv4) {
+               stringAddress = addr.getHostAddress();
+               break;
+            }
+            // for IPv6 skip link local addresses, which are not usable for signaling
+            if (!useIPv4 && !isIPv4 && !addr.isLinkLocalAddress()) {
+               String sAddr = addr.getHostAddress().toUpperCase();
+               int delim = sAddr.indexOf('%'); // drop ip6 scope suffix
+               stringAddress = delim < 0 ? sAddr : sAddr.substring(0, delim);
+               break;
             }
          }
-         else {
-            RCLogger.i(TAG, "interface2Address(): Interface not matching or down: " + intf.toString() + " isUp: " + intf.isUp());
+         if (!stringAddress.isEmpty()) {
+            // if there are more candidate interfaces (like rmnet0 and rmnet1 both up) the first one having a suitable address wins
+            RCLogger.v(TAG, "interface2Address(): using interface: ", intf);
+            break;
          }
       }
 
-      // One issue that isn't 100% from resources around the web is whether the interface names are standard across Android flavours. We assume that cellular data will always be
-      // rmnet* and ethernet will always be eth*. To that end let's print out all the interfaces in case we cannot find an ip address for current network type so that we can troubleshoot
-      // right away in that unlikely event.
-      RCLogger.v(TAG, "interface2Address(): stringAddress: " + stringAddress + ", for currently active network: " + networkInterfacePrefix + ", interfaces: " + interfaces.toString());
       if (stringAddress.isEmpty()) {
-         RCLogger.e(TAG, "Couldn't retrieve IP address for currently active network");
+         // One issue that isn't 100% from resources around the web is whether the interface names are standard across Android flavours. We assume that cellular data will always be
+         // rmnet* and ethernet will always be eth*. To that end let's print out all the interfaces in case we cannot find an ip address for current network type so that we can troubleshoot
+         // right away in that unlikely event.
+         RCLogger.e(TAG, "Couldn't retrieve IP address for currently active network: " + interfacePattern.pattern() + ", interfaces: ", interfaces);
       }
 
       return stringAddress;
    }
 
-   // -- Helpers
-   // TODO: Improve this, try to not depend on such low level facilities
+   // Resolve the local IP address for the currently active network. The result is cached until the next connectivity change
+   // (see invalidateIPAddress()), so that (re)binds don't need to enumerate the network interfaces every time
    public String getIPAddress(boolean useIPv4) throws SocketException
    {
+      JainSipNotificationManager.NetworkStatus networkStatus = jainSipNotificationManager.getNetworkStatus();
+      String cachedAddress = useIPv4 ? cachedIPv4Address : cachedIPv6Address;
+      if (cachedAddress != null && networkStatus == cachedAddressNetworkStatus) {
+         RCLogger.v(TAG, "getIPAddress(): " + cachedAddress + " (cached)");
+         return cachedAddress;
+      }
+
       String stringAddress = "";
-      if (jainSipNotificationManager.getNetworkStatus() == JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi) {
-         WifiManager wifiMgr = (WifiManager) androidContext.getSystemService(Context.WIFI_SERVICE);
-         WifiInfo wifiInfo = wifiMgr.getConnectionInfo();
-         int ip = wifiInfo.getIpAddress();
-         stringAddress = Formatter.formatIpAddress(ip);
+      if (networkStatus == JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi) {
+         if (useIPv4) {
+            WifiManager wifiMgr = (WifiManager) androidContext.getSystemService(Context.WIFI_SERVICE);
+            WifiInfo wifiInfo = wifiMgr.getConnectionInfo();
+            int ip = wifiInfo.getIpAddress();
+            stringAddress = Formatter.formatIpAddress(ip);
+         }
+         else {
+            // WifiInfo only knows about IPv4, need to go through the interface
+            stringAddress = interface2Address(useIPv4, WIFI_INTERFACE_PATTERN);
+         }
       }
 
-      if (jainSipNotificationManager.getNetworkStatus() == JainSipNotificationManager.NetworkStatus.NetworkStatusCellular) {
+      if (networkStatus == JainSipNotificationManager.NetworkStatus.NetworkStatusCellular) {
          if (Build.FINGERPRINT.contains("generic")) {
             // Emulator; when using emulator, network access is provided via Cellular interface (no idea why this happens instead of ConnectivityManager.TYPE_ETHERNET)
-            // but the actual interface name is usually 'eth0', so let's pass that as well in the network interface prefix argument
-            stringAddress = interface2Address(useIPv4, "(rmnet|eth)");
+            // but the actual interface name is usually 'eth0', so let's pass that as well in the network interface pattern argument
+            stringAddress = interface2Address(useIPv4, EMULATOR_CELLULAR_INTERFACE_PATTERN);
          }
          else {
             // Real device
-            stringAddress = interface2Address(useIPv4, "rmnet");
+            stringAddress = interface2Address(useIPv4, CELLULAR_INTERFACE_PATTERN);
          }
       }
 
-      if (jainSipNotificationManager.getNetworkStatus() == JainSipNotificationManager.NetworkStatus.NetworkStatusEthernet) {
-         stringAddress = interface2Address(useIPv4, "eth");
+      if (networkStatus == JainSipNotificationManager.NetworkStatus.NetworkStatusEthernet) {
+         stringAddress = interface2Address(useIPv4, ETHERNET_INTERFACE_PATTERN);
+      }
+
+      // don't cache failures, so that we retry next time around
+      if (!stringAddress.isEmpty()) {
+         if (networkStatus != cachedAddressNetworkStatus) {
+            invalidateIPAddress();
+            cachedAddressNetworkStatus = networkStatus;
+         }
+         if (useIPv4) {
+            cachedIPv4Address = stringAddress;
+         }
+         else {
+            cachedIPv6Address = stringAddress;
+         }
       }
 
       RCLogger.v(TAG, "getIPAddress(): " + stringAddress);
       return stringAddress;
    }
 
+   // Forget the cached local IP addresses; needs to be called whenever the active network changes
+   void invalidateIPAddress()
+   {
+      cachedIPv4Address = null;
+      cachedIPv6Address = null;
+      cachedAddressNetworkStatus = null;
+   }
+
    private void updateViaReceivedAndRport(ViaHeader viaHeader)
    {
       // keep around the Via received and rport parms so that we can populate the contact properly
@@ -183,7 +183,7 @@ class JainSipJob {
 
                         if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                           updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                         }
                         else {
                            // No Domain there we are done here
@@ -241,7 +241,7 @@ class JainSipJob {
 
                   if (states[index].equals(FsmStates.REGISTER)) {
                      try {
-                        transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                        updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                      }
                      catch (JainSipException e) {
                         e.printStackTrace();
@@ -278,7 +278,7 @@ class JainSipJob {
                else if (type == Type.TYPE_CLOSE) {
                   if (states[index].equals(FsmStates.UNREGISTER)) {
                      try {
-                        transaction = jainSipClient.jainSipClientUnregister(parameters);
+                        updateTransaction(jainSipClient.jainSipClientUnregister(parameters));
                         final String finalId = jobId;
 
                         // Schedule a check to see if we managed to close the signaling facilities. If not then we need to force closing.
@@ -397,7 +397,7 @@ class JainSipJob {
                         if (((HashMap<String, Object>) parameters.get("old-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                               !((HashMap<String, Object>) parameters.get("old-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters"));
+                           updateTransaction(jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters")));
                         }
                         else {
                            // No Domain, need to loop through to next step
@@ -446,7 +446,7 @@ class JainSipJob {
                            if (((HashMap<String, Object>) parameters.get("new-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                                  !((HashMap<String, Object>) parameters.get("new-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                               // Domain has been provided do the registration
-                              transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters"));
+                              updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters")));
                            }
                            else {
                               // No domain, need to loop through to next step
@@ -500,7 +500,7 @@ class JainSipJob {
                         if (((HashMap<String, Object>) parameters.get("old-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                               !((HashMap<String, Object>) parameters.get("old-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters"));
+                           updateTransaction(jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters")));
                         }
                         else {
                            // No domain, need to loop through to next step
@@ -553,7 +553,7 @@ class JainSipJob {
                            if (((HashMap<String, Object>) parameters.get("new-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                                  !((HashMap<String, Object>) parameters.get("new-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                               // Domain has been provided do the registration
-                              transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters"));
+                              updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters")));
                            }
                            else {
                               // No domain, need to loop through to next step
@@ -608,12 +608,13 @@ class JainSipJob {
 
                         if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                           updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                         }
                         else {
                            // No domain, need to loop through to next step
                            RCDeviceListener.RCConnectivityStatus connectivityStatus = (RCDeviceListener.RCConnectivityStatus) parameters.get("connectivity-status");
                            jainSipClient.listener.onClientConnectivityEvent(jobId, connectivityStatus);
+                           jainSipClient.notifyCallsOfHandover();
                            jainSipJobManager.remove(jobId);
                         }
                      }
@@ -644,6 +645,7 @@ class JainSipJob {
                      if (event.equals(FsmEvents.REGISTER_SUCCESS)) {
                         RCDeviceListener.RCConnectivityStatus connectivityStatus = (RCDeviceListener.RCConnectivityStatus) parameters.get("connectivity-status");
                         jainSipClient.listener.onClientConnectivityEvent(jobId, connectivityStatus);
+                        jainSipClient.notifyCallsOfHandover();
                         jainSipJobManager.remove(jobId);
                      }
                      if (event.equals(FsmEvents.REGISTER_FAILURE)) {
@@ -662,7 +664,7 @@ class JainSipJob {
                      return;
                   }
 
-                  RCLogger.i(TAG, "Job, TYPE_START_NETWORKING: " + this.toString());
+                  RCLogger.i(TAG, "Job, TYPE_START_NETWORKING: ", this);
                   if (states[index].equals(FsmStates.BIND_REGISTER)) {
                      // no need for connectivity check here, we know there is connectivity
                      try {
@@ -670,7 +672,7 @@ class JainSipJob {
 
                         if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                           updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                         }
                         else {
                            // No Domain there we are done here
@@ -804,9 +806,13 @@ class JainSipJob {
       }
    }
 
+   // Always go through here when replacing the job's transaction (never assign 'transaction' directly), so that the job manager
+   // can keep its Call-ID and branch-ID indexes in sync
    void updateTransaction(Transaction transaction)
    {
+      Transaction oldTransaction = this.transaction;
       this.transaction = transaction;
+      jainSipJobManager.reindex(this, oldTransaction);
    }
 
    // Should we retry authentication if previous failed? We retry a max of MAX_AUTH_ATTEMPTS
@@ -27,27 +27,40 @@ import android.javax.sip.header.CallIdHeader;
 
 import org.restcomm.android.sdk.util.RCLogger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 // Handles live JAIN SIP transactions. Each transaction is stored in 'transactions' map identified by an 'id' provided by the caller (in our RCDevice or RCConnection)
-// and keeps information such as the JAIN SIP Transaction (Client or Server) amongst other things
+// and keeps information such as the JAIN SIP Transaction (Client or Server) amongst other things. Jobs are also indexed by the
+// SIP Call-ID and branch-ID of their current transaction, so that matching incoming requests/responses to jobs doesn't need to
+// go through all of them
 class JainSipJobManager {
    // TODO: consider using interface instead
    JainSipClient jainSipClient;
    HashMap<String, JainSipJob> jobs;
+   // secondary indexes, kept in sync on add(), remove() and whenever a job's transaction is replaced (see reindex())
+   private HashMap<String, JainSipJob> jobsByCallId;
+   private HashMap<String, JainSipJob> jobsByBranchId;
    private static final String TAG = "JainSipJobManager";
 
    JainSipJobManager(JainSipClient jainSipClient)
    {
       this.jainSipClient = jainSipClient;
       jobs = new HashMap<>();
+      jobsByCallId = new HashMap<>();
+      jobsByBranchId = new HashMap<>();
    }
 
    JainSipJob add(String jobId, JainSipJob.Type type, Transaction transaction, HashMap<String, Object> parameters, JainSipCall jainSipCall)
    {
       JainSipJob jainSipJob = new JainSipJob(this, jainSipClient, jobId, type, transaction, parameters, jainSipCall);
-      jobs.put(jobId, jainSipJob);
+      JainSipJob previousJob = jobs.put(jobId, jainSipJob);
+      if (previousJob != null) {
+         RCLogger.w(TAG, "add(): job with id: " + jobId + " already exists, replacing it");
+         unindex(previousJob, previousJob.transaction);
+      }
+      index(jainSipJob, transaction);
 
       if (jainSipJob.hasFsm()) {
          jainSipJob.startFsm();
@@ -78,42 +91,101 @@ class JainSipJobManager {
 
    JainSipJob getByBranchId(String branchId)
    {
-      for (Map.Entry<String, JainSipJob> entry : jobs.entrySet()) {
-         JainSipJob job = entry.getValue();
-         if (job.transaction.getBranchId().equals(branchId)) {
-            return job;
-         }
+      if (branchId == null) {
+         return null;
       }
-      return null;
+      return jobsByBranchId.get(branchId);
    }
 
    JainSipJob getByCallId(String callId)
    {
-      for (Map.Entry<String, JainSipJob> entry : jobs.entrySet()) {
-         JainSipJob job = entry.getValue();
-
-         if (job.transaction == null) {
-            RCLogger.w(TAG, "getByCallId(): " + callId + ", \njob: " + job + ", \ntransaction is null, check if legit");
-            continue;
-         }
+      if (callId == null) {
+         return null;
+      }
+      return jobsByCallId.get(callId);
+   }
 
-         if (((CallIdHeader)job.transaction.getRequest().getHeader("Call-ID")).getCallId().equals(callId)) {
-            return job;
+   List<JainSipJob> getByType(JainSipJob.Type type)
+   {
+      List<JainSipJob> result = new ArrayList<>();
+      for (JainSipJob jainSipJob : jobs.values()) {
+         if (jainSipJob.type == type) {
+            result.add(jainSipJob);
          }
       }
-      return null;
+      return result;
    }
 
    void remove(String jobId)
    {
-      if (jobs.containsKey(jobId)) {
-         jobs.remove(jobId);
+      JainSipJob jainSipJob = jobs.remove(jobId);
+      if (jainSipJob != null) {
+         unindex(jainSipJob, jainSipJob.transaction);
       }
    }
 
    void removeAll()
    {
       jobs.clear();
+      jobsByCallId.clear();
+      jobsByBranchId.clear();
+   }
+
+   // Called by JainSipJob when its transaction is replaced (for example when re-sending a request after authentication), to move
+   // the job from the old transaction's index entries to the new ones
+   void reindex(JainSipJob jainSipJob, Transaction oldTransaction)
+   {
+      if (jobs.get(jainSipJob.jobId) != jainSipJob) {
+         // job not (or no longer) managed by us, nothing to index
+         return;
+      }
+      unindex(jainSipJob, oldTransaction);
+      index(jainSipJob, jainSipJob.transaction);
+   }
+
+   private void index(JainSipJob jainSipJob, Transaction transaction)
+   {
+      if (transaction == null) {
+         return;
+      }
+
+      String callId = getCallId(transaction);
+      if (callId != null) {
+         jobsByCallId.put(callId, jainSipJob);
+      }
+      String branchId = transaction.getBranchId();
+      if (branchId != null) {
+         jobsByBranchId.put(branchId, jainSipJob);
+      }
+   }
+
+   private void unindex(JainSipJob jainSipJob, Transaction transaction)
+   {
+      if (transaction == null) {
+         return;
+      }
+
+      // only remove index entries that still point to this job; another job might have taken them over in the meantime
+      String callId = getCallId(transaction);
+      if (callId != null && jobsByCallId.get(callId) == jainSipJob) {
+         jobsByCallId.remove(callId);
+      }
+      String branchId = transaction.getBranchId();
+      if (branchId != null && jobsByBranchId.get(branchId) == jainSipJob) {
+         jobsByBranchId.remove(branchId);
+      }
+   }
+
+   private static String getCallId(Transaction transaction)
+   {
+      if (transaction.getRequest() == null) {
+         return null;
+      }
+      CallIdHeader callIdHeader = (CallIdHeader) transaction.getRequest().getHeader(CallIdHeader.NAME);
+      if (callIdHeader == null) {
+         return null;
+      }
+      return callIdHeader.getCallId();
    }
 
    String getPrintableJobs()
@@ -76,12 +76,58 @@ class JainSipMessageBuilder {
    private static final int MAX_FORWARDS = 70;
    private static final String USERAGENT_STRING = "TelScale Restcomm Android Client " + BuildConfig.VERSION_NAME + "#" + BuildConfig.VERSION_CODE; //"TelScale Restcomm Android Client 1.0.0-BETA4#20";
 
+   // Headers that stay the same for all requests of a registration (i.e. same username, domain and listening point). Building them involves
+   // parsing URIs which is a big part of the cost of building a request, so we parse them once and clone them for each new request.
+   // Template is dropped on rebind (see initialize()) and reconfigure (see invalidateTemplates())
+   private static class RequestTemplate {
+      final String username;
+      final String domain;
+      final String localAddress;
+      final int localPort;
+      final String transport;
+      Address fromAddress;
+      // only for REGISTER
+      URI registerRequestUri;
+      // null when registrar-less
+      RouteHeader routeHeader;
+      // contact string -> Contact header; contact depends on Via received/rport and on the registering domain (only REGISTER has it)
+      HashMap<String, ContactHeader> contactHeaders = new HashMap<>();
+
+      RequestTemplate(String username, String domain, ListeningPoint listeningPoint)
+      {
+         this.username = username;
+         this.domain = domain;
+         this.localAddress = listeningPoint.getIPAddress();
+         this.localPort = listeningPoint.getPort();
+         this.transport = listeningPoint.getTransport();
+      }
+
+      boolean matches(String username, String domain, ListeningPoint listeningPoint)
+      {
+         return equals(this.username, username) && equals(this.domain, domain) && equals(localAddress, listeningPoint.getIPAddress()) &&
+               localPort == listeningPoint.getPort() && equals(transport, listeningPoint.getTransport());
+      }
+
+      private static boolean equals(String a, String b)
+      {
+         return (a == null) ? b == null : a.equals(b);
+      }
+   }
+
+   private RequestTemplate requestTemplate;
+   // same for the whole lifetime of the builder
+   private UserAgentHeader userAgentHeader;
+   // domain SIP URI -> host, see sipUri2IpAddress()
+   private HashMap<String, String> domainHosts = new HashMap<>();
+
    void initialize(SipFactory sipFactory, SipProvider provider) throws PeerUnavailableException
    {
       jainSipHeaderFactory = sipFactory.createHeaderFactory();
       jainSipAddressFactory = sipFactory.createAddressFactory();
       jainSipMessageFactory = sipFactory.createMessageFactory();
       jainSipProvider = provider;
+      // we are (re)binding, so listening point has most likely changed
+      invalidateTemplates();
    }
 
    void shutdown()
@@ -89,6 +135,15 @@ class JainSipMessageBuilder {
       jainSipHeaderFactory = null;
       jainSipAddressFactory = null;
       jainSipMessageFactory = null;
+      invalidateTemplates();
+   }
+
+   // Drop pre-parsed headers; needs to be called when any of the parameters used to build them might have changed (i.e. reconfigure)
+   void invalidateTemplates()
+   {
+      requestTemplate = null;
+      userAgentHeader = null;
+      domainHosts.clear();
    }
 
    public HeaderFactory getHeaderFactory()
@@ -100,26 +155,21 @@ class JainSipMessageBuilder {
    private Request buildBaseRequest(String method, String username, String domain, String toSipUri, ListeningPoint listeningPoint, HashMap<String, Object> clientContext) throws JainSipException
    {
       try {
-         String fromSipUri;
-         // Add route header with the proxy first, if proxy exists (i.e. )
-         if (domain != null && !domain.equals("")) {
-            // non registrar-less; use username@domain logic
-            fromSipUri = "sip:" + username + "@" + sipUri2IpAddress(domain);
-         }
-         else {
-            // registrar-less
-            fromSipUri = "sip:" + username + "@" + listeningPoint.getIPAddress();
-         }
-
-         Address fromAddress = jainSipAddressFactory.createAddress(fromSipUri);
-         fromAddress.setDisplayName(username);
+         RequestTemplate template = getRequestTemplate(username, domain, listeningPoint);
+         Address fromAddress = (Address) template.fromAddress.clone();
 
          Address toAddress;
          URI requestUri;
          if (method.equals(Request.REGISTER)) {
             // register
             toAddress = fromAddress;
-            requestUri = jainSipAddressFactory.createAddress(domain).getURI();
+            if (template.registerRequestUri != null) {
+               requestUri = (URI) template.registerRequestUri.clone();
+            }
+            else {
+               // no domain to register to; let the parser report it
+               requestUri = jainSipAddressFactory.createAddress(domain).getURI();
+            }
          }
          else {
             // non register
@@ -139,9 +189,8 @@ class JainSipMessageBuilder {
                jainSipHeaderFactory.createMaxForwardsHeader(MAX_FORWARDS));
 
          // Add route header with the proxy first, if proxy exists (i.e. non registrar-less)
-         if (domain != null && !domain.equals("")) {
-            RouteHeader routeHeader = createRouteHeader(domain);
-            request.addFirst(routeHeader);
+         if (template.routeHeader != null) {
+            request.addFirst((RouteHeader) template.routeHeader.clone());
          }
 
          // Only pass registering domain non null in register requests
@@ -150,10 +199,7 @@ class JainSipMessageBuilder {
             registeringDomain = domain;
          }
 
-         Address contactAddress = createContactAddress(listeningPoint, registeringDomain, clientContext);
-         ContactHeader contactHeader = jainSipHeaderFactory.createContactHeader(contactAddress);
-
-         request.addHeader(contactHeader);
+         request.addHeader(getContactHeader(template, listeningPoint, registeringDomain, clientContext));
          request.addHeader(createUserAgentHeader());
 
          return request;
@@ -182,6 +228,45 @@ class JainSipMessageBuilder {
       }
    }
 
+   // Return the template for the given registration, building it if needed
+   private RequestTemplate getRequestTemplate(String username, String domain, ListeningPoint listeningPoint) throws ParseException, JainSipException
+   {
+      if (requestTemplate != null && requestTemplate.matches(username, domain, listeningPoint)) {
+         return requestTemplate;
+      }
+
+      RCLogger.v(TAG, "getRequestTemplate(): building request template");
+      RequestTemplate template = new RequestTemplate(username, domain, listeningPoint);
+      String fromSipUri;
+      if (domain != null && !domain.equals("")) {
+         // non registrar-less; use username@domain logic
+         fromSipUri = "sip:" + username + "@" + sipUri2IpAddress(domain);
+         template.registerRequestUri = jainSipAddressFactory.createAddress(domain).getURI();
+         template.routeHeader = createRouteHeader(domain);
+      }
+      else {
+         // registrar-less
+         fromSipUri = "sip:" + username + "@" + listeningPoint.getIPAddress();
+      }
+      template.fromAddress = jainSipAddressFactory.createAddress(fromSipUri);
+      template.fromAddress.setDisplayName(username);
+
+      requestTemplate = template;
+      return template;
+   }
+
+   private ContactHeader getContactHeader(RequestTemplate template, ListeningPoint listeningPoint, String registeringDomain, HashMap<String, Object> clientContext)
+         throws ParseException, JainSipException
+   {
+      String contactString = getContactString(listeningPoint, registeringDomain, clientContext);
+      ContactHeader contactHeader = template.contactHeaders.get(contactString);
+      if (contactHeader == null) {
+         contactHeader = jainSipHeaderFactory.createContactHeader(jainSipAddressFactory.createAddress(contactString));
+         template.contactHeaders.put(contactString, contactHeader);
+      }
+      return (ContactHeader) contactHeader.clone();
+   }
+
    public Request buildRegisterRequest(ListeningPoint listeningPoint, int expires, HashMap<String, Object> parameters) throws JainSipException
    {
       try {
@@ -315,6 +400,36 @@ class JainSipMessageBuilder {
       }
    }
 
+   public Request buildReinviteRequest(android.javax.sip.Dialog dialog, String sdp, ListeningPoint listeningPoint, HashMap<String, Object> clientConfiguration,
+                                       HashMap<String, Object> clientContext) throws JainSipException
+   {
+      try {
+         Request request = dialog.createRequest(Request.INVITE);
+         request.addHeader(createUserAgentHeader());
+         // we might be on a different network interface than when the dialog was established, so let the peer know where to reach us from now on
+         ContactHeader contactHeader = jainSipHeaderFactory.createContactHeader(createContactAddress(listeningPoint, null, clientContext));
+         request.setHeader(contactHeader);
+         if (clientConfiguration.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
+               !clientConfiguration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
+            // same as with Bye, see buildByeRequest()
+            RouteHeader routeHeader = createRouteHeader((String) clientConfiguration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN));
+            request.addFirst(routeHeader);
+         }
+
+         ContentTypeHeader contentTypeHeader = jainSipHeaderFactory.createContentTypeHeader("application", "sdp");
+         request.setContent(sdp.getBytes(), contentTypeHeader);
+
+         return request;
+      }
+      catch (JainSipException e) {
+         throw e;
+      }
+      catch (Exception e) {
+         throw new JainSipException(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_CONNECTION_COULD_NOT_CONNECT), e);
+      }
+   }
+
    public Request buildDtmfInfoRequest(android.javax.sip.Dialog dialog, String digits) throws JainSipException
    {
       try {
@@ -400,7 +515,7 @@ class JainSipMessageBuilder {
       Response response;
       try {
          response = jainSipMessageFactory.createResponse(200, request);
-         RCLogger.v(TAG, "Sending SIP response: \n" + response.toString());
+         RCLogger.v(TAG, "Sending SIP response: \n", response);
          return response;
       } catch (ParseException e) {
          throw new RuntimeException("Error creating 200 OK");
@@ -492,12 +607,19 @@ class JainSipMessageBuilder {
       }
    }
 
-   // convert sip uri, like  sip:cloud.restcomm.com:5060 -> cloud.restcomm.com
+   // convert sip uri, like  sip:cloud.restcomm.com:5060 -> cloud.restcomm.com. Results are cached since the domain rarely changes
    public String sipUri2IpAddress(String sipUri) throws ParseException, JainSipException
    {
+      String host = domainHosts.get(sipUri);
+      if (host != null) {
+         return host;
+      }
+
       try {
          Address address = jainSipAddressFactory.createAddress(sipUri);
-         return ((SipURI) address.getURI()).getHost();
+         host = ((SipURI) address.getURI()).getHost();
+         domainHosts.put(sipUri, host);
+         return host;
       }
       catch (ClassCastException e) {
          throw new JainSipException(RCClient.ErrorCodes.ERROR_DEVICE_REGISTER_URI_INVALID,
@@ -526,6 +648,11 @@ class JainSipMessageBuilder {
    public Address createContactAddress(ListeningPoint listeningPoint, String domain, HashMap<String, Object> clientContext) throws ParseException, JainSipException
    {
       RCLogger.i(TAG, "createContactAddress()");
+      return jainSipAddressFactory.createAddress(getContactString(listeningPoint, domain, clientContext));
+   }
+
+   private String getContactString(ListeningPoint listeningPoint, String domain, HashMap<String, Object> clientContext) throws ParseException, JainSipException
+   {
       int contactPort = listeningPoint.getPort();
       String contactIPAddress = listeningPoint.getIPAddress();
 
@@ -539,9 +666,7 @@ class JainSipMessageBuilder {
          }
       }
 
-      String contactString = getContactString(contactIPAddress, contactPort, listeningPoint.getTransport(), domain);
-
-      return jainSipAddressFactory.createAddress(contactString);
+      return getContactString(contactIPAddress, contactPort, listeningPoint.getTransport(), domain);
    }
 
    public String getContactString(ListeningPoint listeningPoint, String domain) throws ParseException, JainSipException
@@ -562,18 +687,20 @@ class JainSipMessageBuilder {
 
    public UserAgentHeader createUserAgentHeader()
    {
-      RCLogger.i(TAG, "createUserAgentHeader()");
-      List<String> userAgentTokens = new LinkedList<String>();
-      UserAgentHeader header = null;
-      userAgentTokens.add(USERAGENT_STRING);
-      try {
-         header = jainSipHeaderFactory.createUserAgentHeader(userAgentTokens);
-      }
-      catch (ParseException e) {
-         throw new RuntimeException("Error creating User Agent header", e);
+      // User-Agent never changes, so we only build it once and hand out clones
+      if (userAgentHeader == null) {
+         RCLogger.i(TAG, "createUserAgentHeader()");
+         List<String> userAgentTokens = new LinkedList<String>();
+         userAgentTokens.add(USERAGENT_STRING);
+         try {
+            userAgentHeader = jainSipHeaderFactory.createUserAgentHeader(userAgentTokens);
+         }
+         catch (ParseException e) {
+            throw new RuntimeException("Error creating User Agent header", e);
+         }
       }
 
-      return header;
+      return (UserAgentHeader) userAgentHeader.clone();
    }
 
    /*
@@ -24,6 +24,8 @@ package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
 import android.content.Context;
 
+import org.restcomm.android.sdk.util.RCLogger;
+
 import org.spongycastle.asn1.x509.BasicConstraints;
 import org.spongycastle.asn1.x509.ExtendedKeyUsage;
 import org.spongycastle.asn1.x509.GeneralName;
@@ -35,18 +37,24 @@ import org.spongycastle.jce.provider.BouncyCastleProvider;
 import org.spongycastle.x509.X509V3CertificateGenerator;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.SignatureException;
 import java.security.cert.X509Certificate;
 import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -56,12 +64,104 @@ import javax.security.auth.x500.X500Principal;
 
 public class JainSipSecurityHelper {
     private static final String TAG = "JainSipSecurityHelper";
+    // Suffix of the sidecar file where we keep what we need to decide if the on-disk keystore can be reused
+    private static final String KEYSTORE_METADATA_SUFFIX = ".meta";
+    // Bump this whenever the keystore layout changes, so that keystores created by older SDK versions get rebuilt
+    private static final String KEYSTORE_METADATA_VERSION = "1";
+    // Validity of our self signed certificate
+    private static final long CERTIFICATE_VALIDITY_MILLIS = 30L * 86400000;
+    // Rebuild the keystore if the certificate expires in less than that
+    private static final long CERTIFICATE_RENEWAL_MARGIN_MILLIS = 86400000;
 
     static {
         // IMPORTANT: make the SpongyCastle implementation take preference
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
     }
 
+    /*
+     * Return a usable keystore, reusing the one stored in the filesystem from a previous open (even across app restarts)
+     * if possible. Generating the keystore is costly (key pair generation, certificate signing and copy of the whole System
+     * Wide CA Store), so we only rebuild it if it's missing, if the System Wide CA Store has changed since it was created
+     * (i.e. CA certificates were added/removed/disabled) or if our certificate is about to expire
+     *
+     * @param context Android context
+     * @param filename Filename to use for storing the keystore
+     * @return HashMap containing keystore full path (key 'keystore-path') and keystore password (key 'keystore-password')
+     */
+    public static HashMap<String, String> loadOrGenerateKeystore(Context context, String filename)
+    {
+        long startTime = System.nanoTime();
+        File keystoreFile = new File(context.getFilesDir(), filename);
+        File metadataFile = new File(context.getFilesDir(), filename + KEYSTORE_METADATA_SUFFIX);
+
+        KeyStore CAks;
+        String CAFingerprint;
+        try {
+            CAks = KeyStore.getInstance("AndroidCAStore");
+            CAks.load(null);
+            CAFingerprint = fingerprintCAStore(CAks);
+        }
+        catch (Exception e) {
+            // can't figure out if CA Store changed, so we can't trust the cached keystore; let generateKeystore() deal with it
+            RCLogger.e(TAG, "loadOrGenerateKeystore(): failed to load System Wide CA Store", e);
+            return generateKeystore(context, filename);
+        }
+
+        Properties metadata = loadKeystoreMetadata(metadataFile);
+        String reason = null;
+        if (metadata == null || !keystoreFile.exists()) {
+            reason = "no cached keystore";
+        }
+        else if (!KEYSTORE_METADATA_VERSION.equals(metadata.getProperty("version"))) {
+            reason = "keystore version changed";
+        }
+        else if (!CAFingerprint.equals(metadata.getProperty("ca-fingerprint"))) {
+            reason = "System Wide CA Store changed";
+        }
+        else {
+            long notAfter = 0;
+            try {
+                notAfter = Long.parseLong(metadata.getProperty("certificate-not-after", "0"));
+            }
+            catch (NumberFormatException e) {
+                // treat as expired
+            }
+            if (notAfter - System.currentTimeMillis() < CERTIFICATE_RENEWAL_MARGIN_MILLIS) {
+                reason = "certificate about to expire";
+            }
+        }
+
+        if (reason == null && metadata.getProperty("keystore-password") != null) {
+            HashMap<String, String> parameters = new HashMap<String, String>();
+            parameters.put("keystore-password", metadata.getProperty("keystore-password"));
+            parameters.put("keystore-path", keystoreFile.getAbsolutePath());
+            RCLogger.i(TAG, "loadOrGenerateKeystore(): cache hit, took: " + elapsedMillis(startTime) + " ms");
+            return parameters;
+        }
+
+        RCLogger.i(TAG, "loadOrGenerateKeystore(): cache " + (metadata == null ? "miss" : "stale") + " (" + reason + "), lookup took: " +
+                elapsedMillis(startTime) + " ms; rebuilding keystore");
+
+        // remove metadata first so that if anything goes wrong below we don't end up trusting a half written keystore
+        metadataFile.delete();
+
+        long rebuildStartTime = System.nanoTime();
+        long notAfter = System.currentTimeMillis() + CERTIFICATE_VALIDITY_MILLIS;
+        HashMap<String, String> parameters = generateKeystore(keystoreFile, CAks, new Date(notAfter));
+        if (parameters.containsKey("keystore-path")) {
+            Properties newMetadata = new Properties();
+            newMetadata.setProperty("version", KEYSTORE_METADATA_VERSION);
+            newMetadata.setProperty("keystore-password", parameters.get("keystore-password"));
+            newMetadata.setProperty("ca-fingerprint", CAFingerprint);
+            newMetadata.setProperty("certificate-not-after", Long.toString(notAfter));
+            storeKeystoreMetadata(metadataFile, newMetadata);
+        }
+        RCLogger.i(TAG, "loadOrGenerateKeystore(): keystore rebuild took: " + elapsedMillis(rebuildStartTime) + " ms, total: " +
+                elapsedMillis(startTime) + " ms");
+
+        return parameters;
+    }
+
     /*
      * Create custom keystore, generate key and certificate and add them to it for use in encryption, etc, and in the end
      * also add to the keystore all the trusted certificates from the System Wide Android CA Store, so that we properly accept
@@ -72,6 +172,20 @@ public class JainSipSecurityHelper {
      * @return HashMap containing keystore full path (key 'keystore-path') and keystore password (key 'keystore-password')
      */
     public static HashMap<String, String> generateKeystore(Context context, String filename)
+    {
+        try {
+            KeyStore CAks = KeyStore.getInstance("AndroidCAStore");
+            CAks.load(null);
+            return generateKeystore(new File(context.getFilesDir(), filename), CAks,
+                    new Date(System.currentTimeMillis() + CERTIFICATE_VALIDITY_MILLIS));
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        return new HashMap<String, String>();
+    }
+
+    private static HashMap<String, String> generateKeystore(File keystoreFile, KeyStore CAks, Date notAfter)
     {
         HashMap<String, String> parameters = new HashMap<String, String>();
         try {
@@ -89,7 +203,7 @@ public class JainSipSecurityHelper {
             KeyPair kp = kpg.generateKeyPair();
 
             // Generate actual X509v3 certificate
-            X509Certificate cert = generateCertificate(kp);
+            X509Certificate cert = generateCertificate(kp, notAfter);
             X509Certificate[] certs = new X509Certificate[1];
             certs[0] = cert;
 
@@ -98,8 +212,6 @@ public class JainSipSecurityHelper {
 
             // Copy all trusted CA certs from System Wide keystore to our custom keystore, so that JAIN sip can properly
             // trust servers it talks to
-            KeyStore CAks = KeyStore.getInstance("AndroidCAStore");
-            CAks.load(null);
             Enumeration<String> aliases = CAks.aliases();
             while (aliases.hasMoreElements()) {
                 String alias = aliases.nextElement();
@@ -107,7 +219,6 @@ public class JainSipSecurityHelper {
             }
 
             // Save keystore in filesystem and retrieve path so that JAIN SIP can access it
-            File keystoreFile = new File(context.getFilesDir(), filename);
             FileOutputStream outputStream = new FileOutputStream(keystoreFile);
             ks.store(outputStream, parameters.get("keystore-password").toCharArray());
             outputStream.close();
@@ -119,6 +230,86 @@ public class JainSipSecurityHelper {
         return parameters;
     }
 
+    // Compute a fingerprint of the System Wide CA Store contents. Aliases in AndroidCAStore are derived from the subject
+    // hash of each certificate and are prefixed with 'system:' or 'user:', so hashing the sorted aliases is enough to detect
+    // additions/removals without having to parse every certificate
+    private static String fingerprintCAStore(KeyStore CAks) throws KeyStoreException
+    {
+        ArrayList<String> aliases = Collections.list(CAks.aliases());
+        Collections.sort(aliases);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String alias : aliases) {
+                digest.update(alias.getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            }
+            return new BigInteger(1, digest.digest()).toString(16);
+        }
+        catch (Exception e) {
+            throw new KeyStoreException("Failed to fingerprint CA Store", e);
+        }
+    }
+
+    private static Properties loadKeystoreMetadata(File metadataFile)
+    {
+        if (!metadataFile.exists()) {
+            return null;
+        }
+
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(metadataFile);
+            Properties metadata = new Properties();
+            metadata.load(inputStream);
+            return metadata;
+        }
+        catch (IOException e) {
+            RCLogger.w(TAG, "loadKeystoreMetadata(): failed to read keystore metadata", e);
+            return null;
+        }
+        finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Notice that the keystore password is kept in app private storage right next to the keystore itself, which doesn't
+    // weaken anything compared to before: the keystore only holds our self signed certificate and public CA certs
+    private static void storeKeystoreMetadata(File metadataFile, Properties metadata)
+    {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(metadataFile);
+            metadata.store(outputStream, "Restcomm Android SDK keystore metadata");
+        }
+        catch (IOException e) {
+            RCLogger.w(TAG, "storeKeystoreMetadata(): failed to write keystore metadata, keystore will be rebuilt on next open", e);
+            metadataFile.delete();
+        }
+        finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static long elapsedMillis(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
     /*
     // Sets up TLS keystore and return a full path to it, usable by JAIN
     private String setupTls(Context context)
@@ -163,6 +354,12 @@ public class JainSipSecurityHelper {
     // generate X509 V3 Certificate
     public static X509Certificate generateCertificate(KeyPair pair)
             throws InvalidKeyException, NoSuchProviderException, SignatureException
+    {
+        return generateCertificate(pair, new Date(System.currentTimeMillis() + CERTIFICATE_VALIDITY_MILLIS));
+    }
+
+    public static X509Certificate generateCertificate(KeyPair pair, Date notAfter)
+            throws InvalidKeyException, NoSuchProviderException, SignatureException
     {
         // generate the certificate
         X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
@@ -170,8 +367,8 @@ public class JainSipSecurityHelper {
         certGen.setSerialNumber(BigInteger.valueOf(System.currentTimeMillis()));
         certGen.setIssuerDN(new X500Principal("CN=Restcomm Android SDK"));
         certGen.setNotBefore(new Date(System.currentTimeMillis() - 50000));
-        // TODO: using 1 day for now, need to increase that
-        certGen.setNotAfter(new Date(System.currentTimeMillis() + 86400000));
+        // keystore is now cached across opens, so validity needs to be long enough for the cache to be useful
+        certGen.setNotAfter(notAfter);
         certGen.setSubjectDN(new X500Principal("CN=Restcomm Android SDK"));
         certGen.setPublicKey(pair.getPublic());
         certGen.setSignatureAlgorithm("SHA1withECDSA");
@@ -30,8 +30,11 @@ import org.restcomm.android.sdk.RCClient;
 import org.restcomm.android.sdk.RCDeviceListener;
 //import org.restcomm.android.sdk.RCMessage;
 import org.restcomm.android.sdk.util.RCLogger;
+import org.restcomm.android.sdk.util.RCUtils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * SignalingClient is a singleton that provides asynchronous access to lower level signaling facilities. Requests are sent via methods
@@ -115,6 +118,12 @@ public class SignalingClient extends Handler {
       void onCallIncomingCanceledEvent(String jobId);
 
       void onCallSentDigitsEvent(String jobId, RCClient.ErrorCodes statusCode, String statusText);
+
+      // re-INVITE sent with reinvite() completed; sdpAnswer is only set on success
+      void onCallReinviteEvent(String jobId, String sdpAnswer, RCClient.ErrorCodes statusCode, String statusText);
+
+      // signaling moved to a new network interface while the call was up
+      void onCallNetworkHandoverEvent(String jobId);
    }
 
    // ------ Not used yet, we 'll use it when we introduce the new messaging API
@@ -245,6 +254,19 @@ public class SignalingClient extends Handler {
       message.sendToTarget();
    }
 
+   /**
+    * Send a re-INVITE over an existing call, to update the session with a new offer (for example to restart ICE after a network handover)
+    * @param jobId Unique identifier to identify future replies & events
+    * @param parameters Re-INVITE parameters, for now just the 'sdp' offer
+    */
+   public void reinvite(String jobId, HashMap<String, Object> parameters)
+   {
+      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_REINVITE_REQUEST);
+      signalingMessage.setParameters(parameters);
+      Message message = signalingHandler.obtainMessage(1, signalingMessage);
+      message.sendToTarget();
+   }
+
    /**
     * Send text message to peer
     * @param parameters
@@ -264,6 +286,27 @@ public class SignalingClient extends Handler {
       return jobId;
    }
 
+   /**
+    * Send many text messages in one go; they are pipelined by the signaling thread and replied individually via onMessageReply()
+    * @param parametersList parameters for each message, like for sendMessage()
+    * @return job ids, one for each message
+    */
+   public List<String> sendMessages(List<HashMap<String, Object>> parametersList)
+   {
+      List<String> jobIds = new ArrayList<>(parametersList.size());
+      for (int i = 0; i < parametersList.size(); i++) {
+         jobIds.add(generateId());
+      }
+
+      SignalingMessage signalingMessage = new SignalingMessage(jobIds.isEmpty() ? generateId() : jobIds.get(0), SignalingMessage.MessageType.MESSAGE_BATCH_REQUEST);
+      signalingMessage.batchJobIds = jobIds;
+      signalingMessage.batchParameters = parametersList;
+      Message message = signalingHandler.obtainMessage(1, signalingMessage);
+      message.sendToTarget();
+
+      return jobIds;
+   }
+
    /**
     * Release the signaling facilities
     * @return
@@ -363,6 +406,14 @@ public class SignalingClient extends Handler {
          SignalingClientCallListener callListener = listener.getConnectionByJobId(message.jobId);
          callListener.onCallSentDigitsEvent(message.jobId, message.status, message.text);
       }
+      else if (message.type == SignalingMessage.MessageType.CALL_REINVITE_EVENT) {
+         SignalingClientCallListener callListener = listener.getConnectionByJobId(message.jobId);
+         callListener.onCallReinviteEvent(message.jobId, message.sdp, message.status, message.text);
+      }
+      else if (message.type == SignalingMessage.MessageType.CALL_NETWORK_HANDOVER_EVENT) {
+         SignalingClientCallListener callListener = listener.getConnectionByJobId(message.jobId);
+         callListener.onCallNetworkHandoverEvent(message.jobId);
+      }
       else {
          RCLogger.e(TAG, "handleSignalingMessage(): no handler for signaling message");
       }
@@ -374,6 +425,6 @@ public class SignalingClient extends Handler {
    // Generate unique identifier for 'transactions' created by SignalingClient, this can then be used as call-id when it enters JAIN SIP
    private String generateId()
    {
-      return Long.toString(System.currentTimeMillis());
+      return RCUtils.generateUniqueId();
    }
 }
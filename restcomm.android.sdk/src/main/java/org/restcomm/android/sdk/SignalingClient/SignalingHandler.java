@@ -92,9 +92,15 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
       else if (message.type == SignalingMessage.MessageType.MESSAGE_REQUEST) {
          jainSipClient.sendMessage(message.jobId, message.parameters);
       }
+      else if (message.type == SignalingMessage.MessageType.MESSAGE_BATCH_REQUEST) {
+         jainSipClient.sendMessages(message.batchJobIds, message.batchParameters);
+      }
       else if (message.type == SignalingMessage.MessageType.CALL_SEND_DIGITS_REQUEST) {
          jainSipClient.sendDigits(message.jobId, message.dtmfDigits);
       }
+      else if (message.type == SignalingMessage.MessageType.CALL_REINVITE_REQUEST) {
+         jainSipClient.reinvite(message.jobId, message.parameters, this);
+      }
    }
 
    // -- JainSipClientListener events
@@ -274,4 +280,23 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
+
+   public void onCallReinviteEvent(String jobId, String sdpAnswer, RCClient.ErrorCodes status, String text)
+   {
+      RCLogger.v(TAG, "onCallReinviteEvent: jobId: " + jobId + ", status: " + status + ", text: " + text + ", sdpAnswer: " + sdpAnswer);
+      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_REINVITE_EVENT);
+      signalingMessage.sdp = sdpAnswer;
+      signalingMessage.status = status;
+      signalingMessage.text = text;
+      Message message = uiHandler.obtainMessage(1, signalingMessage);
+      message.sendToTarget();
+   }
+
+   public void onCallNetworkHandoverEvent(String jobId)
+   {
+      RCLogger.v(TAG, "onCallNetworkHandoverEvent: jobId: " + jobId);
+      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_NETWORK_HANDOVER_EVENT);
+      Message message = uiHandler.obtainMessage(1, signalingMessage);
+      message.sendToTarget();
+   }
 }
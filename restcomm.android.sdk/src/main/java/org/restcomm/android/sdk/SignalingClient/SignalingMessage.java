@@ -28,6 +28,7 @@ import org.restcomm.android.sdk.RCClient;
 import org.restcomm.android.sdk.RCDeviceListener;
 
 import java.util.HashMap;
+import java.util.List;
 
 // Structure signaling messages exchanged between UI and signaling thread
 public class SignalingMessage {
@@ -55,8 +56,12 @@ public class SignalingMessage {
       CALL_INCOMING_CANCELED_EVENT,
       CALL_SEND_DIGITS_REQUEST,
       CALL_SEND_DIGITS_EVENT,
+      CALL_REINVITE_REQUEST,
+      CALL_REINVITE_EVENT,
+      CALL_NETWORK_HANDOVER_EVENT,
 
       MESSAGE_REQUEST,
+      MESSAGE_BATCH_REQUEST,
       MESSAGE_REPLY,
       MESSAGE_INCOMING_EVENT,
 
@@ -78,6 +83,9 @@ public class SignalingMessage {
    // incoming messages
    public String messageText;
    public String peer;
+   // batch of text messages: job id and parameters for each message
+   public List<String> batchJobIds;
+   public List<HashMap<String, Object>> batchParameters;
    // DTMF digits
    public String dtmfDigits;
    // reason for hunging up a call (to be added as SIP Reason Header)
@@ -22,6 +22,7 @@
 
 package org.restcomm.android.sdk.SignalingClient;
 
+import org.restcomm.android.sdk.MediaClient.util.SdpModel;
 import org.webrtc.IceCandidate;
 import org.webrtc.PeerConnection;
 import org.webrtc.SessionDescription;
@@ -29,8 +30,6 @@ import org.webrtc.SessionDescription;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class SignalingParameters {
    private static final String TAG = "SignalingParameters";
@@ -87,92 +86,30 @@ public class SignalingParameters {
       //this.answerIceCandidates = null;
    }
 
-   // combines offerSdp with iceCandidates and comes up with the full SDP
+   // combines offerSdp with iceCandidates and comes up with the full SDP. Candidates are placed in the m-section they belong to
+   // (as designated by their sdpMLineIndex), right after the 'a=rtcp:' line of the section, or at the end of the section if there's none
    public String generateSipSdp(SessionDescription offerSdp, List<IceCandidate> iceCandidates)
    {
-      // concatenate all candidates in one String
-      String audioCandidates = "";
-      String videoCandidates = "";
-      boolean isVideo = false;
-      for (IceCandidate candidate : iceCandidates) {
-         //Log.e(TAG, "@@@@ candidate.sdp: " + candidate.sdp);
-         // Remember that chrome distinguishes audio vs video with different names than FF.
-         // Chrome uses 'audio' while FF uses 'sdparta_0' for audio
-         // and chrome uses 'video' while FF uses 'sdparta_1' for video
-         if (candidate.sdpMid.equals("audio") || candidate.sdpMid.equals("sdparta_0")) {
-            audioCandidates += "a=" + candidate.sdp + "\r\n";
-         }
-         if (candidate.sdpMid.equals("video") || candidate.sdpMid.equals("sdparta_1")) {
-            videoCandidates += "a=" + candidate.sdp + "\r\n";
-            isVideo = true;
-         }
-      }
-      //Log.e(TAG, "@@@@ audio candidates: " + audioCandidates);
-      //Log.e(TAG, "@@@@ video candidates: " + videoCandidates);
-      //Log.e(TAG, "@@@@ Before replace: " + offerSdp.description);
-      // first, audio
-      // place the candidates after the 'a=rtcp:' string; use replace all because
-      // we are supporting both audio and video so more than one replacements will be made
-      //String resultString = offerSdp.description.replaceFirst("(a=rtcp:.*?\\r\\n)", "$1" + audioCandidates);
-
-      Matcher matcher = Pattern.compile("(a=rtcp:.*?\\r\\n)").matcher(offerSdp.description);
-      int index = 0;
-      StringBuffer stringBuffer = new StringBuffer();
-      while (matcher.find()) {
-         if (index == 0) {
-            // audio
-            matcher.appendReplacement(stringBuffer, "$1" + audioCandidates);
-         }
-         else {
-            // video
-            matcher.appendReplacement(stringBuffer, "$1" + videoCandidates);
-         }
-         index++;
-      }
-      matcher.appendTail(stringBuffer);
-
-      //Log.v(TAG, "@@@@ After replace: " + stringBuffer.toString());
-
-      return stringBuffer.toString();
+      SdpModel sdpModel = SdpModel.parse(offerSdp.description);
+      sdpModel.addCandidates(iceCandidates);
+      return sdpModel.toString();
    }
 
    // gets a full SDP and a. populates .iceCandidates with individual candidates, and
    // b. removes the candidates from the SDP string and returns it as .offerSdp
+   // Candidates get the sdpMid of the m-section they are found in (or the media type, like 'audio', if the section has no 'a=mid:')
+   // and its index as sdpMLineIndex
    public static SignalingParameters extractCandidates(SessionDescription sdp)
    {
       SignalingParameters params = new SignalingParameters();
-      params.iceCandidates = new LinkedList<IceCandidate>();
 
-      // first parse the candidates
-      // TODO: for video to work properly we need to do some more work to split the full SDP and differentiate candidates
-      // based on media type (i.e. audio vs. video)
-      //Matcher matcher = Pattern.compile("a=(candidate.*?)\\r\\n").matcher(sdp.description);
-      Matcher matcher = Pattern.compile("m=audio|m=video|a=(candidate.*)\\r\\n").matcher(sdp.description);
-      String collectionState = "none";
-      while (matcher.find()) {
-         if (matcher.group(0).equals("m=audio")) {
-            collectionState = "audio";
-            continue;
-         }
-         if (matcher.group(0).equals("m=video")) {
-            collectionState = "video";
-            continue;
-         }
-
-         IceCandidate iceCandidate = new IceCandidate(collectionState, 0, matcher.group(1));
-         params.iceCandidates.add(iceCandidate);
-      }
-
-      // remove candidates from SDP
-      params.offerSdp = new SessionDescription(sdp.type, sdp.description.replaceAll("a=candidate.*?\\r\\n", ""));
-
-      // remove candidates from SDP together with any 'end-of-candidates' a-line.
-      //params.offerSdp = new SessionDescription(sdp.type, sdp.description.replaceAll("a=candidate.*?\\r\\n", "").replaceAll("a=end-of-candidates.*?\\r\\n", ""));
+      SdpModel sdpModel = SdpModel.parse(sdp.description);
+      params.iceCandidates = sdpModel.removeCandidates();
+      params.offerSdp = new SessionDescription(sdp.type, sdpModel.toString());
 
       return params;
    }
 
-
    public void addIceCandidate(IceCandidate iceCandidate)
    {
       if (this.iceCandidates == null) {
@@ -26,11 +26,18 @@ import android.util.Log;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 public class RCLogger {
     private static int ALL = 8;
     private static int globalLevel = Log.ERROR;
 
+    // Patterns used by filter(), compiled once
+    private static final Pattern TURN_PASSWORD_PATTERN = Pattern.compile("turn-password=.*?, ");
+    private static final Pattern SIP_PASSWORD_PATTERN = Pattern.compile("pref_sip_password=.*?, ");
+    private static final Pattern SECRET_PATTERN = Pattern.compile("secret=.*?&");
+    private static final Pattern DOUBLE_NEW_LINE_PATTERN = Pattern.compile("\\n\\n");
+
     public static void setLogLevel(int level)
     {
         globalLevel = level;
@@ -90,6 +97,17 @@ public class RCLogger {
         }
     }
 
+    // Variants taking an extra argument that is appended to msg only if the log level is enabled, so that expensive
+    // toString() calls (like full SIP message serialization) are deferred and skipped altogether when the level is off,
+    // i.e.: RCLogger.i(TAG, "Received SIP request: \n", request) instead of RCLogger.i(TAG, "Received SIP request: \n" + request.toString()).
+    // Notice that if arg is a Throwable the (tag, msg, Throwable) variants are picked instead
+    public static void v(String tag, String msg, Object arg)
+    {
+        if (RCLogger.isVerboseEnabled()) {
+            Log.v(tag, filter(msg + arg));
+        }
+    }
+
     public static void d(String tag, String msg, Throwable t)
     {
         if (RCLogger.isDebugEnabled()) {
@@ -110,6 +128,13 @@ public class RCLogger {
         }
     }
 
+    public static void d(String tag, String msg, Object arg)
+    {
+        if (RCLogger.isDebugEnabled()) {
+            Log.d(tag, filter(msg + arg));
+        }
+    }
+
     public static void i(String tag, String msg, Throwable t)
     {
         if (RCLogger.isInfoEnabled()) {
@@ -124,6 +149,13 @@ public class RCLogger {
         }
     }
 
+    public static void i(String tag, String msg, Object arg)
+    {
+        if (RCLogger.isInfoEnabled()) {
+            Log.i(tag, filter(msg + arg));
+        }
+    }
+
     public static void w(String tag, String msg, Throwable t)
     {
         if (RCLogger.isWarnEnabled()) {
@@ -138,6 +170,13 @@ public class RCLogger {
         }
     }
 
+    public static void w(String tag, String msg, Object arg)
+    {
+        if (RCLogger.isWarnEnabled()) {
+            Log.w(tag, filter(msg + arg));
+        }
+    }
+
     public static void e(String tag, String msg, Throwable t)
     {
         if (RCLogger.isErrorEnabled()) {
@@ -152,6 +191,13 @@ public class RCLogger {
         }
     }
 
+    public static void e(String tag, String msg, Object arg)
+    {
+        if (RCLogger.isErrorEnabled()) {
+            Log.e(tag, filter(msg + arg));
+        }
+    }
+
     public static void wtf(String tag, String msg, Throwable t)
     {
         if (RCLogger.isAssertEnabled()) {
@@ -173,17 +219,30 @@ public class RCLogger {
     */
     private static String filter(String msg)
     {
-        // Remove sensitive information. If we want to add more sensitive data, here's where we need to filter it
-        msg = msg.replaceAll("turn-password=.*?, ", "turn-password=, ")  // turn password filtering
-              .replaceAll("pref_sip_password=.*?, ", "pref_sip_password=, ")  // SIP password
-              .replaceAll("secret=.*?&", "secret=&");  // for ICE/TURN url password
+        // Remove sensitive information. If we want to add more sensitive data, here's where we need to filter it. Notice that we
+        // only run the (more expensive) regex replacement if the plain text key is there in the first place
+        if (msg.contains("turn-password=")) {
+            msg = TURN_PASSWORD_PATTERN.matcher(msg).replaceAll("turn-password=, ");  // turn password filtering
+        }
+        if (msg.contains("pref_sip_password=")) {
+            msg = SIP_PASSWORD_PATTERN.matcher(msg).replaceAll("pref_sip_password=, ");  // SIP password
+        }
+        if (msg.contains("secret=")) {
+            msg = SECRET_PATTERN.matcher(msg).replaceAll("secret=&");  // for ICE/TURN url password
+        }
 
         //return msg.replaceAll("\"", "").replaceAll("\\r", "").replaceAll("", "");
         // Remove special carriage return characters that seem to not be allowed to be written in logcat.
         // WARNING: Also another VERY weird issue is that if we are logging full INVITE requests (together with SDP)
         // there is no SDP shown in logcat. And turns out there's an logcat issue when dealing with two consecutive new line characters
         // So to work around that we replace two new lines with one
-        return msg.replaceAll("\\r", "").replaceAll("\\n\\n", "\n");
+        if (msg.indexOf('\r') != -1) {
+            msg = msg.replace("\r", "");
+        }
+        if (msg.contains("\n\n")) {
+            msg = DOUBLE_NEW_LINE_PATTERN.matcher(msg).replaceAll("\n");
+        }
+        return msg;
     }
 
     // This isn't going to be used as we it forces the user to use it in order to obscure anything. So a new developer that might forget will still
@@ -27,12 +27,34 @@ import org.restcomm.android.sdk.RCConnection;
 import org.restcomm.android.sdk.RCDevice;
 
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * Various internal SDK utilities not to be directly used by App
  */
 public class RCUtils {
    private static final String TAG = "RCUtils";
+   // Last id handed out by generateUniqueId()
+   private static final AtomicLong lastUniqueId = new AtomicLong(0);
+
+   /*
+    * Generate a unique id to be used as signaling job id (and hence as SIP Call-ID for outgoing requests). Ids are still based on
+    * wall clock milliseconds like before, but are strictly increasing, so that ids minted in the same millisecond or concurrently from
+    * different threads never collide (and silently overwrite each other in JainSipJobManager). Safe to call from any thread
+    *
+    * @return the unique id
+    */
+   public static String generateUniqueId()
+   {
+      while (true) {
+         long last = lastUniqueId.get();
+         long next = Math.max(System.currentTimeMillis(), last + 1);
+         if (lastUniqueId.compareAndSet(last, next)) {
+            return Long.toString(next);
+         }
+      }
+   }
+
    public static void validateDeviceParms(HashMap<String, Object> parameters) throws RCException
    {
       validatePreferenceParms(parameters);